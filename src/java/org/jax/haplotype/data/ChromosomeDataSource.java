@@ -69,6 +69,16 @@ public interface ChromosomeDataSource extends Serializable
      */
     public long getDataExtentInBasePairs();
     
+    /**
+     * Get a string that identifies the data behind this data source (for
+     * example file names, sizes and modification times). The string must
+     * change whenever the data changes since it's used to key results that
+     * are cached across restarts
+     * @return
+     *          the data identity
+     */
+    public String getDataIdentity();
+    
     /**
      * Get SDPs for the strain names. {@link StreamDirection#FORWARD} is
      * assumed
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -160,6 +161,32 @@ public class CommaSeparatedChromosomeDataSource implements ChromosomeDataSource
         return this.csvGenotypeUrl;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public String getDataIdentity()
+    {
+        String urlString = this.csvGenotypeUrl.toExternalForm();
+        if("file".equals(this.csvGenotypeUrl.getProtocol()))
+        {
+            try
+            {
+                File csvGenotypeFile = new File(this.csvGenotypeUrl.toURI());
+                return urlString + ":" + csvGenotypeFile.length() + ":" +
+                       csvGenotypeFile.lastModified();
+            }
+            catch(URISyntaxException ex)
+            {
+                LOG.log(Level.WARNING,
+                        "failed to convert URL to a file: " + urlString,
+                        ex);
+            }
+        }
+
+        // we have no way to tell when remote data changes
+        return urlString;
+    }
+
     /**
      * {@inheritDoc}
      */
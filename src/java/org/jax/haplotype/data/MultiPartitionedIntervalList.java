@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.data;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import org.jax.geneticutil.data.MultiPartitionedInterval;
+
+/**
+ * A compact list of {@link MultiPartitionedInterval}s on a single chromosome.
+ * Rather than holding a group array per interval this list holds primitive
+ * interval bounds plus a partition ID from a {@link StrainPartitionPool}.
+ * The {@link MultiPartitionedInterval}s returned by {@link #get(int)} are
+ * created on demand and share the pool's group arrays.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class MultiPartitionedIntervalList
+extends AbstractList<MultiPartitionedInterval>
+implements RandomAccess, Serializable
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = 4392553117024806128L;
+    
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private final int chromosomeNumber;
+    
+    private final StrainPartitionPool partitionPool;
+    
+    private long[] startsInBasePairs = new long[INITIAL_CAPACITY];
+    
+    private long[] extentsInBasePairs = new long[INITIAL_CAPACITY];
+    
+    private int[] partitionIds = new int[INITIAL_CAPACITY];
+    
+    private int size = 0;
+    
+    /**
+     * Constructor
+     * @param chromosomeNumber
+     *          the chromosome that all of the intervals are on
+     * @param partitionPool
+     *          the pool that the partition IDs refer to
+     */
+    public MultiPartitionedIntervalList(
+            int chromosomeNumber,
+            StrainPartitionPool partitionPool)
+    {
+        this.chromosomeNumber = chromosomeNumber;
+        this.partitionPool = partitionPool;
+    }
+    
+    /**
+     * Getter for the chromosome number
+     * @return the chromosome number
+     */
+    public int getChromosomeNumber()
+    {
+        return this.chromosomeNumber;
+    }
+    
+    /**
+     * Getter for the pool that the partition IDs refer to
+     * @return the partition pool
+     */
+    public StrainPartitionPool getPartitionPool()
+    {
+        return this.partitionPool;
+    }
+    
+    /**
+     * Append an interval
+     * @param startInBasePairs
+     *          the interval start
+     * @param extentInBasePairs
+     *          the interval extent
+     * @param partitionId
+     *          the partition ID from {@link #getPartitionPool()}
+     */
+    public void add(
+            long startInBasePairs,
+            long extentInBasePairs,
+            int partitionId)
+    {
+        if(this.size == this.partitionIds.length)
+        {
+            this.setCapacity(Math.max(INITIAL_CAPACITY, this.size * 2));
+        }
+        
+        this.startsInBasePairs[this.size] = startInBasePairs;
+        this.extentsInBasePairs[this.size] = extentInBasePairs;
+        this.partitionIds[this.size] = partitionId;
+        this.size++;
+        this.modCount++;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add(MultiPartitionedInterval interval)
+    {
+        if(interval.getChromosomeNumber() != this.chromosomeNumber)
+        {
+            throw new IllegalArgumentException(
+                    "expected an interval on chromosome " +
+                    this.chromosomeNumber + " but got chromosome " +
+                    interval.getChromosomeNumber());
+        }
+        
+        this.add(
+                interval.getStartInBasePairs(),
+                interval.getExtentInBasePairs(),
+                this.partitionPool.intern(interval.getStrainGroups()));
+        return true;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MultiPartitionedInterval get(int index)
+    {
+        this.checkIndex(index);
+        return new MultiPartitionedInterval(
+                this.chromosomeNumber,
+                this.startsInBasePairs[index],
+                this.extentsInBasePairs[index],
+                this.partitionPool.getPartition(this.partitionIds[index]));
+    }
+    
+    /**
+     * Get the partition ID of the interval at the given index
+     * @param index
+     *          the index
+     * @return
+     *          the partition ID
+     */
+    public int getPartitionId(int index)
+    {
+        this.checkIndex(index);
+        return this.partitionIds[index];
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return this.size;
+    }
+    
+    /**
+     * Shrink the internal arrays down to the list size
+     */
+    public void trimToSize()
+    {
+        if(this.partitionIds.length != this.size)
+        {
+            this.setCapacity(this.size);
+        }
+    }
+    
+    private void setCapacity(int capacity)
+    {
+        capacity = Math.max(capacity, this.size);
+        
+        long[] newStarts = new long[capacity];
+        long[] newExtents = new long[capacity];
+        int[] newIds = new int[capacity];
+        System.arraycopy(this.startsInBasePairs, 0, newStarts, 0, this.size);
+        System.arraycopy(this.extentsInBasePairs, 0, newExtents, 0, this.size);
+        System.arraycopy(this.partitionIds, 0, newIds, 0, this.size);
+        this.startsInBasePairs = newStarts;
+        this.extentsInBasePairs = newExtents;
+        this.partitionIds = newIds;
+    }
+    
+    private void checkIndex(int index)
+    {
+        if(index < 0 || index >= this.size)
+        {
+            throw new IndexOutOfBoundsException(
+                    "Index: " + index + ", Size: " + this.size);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A hash-consed pool of strain partitions. By default every partition is
+ * stored once in a canonical form where groups are numbered in order of their
+ * lowest strain index, so two group arrays that describe the same partition
+ * of the strains get the same ID no matter how their groups were labeled. This
+ * means that partition equality can be tested by comparing IDs.
+ * <br/><br/>
+ * A pool that keeps raw labels instead stores each distinct group array
+ * exactly as it was given. This is for data like HMM states where the group
+ * numbers themselves carry meaning, so arrays such as <code>1,1,2</code> and
+ * <code>2,2,1</code> get different IDs.
+ * <br/><br/>
+ * This class is thread safe.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class StrainPartitionPool implements Serializable
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = -3514400949853958318L;
+    
+    private static final int EMPTY_SLOT = -1;
+    
+    private final boolean keepRawLabels;
+    
+    private final ArrayList<short[]> partitions = new ArrayList<short[]>();
+    
+    private int[] hashTable = newHashTable(64);
+    
+    private short[] canonicalScratch = new short[0];
+    
+    private short[] rawLabelScratch = new short[0];
+    
+    /**
+     * Constructor for a pool that stores partitions in canonical form
+     */
+    public StrainPartitionPool()
+    {
+        this(false);
+    }
+    
+    /**
+     * Constructor
+     * @param keepRawLabels
+     *          if true the group arrays are pooled exactly as given rather
+     *          than being relabeled into canonical form
+     */
+    public StrainPartitionPool(boolean keepRawLabels)
+    {
+        this.keepRawLabels = keepRawLabels;
+    }
+    
+    /**
+     * Determine if this pool keeps the group labels it is given
+     * @return
+     *          true if the labels are kept as is, false if partitions are
+     *          relabeled into canonical form
+     */
+    public boolean getKeepRawLabels()
+    {
+        return this.keepRawLabels;
+    }
+    
+    /**
+     * Intern the given strain groups
+     * @param strainGroups
+     *          the group of each strain. this array is not modified or
+     *          retained by the pool
+     * @return
+     *          the ID of the pooled partition
+     */
+    public synchronized int intern(short[] strainGroups)
+    {
+        short[] pooledGroups = this.keepRawLabels ?
+                strainGroups :
+                this.canonicalize(strainGroups);
+        int hash = Arrays.hashCode(pooledGroups);
+        int mask = this.hashTable.length - 1;
+        int slot = mix(hash) & mask;
+        while(true)
+        {
+            int id = this.hashTable[slot];
+            if(id == EMPTY_SLOT)
+            {
+                // this is a new partition
+                short[] partition = pooledGroups.clone();
+                id = this.partitions.size();
+                this.partitions.add(partition);
+                this.hashTable[slot] = id;
+                
+                if(this.partitions.size() * 2 > this.hashTable.length)
+                {
+                    this.rehash(this.hashTable.length * 2);
+                }
+                
+                return id;
+            }
+            else if(Arrays.equals(this.partitions.get(id), pooledGroups))
+            {
+                return id;
+            }
+            
+            slot = (slot + 1) & mask;
+        }
+    }
+    
+    /**
+     * Get the pooled partition for the given ID
+     * @param partitionId
+     *          the ID returned by {@link #intern(short[])}
+     * @return
+     *          the pooled group array which is shared so it must not be
+     *          modified
+     */
+    public synchronized short[] getPartition(int partitionId)
+    {
+        return this.partitions.get(partitionId);
+    }
+    
+    /**
+     * Get the number of distinct partitions in this pool
+     * @return
+     *          the partition count
+     */
+    public synchronized int size()
+    {
+        return this.partitions.size();
+    }
+    
+    /**
+     * Relabel the groups so that they are numbered in order of their
+     * lowest strain index
+     * @param strainGroups
+     *          the groups to relabel
+     * @return
+     *          the relabeled groups in a scratch array which is only valid
+     *          until the next call
+     */
+    private short[] canonicalize(short[] strainGroups)
+    {
+        int strainCount = strainGroups.length;
+        if(this.canonicalScratch.length != strainCount)
+        {
+            this.canonicalScratch = new short[strainCount];
+        }
+        if(this.rawLabelScratch.length < strainCount)
+        {
+            this.rawLabelScratch = new short[strainCount];
+        }
+        
+        short[] canonicalGroups = this.canonicalScratch;
+        short[] rawLabels = this.rawLabelScratch;
+        short groupCount = 0;
+        for(int strain = 0; strain < strainCount; strain++)
+        {
+            short rawLabel = strainGroups[strain];
+            short canonicalLabel = -1;
+            for(short i = 0; i < groupCount; i++)
+            {
+                if(rawLabels[i] == rawLabel)
+                {
+                    canonicalLabel = i;
+                    break;
+                }
+            }
+            
+            if(canonicalLabel == -1)
+            {
+                canonicalLabel = groupCount;
+                rawLabels[groupCount] = rawLabel;
+                groupCount++;
+            }
+            canonicalGroups[strain] = canonicalLabel;
+        }
+        
+        return canonicalGroups;
+    }
+    
+    /**
+     * Grow the hash table
+     * @param newSize
+     *          the new size which must be a power of 2
+     */
+    private void rehash(int newSize)
+    {
+        int[] newTable = newHashTable(newSize);
+        int mask = newSize - 1;
+        for(int id = 0; id < this.partitions.size(); id++)
+        {
+            int slot = mix(Arrays.hashCode(this.partitions.get(id))) & mask;
+            while(newTable[slot] != EMPTY_SLOT)
+            {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = id;
+        }
+        this.hashTable = newTable;
+    }
+    
+    private static int[] newHashTable(int size)
+    {
+        int[] table = new int[size];
+        Arrays.fill(table, EMPTY_SLOT);
+        return table;
+    }
+    
+    /**
+     * Spread the hash bits since we're masking off the low bits
+     * @param hash
+     *          the hash
+     * @return
+     *          the mixed hash
+     */
+    private static int mix(int hash)
+    {
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        return hash ^ (hash >>> 7) ^ (hash >>> 4);
+    }
+}
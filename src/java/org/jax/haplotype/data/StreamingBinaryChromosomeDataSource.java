@@ -22,6 +22,7 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -186,6 +187,34 @@ public class StreamingBinaryChromosomeDataSource implements ChromosomeDataSource
         return this.chromosomeNumber;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public String getDataIdentity()
+    {
+        StringBuilder identity = new StringBuilder(
+                this.dataDirectory.getAbsolutePath());
+        File[] dataFiles = this.dataDirectory.listFiles();
+        if(dataFiles == null)
+        {
+            // the directory is missing so there's no data to identify
+            return identity.toString();
+        }
+        
+        Arrays.sort(dataFiles);
+        for(File dataFile: dataFiles)
+        {
+            identity.append(':');
+            identity.append(dataFile.getName());
+            identity.append(':');
+            identity.append(dataFile.length());
+            identity.append(':');
+            identity.append(dataFile.lastModified());
+        }
+
+        return identity.toString();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -66,7 +66,7 @@ public class IntervalCompliment
             
             // the 1st interval needs special treatment
             BasePairInterval firstInterval = intervalsToCompliment[0];
-            if(startingPositionBp > firstInterval.getStartInBasePairs())
+            if(startingPositionBp < firstInterval.getStartInBasePairs())
             {
                 long endBp = firstInterval.getStartInBasePairs() - 1;
                 complimentIntervals.add(new SimpleBasePairInterval(
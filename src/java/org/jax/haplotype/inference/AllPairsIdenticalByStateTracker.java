@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Tracks IBS runs for every pair of strains in a single pass over raw
+ * (un-normalized) SDPs. A pair of strains matches at a SNP iff their SDP
+ * bits are equal, so a pair's match state only changes when exactly one of
+ * the two strains flips. At each SNP the flipped strains are found by
+ * XORing against the previous SDP and only the pairs that straddle the
+ * flipped set are visited. Since flipping every strain changes no pair,
+ * the smaller of the flipped set and its complement is used.
+ * <br/><br/>
+ * This class is not thread safe.
+ * @see IdenticalByStateSummaryTracker
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ class AllPairsIdenticalByStateTracker
+{
+    private static final int INITIAL_SEGMENT_CAPACITY = 1024;
+    
+    private final String[] strainNames;
+    
+    private final int strainCount;
+    
+    private final int chromosomeNumber;
+    
+    private final long minimumExtentInSnps;
+    
+    private final long minimumExtentInBasePairs;
+    
+    private final BitSet previousSdp = new BitSet();
+    
+    private final BitSet flippedStrains = new BitSet();
+    
+    private final boolean[] inFlippedSide;
+    
+    private final int[] flippedSide;
+    
+    private final long[] runStartSnpIndices;
+    
+    private final long[] runStartPositions;
+    
+    private int[] segmentPairIndices = new int[INITIAL_SEGMENT_CAPACITY];
+    
+    private long[] segmentStarts = new long[INITIAL_SEGMENT_CAPACITY];
+    
+    private long[] segmentExtents = new long[INITIAL_SEGMENT_CAPACITY];
+    
+    private int segmentCount = 0;
+    
+    private long snpIndex = 0L;
+    
+    private long previousPosition = -1L;
+    
+    /**
+     * Constructor
+     * @param strainNames
+     *          the SDP strain names
+     * @param chromosomeNumber
+     *          the chromosome number
+     * @param minimumExtentInSnps
+     *          the minimum number of consecutive SNPs before we call
+     *          something IBS
+     * @param minimumExtentInBasePairs
+     *          the minimum extent in base pairs before we call something IBS
+     */
+    public AllPairsIdenticalByStateTracker(
+            String[] strainNames,
+            int chromosomeNumber,
+            long minimumExtentInSnps,
+            long minimumExtentInBasePairs)
+    {
+        this.strainNames = strainNames;
+        this.strainCount = strainNames.length;
+        this.chromosomeNumber = chromosomeNumber;
+        this.minimumExtentInSnps = minimumExtentInSnps;
+        this.minimumExtentInBasePairs = minimumExtentInBasePairs;
+        
+        this.inFlippedSide = new boolean[this.strainCount];
+        this.flippedSide = new int[this.strainCount];
+        
+        int pairCount = PairwiseIdenticalByStateRegions.getPairCount(
+                this.strainCount);
+        this.runStartSnpIndices = new long[pairCount];
+        Arrays.fill(this.runStartSnpIndices, -1L);
+        this.runStartPositions = new long[pairCount];
+    }
+    
+    /**
+     * Add the next SNP
+     * @param sdp
+     *          the raw SDP
+     * @param positionInBasePairs
+     *          the SNP position
+     */
+    public void addSdp(BitSet sdp, long positionInBasePairs)
+    {
+        if(this.snpIndex == 0L)
+        {
+            this.startMatchingPairs(sdp, positionInBasePairs);
+        }
+        else
+        {
+            BitSet flipped = this.flippedStrains;
+            flipped.clear();
+            flipped.or(sdp);
+            flipped.xor(this.previousSdp);
+            
+            int flippedCount = 0;
+            for(int i = flipped.nextSetBit(0);
+                i >= 0 && i < this.strainCount;
+                i = flipped.nextSetBit(i + 1))
+            {
+                flippedCount++;
+            }
+            
+            if(flippedCount != 0 && flippedCount != this.strainCount)
+            {
+                // pick the smaller side. the pairs that straddle the flipped
+                // set are exactly the ones that straddle its complement
+                boolean useComplement = flippedCount * 2 > this.strainCount;
+                int sideSize = 0;
+                for(int i = 0; i < this.strainCount; i++)
+                {
+                    boolean onSide = flipped.get(i) != useComplement;
+                    this.inFlippedSide[i] = onSide;
+                    if(onSide)
+                    {
+                        this.flippedSide[sideSize] = i;
+                        sideSize++;
+                    }
+                }
+                
+                for(int sideIndex = 0; sideIndex < sideSize; sideIndex++)
+                {
+                    int strain1 = this.flippedSide[sideIndex];
+                    for(int strain2 = 0; strain2 < this.strainCount; strain2++)
+                    {
+                        if(!this.inFlippedSide[strain2])
+                        {
+                            this.togglePair(
+                                    PairwiseIdenticalByStateRegions.getPairIndex(
+                                            this.strainCount,
+                                            strain1,
+                                            strain2),
+                                    positionInBasePairs);
+                        }
+                    }
+                }
+            }
+            
+            this.previousSdp.xor(flipped);
+        }
+        
+        this.snpIndex++;
+        this.previousPosition = positionInBasePairs;
+    }
+    
+    /**
+     * Close out any open runs and build the pair indexed segments
+     * @param startInBasePairs
+     *          the start of the scanned region
+     * @param extentInBasePairs
+     *          the extent of the scanned region
+     * @return
+     *          the segments
+     */
+    public PairwiseIdenticalByStateRegions finish(
+            long startInBasePairs,
+            long extentInBasePairs)
+    {
+        this.endOpenRuns();
+        
+        int pairCount = this.runStartSnpIndices.length;
+        // segments were added in end order. a stable counting sort on the
+        // pair index groups them by pair while keeping chromosome order
+        int[] segmentOffsets = new int[pairCount + 1];
+        for(int i = 0; i < this.segmentCount; i++)
+        {
+            segmentOffsets[this.segmentPairIndices[i] + 1]++;
+        }
+        for(int pairIndex = 0; pairIndex < pairCount; pairIndex++)
+        {
+            segmentOffsets[pairIndex + 1] += segmentOffsets[pairIndex];
+        }
+        
+        int[] nextSlots = new int[pairCount];
+        System.arraycopy(segmentOffsets, 0, nextSlots, 0, pairCount);
+        long[] sortedStarts = new long[this.segmentCount];
+        long[] sortedExtents = new long[this.segmentCount];
+        for(int i = 0; i < this.segmentCount; i++)
+        {
+            int slot = nextSlots[this.segmentPairIndices[i]]++;
+            sortedStarts[slot] = this.segmentStarts[i];
+            sortedExtents[slot] = this.segmentExtents[i];
+        }
+        
+        return new PairwiseIdenticalByStateRegions(
+                this.strainNames,
+                this.chromosomeNumber,
+                startInBasePairs,
+                extentInBasePairs,
+                segmentOffsets,
+                sortedStarts,
+                sortedExtents);
+    }
+    
+    /**
+     * End every run that is still open. Called once the last SNP has been
+     * added
+     */
+    void endOpenRuns()
+    {
+        int pairCount = this.runStartSnpIndices.length;
+        for(int pairIndex = 0; pairIndex < pairCount; pairIndex++)
+        {
+            if(this.runStartSnpIndices[pairIndex] != -1L)
+            {
+                this.endRun(pairIndex);
+            }
+        }
+    }
+    
+    /**
+     * Getter for the strain names
+     * @return the strain names
+     */
+    public String[] getStrainNames()
+    {
+        return this.strainNames;
+    }
+    
+    /**
+     * Called for every run that passes the minimum extent constraints. The
+     * default implementation records the segment so that {@link #finish(long, long)}
+     * can build the pair indexed segment arrays. Subclasses that only need
+     * to aggregate can override this to avoid storing segments
+     * @param pairIndex
+     *          the pair
+     * @param startInBasePairs
+     *          the segment start
+     * @param extentInBasePairs
+     *          the segment extent
+     */
+    void segmentFound(int pairIndex, long startInBasePairs, long extentInBasePairs)
+    {
+        if(this.segmentCount == this.segmentPairIndices.length)
+        {
+            this.growSegments();
+        }
+        
+        this.segmentPairIndices[this.segmentCount] = pairIndex;
+        this.segmentStarts[this.segmentCount] = startInBasePairs;
+        this.segmentExtents[this.segmentCount] = extentInBasePairs;
+        this.segmentCount++;
+    }
+    
+    /**
+     * Start a run for every pair that matches at the first SNP
+     * @param sdp
+     *          the first SDP
+     * @param positionInBasePairs
+     *          the first SNP position
+     */
+    private void startMatchingPairs(BitSet sdp, long positionInBasePairs)
+    {
+        int pairIndex = 0;
+        for(int strain1 = 0; strain1 < this.strainCount; strain1++)
+        {
+            boolean allele1 = sdp.get(strain1);
+            for(int strain2 = strain1 + 1; strain2 < this.strainCount; strain2++)
+            {
+                if(allele1 == sdp.get(strain2))
+                {
+                    this.runStartSnpIndices[pairIndex] = this.snpIndex;
+                    this.runStartPositions[pairIndex] = positionInBasePairs;
+                }
+                pairIndex++;
+            }
+        }
+        
+        this.previousSdp.clear();
+        this.previousSdp.or(sdp);
+    }
+    
+    /**
+     * Toggle the match state of the given pair
+     * @param pairIndex
+     *          the pair
+     * @param positionInBasePairs
+     *          the position of the current SNP
+     */
+    private void togglePair(int pairIndex, long positionInBasePairs)
+    {
+        if(this.runStartSnpIndices[pairIndex] == -1L)
+        {
+            this.runStartSnpIndices[pairIndex] = this.snpIndex;
+            this.runStartPositions[pairIndex] = positionInBasePairs;
+        }
+        else
+        {
+            this.endRun(pairIndex);
+        }
+    }
+    
+    /**
+     * End the run for the given pair at the previous SNP
+     * @param pairIndex
+     *          the pair
+     */
+    private void endRun(int pairIndex)
+    {
+        long runStartPosition = this.runStartPositions[pairIndex];
+        long extentInSnps = this.snpIndex - this.runStartSnpIndices[pairIndex];
+        long extentInBasePairs = 1L + this.previousPosition - runStartPosition;
+        if(extentInBasePairs >= this.minimumExtentInBasePairs &&
+           extentInSnps >= this.minimumExtentInSnps)
+        {
+            this.segmentFound(pairIndex, runStartPosition, extentInBasePairs);
+        }
+        
+        this.runStartSnpIndices[pairIndex] = -1L;
+    }
+    
+    private void growSegments()
+    {
+        int newCapacity = this.segmentPairIndices.length * 2;
+        int[] newPairIndices = new int[newCapacity];
+        long[] newStarts = new long[newCapacity];
+        long[] newExtents = new long[newCapacity];
+        System.arraycopy(this.segmentPairIndices, 0, newPairIndices, 0, this.segmentCount);
+        System.arraycopy(this.segmentStarts, 0, newStarts, 0, this.segmentCount);
+        System.arraycopy(this.segmentExtents, 0, newExtents, 0, this.segmentCount);
+        this.segmentPairIndices = newPairIndices;
+        this.segmentStarts = newStarts;
+        this.segmentExtents = newExtents;
+    }
+}
@@ -17,24 +17,21 @@
 
 package org.jax.haplotype.inference;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
-import org.apache.commons.codec.EncoderException;
-import org.apache.commons.codec.net.URLCodec;
 import org.jax.geneticutil.data.BasePairInterval;
 import org.jax.geneticutil.data.SnpIntervalList;
 import org.jax.geneticutil.data.SnpIntervalListGroup;
@@ -43,6 +40,7 @@ import org.jax.haplotype.data.GenomeDataSource;
 import org.jax.haplotype.expressions.IntersectionIntervalExpression;
 import org.jax.haplotype.expressions.IntervalCompliment;
 import org.jax.haplotype.expressions.UnionIntervalExpression;
+import org.jax.haplotype.io.ResultCacheCodec;
 import org.jax.haplotype.io.SdpInputStream;
 import org.jax.haplotype.io.SnpPositionInputStream;
 import org.jax.util.io.IllegalFormatException;
@@ -63,20 +61,42 @@ public class CachingIdenticalByStateDataManager
     private final CachingGenomeDataManager genomeDataManager;
     
     /**
-     * used for encoding arbitrary strings as safe file names
+     * part of every persistent cache key. this must be incremented whenever
+     * a change to the IBS scanning changes its results
      */
-    protected static final URLCodec URL_CODEC = new URLCodec();
+    private static final int CACHE_ALGORITHM_VERSION = 1;
+    
+    /**
+     * the cache files that survive restarts
+     */
+    private final PersistentResultCache resultCache =
+        new PersistentResultCache(PersistentResultCache.getDefaultDirectory());
+    
+    /**
+     * the first level cache tier (shared with the other caching managers)
+     * which we key on cache file. the disk files are the second level
+     */
+    private final WeightedLruCache<Object, Object> memoryCache =
+        ResultMemoryCache.getSharedCache();
+    
+    /**
+     * in flight IBS interval list calculations keyed on cache file. the
+     * thread that registers an entry computes it and everyone else waits
+     */
+    private final ConcurrentMap<File, PendingCacheResult<SnpIntervalList>> pendingIntervalLists =
+        new ConcurrentHashMap<File, PendingCacheResult<SnpIntervalList>>();
+    
+    /**
+     * in flight all pairs calculations keyed on cache file
+     */
+    private final ConcurrentMap<File, PendingCacheResult<PairwiseIdenticalByStateRegions>> pendingPairwiseRegions =
+        new ConcurrentHashMap<File, PendingCacheResult<PairwiseIdenticalByStateRegions>>();
     
     /**
      * Used to join strain names
      */
     protected static final String CONCATINATION_STRING = "&";
     
-    private static final String OR_REGEX = Pattern.quote(" or ");
-    private static final String AND_REGEX = Pattern.quote(" and ");
-    private static final String EQUALS_REGEX = Pattern.quote("=");
-    private static final String NOT_EQUALS_REGEX = Pattern.quote("\u2260");
-    
     /**
      * @param genomeDataManager
      */
@@ -107,7 +127,23 @@ public class CachingIdenticalByStateDataManager
     }
     
     /**
-     * Evaluate the strain comparison expression
+     * Get the in-memory cache that sits in front of the cache files. Its
+     * weights are estimated heap usage in bytes so
+     * {@link WeightedLruCache#setMaximumWeight(long)} sets the maximum heap
+     * that cached results may use. The cache and its budget are shared
+     * with {@link CachingPhylogenyDataManager}
+     * @return
+     *          the memory cache
+     */
+    public WeightedLruCache<Object, Object> getMemoryCache()
+    {
+        return this.memoryCache;
+    }
+    
+    /**
+     * Evaluate the strain comparison expression. Every comparison in the
+     * expression is derived from a single pass over the SDPs of the strains
+     * that the expression refers to
      * @param genomeName
      *          the genome
      * @param strainComparisonExpression
@@ -136,124 +172,240 @@ public class CachingIdenticalByStateDataManager
         
         try
         {
-            // split into OR groups
-            String[] orGroups = strainComparisonExpression.split(OR_REGEX);
-            
-            long intervalListStartBp = -1;
-            long intervalListExtentBp = -1;
+            // parse everything up front so that we know every strain that
+            // the expression refers to
+            CompiledStrainComparison compiledExpression =
+                CompiledStrainComparison.compile(strainComparisonExpression);
+            String[] strainNames = compiledExpression.getStrainNames();
             
-            BasePairInterval[] cumulativeOrIntervals = null;
-            for(String orGroup: orGroups)
+            // a single pass over the SDPs gives us every pairwise
+            // comparison that the expression needs
+            PairwiseIdenticalByStateRegions pairwiseRegions = null;
+            if(strainNames.length >= 2)
             {
-                if(LOG.isLoggable(Level.FINE))
+                pairwiseRegions = this.findAllPairsIdenticalByStateRegions(
+                        genomeName,
+                        strainNames,
+                        chromosomeNumber,
+                        minimumExtentInSnps,
+                        minimumExtentInBasePairs);
+                if(pairwiseRegions == null)
                 {
-                    LOG.fine("OR group: " + orGroup);
+                    throw new IOException(
+                            "failed to find IBS regions for: " +
+                            strainComparisonExpression);
                 }
-                
-                BasePairInterval[] cumulativeAndIntervals = null;
-                
-                // split into strain comparisons
-                String[] strainComparisons = orGroup.split(AND_REGEX);
-                for(String strainComparison: strainComparisons)
+            }
+            
+            // the pairwise regions don't pair a strain with itself so those
+            // comparisons fall back on the single comparison
+            Map<String, SnpIntervalList> sameStrainRegions =
+                new HashMap<String, SnpIntervalList>();
+            int orGroupCount = compiledExpression.getOrGroupCount();
+            for(int orIndex = 0; orIndex < orGroupCount; orIndex++)
+            {
+                int comparisonCount = compiledExpression.getComparisonCount(orIndex);
+                for(int andIndex = 0; andIndex < comparisonCount; andIndex++)
                 {
-                    if(LOG.isLoggable(Level.FINE))
-                    {
-                        LOG.fine("strain comparison: " + strainComparison);
-                    }
-                    
-                    boolean calcNotEquals = false;
-                    String[] strains = strainComparison.split(EQUALS_REGEX);
-                    if(strains.length == 1)
-                    {
-                        calcNotEquals = true;
-                        strains = strainComparison.split(NOT_EQUALS_REGEX);
-                    }
-                    
-                    if(strains.length != 2)
-                    {
-                        throw new IllegalFormatException(
-                                "bad strain comparison: " + strainComparison);
-                    }
-                    
-                    String strain1 = strains[0];
-                    String strain2 = strains[1];
-                    if(LOG.isLoggable(Level.FINE))
+                    String strain1 = compiledExpression.getComparisonStrainName1(
+                            orIndex,
+                            andIndex);
+                    String strain2 = compiledExpression.getComparisonStrainName2(
+                            orIndex,
+                            andIndex);
+                    if(strain1.equals(strain2) && !sameStrainRegions.containsKey(strain1))
                     {
-                        if(calcNotEquals)
-                        {
-                            LOG.fine("calculating not equals for strains:");
-                        }
-                        else
-                        {
-                            LOG.fine("calculating equals for strains:");
-                        }
-                        
-                        LOG.fine("strain 1: " + strain1);
-                        LOG.fine("strain 2: " + strain2);
+                        SnpIntervalListGroup currGroup = this.findIdenticalByStateRegions(
+                                genomeName,
+                                strain1,
+                                new String[] {strain2},
+                                chromosomeNumber,
+                                minimumExtentInSnps,
+                                minimumExtentInBasePairs);
+                        sameStrainRegions.put(strain1, new SnpIntervalList(
+                                currGroup.getSnpBlocksMap().values().iterator().next(),
+                                currGroup.getStartInBasePairs(),
+                                currGroup.getExtentInBasePairs()));
                     }
-                    
-                    SnpIntervalListGroup currGroup = this.findIdenticalByStateRegions(
-                            genomeName,
+                }
+            }
+            
+            SnpIntervalList combinedIntervals = combineComparisonRegions(
+                    compiledExpression,
+                    pairwiseRegions,
+                    sameStrainRegions,
+                    chromosomeNumber);
+            if(combinedIntervals == null)
+            {
+                LOG.severe(
+                        "no intervals to calculate: " +
+                        strainComparisonExpression);
+            }
+            return combinedIntervals;
+        }
+        catch(Exception ex)
+        {
+            LOG.log(Level.SEVERE,
+                    "failed to evaluate strain comparison: " +
+                    strainComparisonExpression,
+                    ex);
+            return null;
+        }
+    }
+    
+    /**
+     * Combine the IBS regions of every comparison in the expression at base
+     * pair resolution: "not equals" comparisons take the compliment of the
+     * IBS regions, comparisons within an OR group are intersected and the
+     * OR groups are unioned
+     * @param compiledExpression
+     *          the parsed expression
+     * @param pairwiseRegions
+     *          the IBS regions of every pair of distinct strains in the
+     *          expression (can be null if there are no such pairs)
+     * @param sameStrainRegions
+     *          the IBS regions for comparisons of a strain with itself keyed
+     *          on strain name
+     * @param chromosomeNumber
+     *          the chromosome number
+     * @return
+     *          the intervals where the expression holds or null if the
+     *          expression has no comparisons
+     */
+    /*package protected*/ static SnpIntervalList combineComparisonRegions(
+            CompiledStrainComparison compiledExpression,
+            PairwiseIdenticalByStateRegions pairwiseRegions,
+            Map<String, SnpIntervalList> sameStrainRegions,
+            int chromosomeNumber)
+    {
+        long intervalListStartBp = -1;
+        long intervalListExtentBp = -1;
+        
+        BasePairInterval[] cumulativeOrIntervals = null;
+        int orGroupCount = compiledExpression.getOrGroupCount();
+        for(int orIndex = 0; orIndex < orGroupCount; orIndex++)
+        {
+            BasePairInterval[] cumulativeAndIntervals = null;
+            int comparisonCount = compiledExpression.getComparisonCount(orIndex);
+            for(int andIndex = 0; andIndex < comparisonCount; andIndex++)
+            {
+                String strain1 = compiledExpression.getComparisonStrainName1(
+                        orIndex,
+                        andIndex);
+                String strain2 = compiledExpression.getComparisonStrainName2(
+                        orIndex,
+                        andIndex);
+                
+                final SnpIntervalList currIntervalList;
+                if(strain1.equals(strain2))
+                {
+                    currIntervalList = sameStrainRegions.get(strain1);
+                }
+                else
+                {
+                    currIntervalList = pairwiseRegions.getSnpIntervalList(
                             strain1,
-                            new String[] {strain2},
+                            strain2);
+                }
+                
+                List<BasePairInterval> snpBlockList =
+                    currIntervalList.getSnpBlocks();
+                intervalListStartBp = currIntervalList.getStartInBasePairs();
+                intervalListExtentBp = currIntervalList.getExtentInBasePairs();
+                
+                BasePairInterval[] currIntervals = snpBlockList.toArray(
+                        new BasePairInterval[snpBlockList.size()]);
+                if(compiledExpression.isNotEqualsComparison(orIndex, andIndex))
+                {
+                    currIntervals = IntervalCompliment.calculateCompliment(
+                            currIntervals,
                             chromosomeNumber,
-                            minimumExtentInSnps,
-                            minimumExtentInBasePairs);
-                    List<BasePairInterval> snpBlockList =
-                        currGroup.getSnpBlocksMap().values().iterator().next();
-                    intervalListStartBp = currGroup.getStartInBasePairs();
-                    intervalListExtentBp = currGroup.getExtentInBasePairs();
-                    
-                    BasePairInterval[] currIntervals = snpBlockList.toArray(
-                            new BasePairInterval[snpBlockList.size()]);
-                    if(calcNotEquals)
-                    {
-                        currIntervals = IntervalCompliment.calculateCompliment(
-                                currIntervals,
-                                chromosomeNumber,
-                                intervalListStartBp,
-                                intervalListExtentBp);
-                    }
-                    
-                    if(cumulativeAndIntervals == null)
-                    {
-                        cumulativeAndIntervals = currIntervals;
-                    }
-                    else
-                    {
-                        cumulativeAndIntervals = IntersectionIntervalExpression.intersect(
-                                cumulativeAndIntervals,
-                                currIntervals);
-                    }
+                            intervalListStartBp,
+                            intervalListExtentBp);
                 }
                 
-                if(cumulativeOrIntervals == null)
+                if(cumulativeAndIntervals == null)
                 {
-                    cumulativeOrIntervals = cumulativeAndIntervals;
+                    cumulativeAndIntervals = currIntervals;
                 }
                 else
                 {
-                    cumulativeOrIntervals = UnionIntervalExpression.calculateUnion(
-                            cumulativeOrIntervals,
-                            cumulativeAndIntervals);
+                    cumulativeAndIntervals = IntersectionIntervalExpression.intersect(
+                            cumulativeAndIntervals,
+                            currIntervals);
                 }
             }
             
             if(cumulativeOrIntervals == null)
             {
-                LOG.severe(
-                        "no intervals to calculate: " +
-                        strainComparisonExpression);
-                return null;
+                cumulativeOrIntervals = cumulativeAndIntervals;
             }
             else
             {
-                return new SnpIntervalList(
-                        Arrays.asList(cumulativeOrIntervals),
-                        intervalListStartBp,
-                        intervalListExtentBp);
+                cumulativeOrIntervals = UnionIntervalExpression.calculateUnion(
+                        cumulativeOrIntervals,
+                        cumulativeAndIntervals);
             }
         }
+        
+        if(cumulativeOrIntervals == null)
+        {
+            return null;
+        }
+        else
+        {
+            return new SnpIntervalList(
+                    Arrays.asList(cumulativeOrIntervals),
+                    intervalListStartBp,
+                    intervalListExtentBp);
+        }
+    }
+    
+    /**
+     * Evaluate the strain comparison expression as a compiled bitwise
+     * circuit in a single pass over the SNPs. This is faster than
+     * {@link #evaluateStrainComparison(String, String, int, int, long)} for
+     * expressions with many comparisons or fragmented results, but the
+     * result is at SNP resolution and the minimum extents apply to the
+     * expression as a whole (see {@link CompiledStrainComparison})
+     * @param genomeName
+     *          the genome
+     * @param strainComparisonExpression
+     *          the expression
+     * @param chromosomeNumber
+     *          the chromosome number
+     * @param minimumExtentInSnps
+     *          the minimum extent in snps
+     * @param minimumExtentInBasePairs
+     *          the minimum extent in base pairs
+     * @return
+     *          the list of intervals where the given expression holds
+     *          true for the given constraints
+     */
+    public SnpIntervalList evaluateCompiledStrainComparison(
+            String genomeName,
+            String strainComparisonExpression,
+            int chromosomeNumber,
+            int minimumExtentInSnps,
+            long minimumExtentInBasePairs)
+    {
+        try
+        {
+            CompiledStrainComparison compiledExpression =
+                CompiledStrainComparison.compile(strainComparisonExpression);
+            
+            GenomeDataSource genomeDataSource = this.genomeDataManager.getGenomeDataMap().get(
+                    genomeName);
+            ChromosomeDataSource chromosomeDataSource =
+                genomeDataSource.getChromosomeDataSources().get(
+                        chromosomeNumber);
+            return compiledExpression.evaluate(
+                    chromosomeDataSource.getSdpInputStream(
+                            compiledExpression.getStrainNames()),
+                    chromosomeDataSource.getSnpPositionInputStream(),
+                    minimumExtentInSnps,
+                    minimumExtentInBasePairs);
+        }
         catch(Exception ex)
         {
             LOG.log(Level.SEVERE,
@@ -306,61 +458,101 @@ public class CachingIdenticalByStateDataManager
                     "calling caching findIdenticalByStateRegions. " +
                     "# comparison strains: " + comparisonStrains.length);
             
+            GenomeDataSource genomeDataSource = this.genomeDataManager.getGenomeDataMap().get(
+                    genomeName);
+            ChromosomeDataSource chromosomeDataSource =
+                genomeDataSource.getChromosomeDataSources().get(
+                        chromosomeNumber);
+            String dataIdentity = chromosomeDataSource.getDataIdentity();
+            
+            // claim every cache key that nobody else is working on. keys
+            // that are already claimed are waited on after we've finished
+            // our own so that two requests can never wait on each other
             Map<String, SnpIntervalList> snpBlockListsMap =
                 new HashMap<String, SnpIntervalList>();
-            synchronized(CachingIdenticalByStateDataManager.class)
+            Map<String, PendingCacheResult<SnpIntervalList>> ownedResults =
+                new HashMap<String, PendingCacheResult<SnpIntervalList>>();
+            Map<String, PendingCacheResult<SnpIntervalList>> awaitedResults =
+                new HashMap<String, PendingCacheResult<SnpIntervalList>>();
+            for(int i = 0; i < comparisonStrains.length; i++)
+            {
+                File uniqueFileCache = getCacheFile(
+                        genomeName,
+                        referenceStrain,
+                        comparisonStrains[i],
+                        chromosomeNumber,
+                        dataIdentity,
+                        minimumExtentInSnps,
+                        minimumExtentInBasePairs);
+                SnpIntervalList memoryResult =
+                    (SnpIntervalList)this.memoryCache.get(uniqueFileCache);
+                if(memoryResult != null)
+                {
+                    snpBlockListsMap.put(comparisonStrains[i], memoryResult);
+                    continue;
+                }
+                
+                PendingCacheResult<SnpIntervalList> newResult =
+                    new PendingCacheResult<SnpIntervalList>(uniqueFileCache);
+                PendingCacheResult<SnpIntervalList> existingResult =
+                    this.pendingIntervalLists.putIfAbsent(
+                            uniqueFileCache,
+                            newResult);
+                if(existingResult == null)
+                {
+                    ownedResults.put(comparisonStrains[i], newResult);
+                }
+                else if(!ownedResults.containsKey(comparisonStrains[i]))
+                {
+                    awaitedResults.put(comparisonStrains[i], existingResult);
+                }
+            }
+            
+            try
             {
                 Map<String, File> comparisonStrainsFileMap =
                     new HashMap<String, File>();
-                for(int i = 0; i < comparisonStrains.length; i++)
+                for(Entry<String, PendingCacheResult<SnpIntervalList>> ownedEntry:
+                    ownedResults.entrySet())
                 {
-                    File uniqueFileCache = getCacheFile(
-                            genomeName,
-                            referenceStrain,
-                            comparisonStrains[i],
-                            chromosomeNumber,
-                            minimumExtentInSnps,
-                            minimumExtentInBasePairs);
+                    PendingCacheResult<SnpIntervalList> ownedResult =
+                        ownedEntry.getValue();
+                    File uniqueFileCache = ownedResult.getCacheFile();
                     
-                    // if the cache doesn't exist, create it
-                    if(uniqueFileCache.createNewFile())
-                    {
-                        uniqueFileCache.deleteOnExit();
-                        comparisonStrainsFileMap.put(
-                                comparisonStrains[i],
-                                uniqueFileCache);
-                    }
-                    else
+                    // owning the key guarantees that an existing file is
+                    // complete
+                    SnpIntervalList snpIntervalList = null;
+                    if(uniqueFileCache.exists())
                     {
                         LOG.fine(
                                 "loading cache: " +
                                 uniqueFileCache.getAbsolutePath());
-                        ObjectInputStream objectInput = new ObjectInputStream(
-                                new BufferedInputStream(new FileInputStream(uniqueFileCache)));
+                        snpIntervalList = readCachedIntervalList(uniqueFileCache);
+                    }
+                    
+                    if(snpIntervalList != null)
+                    {
                         snpBlockListsMap.put(
-                                comparisonStrains[i],
-                                (SnpIntervalList)objectInput.readObject());
+                                ownedEntry.getKey(),
+                                snpIntervalList);
+                        this.completePendingResult(
+                                this.pendingIntervalLists,
+                                ownedResult,
+                                snpIntervalList);
+                    }
+                    else
+                    {
+                        comparisonStrainsFileMap.put(
+                                ownedEntry.getKey(),
+                                uniqueFileCache);
                     }
                 }
                 
                 if(!comparisonStrainsFileMap.isEmpty())
                 {
-                    GenomeDataSource genomeDataSource = this.genomeDataManager.getGenomeDataMap().get(
-                            genomeName);
-                    ChromosomeDataSource chromosomeDataSource =
-                        genomeDataSource.getChromosomeDataSources().get(
-                                chromosomeNumber);
-                    
                     String[] comparisonStrainsToCalculate =
                         comparisonStrainsFileMap.keySet().toArray(
                                 new String[comparisonStrainsFileMap.size()]);
-                    for(int i = 0; i < comparisonStrainsToCalculate.length; i++)
-                    {
-                        if(comparisonStrainsToCalculate[i] == null)
-                        {
-                            throw new NullPointerException();
-                        }
-                    }
                     SdpInputStream sdpStream = chromosomeDataSource.getSdpInputStream(
                             referenceStrain,
                             comparisonStrainsToCalculate);
@@ -371,15 +563,23 @@ public class CachingIdenticalByStateDataManager
                             snpPositionStream,
                             minimumExtentInSnps,
                             minimumExtentInBasePairs);
+                    if(newIbsRegions == null)
+                    {
+                        // the finder has already logged the cause
+                        throw new IOException(
+                                "failed to find IBS regions for " + referenceStrain);
+                    }
+                    
                     Map<String, List<BasePairInterval>> newIbsIntervalLists =
                         newIbsRegions.getSnpBlocksMap();
                     for(Entry<String, List<BasePairInterval>> intervalListEntry:
                         newIbsIntervalLists.entrySet())
                     {
-                        System.out.println("Strain Key: " + intervalListEntry.getKey());
+                        LOG.fine("Strain Key: " + intervalListEntry.getKey());
                         
                         SnpIntervalList snpIntervalList = new SnpIntervalList(
-                                intervalListEntry.getValue(),
+                                Collections.unmodifiableList(
+                                        intervalListEntry.getValue()),
                                 newIbsRegions.getStartInBasePairs(),
                                 newIbsRegions.getExtentInBasePairs());
                         
@@ -395,15 +595,58 @@ public class CachingIdenticalByStateDataManager
                                 strainName,
                                 snpIntervalList);
                         
-                        ObjectOutputStream objectOutput = new ObjectOutputStream(
-                                new BufferedOutputStream(new FileOutputStream(uniqueFileCache)));
-                        objectOutput.writeObject(snpIntervalList);
-                        objectOutput.flush();
-                        objectOutput.close();
+                        File temporaryFile =
+                            this.resultCache.createTemporaryFile(uniqueFileCache);
+                        boolean committed = false;
+                        try
+                        {
+                            ResultCacheCodec.writeSnpIntervalList(
+                                    temporaryFile,
+                                    snpIntervalList);
+                            this.resultCache.commitTemporaryFile(
+                                    temporaryFile,
+                                    uniqueFileCache);
+                            committed = true;
+                        }
+                        finally
+                        {
+                            if(!committed)
+                            {
+                                temporaryFile.delete();
+                            }
+                        }
+                        
+                        this.completePendingResult(
+                                this.pendingIntervalLists,
+                                ownedResults.get(strainName),
+                                snpIntervalList);
+                    }
+                }
+            }
+            finally
+            {
+                // anything we claimed but didn't complete has failed
+                for(PendingCacheResult<SnpIntervalList> ownedResult:
+                    ownedResults.values())
+                {
+                    if(!ownedResult.isDone())
+                    {
+                        this.pendingIntervalLists.remove(
+                                ownedResult.getCacheFile(),
+                                ownedResult);
+                        ownedResult.fail();
                     }
                 }
             }
             
+            for(Entry<String, PendingCacheResult<SnpIntervalList>> awaitedEntry:
+                awaitedResults.entrySet())
+            {
+                snpBlockListsMap.put(
+                        awaitedEntry.getKey(),
+                        awaitedEntry.getValue().get());
+            }
+            
             return new SnpIntervalListGroup(
                     snpBlockListsMap);
         }
@@ -416,6 +659,283 @@ public class CachingIdenticalByStateDataManager
         }
     }
 
+    /**
+     * Find the IBS regions between every pair of the given strains. All of
+     * the pairs are calculated in a single pass over the chromosome's SDPs
+     * and cached as a single file per strain set
+     * @param genomeName
+     *          the name of the genome that we want to use
+     * @param strainNames
+     *          the strains to compare
+     * @param chromosomeNumber
+     *          the chromosome number (starting with 1)
+     * @param minimumExtentInSnps
+     *          the minimum IBD extent in SNPs
+     * @param minimumExtentInBasePairs
+     *          the minimum IBD extent in base pairs
+     * @return
+     *          the pair indexed IBS regions. the strains are in sorted
+     *          order
+     */
+    public PairwiseIdenticalByStateRegions findAllPairsIdenticalByStateRegions(
+            String genomeName,
+            String[] strainNames,
+            int chromosomeNumber,
+            int minimumExtentInSnps,
+            long minimumExtentInBasePairs)
+    {
+        try
+        {
+            String[] sortedStrainNames = strainNames.clone();
+            Arrays.sort(sortedStrainNames);
+            
+            GenomeDataSource genomeDataSource = this.genomeDataManager.getGenomeDataMap().get(
+                    genomeName);
+            ChromosomeDataSource chromosomeDataSource =
+                genomeDataSource.getChromosomeDataSources().get(
+                        chromosomeNumber);
+            
+            StringBuilder cacheKey = new StringBuilder(genomeName);
+            for(String strainName: sortedStrainNames)
+            {
+                cacheKey.append(CONCATINATION_STRING);
+                cacheKey.append(strainName);
+            }
+            cacheKey.append(CONCATINATION_STRING);
+            cacheKey.append(chromosomeNumber);
+            cacheKey.append(CONCATINATION_STRING);
+            cacheKey.append(minimumExtentInSnps);
+            cacheKey.append(CONCATINATION_STRING);
+            cacheKey.append(minimumExtentInBasePairs);
+            cacheKey.append(CONCATINATION_STRING);
+            cacheKey.append(chromosomeDataSource.getDataIdentity());
+            cacheKey.append(CONCATINATION_STRING);
+            cacheKey.append(CACHE_ALGORITHM_VERSION);
+            
+            File uniqueFileCache = this.resultCache.getCacheFile(
+                    "all-pairs-ibs",
+                    cacheKey.toString());
+            
+            PairwiseIdenticalByStateRegions memoryResult =
+                (PairwiseIdenticalByStateRegions)this.memoryCache.get(
+                        uniqueFileCache);
+            if(memoryResult != null)
+            {
+                return memoryResult;
+            }
+            
+            PendingCacheResult<PairwiseIdenticalByStateRegions> newResult =
+                new PendingCacheResult<PairwiseIdenticalByStateRegions>(
+                        uniqueFileCache);
+            PendingCacheResult<PairwiseIdenticalByStateRegions> existingResult =
+                this.pendingPairwiseRegions.putIfAbsent(
+                        uniqueFileCache,
+                        newResult);
+            if(existingResult != null)
+            {
+                return existingResult.get();
+            }
+            
+            try
+            {
+                PairwiseIdenticalByStateRegions pairwiseRegions = null;
+                if(uniqueFileCache.exists())
+                {
+                    LOG.fine(
+                            "loading cache: " +
+                            uniqueFileCache.getAbsolutePath());
+                    pairwiseRegions =
+                        readCachedPairwiseRegions(uniqueFileCache);
+                }
+                
+                if(pairwiseRegions == null)
+                {
+                    ScanningIdenticalByStateFinder scanningIdenticalByStateFinder =
+                        new ScanningIdenticalByStateFinder();
+                    pairwiseRegions =
+                        scanningIdenticalByStateFinder.findAllPairsIdenticalByStateRegions(
+                                chromosomeDataSource.getSdpInputStream(sortedStrainNames),
+                                chromosomeDataSource.getSnpPositionInputStream(),
+                                minimumExtentInSnps,
+                                minimumExtentInBasePairs);
+                    if(pairwiseRegions == null)
+                    {
+                        // the finder has already logged the cause
+                        throw new IOException(
+                                "failed to find all pairs IBS regions");
+                    }
+                    
+                    File temporaryFile =
+                        this.resultCache.createTemporaryFile(uniqueFileCache);
+                    boolean committed = false;
+                    try
+                    {
+                        ResultCacheCodec.writePairwiseIdenticalByStateRegions(
+                                temporaryFile,
+                                pairwiseRegions);
+                        this.resultCache.commitTemporaryFile(
+                                temporaryFile,
+                                uniqueFileCache);
+                        committed = true;
+                    }
+                    finally
+                    {
+                        if(!committed)
+                        {
+                            temporaryFile.delete();
+                        }
+                    }
+                }
+                
+                this.completePendingResult(
+                        this.pendingPairwiseRegions,
+                        newResult,
+                        pairwiseRegions);
+                return pairwiseRegions;
+            }
+            finally
+            {
+                if(!newResult.isDone())
+                {
+                    this.pendingPairwiseRegions.remove(uniqueFileCache, newResult);
+                    newResult.fail();
+                }
+            }
+        }
+        catch(Exception ex)
+        {
+            LOG.log(Level.SEVERE,
+                    "Failed to cache all pairs IBS",
+                    ex);
+            return null;
+        }
+    }
+    
+    /**
+     * Publish a result to everyone waiting on it. The pending entry is
+     * removed first so that later requests go straight to the cache file
+     * @param <T>
+     *          the result type
+     * @param pendingResults
+     *          the map that the pending result was registered in
+     * @param pendingResult
+     *          the pending result
+     * @param result
+     *          the value
+     */
+    private <T> void completePendingResult(
+            ConcurrentMap<File, PendingCacheResult<T>> pendingResults,
+            PendingCacheResult<T> pendingResult,
+            T result)
+    {
+        this.memoryCache.put(
+                pendingResult.getCacheFile(),
+                result,
+                estimateHeapUsage(result));
+        pendingResults.remove(pendingResult.getCacheFile(), pendingResult);
+        pendingResult.complete(result);
+    }
+    
+    /**
+     * Roughly estimate the heap used by a cached result
+     * @param result
+     *          the result
+     * @return
+     *          the estimate in bytes
+     */
+    private static long estimateHeapUsage(Object result)
+    {
+        if(result instanceof SnpIntervalList)
+        {
+            long intervalBytes =
+                ResultMemoryCache.REFERENCE_BYTES +
+                ResultMemoryCache.INTERVAL_BYTES;
+            return ResultMemoryCache.OBJECT_BYTES +
+                   ResultMemoryCache.LIST_BYTES +
+                   intervalBytes * ((SnpIntervalList)result).getSnpBlocks().size();
+        }
+        else
+        {
+            PairwiseIdenticalByStateRegions pairwiseRegions =
+                (PairwiseIdenticalByStateRegions)result;
+            return ResultMemoryCache.OBJECT_BYTES +
+                   4L * pairwiseRegions.getSegmentOffsets().length +
+                   16L * pairwiseRegions.getSegmentStartsInBasePairs().length;
+        }
+    }
+    
+    /**
+     * Read a cached interval list
+     * @param cacheFile
+     *          the file to read
+     * @return
+     *          the interval list or null if the file was stale or damaged
+     *          (in which case it has been deleted)
+     * @throws IOException
+     *          if the read fails
+     */
+    private static SnpIntervalList readCachedIntervalList(File cacheFile)
+            throws IOException
+    {
+        try
+        {
+            SnpIntervalList snpIntervalList =
+                ResultCacheCodec.readSnpIntervalList(cacheFile);
+            
+            // results are shared through the memory cache
+            return new SnpIntervalList(
+                    Collections.unmodifiableList(snpIntervalList.getSnpBlocks()),
+                    snpIntervalList.getStartInBasePairs(),
+                    snpIntervalList.getExtentInBasePairs());
+        }
+        catch(IllegalFormatException ex)
+        {
+            discardCacheFile(cacheFile, ex);
+            return null;
+        }
+    }
+    
+    /**
+     * Read cached all pairs IBS regions
+     * @param cacheFile
+     *          the file to read
+     * @return
+     *          the regions or null if the file was stale or damaged
+     *          (in which case it has been deleted)
+     * @throws IOException
+     *          if the read fails
+     */
+    private static PairwiseIdenticalByStateRegions readCachedPairwiseRegions(
+            File cacheFile)
+            throws IOException
+    {
+        try
+        {
+            return ResultCacheCodec.readPairwiseIdenticalByStateRegions(cacheFile);
+        }
+        catch(IllegalFormatException ex)
+        {
+            discardCacheFile(cacheFile, ex);
+            return null;
+        }
+    }
+    
+    private static void discardCacheFile(
+            File cacheFile,
+            IllegalFormatException cause)
+            throws IOException
+    {
+        LOG.log(Level.WARNING,
+                "discarding unreadable cache file",
+                cause);
+        if(!cacheFile.delete())
+        {
+            throw new IOException(
+                    "failed to delete unreadable cache file: " +
+                    cacheFile.getAbsolutePath());
+        }
+    }
+    
     /**
      * Get a cache file to be used for the given parameters. This function
      * will not create the file on disk
@@ -427,6 +947,8 @@ public class CachingIdenticalByStateDataManager
      *          the 2nd strain
      * @param chromosomeNumber
      *          the chromosome number
+     * @param dataIdentity
+     *          the identity of the chromosome's data
      * @param minimumExtentInSnps
      *          minimum extent in snps
      * @param minimumExtentInBasePairs
@@ -439,6 +961,7 @@ public class CachingIdenticalByStateDataManager
             String strain1,
             String strain2,
             int chromosomeNumber,
+            String dataIdentity,
             int minimumExtentInSnps,
             long minimumExtentInBasePairs)
     {
@@ -455,28 +978,103 @@ public class CachingIdenticalByStateDataManager
             greaterStrain = strain2;
         }
         
-        String cacheHashString =
+        String cacheKey =
             genomeName + CONCATINATION_STRING +
             lesserStrain + CONCATINATION_STRING +
             greaterStrain + CONCATINATION_STRING +
             chromosomeNumber + CONCATINATION_STRING +
             minimumExtentInSnps + CONCATINATION_STRING +
-            minimumExtentInBasePairs;
+            minimumExtentInBasePairs + CONCATINATION_STRING +
+            dataIdentity + CONCATINATION_STRING +
+            CACHE_ALGORITHM_VERSION;
         
-        try
+        return this.resultCache.getCacheFile("ibs", cacheKey);
+    }
+    
+    /**
+     * A cache result that is being calculated by another thread
+     * @param <T>
+     *          the result type
+     */
+    private static final class PendingCacheResult<T>
+    {
+        private final File cacheFile;
+        
+        private final CountDownLatch doneLatch = new CountDownLatch(1);
+        
+        private volatile T result = null;
+        
+        private volatile boolean failed = false;
+        
+        /**
+         * Constructor
+         * @param cacheFile
+         *          the cache file that the result will be written to
+         */
+        public PendingCacheResult(File cacheFile)
         {
-            cacheHashString = URL_CODEC.encode(cacheHashString);
+            this.cacheFile = cacheFile;
         }
-        catch(EncoderException ex)
+        
+        /**
+         * Getter for the cache file
+         * @return the cache file
+         */
+        public File getCacheFile()
         {
-            LOG.log(Level.WARNING,
-                    "File encoding failed... continuing",
-                    ex);
+            return this.cacheFile;
         }
         
-        File directory = new File(System.getProperty("java.io.tmpdir"));
-        return new File(
-                directory,
-                cacheHashString);
+        /**
+         * Determine if the result has been completed or has failed
+         * @return
+         *          true if we're done
+         */
+        public boolean isDone()
+        {
+            return this.doneLatch.getCount() == 0L;
+        }
+        
+        /**
+         * Publish the result
+         * @param result
+         *          the result
+         */
+        public void complete(T result)
+        {
+            this.result = result;
+            this.doneLatch.countDown();
+        }
+        
+        /**
+         * Wake up any waiters without a result
+         */
+        public void fail()
+        {
+            this.failed = true;
+            this.doneLatch.countDown();
+        }
+        
+        /**
+         * Wait for the result
+         * @return
+         *          the result
+         * @throws InterruptedException
+         *          if we're interrupted while waiting
+         * @throws IOException
+         *          if the thread calculating the result failed
+         */
+        public T get() throws InterruptedException, IOException
+        {
+            this.doneLatch.await();
+            if(this.failed)
+            {
+                throw new IOException(
+                        "failed to calculate " +
+                        this.cacheFile.getAbsolutePath());
+            }
+            
+            return this.result;
+        }
     }
 }
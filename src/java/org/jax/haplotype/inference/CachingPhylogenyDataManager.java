@@ -17,19 +17,17 @@
 
 package org.jax.haplotype.inference;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,14 +35,22 @@ import org.jax.geneticutil.data.BasePairInterval;
 import org.jax.geneticutil.data.IndexedSnpInterval;
 import org.jax.haplotype.data.ChromosomeDataSource;
 import org.jax.haplotype.data.GenomeDataSource;
+import org.jax.haplotype.io.ResultCacheCodec;
 import org.jax.haplotype.io.SdpInputStream;
+import org.jax.haplotype.io.SnpPositionIndex;
 import org.jax.haplotype.io.StreamDirection;
+import org.jax.haplotype.phylogeny.data.CompactPhylogenyTree;
 import org.jax.haplotype.phylogeny.data.NoValidPhylogenyException;
 import org.jax.haplotype.phylogeny.data.PhylogenyInterval;
+import org.jax.haplotype.phylogeny.data.PhylogenyTopologyPool;
+import org.jax.haplotype.phylogeny.data.PhylogenyTreeEdge;
 import org.jax.haplotype.phylogeny.data.PhylogenyTreeNode;
+import org.jax.haplotype.phylogeny.inference.CompatibilityIndex;
 import org.jax.haplotype.phylogeny.inference.IntervalScanner;
 import org.jax.haplotype.phylogeny.inference.PhylogenyScanner;
+import org.jax.haplotype.phylogeny.inference.ScanCheckpoint;
 import org.jax.util.datastructure.SequenceUtilities;
+import org.jax.util.io.IllegalFormatException;
 
 /**
  * A phylogeny data manager capable of caching results
@@ -71,8 +77,27 @@ public class CachingPhylogenyDataManager
 
     protected static final String CONCATINATION_STRING = "&";
     
-    private final Map<String, File> resultsCacheFileMap =
-        new HashMap<String, File>();
+    /**
+     * part of every persistent cache key. this must be incremented whenever
+     * a change to the scanning algorithms changes their results
+     */
+    private static final int CACHE_ALGORITHM_VERSION = 1;
+    
+    /**
+     * the cache files that survive restarts
+     */
+    private final PersistentResultCache resultCache =
+        new PersistentResultCache(PersistentResultCache.getDefaultDirectory());
+    
+    private final Set<File> activeCheckpointFiles = new HashSet<File>();
+    
+    /**
+     * the first level cache tier (shared with the other caching managers)
+     * which we key on {@link #getCacheKeyString(String, String, String[], int)}.
+     * the disk files are the second level
+     */
+    private final WeightedLruCache<Object, Object> memoryCache =
+        ResultMemoryCache.getSharedCache();
 
     /**
      * Get the singleton instance
@@ -108,7 +133,6 @@ public class CachingPhylogenyDataManager
      * @throws IOException
      *          if the IO fails
      */
-    @SuppressWarnings("unchecked")
     public List<IndexedSnpInterval> getIndexedMaxKIntervals(
             String genomeName,
             String[] strainNames,
@@ -122,6 +146,17 @@ public class CachingPhylogenyDataManager
         
         synchronized(this)
         {
+            String cacheKey = this.getCacheKeyString(
+                    "indexed-interval",
+                    genomeName,
+                    strainNames,
+                    chromosomeNumber);
+            List<IndexedSnpInterval> cachedResults = this.getCachedInMemory(cacheKey);
+            if(cachedResults != null)
+            {
+                return cachedResults;
+            }
+            
             File cacheFile = this.getCacheFile(
                     "indexed-interval",
                     genomeName,
@@ -130,22 +165,23 @@ public class CachingPhylogenyDataManager
             
             if(cacheFile.exists())
             {
-                ObjectInputStream objectInputStream = new ObjectInputStream(
-                        new BufferedInputStream(new FileInputStream(cacheFile)));
-                
                 try
                 {
-                    List<IndexedSnpInterval> indexedMaxKIntervals =
-                        (List<IndexedSnpInterval>)objectInputStream.readObject();
-                    objectInputStream.close();
-                    return indexedMaxKIntervals;
+                    return this.cacheInMemory(
+                            cacheKey,
+                            ResultCacheCodec.readIndexedSnpIntervals(cacheFile));
                 }
-                catch(ClassNotFoundException ex)
+                catch(IllegalFormatException ex)
                 {
-                    LOG.log(Level.SEVERE,
-                            "failed to find class",
+                    // stale or damaged cache. throw it away and start over
+                    LOG.log(Level.WARNING,
+                            "discarding unreadable cache file",
                             ex);
-                    return null;
+                    deleteCacheFile(cacheFile);
+                    return this.getIndexedMaxKIntervals(
+                            genomeName,
+                            strainNames,
+                            chromosomeNumber);
                 }
             }
             else
@@ -165,22 +201,47 @@ public class CachingPhylogenyDataManager
                         StreamDirection.FORWARD,
                         strainNames);
                 
-                List<IndexedSnpInterval> indexedMaxKIntervals = this.intervalScanner.maxKScan(
-                        forwardStream,
-                        reverseStream,
-                        uberStream);
-                assert SequenceUtilities.isSorted(indexedMaxKIntervals);
-                
-                cacheFile.createNewFile();
-                cacheFile.deleteOnExit();
-                
-                ObjectOutputStream objectOutputStream = new ObjectOutputStream(
-                        new BufferedOutputStream(new FileOutputStream(cacheFile)));
-                objectOutputStream.writeObject(indexedMaxKIntervals);
-                objectOutputStream.flush();
-                objectOutputStream.close();
-                
-                return indexedMaxKIntervals;
+                ScanCheckpoint checkpoint = this.openCheckpoint(
+                        "indexed-interval",
+                        genomeName,
+                        strainNames,
+                        chromosomeNumber);
+                boolean completed = false;
+                try
+                {
+                    List<IndexedSnpInterval> indexedMaxKIntervals = this.intervalScanner.maxKScan(
+                            forwardStream,
+                            reverseStream,
+                            uberStream,
+                            checkpoint);
+                    assert SequenceUtilities.isSorted(indexedMaxKIntervals);
+                    
+                    File temporaryFile = this.resultCache.createTemporaryFile(cacheFile);
+                    boolean committed = false;
+                    try
+                    {
+                        ResultCacheCodec.writeIndexedSnpIntervals(temporaryFile, indexedMaxKIntervals);
+                        this.resultCache.commitTemporaryFile(temporaryFile, cacheFile);
+                        committed = true;
+                    }
+                    finally
+                    {
+                        if(!committed)
+                        {
+                            temporaryFile.delete();
+                        }
+                    }
+                    
+                    completed = true;
+                    
+                    return this.cacheInMemory(cacheKey, indexedMaxKIntervals);
+                }
+                finally
+                {
+                    // only throw the checkpoint away once the results are
+                    // safely in the cache
+                    this.closeCheckpoint(checkpoint, completed);
+                }
             }
         }
     }
@@ -211,6 +272,17 @@ public class CachingPhylogenyDataManager
         
         synchronized(this)
         {
+            String cacheKey = this.getCacheKeyString(
+                    "interval",
+                    genomeName,
+                    strainNames,
+                    chromosomeNumber);
+            List<BasePairInterval> cachedResults = this.getCachedInMemory(cacheKey);
+            if(cachedResults != null)
+            {
+                return cachedResults;
+            }
+            
             File cacheFile = this.getCacheFile(
                     "interval",
                     genomeName,
@@ -219,23 +291,23 @@ public class CachingPhylogenyDataManager
             
             if(cacheFile.exists())
             {
-                ObjectInputStream objectInputStream = new ObjectInputStream(
-                        new BufferedInputStream(new FileInputStream(cacheFile)));
-                
                 try
                 {
-                    @SuppressWarnings("unchecked")
-                    List<BasePairInterval> maxKIntervals =
-                        (List<BasePairInterval>)objectInputStream.readObject();
-                    objectInputStream.close();
-                    return maxKIntervals;
+                    return this.cacheInMemory(
+                            cacheKey,
+                            ResultCacheCodec.readBasePairIntervals(cacheFile));
                 }
-                catch(ClassNotFoundException ex)
+                catch(IllegalFormatException ex)
                 {
-                    LOG.log(Level.SEVERE,
-                            "failed to find class",
+                    // stale or damaged cache. throw it away and start over
+                    LOG.log(Level.WARNING,
+                            "discarding unreadable cache file",
                             ex);
-                    return null;
+                    deleteCacheFile(cacheFile);
+                    return this.getMaxKIntervals(
+                            genomeName,
+                            strainNames,
+                            chromosomeNumber);
                 }
             }
             else
@@ -251,19 +323,123 @@ public class CachingPhylogenyDataManager
                         chromosomeNumber);
                 List<BasePairInterval> maxKIntervals = this.intervalScanner.toOrderedPhysicalIntervals(
                         indexedMaxKIntervals,
-                        chromosome.getSnpPositionInputStream());
+                        this.getSnpPositionIndex(genomeName, chromosome));
                 assert SequenceUtilities.isSorted(maxKIntervals);
                 
-                cacheFile.createNewFile();
-                cacheFile.deleteOnExit();
+                File temporaryFile = this.resultCache.createTemporaryFile(cacheFile);
+                boolean committed = false;
+                try
+                {
+                    ResultCacheCodec.writeBasePairIntervals(temporaryFile, maxKIntervals);
+                    this.resultCache.commitTemporaryFile(temporaryFile, cacheFile);
+                    committed = true;
+                }
+                finally
+                {
+                    if(!committed)
+                    {
+                        temporaryFile.delete();
+                    }
+                }
                 
-                ObjectOutputStream objectOutputStream = new ObjectOutputStream(
-                        new BufferedOutputStream(new FileOutputStream(cacheFile)));
-                objectOutputStream.writeObject(maxKIntervals);
-                objectOutputStream.flush();
-                objectOutputStream.close();
+                return this.cacheInMemory(cacheKey, maxKIntervals);
+            }
+        }
+    }
+
+    /**
+     * Get the compatibility index for the given parameters. The index
+     * answers range compatibility questions without rescanning the SDPs
+     * @param genomeName
+     *          the name of the genome
+     * @param strainNames
+     *          the strain names
+     * @param chromosomeNumber
+     *          the chromosome number
+     * @return
+     *          the index
+     * @throws IOException
+     *          if the IO fails
+     */
+    public CompatibilityIndex getCompatibilityIndex(
+            String genomeName,
+            String[] strainNames,
+            int chromosomeNumber)
+            throws IOException
+    {
+        synchronized(this)
+        {
+            String cacheKey = this.getCacheKeyString(
+                    "compatibility-index",
+                    genomeName,
+                    strainNames,
+                    chromosomeNumber);
+            List<CompatibilityIndex> cachedResults = this.getCachedInMemory(cacheKey);
+            if(cachedResults != null)
+            {
+                return cachedResults.get(0);
+            }
+            
+            File cacheFile = this.getCacheFile(
+                    "compatibility-index",
+                    genomeName,
+                    strainNames,
+                    chromosomeNumber);
+            
+            if(cacheFile.exists())
+            {
+                try
+                {
+                    return this.cacheInMemory(
+                            cacheKey,
+                            Collections.singletonList(
+                                    ResultCacheCodec.readCompatibilityIndex(cacheFile))).get(0);
+                }
+                catch(IllegalFormatException ex)
+                {
+                    // stale or damaged cache. throw it away and start over
+                    LOG.log(Level.WARNING,
+                            "discarding unreadable cache file",
+                            ex);
+                    deleteCacheFile(cacheFile);
+                    return this.getCompatibilityIndex(
+                            genomeName,
+                            strainNames,
+                            chromosomeNumber);
+                }
+            }
+            else
+            {
+                GenomeDataSource genomeDataSource =
+                    this.genomeDataManager.getGenomeDataMap().get(genomeName);
+                ChromosomeDataSource chromosome = genomeDataSource.getChromosomeDataSources().get(
+                        chromosomeNumber);
+                
+                CompatibilityIndex compatibilityIndex =
+                    this.intervalScanner.createCompatibilityIndex(
+                            chromosome.getSdpInputStream(
+                                    StreamDirection.FORWARD,
+                                    strainNames));
                 
-                return maxKIntervals;
+                File temporaryFile = this.resultCache.createTemporaryFile(cacheFile);
+                boolean committed = false;
+                try
+                {
+                    ResultCacheCodec.writeCompatibilityIndex(temporaryFile, compatibilityIndex);
+                    this.resultCache.commitTemporaryFile(temporaryFile, cacheFile);
+                    committed = true;
+                }
+                finally
+                {
+                    if(!committed)
+                    {
+                        temporaryFile.delete();
+                    }
+                }
+                
+                return this.cacheInMemory(
+                        cacheKey,
+                        Collections.singletonList(compatibilityIndex)).get(0);
             }
         }
     }
@@ -277,20 +453,31 @@ public class CachingPhylogenyDataManager
      * @param chromosomeNumber
      *          the chromosome number
      * @return
-     *          the phylogeny intervals
+     *          the phylogenies. the caller owns these trees: the memory
+     *          cache only holds immutable copies of them
      * @throws IOException
      *          if we fail on IO
      * @throws NoValidPhylogenyException
      *          if we run into an interval that doesn't correspond to
      *          a valid perfect phylogeny
      */
-    @SuppressWarnings("unchecked")
     public List<PhylogenyTreeNode> getPhylogenies(
             String genomeName,
             String[] strainNames,
             int chromosomeNumber)
             throws IOException, NoValidPhylogenyException
     {
+        String cacheKey = this.getCacheKeyString(
+                "phylogenies",
+                genomeName,
+                strainNames,
+                chromosomeNumber);
+        List<CompactPhylogenyTree> cachedResults = this.getCachedInMemory(cacheKey);
+        if(cachedResults != null)
+        {
+            return toPhylogenyTreeNodes(cachedResults);
+        }
+        
         File cacheFile = this.getCacheFile(
                 "phylogenies",
                 genomeName,
@@ -299,22 +486,23 @@ public class CachingPhylogenyDataManager
         
         if(cacheFile.exists())
         {
-            ObjectInputStream objectInputStream = new ObjectInputStream(
-                    new BufferedInputStream(new FileInputStream(cacheFile)));
-            
             try
             {
-                List<PhylogenyTreeNode> phylogenyIntervals =
-                    (List<PhylogenyTreeNode>)objectInputStream.readObject();
-                objectInputStream.close();
-                return phylogenyIntervals;
+                return this.cachePhylogeniesInMemory(
+                        cacheKey,
+                        ResultCacheCodec.readPhylogenies(cacheFile));
             }
-            catch(ClassNotFoundException ex)
+            catch(IllegalFormatException ex)
             {
-                LOG.log(Level.SEVERE,
-                        "failed to find class",
+                // stale or damaged cache. throw it away and start over
+                LOG.log(Level.WARNING,
+                        "discarding unreadable cache file",
                         ex);
-                return null;
+                deleteCacheFile(cacheFile);
+                return this.getPhylogenies(
+                        genomeName,
+                        strainNames,
+                        chromosomeNumber);
             }
         }
         else
@@ -328,21 +516,30 @@ public class CachingPhylogenyDataManager
                     genomeName,
                     strainNames,
                     chromosomeNumber);
-            List<PhylogenyTreeNode> phylogenies = this.phylogenyScanner.inferPerfectPhylogenies(
-                    chromosome.getSdpInputStream(strainNames),
+            List<PhylogenyTreeNode> phylogenies = this.inferPerfectPhylogenies(
+                    genomeName,
+                    strainNames,
+                    chromosome,
                     indexedMaxKIntervals);
             assert indexedMaxKIntervals.size() == phylogenies.size();
             
-            cacheFile.createNewFile();
-            cacheFile.deleteOnExit();
-            
-            ObjectOutputStream objectOutputStream = new ObjectOutputStream(
-                    new BufferedOutputStream(new FileOutputStream(cacheFile)));
-            objectOutputStream.writeObject(phylogenies);
-            objectOutputStream.flush();
-            objectOutputStream.close();
+            File temporaryFile = this.resultCache.createTemporaryFile(cacheFile);
+            boolean committed = false;
+            try
+            {
+                ResultCacheCodec.writePhylogenies(temporaryFile, phylogenies);
+                this.resultCache.commitTemporaryFile(temporaryFile, cacheFile);
+                committed = true;
+            }
+            finally
+            {
+                if(!committed)
+                {
+                    temporaryFile.delete();
+                }
+            }
             
-            return phylogenies;
+            return this.cachePhylogeniesInMemory(cacheKey, phylogenies);
         }
     }
     
@@ -355,20 +552,33 @@ public class CachingPhylogenyDataManager
      * @param chromosomeNumber
      *          the chromosome number
      * @return
-     *          the phylogeny intervals
+     *          the phylogeny intervals. intervals with the same topology
+     *          share a canonical tree (see {@link PhylogenyTopologyPool})
+     *          so the strains and children of the trees are in canonical
+     *          order rather than the order that they were inferred in
      * @throws IOException
      *          if we fail on IO
      * @throws NoValidPhylogenyException
      *          if we run into an interval that doesn't correspond to
      *          a valid perfect phylogeny
      */
-    @SuppressWarnings("unchecked")
     public List<PhylogenyInterval> getPhylogeneticIntervals(
             String genomeName,
             String[] strainNames,
             int chromosomeNumber)
             throws IOException, NoValidPhylogenyException
     {
+        String cacheKey = this.getCacheKeyString(
+                "phylo-intervals",
+                genomeName,
+                strainNames,
+                chromosomeNumber);
+        List<PhylogenyInterval> cachedResults = this.getCachedInMemory(cacheKey);
+        if(cachedResults != null)
+        {
+            return cachedResults;
+        }
+        
         File cacheFile = this.getCacheFile(
                 "phylo-intervals",
                 genomeName,
@@ -377,22 +587,23 @@ public class CachingPhylogenyDataManager
         
         if(cacheFile.exists())
         {
-            ObjectInputStream objectInputStream = new ObjectInputStream(
-                    new BufferedInputStream(new FileInputStream(cacheFile)));
-            
             try
             {
-                List<PhylogenyInterval> phylogenyIntervals =
-                    (List<PhylogenyInterval>)objectInputStream.readObject();
-                objectInputStream.close();
-                return phylogenyIntervals;
+                return this.cacheInMemory(
+                        cacheKey,
+                        ResultCacheCodec.readPhylogenyIntervals(cacheFile));
             }
-            catch(ClassNotFoundException ex)
+            catch(IllegalFormatException ex)
             {
-                LOG.log(Level.SEVERE,
-                        "failed to find class",
+                // stale or damaged cache. throw it away and start over
+                LOG.log(Level.WARNING,
+                        "discarding unreadable cache file",
                         ex);
-                return null;
+                deleteCacheFile(cacheFile);
+                return this.getPhylogeneticIntervals(
+                        genomeName,
+                        strainNames,
+                        chromosomeNumber);
             }
         }
         else
@@ -406,37 +617,464 @@ public class CachingPhylogenyDataManager
                     genomeName,
                     strainNames,
                     chromosomeNumber);
-            List<PhylogenyTreeNode> phylogenies = this.phylogenyScanner.inferPerfectPhylogenies(
-                    chromosome.getSdpInputStream(strainNames),
+            List<PhylogenyTreeNode> phylogenies = this.inferPerfectPhylogenies(
+                    genomeName,
+                    strainNames,
+                    chromosome,
                     indexedMaxKIntervals);
             List<BasePairInterval> maxKIntervals = this.intervalScanner.toOrderedPhysicalIntervals(
                     indexedMaxKIntervals,
-                    chromosome.getSnpPositionInputStream());
+                    this.getSnpPositionIndex(genomeName, chromosome));
             int phylogenyCount = phylogenies.size();
             assert maxKIntervals.size() == phylogenyCount;
             
+            // adjacent intervals often have the same tree so the intervals
+            // share pooled trees. pooling puts the trees in canonical order
+            PhylogenyTopologyPool topologyPool = new PhylogenyTopologyPool();
             List<PhylogenyInterval> phylogenyIntervals = new ArrayList<PhylogenyInterval>(
                     phylogenyCount);
             for(int i = 0; i < phylogenyCount; i++)
             {
                 phylogenyIntervals.add(new PhylogenyInterval(
-                        phylogenies.get(i),
+                        topologyPool.intern(phylogenies.get(i)),
                         maxKIntervals.get(i)));
             }
             
-            cacheFile.createNewFile();
-            cacheFile.deleteOnExit();
-            
-            ObjectOutputStream objectOutputStream = new ObjectOutputStream(
-                    new BufferedOutputStream(new FileOutputStream(cacheFile)));
-            objectOutputStream.writeObject(phylogenyIntervals);
-            objectOutputStream.flush();
-            objectOutputStream.close();
+            File temporaryFile = this.resultCache.createTemporaryFile(cacheFile);
+            boolean committed = false;
+            try
+            {
+                ResultCacheCodec.writePhylogenyIntervals(temporaryFile, phylogenyIntervals);
+                this.resultCache.commitTemporaryFile(temporaryFile, cacheFile);
+                committed = true;
+            }
+            finally
+            {
+                if(!committed)
+                {
+                    temporaryFile.delete();
+                }
+            }
             
-            return phylogenyIntervals;
+            return this.cacheInMemory(cacheKey, phylogenyIntervals);
+        }
+    }
+    
+    /**
+     * Infer the perfect phylogenies for the given max-k intervals. The scan
+     * is checkpointed so that an interrupted scan picks up where it left off
+     * @param genomeName
+     *          the name of the genome
+     * @param strainNames
+     *          the strain names
+     * @param chromosome
+     *          the chromosome
+     * @param indexedMaxKIntervals
+     *          the max-k intervals
+     * @return
+     *          the phylogenies
+     * @throws IOException
+     *          if we fail on IO
+     * @throws NoValidPhylogenyException
+     *          if we run into an interval that doesn't correspond to
+     *          a valid perfect phylogeny
+     */
+    private List<PhylogenyTreeNode> inferPerfectPhylogenies(
+            String genomeName,
+            String[] strainNames,
+            ChromosomeDataSource chromosome,
+            List<IndexedSnpInterval> indexedMaxKIntervals)
+            throws IOException, NoValidPhylogenyException
+    {
+        ScanCheckpoint checkpoint = this.openCheckpoint(
+                "phylogenies",
+                genomeName,
+                strainNames,
+                chromosome.getChromosomeNumber());
+        boolean completed = false;
+        try
+        {
+            List<PhylogenyTreeNode> phylogenies = this.phylogenyScanner.inferPerfectPhylogenies(
+                    chromosome.getSdpInputStream(strainNames),
+                    indexedMaxKIntervals,
+                    checkpoint,
+                    PhylogenyScanner.DEFAULT_CHECKPOINT_PERIOD,
+                    null,
+                    PhylogenyScanner.DEFAULT_BATCH_SIZE);
+            completed = true;
+            return phylogenies;
+        }
+        finally
+        {
+            this.closeCheckpoint(checkpoint, completed);
         }
     }
     
+    /**
+     * Open the checkpoint for the given scan. The checkpoint lives in the
+     * persistent cache directory and is locked so that other processes
+     * sharing the directory can't use it at the same time. If another
+     * thread or process is already running the same scan then we return
+     * null and the scan proceeds without a checkpoint
+     * @param filePrefix
+     *          the prefix identifying the kind of scan
+     * @param genomeName
+     *          the name of the genome
+     * @param strainNames
+     *          the strain names
+     * @param chromosomeNumber
+     *          the chromosome number
+     * @return
+     *          the checkpoint or null
+     * @throws IOException
+     *          if we fail to read the checkpoint
+     */
+    private ScanCheckpoint openCheckpoint(
+            String filePrefix,
+            String genomeName,
+            String[] strainNames,
+            int chromosomeNumber) throws IOException
+    {
+        String scanKey = this.getPersistentCacheKeyString(
+                filePrefix,
+                genomeName,
+                strainNames,
+                chromosomeNumber);
+        File checkpointFile = this.resultCache.getCheckpointFile(
+                filePrefix,
+                scanKey);
+        
+        synchronized(this.activeCheckpointFiles)
+        {
+            if(!this.activeCheckpointFiles.add(checkpointFile))
+            {
+                return null;
+            }
+        }
+        
+        ScanCheckpoint checkpoint = null;
+        try
+        {
+            checkpoint = ScanCheckpoint.tryOpenLocked(checkpointFile, scanKey);
+            if(checkpoint == null)
+            {
+                LOG.info(
+                        "another process holds the checkpoint so this " +
+                        "scan won't be checkpointed: " +
+                        checkpointFile.getAbsolutePath());
+            }
+            return checkpoint;
+        }
+        finally
+        {
+            if(checkpoint == null)
+            {
+                synchronized(this.activeCheckpointFiles)
+                {
+                    this.activeCheckpointFiles.remove(checkpointFile);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Close a checkpoint returned by {@link #openCheckpoint(String, String, String[], int)}
+     * @param checkpoint
+     *          the checkpoint (can be null)
+     * @param delete
+     *          if true the checkpoint is deleted, otherwise it's kept
+     *          around for the next attempt
+     * @throws IOException
+     *          if the close fails
+     */
+    private void closeCheckpoint(
+            ScanCheckpoint checkpoint,
+            boolean delete) throws IOException
+    {
+        if(checkpoint != null)
+        {
+            try
+            {
+                if(delete)
+                {
+                    checkpoint.delete();
+                }
+                else
+                {
+                    checkpoint.close();
+                }
+            }
+            finally
+            {
+                synchronized(this.activeCheckpointFiles)
+                {
+                    this.activeCheckpointFiles.remove(
+                            checkpoint.getCheckpointFile());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get the SNP position index for the given chromosome. The positions
+     * don't depend on the strains so the index is shared by every strain
+     * set. It's only cached in memory since reading the position stream
+     * costs about as much as reading a cache file would
+     * @param genomeName
+     *          the name of the genome
+     * @param chromosome
+     *          the chromosome
+     * @return
+     *          the index
+     * @throws IOException
+     *          if we fail to read the positions
+     */
+    private synchronized SnpPositionIndex getSnpPositionIndex(
+            String genomeName,
+            ChromosomeDataSource chromosome)
+            throws IOException
+    {
+        String cacheKey = this.getCacheKeyString(
+                "snp-position-index",
+                genomeName,
+                new String[0],
+                chromosome.getChromosomeNumber());
+        List<SnpPositionIndex> cachedResults = this.getCachedInMemory(cacheKey);
+        if(cachedResults != null)
+        {
+            return cachedResults.get(0);
+        }
+        
+        SnpPositionIndex positionIndex = SnpPositionIndex.read(
+                chromosome.getSnpPositionInputStream());
+        return this.cacheInMemory(
+                cacheKey,
+                Collections.singletonList(positionIndex)).get(0);
+    }
+    
+    /**
+     * Delete a cache file that couldn't be read
+     * @param cacheFile
+     *          the file to delete
+     * @throws IOException
+     *          if the file can't be deleted
+     */
+    private static void deleteCacheFile(File cacheFile) throws IOException
+    {
+        if(!cacheFile.delete())
+        {
+            throw new IOException(
+                    "failed to delete unreadable cache file: " +
+                    cacheFile.getAbsolutePath());
+        }
+    }
+    
+    /**
+     * Get the in-memory cache that sits in front of the cache files. Its
+     * weights are estimated heap usage in bytes so
+     * {@link WeightedLruCache#setMaximumWeight(long)} sets the maximum heap
+     * that cached results may use. The cache and its budget are shared
+     * with {@link CachingIdenticalByStateDataManager}
+     * @return
+     *          the memory cache
+     */
+    public WeightedLruCache<Object, Object> getMemoryCache()
+    {
+        return this.memoryCache;
+    }
+    
+    /**
+     * Get results from the memory cache
+     * @param <T>
+     *          the result element type
+     * @param cacheKey
+     *          the key from {@link #getCacheKeyString(String, String, String[], int)}
+     * @return
+     *          the results or null if they aren't in memory
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> getCachedInMemory(String cacheKey)
+    {
+        return (List<T>)this.memoryCache.get(cacheKey);
+    }
+    
+    /**
+     * Put results in the memory cache. Cached results are shared between
+     * callers so the list is made unmodifiable and its elements must be
+     * immutable (which is why phylogenies go through
+     * {@link #cachePhylogeniesInMemory(String, List)} instead)
+     * @param <T>
+     *          the result element type
+     * @param cacheKey
+     *          the key from {@link #getCacheKeyString(String, String, String[], int)}
+     * @param results
+     *          the results
+     * @return
+     *          the unmodifiable results that were cached
+     */
+    private <T> List<T> cacheInMemory(String cacheKey, List<T> results)
+    {
+        List<T> sharedResults = Collections.unmodifiableList(results);
+        this.memoryCache.put(
+                cacheKey,
+                sharedResults,
+                estimateHeapUsage(sharedResults));
+        return sharedResults;
+    }
+    
+    /**
+     * Put immutable copies of the given phylogenies in the memory cache
+     * @param cacheKey
+     *          the key from {@link #getCacheKeyString(String, String, String[], int)}
+     * @param phylogenies
+     *          the phylogenies
+     * @return
+     *          the given phylogenies, which still belong to the caller
+     */
+    private List<PhylogenyTreeNode> cachePhylogeniesInMemory(
+            String cacheKey,
+            List<PhylogenyTreeNode> phylogenies)
+    {
+        this.cacheInMemory(
+                cacheKey,
+                CompactPhylogenyTree.fromPhylogenyTrees(phylogenies));
+        return phylogenies;
+    }
+    
+    /**
+     * Create new mutable copies of the given phylogenies
+     * @param phylogenies
+     *          the phylogenies
+     * @return
+     *          the copies
+     */
+    private static List<PhylogenyTreeNode> toPhylogenyTreeNodes(
+            List<CompactPhylogenyTree> phylogenies)
+    {
+        int phylogenyCount = phylogenies.size();
+        List<PhylogenyTreeNode> phylogenyTreeNodes =
+            new ArrayList<PhylogenyTreeNode>(phylogenyCount);
+        for(int i = 0; i < phylogenyCount; i++)
+        {
+            phylogenyTreeNodes.add(phylogenies.get(i).toPhylogenyTreeNode());
+        }
+        return phylogenyTreeNodes;
+    }
+    
+    /**
+     * Roughly estimate the heap used by a list of results
+     * @param results
+     *          the results
+     * @return
+     *          the estimate in bytes
+     */
+    private static long estimateHeapUsage(List<?> results)
+    {
+        long heapUsage =
+            ResultMemoryCache.LIST_BYTES +
+            ResultMemoryCache.REFERENCE_BYTES * results.size();
+        Map<CompactPhylogenyTree, Boolean> countedPhylogenies = null;
+        for(Object result: results)
+        {
+            if(result instanceof PhylogenyInterval)
+            {
+                PhylogenyInterval phylogenyInterval = (PhylogenyInterval)result;
+                heapUsage +=
+                    ResultMemoryCache.OBJECT_BYTES +
+                    ResultMemoryCache.INTERVAL_BYTES;
+                
+                // shared trees are only counted once
+                CompactPhylogenyTree compactPhylogeny =
+                    phylogenyInterval.getCompactPhylogeny();
+                if(compactPhylogeny == null)
+                {
+                    heapUsage += estimateHeapUsage(phylogenyInterval.getPhylogeny());
+                }
+                else
+                {
+                    if(countedPhylogenies == null)
+                    {
+                        countedPhylogenies =
+                            new IdentityHashMap<CompactPhylogenyTree, Boolean>();
+                    }
+                    
+                    if(countedPhylogenies.put(compactPhylogeny, Boolean.TRUE) == null)
+                    {
+                        heapUsage += estimateHeapUsage(compactPhylogeny);
+                    }
+                }
+            }
+            else if(result instanceof CompactPhylogenyTree)
+            {
+                heapUsage += estimateHeapUsage((CompactPhylogenyTree)result);
+            }
+            else if(result instanceof CompatibilityIndex)
+            {
+                heapUsage +=
+                    2 * ResultMemoryCache.OBJECT_BYTES +
+                    4L * ((CompatibilityIndex)result).getSnpCount();
+            }
+            else if(result instanceof SnpPositionIndex)
+            {
+                heapUsage +=
+                    2 * ResultMemoryCache.OBJECT_BYTES +
+                    8L * ((SnpPositionIndex)result).getSnpCount();
+            }
+            else
+            {
+                heapUsage += ResultMemoryCache.INTERVAL_BYTES;
+            }
+        }
+        return heapUsage;
+    }
+    
+    /**
+     * Roughly estimate the heap used by a compact phylogeny
+     * @param phylogeny
+     *          the phylogeny
+     * @return
+     *          the estimate in bytes
+     */
+    private static long estimateHeapUsage(CompactPhylogenyTree phylogeny)
+    {
+        // the tree and its arrays plus the per node parent, child start,
+        // strain start, edge flag, edge length and SDP words. the strain
+        // table is shared
+        long nodeCount = phylogeny.getNodeCount();
+        return
+            10 * ResultMemoryCache.OBJECT_BYTES +
+            nodeCount * (4L + 4L + 4L + 1L + 8L + 8L * phylogeny.getSdpWordCount()) +
+            4L * phylogeny.getStrainCount();
+    }
+    
+    /**
+     * Roughly estimate the heap used by a phylogeny
+     * @param phylogeny
+     *          the phylogeny
+     * @return
+     *          the estimate in bytes
+     */
+    private static long estimateHeapUsage(PhylogenyTreeNode phylogeny)
+    {
+        // strain names are shared so we only count the references
+        long heapUsage =
+            ResultMemoryCache.OBJECT_BYTES + 2 * ResultMemoryCache.LIST_BYTES +
+            ResultMemoryCache.REFERENCE_BYTES * phylogeny.getStrains().size();
+        for(PhylogenyTreeEdge childEdge: phylogeny.getChildEdges())
+        {
+            heapUsage +=
+                ResultMemoryCache.OBJECT_BYTES +
+                ResultMemoryCache.REFERENCE_BYTES;
+            BitSet sdpBits = childEdge.getSdpBits();
+            if(sdpBits != null)
+            {
+                heapUsage += ResultMemoryCache.OBJECT_BYTES + (sdpBits.size() >>> 3);
+            }
+            heapUsage += estimateHeapUsage(childEdge.getNode());
+        }
+        return heapUsage;
+    }
+    
     /**
      * Get the genome data manager
      * @return
@@ -457,26 +1095,58 @@ public class CachingPhylogenyDataManager
             String[] strainNames,
             int chromosomeNumber)
     {
+        return this.resultCache.getCacheFile(
+                filePrefix,
+                this.getPersistentCacheKeyString(
+                        filePrefix,
+                        genomeName,
+                        strainNames,
+                        chromosomeNumber));
+    }
+    
+    /**
+     * Get the string that identifies the results for the given parameters
+     * across restarts. Unlike {@link #getCacheKeyString(String, String, String[], int)}
+     * this includes the algorithm version so that results are recalculated
+     * if it changes
+     */
+    private String getPersistentCacheKeyString(
+            String filePrefix,
+            String genomeName,
+            String[] strainNames,
+            int chromosomeNumber)
+    {
+        return this.getCacheKeyString(
+                       filePrefix,
+                       genomeName,
+                       strainNames,
+                       chromosomeNumber) + CONCATINATION_STRING +
+               CACHE_ALGORITHM_VERSION;
+    }
+    
+    /**
+     * Get the string that identifies the results for the given parameters.
+     * This includes the identity of the chromosome data so that results
+     * that were cached before the data changed are never used
+     */
+    private String getCacheKeyString(
+            String filePrefix,
+            String genomeName,
+            String[] strainNames,
+            int chromosomeNumber)
+    {
+        GenomeDataSource genomeDataSource =
+            this.genomeDataManager.getGenomeDataMap().get(genomeName);
+        ChromosomeDataSource chromosome = genomeDataSource.getChromosomeDataSources().get(
+                chromosomeNumber);
+        
         strainNames = strainNames.clone();
         Arrays.sort(strainNames);
         
-        String cacheKeyString =
-            filePrefix + CONCATINATION_STRING +
-            genomeName + CONCATINATION_STRING +
-            Arrays.toString(strainNames) + CONCATINATION_STRING +
-            chromosomeNumber;
-        
-        File cacheFile = this.resultsCacheFileMap.get(cacheKeyString);
-        if(cacheFile == null)
-        {
-            File directory = new File(System.getProperty("java.io.tmpdir"));
-            cacheFile = new File(
-                    directory,
-                    filePrefix + "-" + this.resultsCacheFileMap.size());
-            this.resultsCacheFileMap.put(
-                    cacheKeyString,
-                    cacheFile);
-        }
-        return cacheFile;
+        return filePrefix + CONCATINATION_STRING +
+               genomeName + CONCATINATION_STRING +
+               Arrays.toString(strainNames) + CONCATINATION_STRING +
+               chromosomeNumber + CONCATINATION_STRING +
+               chromosome.getDataIdentity();
     }
 }
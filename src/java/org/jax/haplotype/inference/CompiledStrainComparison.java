@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.SimpleBasePairInterval;
+import org.jax.geneticutil.data.SnpIntervalList;
+import org.jax.haplotype.io.SdpInputStream;
+import org.jax.haplotype.io.SnpPositionInputStream;
+import org.jax.util.io.IllegalFormatException;
+
+/**
+ * A strain comparison expression like <code>A=B and C&#x2260;D or E=F</code>
+ * compiled into a boolean circuit over strain alleles. The circuit is
+ * evaluated 64 SNPs at a time: the alleles of each strain in the expression
+ * are packed into a word, every comparison becomes an XOR (negated for
+ * "=") and the and/or structure becomes AND and OR over those words. SNPs
+ * where the expression holds are run length encoded straight into
+ * intervals, so there are no per term interval lists to combine and the
+ * cost depends on the SNP count rather than on how fragmented the result is.
+ * <br/><br/>
+ * Note that the result is at SNP resolution and the minimum extents apply
+ * to runs of the whole expression. This differs from
+ * {@link CachingIdenticalByStateDataManager#evaluateStrainComparison(String, String, int, int, long)}
+ * which applies the minimum extents to the IBS regions of each comparison
+ * and then combines intervals at base pair resolution.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class CompiledStrainComparison
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            CompiledStrainComparison.class.getName());
+    
+    private static final String OR_REGEX = Pattern.quote(" or ");
+    private static final String AND_REGEX = Pattern.quote(" and ");
+    private static final String EQUALS_REGEX = Pattern.quote("=");
+    private static final String NOT_EQUALS_REGEX = Pattern.quote("\u2260");
+    
+    private final String expression;
+    
+    private final String[] strainNames;
+    
+    // indexed by [or group][comparison]
+    private final int[][] strainIndices1;
+    private final int[][] strainIndices2;
+    private final boolean[][] notEquals;
+    
+    /**
+     * Constructor. Use {@link #compile(String)} rather than calling this
+     * directly
+     * @param expression
+     *          the expression
+     * @param strainNames
+     *          the distinct strains in the expression
+     * @param strainIndices1
+     *          the index of each comparison's 1st strain
+     * @param strainIndices2
+     *          the index of each comparison's 2nd strain
+     * @param notEquals
+     *          whether each comparison is a "not equals"
+     */
+    private CompiledStrainComparison(
+            String expression,
+            String[] strainNames,
+            int[][] strainIndices1,
+            int[][] strainIndices2,
+            boolean[][] notEquals)
+    {
+        this.expression = expression;
+        this.strainNames = strainNames;
+        this.strainIndices1 = strainIndices1;
+        this.strainIndices2 = strainIndices2;
+        this.notEquals = notEquals;
+    }
+    
+    /**
+     * Compile the given strain comparison expression
+     * @param strainComparisonExpression
+     *          the expression
+     * @return
+     *          the compiled expression
+     * @throws IllegalFormatException
+     *          if the expression is malformed
+     */
+    public static CompiledStrainComparison compile(
+            String strainComparisonExpression)
+            throws IllegalFormatException
+    {
+        Map<String, Integer> strainIndexMap =
+            new LinkedHashMap<String, Integer>();
+        
+        // split into OR groups
+        String[] orGroups = strainComparisonExpression.split(OR_REGEX);
+        int[][] strainIndices1 = new int[orGroups.length][];
+        int[][] strainIndices2 = new int[orGroups.length][];
+        boolean[][] notEquals = new boolean[orGroups.length][];
+        for(int orIndex = 0; orIndex < orGroups.length; orIndex++)
+        {
+            if(LOG.isLoggable(Level.FINE))
+            {
+                LOG.fine("OR group: " + orGroups[orIndex]);
+            }
+            
+            // split into strain comparisons
+            String[] strainComparisons = orGroups[orIndex].split(AND_REGEX);
+            strainIndices1[orIndex] = new int[strainComparisons.length];
+            strainIndices2[orIndex] = new int[strainComparisons.length];
+            notEquals[orIndex] = new boolean[strainComparisons.length];
+            for(int andIndex = 0; andIndex < strainComparisons.length; andIndex++)
+            {
+                String strainComparison = strainComparisons[andIndex];
+                if(LOG.isLoggable(Level.FINE))
+                {
+                    LOG.fine("strain comparison: " + strainComparison);
+                }
+                
+                boolean calcNotEquals = false;
+                String[] strains = strainComparison.split(EQUALS_REGEX);
+                if(strains.length == 1)
+                {
+                    calcNotEquals = true;
+                    strains = strainComparison.split(NOT_EQUALS_REGEX);
+                }
+                
+                if(strains.length != 2)
+                {
+                    throw new IllegalFormatException(
+                            "bad strain comparison: " + strainComparison);
+                }
+                
+                strainIndices1[orIndex][andIndex] =
+                    getStrainIndex(strainIndexMap, strains[0]);
+                strainIndices2[orIndex][andIndex] =
+                    getStrainIndex(strainIndexMap, strains[1]);
+                notEquals[orIndex][andIndex] = calcNotEquals;
+            }
+        }
+        
+        return new CompiledStrainComparison(
+                strainComparisonExpression,
+                strainIndexMap.keySet().toArray(new String[strainIndexMap.size()]),
+                strainIndices1,
+                strainIndices2,
+                notEquals);
+    }
+    
+    /**
+     * Get the index for the given strain, adding it to the map if it's new
+     * @param strainIndexMap
+     *          the strains seen so far in the order that they were seen
+     * @param strainName
+     *          the strain
+     * @return
+     *          the index
+     */
+    private static int getStrainIndex(
+            Map<String, Integer> strainIndexMap,
+            String strainName)
+    {
+        Integer strainIndex = strainIndexMap.get(strainName);
+        if(strainIndex == null)
+        {
+            strainIndex = strainIndexMap.size();
+            strainIndexMap.put(strainName, strainIndex);
+        }
+        return strainIndex;
+    }
+    
+    /**
+     * Getter for the expression that was compiled
+     * @return the expression
+     */
+    public String getExpression()
+    {
+        return this.expression;
+    }
+    
+    /**
+     * Get the distinct strains that the expression refers to. The SDP
+     * stream passed to {@link #evaluate(SdpInputStream, SnpPositionInputStream, int, long)}
+     * must be for these strains in this order
+     * @return
+     *          the strain names
+     */
+    public String[] getStrainNames()
+    {
+        return this.strainNames.clone();
+    }
+    
+    /**
+     * Get the number of OR groups in the expression
+     * @return
+     *          the OR group count
+     */
+    int getOrGroupCount()
+    {
+        return this.notEquals.length;
+    }
+    
+    /**
+     * Get the number of strain comparisons that are ANDed together in the
+     * given OR group
+     * @param orGroupIndex
+     *          the OR group
+     * @return
+     *          the comparison count
+     */
+    int getComparisonCount(int orGroupIndex)
+    {
+        return this.notEquals[orGroupIndex].length;
+    }
+    
+    /**
+     * Get the 1st strain of a comparison
+     * @param orGroupIndex
+     *          the OR group
+     * @param comparisonIndex
+     *          the comparison within the OR group
+     * @return
+     *          the strain name
+     */
+    String getComparisonStrainName1(int orGroupIndex, int comparisonIndex)
+    {
+        return this.strainNames[this.strainIndices1[orGroupIndex][comparisonIndex]];
+    }
+    
+    /**
+     * Get the 2nd strain of a comparison
+     * @param orGroupIndex
+     *          the OR group
+     * @param comparisonIndex
+     *          the comparison within the OR group
+     * @return
+     *          the strain name
+     */
+    String getComparisonStrainName2(int orGroupIndex, int comparisonIndex)
+    {
+        return this.strainNames[this.strainIndices2[orGroupIndex][comparisonIndex]];
+    }
+    
+    /**
+     * Determine if a comparison is true where the strains differ rather
+     * than where they match
+     * @param orGroupIndex
+     *          the OR group
+     * @param comparisonIndex
+     *          the comparison within the OR group
+     * @return
+     *          true for a "not equals" comparison
+     */
+    boolean isNotEqualsComparison(int orGroupIndex, int comparisonIndex)
+    {
+        return this.notEquals[orGroupIndex][comparisonIndex];
+    }
+    
+    /**
+     * Evaluate the circuit over a block of SNPs
+     * @param strainWords
+     *          the packed alleles for each strain where bit N is the Nth
+     *          SNP of the block
+     * @param validBits
+     *          the mask of bits that correspond to real SNPs
+     * @return
+     *          the bits of the SNPs where the expression holds
+     */
+    long evaluateWord(long[] strainWords, long validBits)
+    {
+        long result = 0L;
+        for(int orIndex = 0; orIndex < this.notEquals.length; orIndex++)
+        {
+            int[] orStrainIndices1 = this.strainIndices1[orIndex];
+            int[] orStrainIndices2 = this.strainIndices2[orIndex];
+            boolean[] orNotEquals = this.notEquals[orIndex];
+            
+            long andResult = validBits;
+            for(int andIndex = 0; andIndex < orNotEquals.length && andResult != 0L; andIndex++)
+            {
+                long differences =
+                    strainWords[orStrainIndices1[andIndex]] ^
+                    strainWords[orStrainIndices2[andIndex]];
+                andResult &= orNotEquals[andIndex] ? differences : ~differences;
+            }
+            result |= andResult;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Evaluate the expression over a chromosome
+     * @param sdpInputStream
+     *          the raw SDPs for {@link #getStrainNames()}
+     * @param snpPositionInputStream
+     *          the SNP positions
+     * @param minimumExtentInSnps
+     *          the minimum number of consecutive SNPs where the expression
+     *          holds for us to report an interval
+     * @param minimumExtentInBasePairs
+     *          the minimum extent in base pairs for us to report an interval
+     * @return
+     *          the intervals where the expression holds
+     * @throws IOException
+     *          if we fail to read the streams
+     */
+    public SnpIntervalList evaluate(
+            SdpInputStream sdpInputStream,
+            SnpPositionInputStream snpPositionInputStream,
+            int minimumExtentInSnps,
+            long minimumExtentInBasePairs)
+            throws IOException
+    {
+        int chromosomeNumber = snpPositionInputStream.getChromosomeNumber();
+        List<BasePairInterval> intervals = new ArrayList<BasePairInterval>();
+        
+        long[] strainWords = new long[this.strainNames.length];
+        long[] positions = new long[Long.SIZE];
+        
+        boolean inRun = false;
+        long runStartSnpIndex = 0L;
+        long runStartPosition = 0L;
+        long previousPosition = 0L;
+        long blockStartSnpIndex = 0L;
+        while(sdpInputStream.hasNextSdp())
+        {
+            // pack the next block of SNPs
+            for(int i = 0; i < strainWords.length; i++)
+            {
+                strainWords[i] = 0L;
+            }
+            int blockSize = 0;
+            while(blockSize < Long.SIZE && sdpInputStream.hasNextSdp())
+            {
+                BitSet sdp = sdpInputStream.getNextSdp();
+                for(int i = sdp.nextSetBit(0); i >= 0; i = sdp.nextSetBit(i + 1))
+                {
+                    strainWords[i] |= 1L << blockSize;
+                }
+                positions[blockSize] =
+                    snpPositionInputStream.getNextSnpPositionInBasePairs();
+                blockSize++;
+            }
+            
+            long validBits = blockSize == Long.SIZE ? -1L : (1L << blockSize) - 1L;
+            long result = this.evaluateWord(strainWords, validBits);
+            
+            // every set bit marks a SNP that starts or ends a run
+            long transitions =
+                (result ^ ((result << 1) | (inRun ? 1L : 0L))) & validBits;
+            while(transitions != 0L)
+            {
+                int bit = Long.numberOfTrailingZeros(transitions);
+                if(inRun)
+                {
+                    long endPosition =
+                        bit == 0 ? previousPosition : positions[bit - 1];
+                    addRun(
+                            intervals,
+                            chromosomeNumber,
+                            blockStartSnpIndex + bit - runStartSnpIndex,
+                            runStartPosition,
+                            endPosition,
+                            minimumExtentInSnps,
+                            minimumExtentInBasePairs);
+                }
+                else
+                {
+                    runStartSnpIndex = blockStartSnpIndex + bit;
+                    runStartPosition = positions[bit];
+                }
+                inRun = !inRun;
+                transitions &= transitions - 1L;
+            }
+            
+            previousPosition = positions[blockSize - 1];
+            blockStartSnpIndex += blockSize;
+        }
+        
+        if(inRun)
+        {
+            addRun(
+                    intervals,
+                    chromosomeNumber,
+                    blockStartSnpIndex - runStartSnpIndex,
+                    runStartPosition,
+                    previousPosition,
+                    minimumExtentInSnps,
+                    minimumExtentInBasePairs);
+        }
+        
+        return new SnpIntervalList(
+                intervals,
+                snpPositionInputStream.getStartInBasePairs(),
+                snpPositionInputStream.getExtentInBasePairs());
+    }
+    
+    /**
+     * Add a run of matching SNPs to the intervals if it's long enough
+     * @param intervals
+     *          the intervals to add to
+     * @param chromosomeNumber
+     *          the chromosome number
+     * @param extentInSnps
+     *          the number of SNPs in the run
+     * @param startPosition
+     *          the position of the run's first SNP
+     * @param endPosition
+     *          the position of the run's last SNP
+     * @param minimumExtentInSnps
+     *          the minimum extent in SNPs
+     * @param minimumExtentInBasePairs
+     *          the minimum extent in base pairs
+     */
+    private static void addRun(
+            List<BasePairInterval> intervals,
+            int chromosomeNumber,
+            long extentInSnps,
+            long startPosition,
+            long endPosition,
+            int minimumExtentInSnps,
+            long minimumExtentInBasePairs)
+    {
+        long extentInBasePairs = 1L + endPosition - startPosition;
+        if(extentInSnps >= minimumExtentInSnps &&
+           extentInBasePairs >= minimumExtentInBasePairs)
+        {
+            intervals.add(new SimpleBasePairInterval(
+                    chromosomeNumber,
+                    startPosition,
+                    extentInBasePairs));
+        }
+    }
+}
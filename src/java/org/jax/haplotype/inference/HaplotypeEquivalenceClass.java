@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.io.Serializable;
+import java.util.BitSet;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.PartitionedIntervalSet;
+import org.jax.geneticutil.data.SimpleBasePairInterval;
+import org.jax.geneticutil.data.SimplePartitionedIntervalSet;
+
+/**
+ * A haplotype equivalence class: all of the intervals (possibly spanning
+ * several chromosomes) that share a single strain grouping. The intervals
+ * are held in primitive arrays in the order that they were added.
+ * @see HaplotypeEquivalenceClassBuilder
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class HaplotypeEquivalenceClass implements Serializable
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = -1750946245383592164L;
+    
+    private final long[] packedStrains;
+    
+    private final int[] chromosomeNumbers;
+    
+    private final long[] startsInBasePairs;
+    
+    private final long[] extentsInBasePairs;
+    
+    /**
+     * Constructor. The arrays are used directly, not copied
+     * @param packedStrains
+     *          the strains packed 64 per word
+     * @param chromosomeNumbers
+     *          the chromosome of each interval
+     * @param startsInBasePairs
+     *          the start of each interval
+     * @param extentsInBasePairs
+     *          the extent of each interval
+     */
+    public HaplotypeEquivalenceClass(
+            long[] packedStrains,
+            int[] chromosomeNumbers,
+            long[] startsInBasePairs,
+            long[] extentsInBasePairs)
+    {
+        if(chromosomeNumbers.length != startsInBasePairs.length ||
+           chromosomeNumbers.length != extentsInBasePairs.length)
+        {
+            throw new IllegalArgumentException(
+                    "the interval arrays must all have the same length");
+        }
+        
+        this.packedStrains = packedStrains;
+        this.chromosomeNumbers = chromosomeNumbers;
+        this.startsInBasePairs = startsInBasePairs;
+        this.extentsInBasePairs = extentsInBasePairs;
+    }
+    
+    /**
+     * Get the strains in this equivalence class
+     * @return
+     *          a new bit set holding the strains
+     */
+    public BitSet getStrainBitSet()
+    {
+        BitSet strains = new BitSet();
+        for(int wordIndex = 0; wordIndex < this.packedStrains.length; wordIndex++)
+        {
+            long word = this.packedStrains[wordIndex];
+            while(word != 0L)
+            {
+                strains.set((wordIndex << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1L;
+            }
+        }
+        
+        return strains;
+    }
+    
+    /**
+     * Get the number of intervals in this class
+     * @return
+     *          the interval count
+     */
+    public int getIntervalCount()
+    {
+        return this.chromosomeNumbers.length;
+    }
+    
+    /**
+     * Get the chromosome of the given interval
+     * @param intervalIndex
+     *          the interval index
+     * @return
+     *          the chromosome number
+     */
+    public int getChromosomeNumber(int intervalIndex)
+    {
+        return this.chromosomeNumbers[intervalIndex];
+    }
+    
+    /**
+     * Get the start of the given interval
+     * @param intervalIndex
+     *          the interval index
+     * @return
+     *          the start in base pairs
+     */
+    public long getStartInBasePairs(int intervalIndex)
+    {
+        return this.startsInBasePairs[intervalIndex];
+    }
+    
+    /**
+     * Get the extent of the given interval
+     * @param intervalIndex
+     *          the interval index
+     * @return
+     *          the extent in base pairs
+     */
+    public long getExtentInBasePairs(int intervalIndex)
+    {
+        return this.extentsInBasePairs[intervalIndex];
+    }
+    
+    /**
+     * Convert the intervals into interval objects
+     * @return
+     *          the intervals
+     */
+    public BasePairInterval[] toBasePairIntervals()
+    {
+        BasePairInterval[] intervals =
+            new BasePairInterval[this.chromosomeNumbers.length];
+        for(int i = 0; i < intervals.length; i++)
+        {
+            intervals[i] = new SimpleBasePairInterval(
+                    this.chromosomeNumbers[i],
+                    this.startsInBasePairs[i],
+                    this.extentsInBasePairs[i]);
+        }
+        
+        return intervals;
+    }
+    
+    /**
+     * Convert this equivalence class into a {@link PartitionedIntervalSet}
+     * @return
+     *          the partitioned interval set
+     */
+    public PartitionedIntervalSet toPartitionedIntervalSet()
+    {
+        return new SimplePartitionedIntervalSet(
+                this.getStrainBitSet(),
+                this.toBasePairIntervals());
+    }
+}
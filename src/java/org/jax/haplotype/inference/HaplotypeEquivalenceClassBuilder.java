@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.jax.geneticutil.data.PartitionedInterval;
+
+/**
+ * Incrementally builds haplotype equivalence classes from a stream of
+ * haplotype blocks which may come from any number of chromosomes. Blocks are
+ * grouped by their packed strain masks and only the primitive interval
+ * bounds of each block are retained, so blocks can be handed over as they
+ * are estimated rather than held in a list.
+ * <br/><br/>
+ * This class is not thread safe.
+ * @see HaplotypeEquivalenceClassCreator
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class HaplotypeEquivalenceClassBuilder
+{
+    private static final int INITIAL_CLASS_CAPACITY = 4;
+    
+    private static final int EMPTY_SLOT = -1;
+    
+    private final ArrayList<ClassAccumulator> classes =
+        new ArrayList<ClassAccumulator>();
+    
+    private int[] hashTable = newHashTable(64);
+    
+    private long[] packedScratch = new long[1];
+    
+    private ClassAccumulator lastClass = null;
+    
+    /**
+     * Add the given haplotype block
+     * @param haplotypeBlock
+     *          the block to add
+     */
+    public void addBlock(PartitionedInterval haplotypeBlock)
+    {
+        this.addBlock(
+                haplotypeBlock.getChromosomeNumber(),
+                haplotypeBlock.getStartInBasePairs(),
+                haplotypeBlock.getExtentInBasePairs(),
+                haplotypeBlock.getStrainBitSet());
+    }
+    
+    /**
+     * Add all of the given haplotype blocks
+     * @param haplotypeBlocks
+     *          the blocks to add
+     */
+    public void addBlocks(Iterable<? extends PartitionedInterval> haplotypeBlocks)
+    {
+        for(PartitionedInterval haplotypeBlock: haplotypeBlocks)
+        {
+            this.addBlock(haplotypeBlock);
+        }
+    }
+    
+    /**
+     * Add a haplotype block
+     * @param chromosomeNumber
+     *          the block's chromosome
+     * @param startInBasePairs
+     *          the block's start
+     * @param extentInBasePairs
+     *          the block's extent
+     * @param strains
+     *          the strains that share the haplotype
+     */
+    public void addBlock(
+            int chromosomeNumber,
+            long startInBasePairs,
+            long extentInBasePairs,
+            BitSet strains)
+    {
+        int wordCount = this.packStrains(strains);
+        
+        // consecutive blocks often share strains so check the last class
+        // before going to the hash table
+        ClassAccumulator equivClass = this.lastClass;
+        if(equivClass == null || !equivClass.hasStrains(this.packedScratch, wordCount))
+        {
+            equivClass = this.findOrCreateClass(wordCount);
+            this.lastClass = equivClass;
+        }
+        
+        equivClass.add(chromosomeNumber, startInBasePairs, extentInBasePairs);
+    }
+    
+    /**
+     * Get the number of equivalence classes seen so far
+     * @return
+     *          the class count
+     */
+    public int getEquivalenceClassCount()
+    {
+        return this.classes.size();
+    }
+    
+    /**
+     * Create the equivalence classes for all of the blocks added so far. The
+     * classes are ordered by their first appearance
+     * @return
+     *          the equivalence classes
+     */
+    public List<HaplotypeEquivalenceClass> createEquivalenceClasses()
+    {
+        List<HaplotypeEquivalenceClass> equivalenceClasses =
+            new ArrayList<HaplotypeEquivalenceClass>(this.classes.size());
+        for(ClassAccumulator equivClass: this.classes)
+        {
+            equivalenceClasses.add(equivClass.toEquivalenceClass());
+        }
+        
+        return equivalenceClasses;
+    }
+    
+    /**
+     * Pack the strains into the scratch array
+     * @param strains
+     *          the strains
+     * @return
+     *          the number of words used (trailing zero words are dropped)
+     */
+    private int packStrains(BitSet strains)
+    {
+        int wordCount = (strains.length() + 63) >>> 6;
+        if(this.packedScratch.length < wordCount)
+        {
+            this.packedScratch = new long[wordCount];
+        }
+        else
+        {
+            Arrays.fill(this.packedScratch, 0, wordCount, 0L);
+        }
+        
+        for(int i = strains.nextSetBit(0); i >= 0; i = strains.nextSetBit(i + 1))
+        {
+            this.packedScratch[i >>> 6] |= 1L << i;
+        }
+        
+        return wordCount;
+    }
+    
+    private ClassAccumulator findOrCreateClass(int wordCount)
+    {
+        long[] packedStrains = this.packedScratch;
+        int mask = this.hashTable.length - 1;
+        int slot = hashPackedStrains(packedStrains, wordCount) & mask;
+        while(true)
+        {
+            int classIndex = this.hashTable[slot];
+            if(classIndex == EMPTY_SLOT)
+            {
+                long[] newClassStrains = new long[wordCount];
+                System.arraycopy(packedStrains, 0, newClassStrains, 0, wordCount);
+                ClassAccumulator newClass = new ClassAccumulator(newClassStrains);
+                this.hashTable[slot] = this.classes.size();
+                this.classes.add(newClass);
+                
+                if(this.classes.size() * 2 > this.hashTable.length)
+                {
+                    this.rehash(this.hashTable.length * 2);
+                }
+                
+                return newClass;
+            }
+            else
+            {
+                ClassAccumulator equivClass = this.classes.get(classIndex);
+                if(equivClass.hasStrains(packedStrains, wordCount))
+                {
+                    return equivClass;
+                }
+            }
+            
+            slot = (slot + 1) & mask;
+        }
+    }
+    
+    private void rehash(int newSize)
+    {
+        int[] newTable = newHashTable(newSize);
+        int mask = newSize - 1;
+        for(int i = 0; i < this.classes.size(); i++)
+        {
+            long[] packedStrains = this.classes.get(i).packedStrains;
+            int slot = hashPackedStrains(packedStrains, packedStrains.length) & mask;
+            while(newTable[slot] != EMPTY_SLOT)
+            {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = i;
+        }
+        this.hashTable = newTable;
+    }
+    
+    private static int[] newHashTable(int size)
+    {
+        int[] table = new int[size];
+        Arrays.fill(table, EMPTY_SLOT);
+        return table;
+    }
+    
+    private static int hashPackedStrains(long[] packedStrains, int wordCount)
+    {
+        long hash = 0x9E3779B97F4A7C15L;
+        for(int i = 0; i < wordCount; i++)
+        {
+            hash = (hash ^ packedStrains[i]) * 0xC2B2AE3D27D4EB4FL;
+        }
+        
+        return (int)(hash ^ (hash >>> 32));
+    }
+    
+    /**
+     * Growable primitive interval arrays for a single class
+     */
+    private static final class ClassAccumulator
+    {
+        private final long[] packedStrains;
+        
+        private int[] chromosomeNumbers = new int[INITIAL_CLASS_CAPACITY];
+        
+        private long[] startsInBasePairs = new long[INITIAL_CLASS_CAPACITY];
+        
+        private long[] extentsInBasePairs = new long[INITIAL_CLASS_CAPACITY];
+        
+        private int size = 0;
+        
+        /**
+         * Constructor
+         * @param packedStrains
+         *          the packed strains with trailing zero words dropped
+         */
+        public ClassAccumulator(long[] packedStrains)
+        {
+            this.packedStrains = packedStrains;
+        }
+        
+        /**
+         * Determine if this class has the given strains
+         * @param packedStrains
+         *          the packed strains
+         * @param wordCount
+         *          the number of words used in packed strains
+         * @return
+         *          true if the strains match
+         */
+        public boolean hasStrains(long[] packedStrains, int wordCount)
+        {
+            if(this.packedStrains.length != wordCount)
+            {
+                return false;
+            }
+            
+            for(int i = 0; i < wordCount; i++)
+            {
+                if(this.packedStrains[i] != packedStrains[i])
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        /**
+         * Append an interval
+         * @param chromosomeNumber
+         *          the chromosome
+         * @param startInBasePairs
+         *          the start
+         * @param extentInBasePairs
+         *          the extent
+         */
+        public void add(
+                int chromosomeNumber,
+                long startInBasePairs,
+                long extentInBasePairs)
+        {
+            if(this.size == this.chromosomeNumbers.length)
+            {
+                this.setCapacity(this.size * 2);
+            }
+            
+            this.chromosomeNumbers[this.size] = chromosomeNumber;
+            this.startsInBasePairs[this.size] = startInBasePairs;
+            this.extentsInBasePairs[this.size] = extentInBasePairs;
+            this.size++;
+        }
+        
+        /**
+         * Create an equivalence class from the intervals accumulated so far
+         * @return
+         *          the class
+         */
+        public HaplotypeEquivalenceClass toEquivalenceClass()
+        {
+            int[] classChromosomes = new int[this.size];
+            long[] classStarts = new long[this.size];
+            long[] classExtents = new long[this.size];
+            System.arraycopy(this.chromosomeNumbers, 0, classChromosomes, 0, this.size);
+            System.arraycopy(this.startsInBasePairs, 0, classStarts, 0, this.size);
+            System.arraycopy(this.extentsInBasePairs, 0, classExtents, 0, this.size);
+            
+            return new HaplotypeEquivalenceClass(
+                    this.packedStrains.clone(),
+                    classChromosomes,
+                    classStarts,
+                    classExtents);
+        }
+        
+        private void setCapacity(int capacity)
+        {
+            int[] newChromosomes = new int[capacity];
+            long[] newStarts = new long[capacity];
+            long[] newExtents = new long[capacity];
+            System.arraycopy(this.chromosomeNumbers, 0, newChromosomes, 0, this.size);
+            System.arraycopy(this.startsInBasePairs, 0, newStarts, 0, this.size);
+            System.arraycopy(this.extentsInBasePairs, 0, newExtents, 0, this.size);
+            this.chromosomeNumbers = newChromosomes;
+            this.startsInBasePairs = newStarts;
+            this.extentsInBasePairs = newExtents;
+        }
+    }
+}
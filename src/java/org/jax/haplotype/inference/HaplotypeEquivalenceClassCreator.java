@@ -18,21 +18,15 @@
 package org.jax.haplotype.inference;
 
 import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
-import org.jax.geneticutil.data.BasePairInterval;
 import org.jax.geneticutil.data.PartitionedInterval;
 import org.jax.geneticutil.data.PartitionedIntervalSet;
-import org.jax.geneticutil.data.SimpleBasePairInterval;
-import org.jax.geneticutil.data.SimplePartitionedIntervalSet;
 
 /**
- * A class for extracting equivalence classes from a list of haplotype blocks
+ * A class for extracting equivalence classes from a list of haplotype blocks.
+ * Use {@link HaplotypeEquivalenceClassBuilder} directly to build classes from
+ * blocks as they are estimated without holding the whole block list.
  * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
  */
 public class HaplotypeEquivalenceClassCreator
@@ -48,49 +42,17 @@ public class HaplotypeEquivalenceClassCreator
     public static List<PartitionedIntervalSet> createEquivalenceClassesFromBlocks(
             List<PartitionedInterval> haplotypeBlocks)
     {
-        Map<BitSet, List<PartitionedInterval>> haplotypeEquivMap =
-            new HashMap<BitSet, List<PartitionedInterval>>();
-        for(PartitionedInterval currHaplotypeBlock: haplotypeBlocks)
-        {
-            List<PartitionedInterval> currHaplotypeList =
-                haplotypeEquivMap.get(currHaplotypeBlock.getStrainBitSet());
-            if(currHaplotypeList == null)
-            {
-                currHaplotypeList = new ArrayList<PartitionedInterval>();
-                haplotypeEquivMap.put(
-                        currHaplotypeBlock.getStrainBitSet(),
-                        currHaplotypeList);
-            }
-            
-            currHaplotypeList.add(currHaplotypeBlock);
-        }
+        HaplotypeEquivalenceClassBuilder builder =
+            new HaplotypeEquivalenceClassBuilder();
+        builder.addBlocks(haplotypeBlocks);
         
+        List<HaplotypeEquivalenceClass> equivalenceClasses =
+            builder.createEquivalenceClasses();
         List<PartitionedIntervalSet> equivalenceClassList =
-            new ArrayList<PartitionedIntervalSet>(haplotypeEquivMap.size());
-        Iterator<Entry<BitSet, List<PartitionedInterval>>> equivalenceEntryIter =
-            haplotypeEquivMap.entrySet().iterator();
-        while(equivalenceEntryIter.hasNext())
+            new ArrayList<PartitionedIntervalSet>(equivalenceClasses.size());
+        for(HaplotypeEquivalenceClass equivalenceClass: equivalenceClasses)
         {
-            Entry<BitSet, List<PartitionedInterval>> currEntry =
-                equivalenceEntryIter.next();
-            List<PartitionedInterval> currHapList = currEntry.getValue();
-            
-            BasePairInterval[] newSnpBlocks =
-                new BasePairInterval[currHapList.size()];
-            for(int blockIndex = 0; blockIndex < newSnpBlocks.length; blockIndex++)
-            {
-                PartitionedInterval currHaplotypeBlock = currHapList.get(blockIndex);
-                newSnpBlocks[blockIndex] = new SimpleBasePairInterval(
-                        currHaplotypeBlock.getChromosomeNumber(),
-                        currHaplotypeBlock.getStartInBasePairs(),
-                        currHaplotypeBlock.getExtentInBasePairs());
-            }
-            
-            equivalenceClassList.add(new SimplePartitionedIntervalSet(
-                    currEntry.getKey(),
-                    newSnpBlocks));
-            
-            equivalenceEntryIter.remove();
+            equivalenceClassList.add(equivalenceClass.toPartitionedIntervalSet());
         }
         
         return equivalenceClassList;
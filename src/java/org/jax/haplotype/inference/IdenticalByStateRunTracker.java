@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.SimpleBasePairInterval;
+
+/**
+ * Tracks runs of matching SNPs for a set of comparison strains. Each SDP
+ * bit says whether a strain matches the reference at that SNP. Rather than
+ * visiting every strain at every SNP, the new SDP is XORed against the
+ * previous one (a word at a time inside of {@link BitSet}) and only the
+ * strains whose match state flipped are visited. Long stretches where no
+ * run starts or ends cost a few word operations per SNP.
+ * <br/><br/>
+ * This class is not thread safe.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ class IdenticalByStateRunTracker
+{
+    private final int chromosomeNumber;
+    
+    private final long minimumExtentInSnps;
+    
+    private final long minimumExtentInBasePairs;
+    
+    private final BitSet previousSdp = new BitSet();
+    
+    private final BitSet flippedStrains = new BitSet();
+    
+    private final long[] runStartSnpIndices;
+    
+    private final long[] runStartPositions;
+    
+    private final List<BasePairInterval>[] ibsIntervalLists;
+    
+    private long snpIndex = 0L;
+    
+    private long previousPosition = -1L;
+    
+    /**
+     * Constructor
+     * @param strainCount
+     *          the number of comparison strains
+     * @param chromosomeNumber
+     *          the chromosome number to use for the intervals
+     * @param minimumExtentInSnps
+     *          the minimum number of consecutive SNPs before we call
+     *          something IBS
+     * @param minimumExtentInBasePairs
+     *          the minimum extent in base pairs before we call something IBS
+     */
+    @SuppressWarnings("unchecked")
+    public IdenticalByStateRunTracker(
+            int strainCount,
+            int chromosomeNumber,
+            long minimumExtentInSnps,
+            long minimumExtentInBasePairs)
+    {
+        this.chromosomeNumber = chromosomeNumber;
+        this.minimumExtentInSnps = minimumExtentInSnps;
+        this.minimumExtentInBasePairs = minimumExtentInBasePairs;
+        
+        this.runStartSnpIndices = new long[strainCount];
+        Arrays.fill(this.runStartSnpIndices, -1L);
+        this.runStartPositions = new long[strainCount];
+        Arrays.fill(this.runStartPositions, -1L);
+        
+        this.ibsIntervalLists = (List<BasePairInterval>[])new List<?>[strainCount];
+        for(int i = 0; i < strainCount; i++)
+        {
+            this.ibsIntervalLists[i] = new ArrayList<BasePairInterval>();
+        }
+    }
+    
+    /**
+     * Add the next SNP
+     * @param matchingStrains
+     *          the strains that match the reference at this SNP
+     * @param positionInBasePairs
+     *          the SNP position
+     */
+    public void addSdp(BitSet matchingStrains, long positionInBasePairs)
+    {
+        // flipped = previous ^ next
+        BitSet flipped = this.flippedStrains;
+        flipped.clear();
+        flipped.or(matchingStrains);
+        flipped.xor(this.previousSdp);
+        
+        for(int i = flipped.nextSetBit(0);
+            i >= 0 && i < this.runStartSnpIndices.length;
+            i = flipped.nextSetBit(i + 1))
+        {
+            if(this.runStartSnpIndices[i] == -1L)
+            {
+                // a new run starts here
+                this.runStartSnpIndices[i] = this.snpIndex;
+                this.runStartPositions[i] = positionInBasePairs;
+            }
+            else
+            {
+                // the run ended at the previous SNP
+                this.endRun(i);
+            }
+        }
+        
+        // previous ^ (previous ^ next) == next
+        this.previousSdp.xor(flipped);
+        
+        this.snpIndex++;
+        this.previousPosition = positionInBasePairs;
+    }
+    
+    /**
+     * Close out any open runs
+     * @return
+     *          the IBS intervals for each strain
+     */
+    public List<BasePairInterval>[] finish()
+    {
+        for(int i = 0; i < this.runStartSnpIndices.length; i++)
+        {
+            if(this.runStartSnpIndices[i] != -1L)
+            {
+                this.endRun(i);
+            }
+        }
+        this.previousSdp.clear();
+        
+        return this.ibsIntervalLists;
+    }
+    
+    /**
+     * End the run for the given strain at the previous SNP
+     * @param strainIndex
+     *          the strain index
+     */
+    private void endRun(int strainIndex)
+    {
+        long runStartPosition = this.runStartPositions[strainIndex];
+        long extentInSnps = this.snpIndex - this.runStartSnpIndices[strainIndex];
+        long extentInBasePairs = 1L + this.previousPosition - runStartPosition;
+        if(extentInBasePairs >= this.minimumExtentInBasePairs &&
+           extentInSnps >= this.minimumExtentInSnps)
+        {
+            this.ibsIntervalLists[strainIndex].add(new SimpleBasePairInterval(
+                    this.chromosomeNumber,
+                    runStartPosition,
+                    extentInBasePairs));
+        }
+        
+        this.runStartSnpIndices[strainIndex] = -1L;
+        this.runStartPositions[strainIndex] = -1L;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Per strain pair IBS totals: the number of base pairs shared IBS, the
+ * number of IBS segments and the longest IBS segment. Each total is held in
+ * a symmetric N&times;N matrix indexed by strain (in
+ * {@link #getStrainNames()} order). The diagonal is always zero.
+ * @see IdenticalByStateSummaryAggregator
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class IdenticalByStateSummary implements Serializable
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = -6200452766406447313L;
+    
+    private final String[] strainNames;
+    
+    private final long[][] sharedBasePairs;
+    
+    private final int[][] segmentCounts;
+    
+    private final long[][] longestSegmentsInBasePairs;
+    
+    /**
+     * Constructor for an empty summary (all totals zero)
+     * @param strainNames
+     *          the strain names
+     */
+    public IdenticalByStateSummary(String[] strainNames)
+    {
+        int strainCount = strainNames.length;
+        this.strainNames = strainNames;
+        this.sharedBasePairs = new long[strainCount][strainCount];
+        this.segmentCounts = new int[strainCount][strainCount];
+        this.longestSegmentsInBasePairs = new long[strainCount][strainCount];
+    }
+    
+    /**
+     * Getter for the strain names
+     * @return the strain names
+     */
+    public String[] getStrainNames()
+    {
+        return this.strainNames;
+    }
+    
+    /**
+     * Get the total IBS extent shared by two strains
+     * @param strainIndex1
+     *          the 1st strain
+     * @param strainIndex2
+     *          the 2nd strain
+     * @return
+     *          the shared base pairs
+     */
+    public long getSharedBasePairs(int strainIndex1, int strainIndex2)
+    {
+        return this.sharedBasePairs[strainIndex1][strainIndex2];
+    }
+    
+    /**
+     * Get the number of IBS segments shared by two strains
+     * @param strainIndex1
+     *          the 1st strain
+     * @param strainIndex2
+     *          the 2nd strain
+     * @return
+     *          the segment count
+     */
+    public int getSegmentCount(int strainIndex1, int strainIndex2)
+    {
+        return this.segmentCounts[strainIndex1][strainIndex2];
+    }
+    
+    /**
+     * Get the longest IBS segment shared by two strains
+     * @param strainIndex1
+     *          the 1st strain
+     * @param strainIndex2
+     *          the 2nd strain
+     * @return
+     *          the longest segment's extent in base pairs
+     */
+    public long getLongestSegmentInBasePairs(int strainIndex1, int strainIndex2)
+    {
+        return this.longestSegmentsInBasePairs[strainIndex1][strainIndex2];
+    }
+    
+    /**
+     * Getter for the shared base pair matrix. The matrix is shared so it
+     * must not be modified
+     * @return the matrix
+     */
+    public long[][] getSharedBasePairsMatrix()
+    {
+        return this.sharedBasePairs;
+    }
+    
+    /**
+     * Getter for the segment count matrix. The matrix is shared so it
+     * must not be modified
+     * @return the matrix
+     */
+    public int[][] getSegmentCountMatrix()
+    {
+        return this.segmentCounts;
+    }
+    
+    /**
+     * Getter for the longest segment matrix. The matrix is shared so it
+     * must not be modified
+     * @return the matrix
+     */
+    public long[][] getLongestSegmentInBasePairsMatrix()
+    {
+        return this.longestSegmentsInBasePairs;
+    }
+    
+    /**
+     * Fold a single pair's totals into this summary
+     * @param strainIndex1
+     *          the 1st strain
+     * @param strainIndex2
+     *          the 2nd strain
+     * @param sharedBasePairs
+     *          the base pairs to add
+     * @param segmentCount
+     *          the segments to add
+     * @param longestSegmentInBasePairs
+     *          the longest segment to consider
+     */
+    void addPairTotals(
+            int strainIndex1,
+            int strainIndex2,
+            long sharedBasePairs,
+            int segmentCount,
+            long longestSegmentInBasePairs)
+    {
+        this.addCellTotals(
+                strainIndex1, strainIndex2,
+                sharedBasePairs, segmentCount, longestSegmentInBasePairs);
+        this.addCellTotals(
+                strainIndex2, strainIndex1,
+                sharedBasePairs, segmentCount, longestSegmentInBasePairs);
+    }
+    
+    /**
+     * Fold another summary (typically for a different chromosome) into
+     * this one
+     * @param otherSummary
+     *          the summary to add. it must have the same strains in the
+     *          same order
+     */
+    void addSummary(IdenticalByStateSummary otherSummary)
+    {
+        if(!Arrays.equals(this.strainNames, otherSummary.strainNames))
+        {
+            throw new IllegalArgumentException(
+                    "can only combine summaries with matching strains");
+        }
+        
+        int strainCount = this.strainNames.length;
+        for(int i = 0; i < strainCount; i++)
+        {
+            for(int j = 0; j < strainCount; j++)
+            {
+                this.addCellTotals(
+                        i, j,
+                        otherSummary.sharedBasePairs[i][j],
+                        otherSummary.segmentCounts[i][j],
+                        otherSummary.longestSegmentsInBasePairs[i][j]);
+            }
+        }
+    }
+    
+    private void addCellTotals(
+            int row,
+            int column,
+            long sharedBasePairs,
+            int segmentCount,
+            long longestSegmentInBasePairs)
+    {
+        this.sharedBasePairs[row][column] += sharedBasePairs;
+        this.segmentCounts[row][column] += segmentCount;
+        if(longestSegmentInBasePairs > this.longestSegmentsInBasePairs[row][column])
+        {
+            this.longestSegmentsInBasePairs[row][column] = longestSegmentInBasePairs;
+        }
+    }
+}
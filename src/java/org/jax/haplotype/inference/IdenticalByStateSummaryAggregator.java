@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jax.haplotype.data.ChromosomeDataSource;
+import org.jax.haplotype.data.GenomeDataSource;
+import org.jax.haplotype.io.SdpInputStream;
+import org.jax.haplotype.io.SnpPositionInputStream;
+
+/**
+ * Calculates genome wide IBS sharing totals for every pair of strains.
+ * Each chromosome is summarized in a single streaming pass over its SDPs
+ * without building any segment lists and chromosomes are summarized in
+ * parallel.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class IdenticalByStateSummaryAggregator
+{
+    private final long minimumExtentInSnps;
+    
+    private final long minimumExtentInBasePairs;
+    
+    /**
+     * Constructor
+     * @param minimumExtentInSnps
+     *          the minimum number of consecutive SNPs before we call something
+     *          IBS
+     * @param minimumExtentInBasePairs
+     *          the minimum extent in base pairs before we call something IBS
+     */
+    public IdenticalByStateSummaryAggregator(
+            long minimumExtentInSnps,
+            long minimumExtentInBasePairs)
+    {
+        this.minimumExtentInSnps = minimumExtentInSnps;
+        this.minimumExtentInBasePairs = minimumExtentInBasePairs;
+    }
+    
+    /**
+     * Summarize a single chromosome
+     * @param rawSdpStream
+     *          the un-normalized SDPs
+     * @param snpPositionInputStream
+     *          the SNP positions
+     * @return
+     *          the summary
+     * @throws IOException
+     *          if reading either stream fails
+     */
+    public IdenticalByStateSummary summarizeChromosome(
+            SdpInputStream rawSdpStream,
+            SnpPositionInputStream snpPositionInputStream)
+            throws IOException
+    {
+        IdenticalByStateSummaryTracker summaryTracker =
+            new IdenticalByStateSummaryTracker(
+                    rawSdpStream.getSdpStrainNames(),
+                    snpPositionInputStream.getChromosomeNumber(),
+                    this.minimumExtentInSnps,
+                    this.minimumExtentInBasePairs);
+        while(rawSdpStream.hasNextSdp())
+        {
+            long nextPosition =
+                snpPositionInputStream.getNextSnpPositionInBasePairs();
+            summaryTracker.addSdp(
+                    rawSdpStream.getNextSdp(),
+                    nextPosition);
+        }
+        
+        return summaryTracker.finishSummary();
+    }
+    
+    /**
+     * Summarize every chromosome in the genome using one thread per
+     * available processor
+     * @param genomeDataSource
+     *          the genome
+     * @param strainNames
+     *          the strains to compare
+     * @return
+     *          the genome wide summary
+     * @throws IOException
+     *          if reading any chromosome fails
+     * @throws InterruptedException
+     *          if we're interrupted while waiting on chromosomes
+     */
+    public IdenticalByStateSummary summarizeGenome(
+            GenomeDataSource genomeDataSource,
+            String[] strainNames)
+            throws IOException, InterruptedException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try
+        {
+            return this.summarizeGenome(
+                    genomeDataSource,
+                    strainNames,
+                    executor);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * Summarize every chromosome in the genome. Each chromosome is submitted
+     * to the executor as a separate task
+     * @param genomeDataSource
+     *          the genome
+     * @param strainNames
+     *          the strains to compare
+     * @param executor
+     *          the executor that runs the per chromosome scans
+     * @return
+     *          the genome wide summary
+     * @throws IOException
+     *          if reading any chromosome fails
+     * @throws InterruptedException
+     *          if we're interrupted while waiting on chromosomes
+     */
+    public IdenticalByStateSummary summarizeGenome(
+            GenomeDataSource genomeDataSource,
+            final String[] strainNames,
+            ExecutorService executor)
+            throws IOException, InterruptedException
+    {
+        List<Future<IdenticalByStateSummary>> chromosomeSummaries =
+            new ArrayList<Future<IdenticalByStateSummary>>();
+        for(final ChromosomeDataSource chromosomeDataSource:
+            genomeDataSource.getChromosomeDataSources().values())
+        {
+            chromosomeSummaries.add(executor.submit(
+                    new Callable<IdenticalByStateSummary>()
+                    {
+                        public IdenticalByStateSummary call() throws IOException
+                        {
+                            return IdenticalByStateSummaryAggregator.this.summarizeChromosome(
+                                    chromosomeDataSource.getSdpInputStream(strainNames),
+                                    chromosomeDataSource.getSnpPositionInputStream());
+                        }
+                    }));
+        }
+        
+        IdenticalByStateSummary genomeSummary = new IdenticalByStateSummary(
+                strainNames);
+        try
+        {
+            for(Future<IdenticalByStateSummary> chromosomeSummary: chromosomeSummaries)
+            {
+                genomeSummary.addSummary(chromosomeSummary.get());
+            }
+        }
+        catch(ExecutionException ex)
+        {
+            for(Future<IdenticalByStateSummary> chromosomeSummary: chromosomeSummaries)
+            {
+                chromosomeSummary.cancel(true);
+            }
+            
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+            else if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            else if(cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            else
+            {
+                throw new IllegalStateException(cause);
+            }
+        }
+        
+        return genomeSummary;
+    }
+}
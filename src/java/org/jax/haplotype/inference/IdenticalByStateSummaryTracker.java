@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+/**
+ * An all pairs IBS tracker that folds every segment into per pair totals
+ * as soon as it ends rather than storing it
+ * <br/><br/>
+ * This class is not thread safe.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ class IdenticalByStateSummaryTracker
+extends AllPairsIdenticalByStateTracker
+{
+    private final long[] sharedBasePairs;
+    
+    private final int[] segmentCounts;
+    
+    private final long[] longestSegmentsInBasePairs;
+    
+    /**
+     * Constructor
+     * @param strainNames
+     *          the SDP strain names
+     * @param chromosomeNumber
+     *          the chromosome number
+     * @param minimumExtentInSnps
+     *          the minimum number of consecutive SNPs before we call
+     *          something IBS
+     * @param minimumExtentInBasePairs
+     *          the minimum extent in base pairs before we call something IBS
+     */
+    public IdenticalByStateSummaryTracker(
+            String[] strainNames,
+            int chromosomeNumber,
+            long minimumExtentInSnps,
+            long minimumExtentInBasePairs)
+    {
+        super(strainNames,
+              chromosomeNumber,
+              minimumExtentInSnps,
+              minimumExtentInBasePairs);
+        
+        int pairCount = PairwiseIdenticalByStateRegions.getPairCount(
+                strainNames.length);
+        this.sharedBasePairs = new long[pairCount];
+        this.segmentCounts = new int[pairCount];
+        this.longestSegmentsInBasePairs = new long[pairCount];
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void segmentFound(int pairIndex, long startInBasePairs, long extentInBasePairs)
+    {
+        this.sharedBasePairs[pairIndex] += extentInBasePairs;
+        this.segmentCounts[pairIndex]++;
+        if(extentInBasePairs > this.longestSegmentsInBasePairs[pairIndex])
+        {
+            this.longestSegmentsInBasePairs[pairIndex] = extentInBasePairs;
+        }
+    }
+    
+    /**
+     * Close out any open runs and build the summary
+     * @return
+     *          the summary
+     */
+    public IdenticalByStateSummary finishSummary()
+    {
+        this.endOpenRuns();
+        
+        String[] strainNames = this.getStrainNames();
+        IdenticalByStateSummary summary = new IdenticalByStateSummary(
+                strainNames);
+        int pairIndex = 0;
+        for(int i = 0; i < strainNames.length; i++)
+        {
+            for(int j = i + 1; j < strainNames.length; j++)
+            {
+                summary.addPairTotals(
+                        i,
+                        j,
+                        this.sharedBasePairs[pairIndex],
+                        this.segmentCounts[pairIndex],
+                        this.longestSegmentsInBasePairs[pairIndex]);
+                pairIndex++;
+            }
+        }
+        
+        return summary;
+    }
+}
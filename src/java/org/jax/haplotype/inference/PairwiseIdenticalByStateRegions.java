@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.SimpleBasePairInterval;
+import org.jax.geneticutil.data.SnpIntervalList;
+
+/**
+ * The IBS segments of every pair of strains on a single chromosome. The
+ * segments are held in primitive arrays indexed by strain pair: the
+ * segments for pair <code>p</code> are found at indices
+ * <code>[segmentOffsets[p], segmentOffsets[p + 1])</code> of the start and
+ * extent arrays, in chromosome order.
+ * @see ScanningIdenticalByStateFinder#findAllPairsIdenticalByStateRegions(org.jax.haplotype.io.SdpInputStream, org.jax.haplotype.io.SnpPositionInputStream, long, long)
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class PairwiseIdenticalByStateRegions implements Serializable
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = 2913306412264539311L;
+    
+    private final String[] strainNames;
+    
+    private final int chromosomeNumber;
+    
+    private final long startInBasePairs;
+    
+    private final long extentInBasePairs;
+    
+    private final int[] segmentOffsets;
+    
+    private final long[] segmentStartsInBasePairs;
+    
+    private final long[] segmentExtentsInBasePairs;
+    
+    /**
+     * Constructor. The arrays are used directly, not copied
+     * @param strainNames
+     *          the strain names
+     * @param chromosomeNumber
+     *          the chromosome number
+     * @param startInBasePairs
+     *          the start of the scanned region
+     * @param extentInBasePairs
+     *          the extent of the scanned region
+     * @param segmentOffsets
+     *          the offset of each pair's segments (with one extra entry
+     *          holding the total segment count)
+     * @param segmentStartsInBasePairs
+     *          the segment starts
+     * @param segmentExtentsInBasePairs
+     *          the segment extents
+     */
+    public PairwiseIdenticalByStateRegions(
+            String[] strainNames,
+            int chromosomeNumber,
+            long startInBasePairs,
+            long extentInBasePairs,
+            int[] segmentOffsets,
+            long[] segmentStartsInBasePairs,
+            long[] segmentExtentsInBasePairs)
+    {
+        if(segmentOffsets.length != getPairCount(strainNames.length) + 1)
+        {
+            throw new IllegalArgumentException(
+                    "expected one segment offset per strain pair plus one");
+        }
+        
+        this.strainNames = strainNames;
+        this.chromosomeNumber = chromosomeNumber;
+        this.startInBasePairs = startInBasePairs;
+        this.extentInBasePairs = extentInBasePairs;
+        this.segmentOffsets = segmentOffsets;
+        this.segmentStartsInBasePairs = segmentStartsInBasePairs;
+        this.segmentExtentsInBasePairs = segmentExtentsInBasePairs;
+    }
+    
+    /**
+     * Get the number of unordered pairs for the given number of strains
+     * @param strainCount
+     *          the strain count
+     * @return
+     *          the pair count
+     */
+    public static int getPairCount(int strainCount)
+    {
+        return (strainCount * (strainCount - 1)) / 2;
+    }
+    
+    /**
+     * Get the index of the given pair of strains
+     * @param strainCount
+     *          the number of strains
+     * @param strainIndex1
+     *          the 1st strain index
+     * @param strainIndex2
+     *          the 2nd strain index (must differ from the 1st)
+     * @return
+     *          the pair index
+     */
+    public static int getPairIndex(
+            int strainCount,
+            int strainIndex1,
+            int strainIndex2)
+    {
+        if(strainIndex1 == strainIndex2)
+        {
+            throw new IllegalArgumentException(
+                    "a strain can't be paired with itself");
+        }
+        else if(strainIndex1 > strainIndex2)
+        {
+            int tmp = strainIndex1;
+            strainIndex1 = strainIndex2;
+            strainIndex2 = tmp;
+        }
+        
+        return ((strainIndex1 * (2 * strainCount - strainIndex1 - 1)) / 2) +
+               (strainIndex2 - strainIndex1 - 1);
+    }
+    
+    /**
+     * Getter for the strain names
+     * @return the strain names
+     */
+    public String[] getStrainNames()
+    {
+        return this.strainNames;
+    }
+    
+    /**
+     * Getter for the chromosome number
+     * @return the chromosome number
+     */
+    public int getChromosomeNumber()
+    {
+        return this.chromosomeNumber;
+    }
+    
+    /**
+     * Getter for the start of the scanned region
+     * @return the start in base pairs
+     */
+    public long getStartInBasePairs()
+    {
+        return this.startInBasePairs;
+    }
+    
+    /**
+     * Getter for the extent of the scanned region
+     * @return the extent in base pairs
+     */
+    public long getExtentInBasePairs()
+    {
+        return this.extentInBasePairs;
+    }
+    
+    /**
+     * Getter for the per pair segment offsets. The array has one entry per
+     * pair plus a final entry holding the total segment count. It is shared
+     * so it must not be modified
+     * @return the segment offsets
+     */
+    public int[] getSegmentOffsets()
+    {
+        return this.segmentOffsets;
+    }
+    
+    /**
+     * Getter for the segment starts in pair order. The array is shared so
+     * it must not be modified
+     * @return the segment starts
+     */
+    public long[] getSegmentStartsInBasePairs()
+    {
+        return this.segmentStartsInBasePairs;
+    }
+    
+    /**
+     * Getter for the segment extents in pair order. The array is shared so
+     * it must not be modified
+     * @return the segment extents
+     */
+    public long[] getSegmentExtentsInBasePairs()
+    {
+        return this.segmentExtentsInBasePairs;
+    }
+    
+    /**
+     * Get the index of the given strain
+     * @param strainName
+     *          the strain name
+     * @return
+     *          the index or -1 if there is no such strain
+     */
+    public int getStrainIndex(String strainName)
+    {
+        for(int i = 0; i < this.strainNames.length; i++)
+        {
+            if(this.strainNames[i].equals(strainName))
+            {
+                return i;
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Get the index of the given pair of strains
+     * @param strainIndex1
+     *          the 1st strain index
+     * @param strainIndex2
+     *          the 2nd strain index
+     * @return
+     *          the pair index
+     */
+    public int getPairIndex(int strainIndex1, int strainIndex2)
+    {
+        return getPairIndex(this.strainNames.length, strainIndex1, strainIndex2);
+    }
+    
+    /**
+     * Get the number of IBS segments for a pair
+     * @param pairIndex
+     *          the pair index
+     * @return
+     *          the segment count
+     */
+    public int getSegmentCount(int pairIndex)
+    {
+        return this.segmentOffsets[pairIndex + 1] - this.segmentOffsets[pairIndex];
+    }
+    
+    /**
+     * Get the start of an IBS segment
+     * @param pairIndex
+     *          the pair index
+     * @param segmentIndex
+     *          the index of the segment within the pair
+     * @return
+     *          the start in base pairs
+     */
+    public long getSegmentStartInBasePairs(int pairIndex, int segmentIndex)
+    {
+        return this.segmentStartsInBasePairs[
+                this.segmentOffsets[pairIndex] + segmentIndex];
+    }
+    
+    /**
+     * Get the extent of an IBS segment
+     * @param pairIndex
+     *          the pair index
+     * @param segmentIndex
+     *          the index of the segment within the pair
+     * @return
+     *          the extent in base pairs
+     */
+    public long getSegmentExtentInBasePairs(int pairIndex, int segmentIndex)
+    {
+        return this.segmentExtentsInBasePairs[
+                this.segmentOffsets[pairIndex] + segmentIndex];
+    }
+    
+    /**
+     * Get the IBS intervals for a pair of strains
+     * @param strainName1
+     *          the 1st strain
+     * @param strainName2
+     *          the 2nd strain
+     * @return
+     *          the intervals in the same form that
+     *          {@link ScanningIdenticalByStateFinder} produces for a single
+     *          reference and comparison strain
+     */
+    public SnpIntervalList getSnpIntervalList(
+            String strainName1,
+            String strainName2)
+    {
+        int strainIndex1 = this.getStrainIndex(strainName1);
+        int strainIndex2 = this.getStrainIndex(strainName2);
+        if(strainIndex1 == -1 || strainIndex2 == -1)
+        {
+            throw new IllegalArgumentException(
+                    "no IBS data for " + strainName1 + " and " + strainName2);
+        }
+        
+        int pairIndex = this.getPairIndex(strainIndex1, strainIndex2);
+        int segmentCount = this.getSegmentCount(pairIndex);
+        List<BasePairInterval> intervals = new ArrayList<BasePairInterval>(
+                segmentCount);
+        for(int i = 0; i < segmentCount; i++)
+        {
+            intervals.add(new SimpleBasePairInterval(
+                    this.chromosomeNumber,
+                    this.getSegmentStartInBasePairs(pairIndex, i),
+                    this.getSegmentExtentInBasePairs(pairIndex, i)));
+        }
+        
+        return new SnpIntervalList(
+                intervals,
+                this.startInBasePairs,
+                this.extentInBasePairs);
+    }
+}
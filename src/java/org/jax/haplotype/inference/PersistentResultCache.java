@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jax.haplotype.io.ResultCacheCodec;
+
+/**
+ * A directory of cached results that outlives the JVM. Cache files are
+ * content addressed: the file name is a hash of a key string that the
+ * caller builds from everything the result depends on (the identity of the
+ * input data, the strains, the algorithm version and the parameters) so
+ * a file can only ever hold one result and stale results are simply never
+ * looked up again.
+ * <br/><br/>
+ * Results are written to a temporary file in the cache directory and then
+ * renamed into place so readers (in this or any other process sharing the
+ * directory) never see a partially written file.
+ * <br/><br/>
+ * The directory defaults to a subdirectory of <code>java.io.tmpdir</code>
+ * and can be changed with the {@link #CACHE_DIRECTORY_PROPERTY} system
+ * property.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ class PersistentResultCache
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            PersistentResultCache.class.getName());
+    
+    /**
+     * the system property that overrides the default cache directory
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY =
+        "org.jax.haplotype.cacheDirectory";
+    
+    private static final String DEFAULT_CACHE_DIRECTORY_NAME =
+        "haplotype-result-cache";
+    
+    private static final String CACHE_FILE_SUFFIX = ".cache";
+    
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    
+    private static final String CHECKPOINT_FILE_SUFFIX = ".checkpoint";
+    
+    /**
+     * temporary files older than this were left behind by a process that
+     * died mid write
+     */
+    private static final long STALE_TEMPORARY_FILE_AGE_MILLIS =
+        24L * 60L * 60L * 1000L;
+    
+    private final File directory;
+    
+    /**
+     * Constructor
+     * @param directory
+     *          the cache directory (created on demand)
+     */
+    public PersistentResultCache(File directory)
+    {
+        this.directory = directory;
+        this.deleteStaleTemporaryFiles();
+    }
+    
+    /**
+     * Get the default cache directory
+     * @return
+     *          the directory named by {@link #CACHE_DIRECTORY_PROPERTY} or
+     *          a directory under <code>java.io.tmpdir</code> if the
+     *          property isn't set
+     */
+    public static File getDefaultDirectory()
+    {
+        String directoryName = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if(directoryName == null || directoryName.length() == 0)
+        {
+            return new File(
+                    System.getProperty("java.io.tmpdir"),
+                    DEFAULT_CACHE_DIRECTORY_NAME);
+        }
+        else
+        {
+            return new File(directoryName);
+        }
+    }
+    
+    /**
+     * Getter for the cache directory
+     * @return the directory
+     */
+    public File getDirectory()
+    {
+        return this.directory;
+    }
+    
+    /**
+     * Get the cache file for the given key. This function will not create
+     * the file on disk
+     * @param filePrefix
+     *          a prefix naming the kind of result (just to make the
+     *          directory easier on human eyes)
+     * @param cacheKey
+     *          a string that identifies everything the result depends on
+     * @return
+     *          the file
+     */
+    public File getCacheFile(String filePrefix, String cacheKey)
+    {
+        // the codec version is part of the key so that a format change
+        // never even tries to read old files
+        String versionedKey =
+            cacheKey + "&codec-" + ResultCacheCodec.FORMAT_VERSION;
+        return new File(
+                this.directory,
+                filePrefix + "-" + toHexDigest(versionedKey) + CACHE_FILE_SUFFIX);
+    }
+    
+    /**
+     * Create a temporary file that a result for the given cache file can be
+     * written to. Once the write is done call
+     * {@link #commitTemporaryFile(File, File)}. If the write fails or the
+     * commit never happens the caller should delete the temporary file
+     * rather than leave a partly written file behind
+     * @param cacheFile
+     *          the cache file from {@link #getCacheFile(String, String)}
+     * @return
+     *          the new (empty) temporary file
+     * @throws IOException
+     *          if the file can't be created
+     */
+    public File createTemporaryFile(File cacheFile) throws IOException
+    {
+        this.createDirectory();
+        return File.createTempFile(
+                cacheFile.getName() + "-",
+                TEMPORARY_FILE_SUFFIX,
+                this.directory);
+    }
+    
+    /**
+     * Get the checkpoint file for the given scan key, creating the cache
+     * directory if needed. Checkpoints live next to the results they
+     * produce so that every process sharing the cache directory also shares
+     * (and locks) the same checkpoints
+     * @param filePrefix
+     *          a prefix naming the kind of scan
+     * @param scanKey
+     *          a string that identifies everything the scan depends on
+     * @return
+     *          the checkpoint file (which may not exist yet)
+     * @throws IOException
+     *          if the directory can't be created
+     */
+    public File getCheckpointFile(String filePrefix, String scanKey)
+            throws IOException
+    {
+        this.createDirectory();
+        return new File(
+                this.directory,
+                filePrefix + "-" + toHexDigest(scanKey) + CHECKPOINT_FILE_SUFFIX);
+    }
+    
+    /**
+     * Atomically move a fully written temporary file into place. If another
+     * writer got there first we keep their file since it holds the same
+     * result
+     * @param temporaryFile
+     *          the file from {@link #createTemporaryFile(File)}
+     * @param cacheFile
+     *          the cache file
+     * @throws IOException
+     *          if the file can't be moved into place
+     */
+    public void commitTemporaryFile(File temporaryFile, File cacheFile)
+            throws IOException
+    {
+        if(!temporaryFile.renameTo(cacheFile))
+        {
+            temporaryFile.delete();
+            if(!cacheFile.exists())
+            {
+                throw new IOException(
+                        "failed to move " + temporaryFile.getAbsolutePath() +
+                        " to " + cacheFile.getAbsolutePath());
+            }
+        }
+    }
+    
+    private void createDirectory() throws IOException
+    {
+        if(!this.directory.isDirectory() && !this.directory.mkdirs() &&
+           !this.directory.isDirectory())
+        {
+            throw new IOException(
+                    "failed to create cache directory: " +
+                    this.directory.getAbsolutePath());
+        }
+    }
+    
+    /**
+     * Delete temporary files that were abandoned by dead processes. Files
+     * that are still young may belong to a live writer so they're left
+     * alone
+     */
+    private void deleteStaleTemporaryFiles()
+    {
+        File[] files = this.directory.listFiles();
+        if(files != null)
+        {
+            long staleTime =
+                System.currentTimeMillis() - STALE_TEMPORARY_FILE_AGE_MILLIS;
+            for(File file: files)
+            {
+                if(file.getName().endsWith(TEMPORARY_FILE_SUFFIX) &&
+                   file.lastModified() < staleTime &&
+                   !file.delete())
+                {
+                    LOG.log(Level.WARNING,
+                            "failed to delete stale temporary file: " +
+                            file.getAbsolutePath());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Hash the given string into a hex string that is safe to use as a
+     * file name
+     * @param string
+     *          the string to hash
+     * @return
+     *          the hex digest
+     */
+    public static String toHexDigest(String string)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] digestBytes = digest.digest(string.getBytes("UTF-8"));
+            StringBuilder hexString = new StringBuilder(digestBytes.length * 2);
+            for(byte digestByte: digestBytes)
+            {
+                hexString.append(Character.forDigit((digestByte >> 4) & 0xF, 16));
+                hexString.append(Character.forDigit(digestByte & 0xF, 16));
+            }
+            return hexString.toString();
+        }
+        catch(NoSuchAlgorithmException ex)
+        {
+            // every java platform is required to support SHA-1
+            throw new IllegalStateException(ex);
+        }
+        catch(UnsupportedEncodingException ex)
+        {
+            // every java platform is required to support UTF-8
+            throw new IllegalStateException(ex);
+        }
+    }
+}
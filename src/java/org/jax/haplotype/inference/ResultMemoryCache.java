@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+/**
+ * The in-memory result cache tier that the caching data managers share.
+ * All of the managers draw on a single heap budget and weigh their results
+ * with the same rough per object costs. The phylogeny manager keys its
+ * results on strings and the IBS manager keys its results on cache files
+ * so their entries can't collide.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ final class ResultMemoryCache
+{
+    /**
+     * by default the memory cache can use this fraction (1/N) of the
+     * maximum heap
+     */
+    private static final long DEFAULT_MEMORY_CACHE_DIVISOR = 8L;
+    
+    // rough per object heap costs used to weigh cached results
+    /*package protected*/ static final long OBJECT_BYTES = 16L;
+    /*package protected*/ static final long REFERENCE_BYTES = 8L;
+    /*package protected*/ static final long LIST_BYTES = 40L;
+    /*package protected*/ static final long INTERVAL_BYTES = 40L;
+    
+    private static final WeightedLruCache<Object, Object> sharedCache =
+        new WeightedLruCache<Object, Object>(
+                Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_CACHE_DIVISOR);
+    
+    /**
+     * utility class. no instances
+     */
+    private ResultMemoryCache()
+    {
+    }
+    
+    /**
+     * Get the cache that every caching manager shares
+     * @return
+     *          the shared cache
+     */
+    /*package protected*/ static WeightedLruCache<Object, Object> getSharedCache()
+    {
+        return ResultMemoryCache.sharedCache;
+    }
+}
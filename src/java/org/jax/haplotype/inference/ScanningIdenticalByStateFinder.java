@@ -19,12 +19,16 @@ package org.jax.haplotype.inference;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,10 +37,10 @@ import org.jax.geneticutil.data.SimpleBasePairInterval;
 import org.jax.geneticutil.data.SingleNucleotidePolymorphism;
 import org.jax.geneticutil.data.SnpIntervalList;
 import org.jax.geneticutil.data.SnpIntervalListGroup;
+import org.jax.geneticutil.data.SnpType;
 import org.jax.geneticutil.data.StrainChromosome;
 import org.jax.haplotype.io.SdpInputStream;
 import org.jax.haplotype.io.SnpPositionInputStream;
-import org.jax.util.datastructure.SequenceUtilities;
 
 /**
  * A scanning (front to back) implementation for finding chromosome
@@ -51,8 +55,37 @@ public class ScanningIdenticalByStateFinder implements IdenticalByStateFinder
     private static final Logger LOG = Logger.getLogger(
             ScanningIdenticalByStateFinder.class.getName());
     
+    private final ExecutorService executor;
+    
+    /**
+     * Constructor. Comparison chromosomes will be scanned using a temporary
+     * thread pool for each call
+     */
+    public ScanningIdenticalByStateFinder()
+    {
+        this(null);
+    }
+    
+    /**
+     * Constructor
+     * @param executor
+     *          the executor used to scan comparison chromosomes in parallel.
+     *          a null value means that a temporary thread pool is used for
+     *          each call
+     */
+    public ScanningIdenticalByStateFinder(ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+    
     /**
      * {@inheritDoc}
+     * <br/><br/>
+     * The comparison chromosomes are scanned in parallel using either the
+     * executor given at construction time or a temporary pool with one
+     * thread per available processor. If the calling thread is interrupted
+     * while waiting the scans are cancelled, the interrupt status is kept
+     * and an {@link IllegalStateException} is thrown
      */
     public SnpIntervalListGroup findIdenticalByStateRegions(
             final StrainChromosome referenceStrainChromosome,
@@ -60,42 +93,113 @@ public class ScanningIdenticalByStateFinder implements IdenticalByStateFinder
             final int minimumExtentInSnps,
             final long minimumExtentInBasePairs)
     {
-        Map<String, List<BasePairInterval>> ibsBlocksMap =
-            new HashMap<String, List<BasePairInterval>>();
+        final PackedStrainChromosome packedReferenceChromosome =
+            new PackedStrainChromosome(referenceStrainChromosome);
         
-        long minStartPositionInBasePairs = Long.MAX_VALUE;
-        long maxEndPositionInBasePairs = 0L;
-        for(StrainChromosome chromosome: comparisonStrainChromosomes)
+        ExecutorService executor = this.executor;
+        if(executor == null)
         {
-            SnpIntervalList ibsList = this.findIdenticalByStateRegions(
-                    referenceStrainChromosome,
-                    chromosome,
-                    minimumExtentInSnps,
-                    minimumExtentInBasePairs);
-            long newMinPositionInBasePairs = ibsList.getStartInBasePairs();
-            long newEndPositionInBasePairs =
-                newMinPositionInBasePairs +
-                ibsList.getExtentInBasePairs();
+            executor = Executors.newFixedThreadPool(Math.max(1, Math.min(
+                    Runtime.getRuntime().availableProcessors(),
+                    comparisonStrainChromosomes.size())));
+        }
+        
+        // each task packs and scans its own comparison chromosome. the
+        // results are only combined once all of the tasks are done
+        List<Future<SnpIntervalList>> ibsListFutures =
+            new ArrayList<Future<SnpIntervalList>>(
+                    comparisonStrainChromosomes.size());
+        try
+        {
+            for(final StrainChromosome chromosome: comparisonStrainChromosomes)
+            {
+                ibsListFutures.add(executor.submit(new Callable<SnpIntervalList>()
+                {
+                    public SnpIntervalList call()
+                    {
+                        return findIdenticalByStateRegions(
+                                packedReferenceChromosome,
+                                new PackedStrainChromosome(chromosome),
+                                minimumExtentInSnps,
+                                minimumExtentInBasePairs);
+                    }
+                }));
+            }
+            
+            Map<String, List<BasePairInterval>> ibsBlocksMap =
+                new HashMap<String, List<BasePairInterval>>();
             
-            if(newMinPositionInBasePairs < minStartPositionInBasePairs)
+            long minStartPositionInBasePairs = Long.MAX_VALUE;
+            long maxEndPositionInBasePairs = 0L;
+            Iterator<Future<SnpIntervalList>> ibsListFutureIter =
+                ibsListFutures.iterator();
+            for(StrainChromosome chromosome: comparisonStrainChromosomes)
             {
-                minStartPositionInBasePairs = newMinPositionInBasePairs;
+                SnpIntervalList ibsList = ibsListFutureIter.next().get();
+                long newMinPositionInBasePairs = ibsList.getStartInBasePairs();
+                long newEndPositionInBasePairs =
+                    newMinPositionInBasePairs +
+                    ibsList.getExtentInBasePairs();
+                
+                if(newMinPositionInBasePairs < minStartPositionInBasePairs)
+                {
+                    minStartPositionInBasePairs = newMinPositionInBasePairs;
+                }
+                
+                if(newEndPositionInBasePairs > maxEndPositionInBasePairs)
+                {
+                    maxEndPositionInBasePairs = newEndPositionInBasePairs;
+                }
+                
+                ibsBlocksMap.put(
+                        chromosome.getStrainName(),
+                        ibsList.getSnpBlocks());
             }
             
-            if(newEndPositionInBasePairs > maxEndPositionInBasePairs)
+            return new SnpIntervalListGroup(
+                    ibsBlocksMap,
+                    minStartPositionInBasePairs,
+                    maxEndPositionInBasePairs - minStartPositionInBasePairs);
+        }
+        catch(ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            else if(cause instanceof Error)
             {
-                maxEndPositionInBasePairs = newEndPositionInBasePairs;
+                throw (Error)cause;
+            }
+            else
+            {
+                throw new IllegalStateException(cause);
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            // the finder interface can't throw checked exceptions so keep
+            // the interrupt status and fail with an unchecked exception
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "interrupted while finding IBS regions",
+                    ex);
+        }
+        finally
+        {
+            // if we failed or were interrupted there's no point in letting
+            // the remaining scans run. this does nothing to finished scans
+            for(Future<SnpIntervalList> ibsListFuture: ibsListFutures)
+            {
+                ibsListFuture.cancel(true);
             }
             
-            ibsBlocksMap.put(
-                    chromosome.getStrainName(),
-                    ibsList.getSnpBlocks());
+            if(executor != this.executor)
+            {
+                executor.shutdownNow();
+            }
         }
-        
-        return new SnpIntervalListGroup(
-                ibsBlocksMap,
-                minStartPositionInBasePairs,
-                maxEndPositionInBasePairs - minStartPositionInBasePairs);
     }
     
     /**
@@ -122,90 +226,20 @@ public class ScanningIdenticalByStateFinder implements IdenticalByStateFinder
         {
             final String[] comparisonStrainNames = comparisonSdpStream.getSdpStrainNames();
             
-            long[] lastMatchingSnpIndices = new long[comparisonStrainNames.length];
-            Arrays.fill(lastMatchingSnpIndices, -1L);
-            long[] lastMatchingSnpPositions = new long[comparisonStrainNames.length];
-            Arrays.fill(lastMatchingSnpPositions, -1L);
-            
-            List<BasePairInterval>[] snpIntervalLists =
-                SequenceUtilities.instantiateGenericArray(
-                        List.class,
-                        comparisonStrainNames.length);
-            for(int i = 0; i < snpIntervalLists.length; i++)
-            {
-                snpIntervalLists[i] = new ArrayList<BasePairInterval>();
-            }
-            
-            long snpIndex = 0L;
-            long prevReferencePosition = -1L;
-            long nextReferencePosition;
+            IdenticalByStateRunTracker runTracker = new IdenticalByStateRunTracker(
+                    comparisonStrainNames.length,
+                    snpPositionInputStream.getChromosomeNumber(),
+                    minimumExtentInSnps,
+                    minimumExtentInBasePairs);
             while(comparisonSdpStream.hasNextSdp())
             {
-                nextReferencePosition =
+                long nextReferencePosition =
                     snpPositionInputStream.getNextSnpPositionInBasePairs();
-                BitSet nextSdp = comparisonSdpStream.getNextSdp();
-                for(int i = 0; i < comparisonStrainNames.length; i++)
-                {
-                    long lastMatchingSnpIndex = lastMatchingSnpIndices[i];
-                    if(nextSdp.get(i))
-                    {
-                        if(lastMatchingSnpIndex == -1L)
-                        {
-                            lastMatchingSnpIndices[i] = snpIndex;
-                            lastMatchingSnpPositions[i] = nextReferencePosition;
-                        }
-                    }
-                    else
-                    {
-                        if(lastMatchingSnpIndex >= 0)
-                        {
-                            long lastMatchingSnpPosition =
-                                lastMatchingSnpPositions[i];
-                            long extentInSnps =
-                                snpIndex - lastMatchingSnpIndex;
-                            long extentInBasePairs =
-                                1L + prevReferencePosition - lastMatchingSnpPosition;
-                            if(extentInBasePairs >= minimumExtentInBasePairs &&
-                               extentInSnps >= minimumExtentInSnps)
-                            {
-                                snpIntervalLists[i].add(new SimpleBasePairInterval(
-                                        snpPositionInputStream.getChromosomeNumber(),
-                                        lastMatchingSnpPosition,
-                                        extentInBasePairs));
-                            }
-                        }
-                        
-                        lastMatchingSnpIndices[i] = -1L;
-                        lastMatchingSnpPositions[i] = -1L;
-                    }
-                }
-                
-                snpIndex++;
-                prevReferencePosition = nextReferencePosition;
-            }
-            
-            // cleanup
-            for(int i = 0; i < comparisonStrainNames.length; i++)
-            {
-                long lastMatchingSnpIndex = lastMatchingSnpIndices[i];
-                if(lastMatchingSnpIndex >= 0)
-                {
-                    long lastMatchingSnpPosition =
-                        lastMatchingSnpPositions[i];
-                    long extentInSnps =
-                        snpIndex - lastMatchingSnpIndex;
-                    long extentInBasePairs =
-                        1L + prevReferencePosition - lastMatchingSnpPosition;
-                    if(extentInBasePairs >= minimumExtentInBasePairs &&
-                       extentInSnps >= minimumExtentInSnps)
-                    {
-                        snpIntervalLists[i].add(new SimpleBasePairInterval(
-                                snpPositionInputStream.getChromosomeNumber(),
-                                lastMatchingSnpPosition,
-                                extentInBasePairs));
-                    }
-                }
+                runTracker.addSdp(
+                        comparisonSdpStream.getNextSdp(),
+                        nextReferencePosition);
             }
+            List<BasePairInterval>[] snpIntervalLists = runTracker.finish();
             
             Map<String, List<BasePairInterval>> intervalMap =
                 new HashMap<String, List<BasePairInterval>>(comparisonStrainNames.length);
@@ -230,6 +264,57 @@ public class ScanningIdenticalByStateFinder implements IdenticalByStateFinder
         }
     }
     
+    /**
+     * Find the IBS regions between every pair of strains in a single pass
+     * over the given SDPs. Unlike
+     * {@link #findIdenticalByStateRegions(SdpInputStream, SnpPositionInputStream, long, long)}
+     * the SDP stream must not be normalized against a reference strain
+     * @param rawSdpStream
+     *          the un-normalized strain data
+     * @param snpPositionInputStream
+     *          the SNP position data
+     * @param minimumExtentInSnps
+     *          the minimum number of consecutive SNPs before we call something
+     *          IBS
+     * @param minimumExtentInBasePairs
+     *          the minimum extent in base pairs before we call something IBS
+     * @return
+     *          the pair indexed intervals
+     */
+    public PairwiseIdenticalByStateRegions findAllPairsIdenticalByStateRegions(
+            final SdpInputStream rawSdpStream,
+            final SnpPositionInputStream snpPositionInputStream,
+            final long minimumExtentInSnps,
+            final long minimumExtentInBasePairs)
+    {
+        try
+        {
+            AllPairsIdenticalByStateTracker pairTracker =
+                new AllPairsIdenticalByStateTracker(
+                        rawSdpStream.getSdpStrainNames(),
+                        snpPositionInputStream.getChromosomeNumber(),
+                        minimumExtentInSnps,
+                        minimumExtentInBasePairs);
+            while(rawSdpStream.hasNextSdp())
+            {
+                long nextPosition =
+                    snpPositionInputStream.getNextSnpPositionInBasePairs();
+                pairTracker.addSdp(
+                        rawSdpStream.getNextSdp(),
+                        nextPosition);
+            }
+            
+            return pairTracker.finish(
+                    snpPositionInputStream.getStartInBasePairs(),
+                    snpPositionInputStream.getExtentInBasePairs());
+        }
+        catch(IOException ex)
+        {
+            LOG.log(Level.SEVERE, "failed to find all pairs IBS regions", ex);
+            return null;
+        }
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -239,18 +324,42 @@ public class ScanningIdenticalByStateFinder implements IdenticalByStateFinder
             final int minimumExtentInSnps,
             final long minimumExtentInBasePairs)
     {
-        System.out.println("calling scanning findIdenticalByStateRegions");
-        SingleNucleotidePolymorphism[] snps1 =
-            chromosome1.getSingleNucleotidePolymorphisms();
-        SingleNucleotidePolymorphism[] snps2 =
-            chromosome2.getSingleNucleotidePolymorphisms();
+        return findIdenticalByStateRegions(
+                new PackedStrainChromosome(chromosome1),
+                new PackedStrainChromosome(chromosome2),
+                minimumExtentInSnps,
+                minimumExtentInBasePairs);
+    }
+    
+    /**
+     * Find the IBS regions between two packed chromosomes
+     * @param chromosome1
+     *          the 1st chromosome (its positions are used for the intervals)
+     * @param chromosome2
+     *          the 2nd chromosome
+     * @param minimumExtentInSnps
+     *          the minimum extent in snps
+     * @param minimumExtentInBasePairs
+     *          the minimum extent in base pairs
+     * @return
+     *          the IBS intervals
+     */
+    private static SnpIntervalList findIdenticalByStateRegions(
+            final PackedStrainChromosome chromosome1,
+            final PackedStrainChromosome chromosome2,
+            final int minimumExtentInSnps,
+            final long minimumExtentInBasePairs)
+    {
+        final byte[] snpTypes1 = chromosome1.snpTypeOrdinals;
+        final byte[] snpTypes2 = chromosome2.snpTypeOrdinals;
+        final long[] positions1 = chromosome1.positionsInBasePairs;
         
-        if(chromosome1.getChromosomeNumber() != chromosome2.getChromosomeNumber())
+        if(chromosome1.chromosomeNumber != chromosome2.chromosomeNumber)
         {
             throw new IllegalArgumentException(
                     "cant find IBS for different chromosome numbers");
         }
-        else if(snps1.length != snps2.length)
+        else if(snpTypes1.length != snpTypes2.length)
         {
             throw new IllegalArgumentException(
                     "IBS algorithm requires that # of SNPS is identical" +
@@ -260,12 +369,9 @@ public class ScanningIdenticalByStateFinder implements IdenticalByStateFinder
         List<BasePairInterval> ibsBlocks =
             new ArrayList<BasePairInterval>();
         int matchingIndexStart = -1;
-        for(int snpIndex = 0; snpIndex < snps1.length; snpIndex++)
+        for(int snpIndex = 0; snpIndex < snpTypes1.length; snpIndex++)
         {
-            SingleNucleotidePolymorphism snp1 = snps1[snpIndex];
-            SingleNucleotidePolymorphism snp2 = snps2[snpIndex];
-            
-            if(snp1.getSnpType() == snp2.getSnpType())
+            if(snpTypes1[snpIndex] == snpTypes2[snpIndex])
             {
                 if(matchingIndexStart == -1)
                 {
@@ -279,15 +385,15 @@ public class ScanningIdenticalByStateFinder implements IdenticalByStateFinder
                     int snpExtent = snpIndex - matchingIndexStart;
                     long basePairExtent =
                         1 +
-                        (snps1[snpIndex - 1].getPositionInBasePairs() -
-                        snps1[matchingIndexStart].getPositionInBasePairs());
+                        (positions1[snpIndex - 1] -
+                        positions1[matchingIndexStart]);
                     if(snpExtent >= minimumExtentInSnps &&
                        basePairExtent >= minimumExtentInBasePairs)
                     {
                         BasePairInterval block =
                             new SimpleBasePairInterval(
-                                    chromosome1.getChromosomeNumber(),
-                                    snps1[matchingIndexStart].getPositionInBasePairs(),
+                                    chromosome1.chromosomeNumber,
+                                    positions1[matchingIndexStart],
                                     basePairExtent);
                         ibsBlocks.add(block);
                     }
@@ -300,18 +406,18 @@ public class ScanningIdenticalByStateFinder implements IdenticalByStateFinder
         // clean up
         if(matchingIndexStart != -1)
         {
-            int snpExtent = snps1.length - matchingIndexStart;
+            int snpExtent = snpTypes1.length - matchingIndexStart;
             long basePairExtent =
-                (snps1[snps1.length - 1].getPositionInBasePairs() -
-                snps1[matchingIndexStart].getPositionInBasePairs()) +
+                (positions1[positions1.length - 1] -
+                positions1[matchingIndexStart]) +
                 1;
             if(snpExtent >= minimumExtentInSnps &&
                basePairExtent >= minimumExtentInBasePairs)
             {
                 BasePairInterval block =
                     new SimpleBasePairInterval(
-                            chromosome1.getChromosomeNumber(),
-                            snps1[matchingIndexStart].getPositionInBasePairs(),
+                            chromosome1.chromosomeNumber,
+                            positions1[matchingIndexStart],
                             basePairExtent);
                 ibsBlocks.add(block);
             }
@@ -319,9 +425,45 @@ public class ScanningIdenticalByStateFinder implements IdenticalByStateFinder
         
         return new SnpIntervalList(
                 ibsBlocks,
-                snps1[0].getPositionInBasePairs(),
-                snps1[snps1.length - 1].getPositionInBasePairs() -
-                snps1[0].getPositionInBasePairs() +
+                positions1[0],
+                positions1[positions1.length - 1] -
+                positions1[0] +
                 1L);
     }
+    
+    /**
+     * A strain chromosome with its SNP types and positions unpacked into
+     * primitive arrays so that scans don't have to chase
+     * {@link SingleNucleotidePolymorphism} references
+     */
+    private static final class PackedStrainChromosome
+    {
+        private final int chromosomeNumber;
+        
+        private final byte[] snpTypeOrdinals;
+        
+        private final long[] positionsInBasePairs;
+        
+        /**
+         * Constructor
+         * @param strainChromosome
+         *          the chromosome to pack
+         */
+        public PackedStrainChromosome(StrainChromosome strainChromosome)
+        {
+            SingleNucleotidePolymorphism[] snps =
+                strainChromosome.getSingleNucleotidePolymorphisms();
+            
+            this.chromosomeNumber = strainChromosome.getChromosomeNumber();
+            this.snpTypeOrdinals = new byte[snps.length];
+            this.positionsInBasePairs = new long[snps.length];
+            for(int i = 0; i < snps.length; i++)
+            {
+                SnpType snpType = snps[i].getSnpType();
+                this.snpTypeOrdinals[i] =
+                    snpType == null ? -1 : (byte)snpType.ordinal();
+                this.positionsInBasePairs[i] = snps[i].getPositionInBasePairs();
+            }
+        }
+    }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A primitive ring buffer holding the most recent SDPs of a stream as packed
+ * strain masks (64 strains per <code>long</code>) along with their SNP
+ * positions. Any number of {@link WindowStrainPartitioner}s no larger than
+ * the buffer capacity can be attached so that windows of several sizes are
+ * maintained from a single read of the SDPs.
+ * <br/><br/>
+ * This class is not thread safe.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ class SdpWindowBuffer
+{
+    private final int capacityInSnps;
+    
+    private final int strainCount;
+    
+    private final int sdpWordCount;
+    
+    private final long[] sdpRing;
+    
+    private final long[] positionRing;
+    
+    private final long[] packedSdp;
+    
+    private final List<WindowStrainPartitioner> partitioners =
+        new ArrayList<WindowStrainPartitioner>();
+    
+    private long sdpCount = 0L;
+    
+    /**
+     * Constructor
+     * @param capacityInSnps
+     *          the number of SDPs that the buffer holds. this must be at
+     *          least as large as the largest attached window
+     * @param strainCount
+     *          the number of strains in each SDP
+     */
+    public SdpWindowBuffer(int capacityInSnps, int strainCount)
+    {
+        if(capacityInSnps <= 0)
+        {
+            throw new IllegalArgumentException(
+                    "Buffer capacity must be positive not: " +
+                    capacityInSnps);
+        }
+        
+        this.capacityInSnps = capacityInSnps;
+        this.strainCount = strainCount;
+        this.sdpWordCount = (strainCount + 63) >>> 6;
+        this.sdpRing = new long[capacityInSnps * this.sdpWordCount];
+        this.positionRing = new long[capacityInSnps];
+        this.packedSdp = new long[this.sdpWordCount];
+    }
+    
+    /**
+     * Create a new partitioner that tracks the most recent
+     * <code>windowSizeInSnps</code> SDPs added to this buffer. This should
+     * be called before any SDPs are added
+     * @param windowSizeInSnps
+     *          the window size which can't exceed the buffer capacity
+     * @return
+     *          the partitioner
+     */
+    public WindowStrainPartitioner createPartitioner(int windowSizeInSnps)
+    {
+        if(windowSizeInSnps <= 0 || windowSizeInSnps > this.capacityInSnps)
+        {
+            throw new IllegalArgumentException(
+                    "Window size must be positive and no larger than " +
+                    this.capacityInSnps + " not: " + windowSizeInSnps);
+        }
+        else if(this.sdpCount != 0L)
+        {
+            throw new IllegalStateException(
+                    "partitioners must be created before adding SDPs");
+        }
+        
+        WindowStrainPartitioner partitioner = new WindowStrainPartitioner(
+                this,
+                windowSizeInSnps);
+        this.partitioners.add(partitioner);
+        return partitioner;
+    }
+    
+    /**
+     * Getter for the number of strains in each SDP
+     * @return the strain count
+     */
+    public int getStrainCount()
+    {
+        return this.strainCount;
+    }
+    
+    /**
+     * Getter for the number of words used for each packed SDP
+     * @return the word count
+     */
+    public int getSdpWordCount()
+    {
+        return this.sdpWordCount;
+    }
+    
+    /**
+     * Getter for the total number of SDPs added so far
+     * @return the SDP count
+     */
+    public long getSdpCount()
+    {
+        return this.sdpCount;
+    }
+    
+    /**
+     * Get a word of a packed SDP that is still held in the buffer. SDP
+     * indices that come before the start of the stream read as all zeros
+     * @param sdpIndex
+     *          the index of the SDP in the stream
+     * @param wordIndex
+     *          the word index
+     * @return
+     *          the packed word
+     */
+    public long getSdpWord(long sdpIndex, int wordIndex)
+    {
+        if(sdpIndex < 0L)
+        {
+            return 0L;
+        }
+        else
+        {
+            int slot = (int)(sdpIndex % this.capacityInSnps);
+            return this.sdpRing[slot * this.sdpWordCount + wordIndex];
+        }
+    }
+    
+    /**
+     * Get the position of an SNP that is still held in the buffer
+     * @param sdpIndex
+     *          the index of the SDP in the stream
+     * @return
+     *          the position in base pairs
+     */
+    public long getPositionInBasePairs(long sdpIndex)
+    {
+        return this.positionRing[(int)(sdpIndex % this.capacityInSnps)];
+    }
+    
+    /**
+     * Push the given SDP into the buffer and move every attached window
+     * forward by one SNP
+     * @param sdp
+     *          the SDP to add
+     * @param positionInBasePairs
+     *          the position of the SDP's SNP
+     */
+    public void addSdp(BitSet sdp, long positionInBasePairs)
+    {
+        long[] newWords = this.packedSdp;
+        for(int i = 0; i < newWords.length; i++)
+        {
+            newWords[i] = 0L;
+        }
+        for(int i = sdp.nextSetBit(0);
+            i >= 0 && i < this.strainCount;
+            i = sdp.nextSetBit(i + 1))
+        {
+            newWords[i >>> 6] |= 1L << i;
+        }
+        
+        // the partitioners need to see the SDPs leaving their windows so
+        // they must be updated before the oldest SDP is overwritten
+        for(int i = 0; i < this.partitioners.size(); i++)
+        {
+            this.partitioners.get(i).sdpAdded(newWords);
+        }
+        
+        int slot = (int)(this.sdpCount % this.capacityInSnps);
+        System.arraycopy(
+                newWords,
+                0,
+                this.sdpRing,
+                slot * this.sdpWordCount,
+                this.sdpWordCount);
+        this.positionRing[slot] = positionInBasePairs;
+        this.sdpCount++;
+    }
+}
@@ -20,13 +20,11 @@ package org.jax.haplotype.inference;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.BitSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
 
 import org.jax.geneticutil.data.MultiPartitionedInterval;
+import org.jax.haplotype.data.MultiPartitionedIntervalList;
+import org.jax.haplotype.data.StrainPartitionPool;
 import org.jax.haplotype.io.SdpInputStream;
 import org.jax.haplotype.io.SnpPositionInputStream;
 
@@ -42,59 +40,10 @@ public class SlidingWindowMultiHaplotypeEstimator implements Serializable
      */
     private static final long serialVersionUID = 8295869216775611855L;
 
-    private final ArrayBlockingQueue<SdpWithPosition> window;
-
     private final int windowSizeInSnps;
 
     private final boolean stepWindowBySnps;
     
-    /**
-     * A little class for holding on to both the SDP and the position of the
-     * SDP
-     */
-    private class SdpWithPosition implements Serializable
-    {
-        /**
-         * every {@link java.io.Serializable} is supposed to have one of these
-         */
-        private static final long serialVersionUID = -284658116323393931L;
-
-        private final BitSet sdp;
-        
-        private final long position;
-
-        /**
-         * Constructor
-         * @param sdp
-         *          the SDP
-         * @param position
-         *          the position
-         */
-        public SdpWithPosition(BitSet sdp, long position)
-        {
-            this.sdp = sdp;
-            this.position = position;
-        }
-        
-        /**
-         * Getter for the SDP
-         * @return the sdp
-         */
-        public BitSet getSdp()
-        {
-            return this.sdp;
-        }
-        
-        /**
-         * Getter for the position
-         * @return the position
-         */
-        public long getPosition()
-        {
-            return this.position;
-        }
-    }
-    
     /**
      * Constructor
      * @param windowSizeInSnps
@@ -110,16 +59,12 @@ public class SlidingWindowMultiHaplotypeEstimator implements Serializable
         if(windowSizeInSnps <= 0)
         {
             throw new IllegalArgumentException(
-                    "Window size must be greater positive not: " +
+                    "Window size must be positive, not: " +
                     windowSizeInSnps);
         }
         
         this.windowSizeInSnps = windowSizeInSnps;
         this.stepWindowBySnps = stepWindowBySnps;
-        
-        this.window = new ArrayBlockingQueue<SdpWithPosition>(
-                windowSizeInSnps,
-                false);
     }
     
     /**
@@ -144,7 +89,7 @@ public class SlidingWindowMultiHaplotypeEstimator implements Serializable
     }
     
     /**
-     * Estimate the blocks. This function is NOT thread safe
+     * Estimate the blocks
      * @param sdpInputStream
      *          the SDP input stream
      * @param positionInputStream
@@ -158,248 +103,185 @@ public class SlidingWindowMultiHaplotypeEstimator implements Serializable
             SdpInputStream sdpInputStream,
             SnpPositionInputStream positionInputStream) throws IOException
     {
-        ArrayList<MultiPartitionedInterval> hapBlocks =
-            new ArrayList<MultiPartitionedInterval>();
-        
-        if(this.slideWindowForward(sdpInputStream, positionInputStream))
-        {
-//            long keepCount = 0;
-//            long skipCount = 0;
-            
-            int chromosomeNumber = positionInputStream.getChromosomeNumber();
-            int strainCount = sdpInputStream.getSdpStrainNames().length;
-            MultiPartitionedInterval cumulativeBlock = null;
-            do
-            {
-                MultiPartitionedInterval currBlock = this.estimateCurrentBlock(
-                        chromosomeNumber,
-                        strainCount);
-                if(cumulativeBlock == null)
-                {
-                    cumulativeBlock = currBlock;
-                }
-                else
-                {
-                    if(Arrays.equals(
-                            currBlock.getStrainGroups(),
-                            cumulativeBlock.getStrainGroups()))
-                    {
-                        // since the strain groups match we should merge the two
-                        // together into a single interval
-                        long start = cumulativeBlock.getStartInBasePairs();
-                        long end = currBlock.getEndInBasePairs();
-                        long extent = 1 + end - start;
-                        
-                        cumulativeBlock = new MultiPartitionedInterval(
-                                chromosomeNumber,
-                                start,
-                                extent,
-                                cumulativeBlock.getStrainGroups());
-                        
-//                        skipCount++;
-                    }
-                    else
-                    {
-                        hapBlocks.add(cumulativeBlock);
-                        cumulativeBlock = currBlock;
-                        
-//                        keepCount++;
-                    }
-                }
-            } while(this.stepOrSlideWindowForward(sdpInputStream, positionInputStream));
-            
-            if(cumulativeBlock != null)
-            {
-                hapBlocks.add(cumulativeBlock);
-                
-//                keepCount++;
-            }
-            
-//            System.out.println("Kept " + keepCount + " skipped " + skipCount);
-        }
-        
-        hapBlocks.trimToSize();
-        return hapBlocks;
+        return this.estimateMultiHaplotypeBlocks(
+                new int[] {this.windowSizeInSnps},
+                sdpInputStream,
+                positionInputStream).get(0);
     }
     
     /**
-     * Estimate the block from the current window
-     * @param strainCount
-     *          the number of strains
+     * Estimate the blocks for several window sizes at once. The SDPs are only
+     * read a single time and all of the windows share the same SDP buffer.
+     * Windows are stepped or slid according to {@link #getStepWindowBySnps()}
+     * (when sliding each window moves forward by its own size). The block
+     * lists returned by a call share one partition pool. The window
+     * size given to the constructor is ignored by this function
+     * @param windowSizesInSnps
+     *          the window sizes to use
+     * @param sdpInputStream
+     *          the SDP input stream
+     * @param positionInputStream
+     *          the position input stream
      * @return
-     *          the estimated partition
+     *          one block list per window size in the same order as
+     *          <code>windowSizesInSnps</code>
+     * @throws IOException
+     *          if IO fails
      */
-    private MultiPartitionedInterval estimateCurrentBlock(
-            int chromosomeNumber,
-            int strainCount)
+    public List<List<MultiPartitionedInterval>> estimateMultiHaplotypeBlocks(
+            int[] windowSizesInSnps,
+            SdpInputStream sdpInputStream,
+            SnpPositionInputStream positionInputStream) throws IOException
     {
-        // start off by throwing every strain into the same group
-        List<List<Integer>> strainGroups = new ArrayList<List<Integer>>();
+        int maxWindowSize = 0;
+        for(int windowSize: windowSizesInSnps)
         {
-            List<Integer> everyStrain = new ArrayList<Integer>();
-            for(int i = 0; i < strainCount; i++)
+            if(windowSize <= 0)
             {
-                everyStrain.add(i);
+                throw new IllegalArgumentException(
+                        "Window size must be positive, not: " +
+                        windowSize);
             }
-            strainGroups.add(everyStrain);
+            maxWindowSize = Math.max(maxWindowSize, windowSize);
         }
         
-        long startPos = -1;
-        long endPos = -1;
-        for(SdpWithPosition sdpWithPos: this.window)
+        int sizeCount = windowSizesInSnps.length;
+        List<List<MultiPartitionedInterval>> hapBlocksPerSize =
+            new ArrayList<List<MultiPartitionedInterval>>(sizeCount);
+        if(sizeCount == 0)
         {
-            // update the start and end positions
-            if(startPos == -1)
-            {
-                startPos = sdpWithPos.getPosition();
-            }
-            endPos = sdpWithPos.getPosition();
+            return hapBlocksPerSize;
+        }
+        
+        int strainCount = sdpInputStream.getSdpStrainNames().length;
+        int chromosomeNumber = positionInputStream.getChromosomeNumber();
+        SdpWindowBuffer buffer = new SdpWindowBuffer(maxWindowSize, strainCount);
+        StrainPartitionPool partitionPool = new StrainPartitionPool();
+        BlockAccumulator[] accumulators = new BlockAccumulator[sizeCount];
+        for(int i = 0; i < sizeCount; i++)
+        {
+            accumulators[i] = new BlockAccumulator(
+                    buffer.createPartitioner(windowSizesInSnps[i]),
+                    new MultiPartitionedIntervalList(
+                            chromosomeNumber,
+                            partitionPool));
+        }
+        
+        while(sdpInputStream.hasNextSdp() && positionInputStream.hasNextSnpPosition())
+        {
+            buffer.addSdp(
+                    sdpInputStream.getNextSdp(),
+                    positionInputStream.getNextSnpPositionInBasePairs());
             
-            // for each SDP see if you can pull a group out that diverges
-            // from the other strains in the group
-            List<List<Integer>> divergentStrainGroups =
-                new ArrayList<List<Integer>>();
-            BitSet sdp = sdpWithPos.getSdp();
-            for(List<Integer> strainGroup: strainGroups)
+            long sdpCount = buffer.getSdpCount();
+            for(BlockAccumulator accumulator: accumulators)
             {
-                List<Integer> divergentStrainGroup = null;
-                Iterator<Integer> strainGroupIter = strainGroup.iterator();
-                
-                // the first strain serves as a reference for the others
-                boolean refBit = sdp.get(strainGroupIter.next());
-                while(strainGroupIter.hasNext())
-                {
-                    int nextStrain = strainGroupIter.next();
-                    if(sdp.get(nextStrain) != refBit)
-                    {
-                        // strain diverges from the reference, so remove it
-                        // from this group and add it to the (possibly new)
-                        // divergent group
-                        strainGroupIter.remove();
-                        if(divergentStrainGroup == null)
-                        {
-                            divergentStrainGroup = new ArrayList<Integer>();
-                        }
-                        
-                        divergentStrainGroup.add(nextStrain);
-                    }
-                }
-                
-                if(divergentStrainGroup != null)
+                WindowStrainPartitioner window = accumulator.window;
+                if(window.isWindowFull() &&
+                   (this.stepWindowBySnps || sdpCount % window.getWindowSizeInSnps() == 0L))
                 {
-                    divergentStrainGroups.add(divergentStrainGroup);
+                    accumulator.extendOrEmitBlock();
                 }
             }
-            
-            strainGroups.addAll(divergentStrainGroups);
         }
         
-        // this part just turns the grouping info into a more compact
-        // representation (an array of shorts with length == # of strains and
-        // value indicating group membership)
-        short[] strainGroupings = new short[strainCount];
-        short groupCount = (short)strainGroups.size();
-        for(short groupNumber = 1; groupNumber < groupCount; groupNumber++)
+        for(BlockAccumulator accumulator: accumulators)
         {
-            List<Integer> currGroupMembers = strainGroups.get(groupNumber);
-            for(int currGroupMember: currGroupMembers)
-            {
-                strainGroupings[currGroupMember] = groupNumber;
-            }
+            hapBlocksPerSize.add(accumulator.finish());
         }
         
-        return new MultiPartitionedInterval(
-                chromosomeNumber,
-                startPos,
-                1 + endPos - startPos,
-                strainGroupings);
+        return hapBlocksPerSize;
     }
-
+    
     /**
-     * Either step or slide forward depending on {@link #getStepWindowBySnps()}
-     * @param sdpInputStream
-     *          the SDP input stream
-     * @param positionInputStream
-     *          the position input stream
-     * @return
-     *          true iff we haven't run out of data
-     * @throws IOException
-     *          if IO fails
+     * Accumulates the blocks for a single window
      */
-    private boolean stepOrSlideWindowForward(
-            SdpInputStream sdpInputStream,
-            SnpPositionInputStream positionInputStream) throws IOException
+    private static final class BlockAccumulator
     {
-        if(this.stepWindowBySnps)
-        {
-            return this.stepWindowForwardOneSnp(sdpInputStream, positionInputStream);
-        }
-        else
+        private final WindowStrainPartitioner window;
+        
+        private final MultiPartitionedIntervalList hapBlocks;
+        
+        private short[] lastStrainGroups = null;
+        
+        private int lastPartitionId = -1;
+        
+        private int blockPartitionId = -1;
+        
+        private long blockStartInBasePairs = -1L;
+        
+        private long blockEndInBasePairs = -1L;
+        
+        /**
+         * Constructor
+         * @param window
+         *          the window
+         * @param hapBlocks
+         *          the list that we add finished blocks to
+         */
+        public BlockAccumulator(
+                WindowStrainPartitioner window,
+                MultiPartitionedIntervalList hapBlocks)
         {
-            return this.slideWindowForward(sdpInputStream, positionInputStream);
+            this.window = window;
+            this.hapBlocks = hapBlocks;
         }
-    }
-    
-    /**
-     * Slide the window over {@link #getWindowSizeInSnps()} steps
-     * @param sdpInputStream
-     *          the SDP input stream
-     * @param positionInputStream
-     *          the position input stream
-     * @return
-     *          true if the fill succeeds
-     * @throws IOException
-     *          if IO fails
-     */
-    private boolean slideWindowForward(
-            SdpInputStream sdpInputStream,
-            SnpPositionInputStream positionInputStream) throws IOException
-    {
-        this.window.clear();
-        for(int i = 0; i < this.windowSizeInSnps; i++)
+        
+        /**
+         * Merge the current window into the cumulative block if their
+         * partitions match. Otherwise the cumulative block is added to the
+         * block list and a new cumulative block is started from the window
+         */
+        public void extendOrEmitBlock()
         {
-            if(!sdpInputStream.hasNextSdp() || !positionInputStream.hasNextSnpPosition())
+            // the partitioner hands back the same array for as long as its
+            // partition is unchanged so we only need to intern on a change
+            short[] currStrainGroups = this.window.getStrainGroups();
+            if(currStrainGroups != this.lastStrainGroups)
             {
-                return false;
+                this.lastStrainGroups = currStrainGroups;
+                this.lastPartitionId =
+                    this.hapBlocks.getPartitionPool().intern(currStrainGroups);
             }
             
-            this.window.add(new SdpWithPosition(
-                    sdpInputStream.getNextSdp(),
-                    positionInputStream.getNextSnpPositionInBasePairs()));
+            if(this.blockPartitionId == this.lastPartitionId)
+            {
+                // since the partitions match we should merge the
+                // current window into the cumulative interval
+                this.blockEndInBasePairs = this.window.getEndInBasePairs();
+            }
+            else
+            {
+                this.emitBlock();
+                
+                this.blockPartitionId = this.lastPartitionId;
+                this.blockStartInBasePairs = this.window.getStartInBasePairs();
+                this.blockEndInBasePairs = this.window.getEndInBasePairs();
+            }
         }
         
-        return true;
-    }
-    
-    /**
-     * Move the window forward one step. This function assumes that it is
-     * moving an already full window (Eg from
-     * {@link #slideWindowForward(SdpInputStream, SnpPositionInputStream)}) and
-     * will leave a full window
-     * @param sdpInputStream
-     *          the SDP input stream
-     * @param positionInputStream
-     *          the position input stream
-     * @return
-     *          true unless we've reached the end of the streams
-     * @throws IOException
-     *          if IO fails
-     */
-    private boolean stepWindowForwardOneSnp(
-            SdpInputStream sdpInputStream,
-            SnpPositionInputStream positionInputStream) throws IOException
-    {
-        this.window.remove();
-        
-        if(!sdpInputStream.hasNextSdp() || !positionInputStream.hasNextSnpPosition())
+        /**
+         * Close out the final block
+         * @return
+         *          the finished block list
+         */
+        public MultiPartitionedIntervalList finish()
         {
-            return false;
+            this.emitBlock();
+            this.blockPartitionId = -1;
+            this.hapBlocks.trimToSize();
+            return this.hapBlocks;
         }
         
-        this.window.add(new SdpWithPosition(
-                sdpInputStream.getNextSdp(),
-                positionInputStream.getNextSnpPositionInBasePairs()));
-        
-        return true;
+        private void emitBlock()
+        {
+            if(this.blockPartitionId != -1)
+            {
+                this.hapBlocks.add(
+                        this.blockStartInBasePairs,
+                        1 + this.blockEndInBasePairs - this.blockStartInBasePairs,
+                        this.blockPartitionId);
+            }
+        }
     }
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache that is bounded by the total weight of its
+ * values rather than by their count. Weights are supplied by the caller
+ * (the caching managers use an estimate of heap usage in bytes). Values
+ * are shared between everyone who gets them so they should be immutable.
+ * <br/><br/>
+ * This class is thread safe.
+ * @param <K>
+ *          the key type
+ * @param <V>
+ *          the value type
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class WeightedLruCache<K, V>
+{
+    private final LinkedHashMap<K, WeightedValue<V>> entries =
+        new LinkedHashMap<K, WeightedValue<V>>(16, 0.75F, true);
+    
+    private long maximumWeight;
+    
+    private long totalWeight = 0L;
+    
+    private long hitCount = 0L;
+    
+    private long missCount = 0L;
+    
+    private long evictionCount = 0L;
+    
+    /**
+     * Constructor
+     * @param maximumWeight
+     *          the maximum total weight of cached values
+     */
+    public WeightedLruCache(long maximumWeight)
+    {
+        this.maximumWeight = maximumWeight;
+    }
+    
+    /**
+     * Get the value for the given key, marking it as most recently used
+     * @param key
+     *          the key
+     * @return
+     *          the value or null if it isn't cached
+     */
+    public synchronized V get(K key)
+    {
+        WeightedValue<V> weightedValue = this.entries.get(key);
+        if(weightedValue == null)
+        {
+            this.missCount++;
+            return null;
+        }
+        else
+        {
+            this.hitCount++;
+            return weightedValue.value;
+        }
+    }
+    
+    /**
+     * Cache a value, evicting least recently used values as needed to stay
+     * under the maximum weight. A value that is heavier than the maximum
+     * weight by itself is not cached
+     * @param key
+     *          the key
+     * @param value
+     *          the value
+     * @param weight
+     *          the weight of the value
+     */
+    public synchronized void put(K key, V value, long weight)
+    {
+        WeightedValue<V> oldValue = this.entries.remove(key);
+        if(oldValue != null)
+        {
+            this.totalWeight -= oldValue.weight;
+        }
+        
+        if(weight <= this.maximumWeight)
+        {
+            this.entries.put(key, new WeightedValue<V>(value, weight));
+            this.totalWeight += weight;
+            this.evictToWeight(this.maximumWeight);
+        }
+    }
+    
+    /**
+     * Remove the value for the given key
+     * @param key
+     *          the key
+     */
+    public synchronized void remove(K key)
+    {
+        WeightedValue<V> oldValue = this.entries.remove(key);
+        if(oldValue != null)
+        {
+            this.totalWeight -= oldValue.weight;
+        }
+    }
+    
+    /**
+     * Remove every value. This does not count as eviction
+     */
+    public synchronized void clear()
+    {
+        this.entries.clear();
+        this.totalWeight = 0L;
+    }
+    
+    /**
+     * Getter for the maximum weight
+     * @return the maximum weight
+     */
+    public synchronized long getMaximumWeight()
+    {
+        return this.maximumWeight;
+    }
+    
+    /**
+     * Setter for the maximum weight. Lowering the maximum evicts values
+     * immediately
+     * @param maximumWeight the maximum weight to set
+     */
+    public synchronized void setMaximumWeight(long maximumWeight)
+    {
+        this.maximumWeight = maximumWeight;
+        this.evictToWeight(maximumWeight);
+    }
+    
+    /**
+     * Getter for the total weight of the cached values
+     * @return the total weight
+     */
+    public synchronized long getTotalWeight()
+    {
+        return this.totalWeight;
+    }
+    
+    /**
+     * Getter for the number of cached values
+     * @return the size
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+    
+    /**
+     * Getter for the number of {@link #get(Object)} calls that found a value
+     * @return the hit count
+     */
+    public synchronized long getHitCount()
+    {
+        return this.hitCount;
+    }
+    
+    /**
+     * Getter for the number of {@link #get(Object)} calls that didn't find
+     * a value
+     * @return the miss count
+     */
+    public synchronized long getMissCount()
+    {
+        return this.missCount;
+    }
+    
+    /**
+     * Getter for the number of values evicted to stay under the maximum
+     * weight
+     * @return the eviction count
+     */
+    public synchronized long getEvictionCount()
+    {
+        return this.evictionCount;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "hits=" + this.hitCount +
+               ", misses=" + this.missCount +
+               ", evictions=" + this.evictionCount +
+               ", size=" + this.entries.size() +
+               ", weight=" + this.totalWeight + "/" + this.maximumWeight;
+    }
+    
+    /**
+     * Evict least recently used values until the total weight is at or
+     * below the given weight
+     * @param weight
+     *          the weight to evict down to
+     */
+    private void evictToWeight(long weight)
+    {
+        Iterator<Map.Entry<K, WeightedValue<V>>> entryIter =
+            this.entries.entrySet().iterator();
+        while(this.totalWeight > weight && entryIter.hasNext())
+        {
+            this.totalWeight -= entryIter.next().getValue().weight;
+            entryIter.remove();
+            this.evictionCount++;
+        }
+    }
+    
+    /**
+     * A value along with its weight
+     * @param <V>
+     *          the value type
+     */
+    private static final class WeightedValue<V>
+    {
+        private final V value;
+        
+        private final long weight;
+        
+        /**
+         * Constructor
+         * @param value
+         *          the value
+         * @param weight
+         *          the weight
+         */
+        public WeightedValue(V value, long weight)
+        {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
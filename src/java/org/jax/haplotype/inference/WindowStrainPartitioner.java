@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.Random;
+
+/**
+ * Maintains the strain partition for a fixed size window of SDPs as the
+ * window slides along a chromosome. Two strains share a group iff they have
+ * identical alleles at every SNP in the window. The SDPs themselves live in
+ * an {@link SdpWindowBuffer} which may be shared by windows of several sizes.
+ * <br/><br/>
+ * Every strain carries a packed "column" of its alleles indexed by window
+ * slot along with a signature that is the XOR of a random key for every slot
+ * where the strain's bit is set. When an SDP replaces the one leaving the
+ * window only the strains whose bit differs (found by XORing the two masks a
+ * word at a time) have their column and signature touched. Grouping is a
+ * single pass over the strains that looks signatures up in an open
+ * addressing table, and signature matches are always confirmed against the
+ * packed columns so the result is exact.
+ * <br/><br/>
+ * Group labels are canonical: groups are numbered in order of their lowest
+ * strain index, so strain 0 is always in group 0 and identical partitions
+ * always produce identical label arrays.
+ * <br/><br/>
+ * This class is not thread safe.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ class WindowStrainPartitioner
+{
+    /**
+     * the seed used to generate slot keys. since signature matches are
+     * always verified the choice of seed only affects performance
+     */
+    private static final long SLOT_KEY_SEED = 0x5DEECE66DL;
+    
+    private final SdpWindowBuffer buffer;
+    
+    private final int windowSizeInSnps;
+    
+    private final int strainCount;
+    
+    private final int columnWordCount;
+    
+    private final long[] slotKeys;
+    
+    private final long[] strainColumns;
+    
+    private final long[] strainSignatures;
+    
+    private final int tableMask;
+    
+    private final int[] tableStamps;
+    
+    private final int[] tableStrains;
+    
+    private final short[] tableGroups;
+    
+    private int currentStamp = 0;
+    
+    private short[] strainGroups = null;
+    
+    /**
+     * Constructor. Use {@link SdpWindowBuffer#createPartitioner(int)} rather
+     * than calling this directly
+     * @param buffer
+     *          the buffer that holds the window's SDPs
+     * @param windowSizeInSnps
+     *          the number of SDPs that fit in the window
+     */
+    WindowStrainPartitioner(SdpWindowBuffer buffer, int windowSizeInSnps)
+    {
+        this.buffer = buffer;
+        this.windowSizeInSnps = windowSizeInSnps;
+        this.strainCount = buffer.getStrainCount();
+        this.columnWordCount = (windowSizeInSnps + 63) >>> 6;
+        
+        this.strainColumns = new long[this.strainCount * this.columnWordCount];
+        this.strainSignatures = new long[this.strainCount];
+        
+        this.slotKeys = new long[windowSizeInSnps];
+        Random random = new Random(SLOT_KEY_SEED);
+        for(int i = 0; i < windowSizeInSnps; i++)
+        {
+            this.slotKeys[i] = random.nextLong();
+        }
+        
+        // a power of two table that is at least twice the strain count
+        int tableSize = 1;
+        while(tableSize < this.strainCount * 2)
+        {
+            tableSize <<= 1;
+        }
+        this.tableMask = tableSize - 1;
+        this.tableStamps = new int[tableSize];
+        this.tableStrains = new int[tableSize];
+        this.tableGroups = new short[tableSize];
+    }
+    
+    /**
+     * Getter for the window size
+     * @return the window size in SNPs
+     */
+    public int getWindowSizeInSnps()
+    {
+        return this.windowSizeInSnps;
+    }
+    
+    /**
+     * Determine if the window has been filled
+     * @return
+     *          true once at least {@link #getWindowSizeInSnps()} SDPs have
+     *          been added to the buffer
+     */
+    public boolean isWindowFull()
+    {
+        return this.buffer.getSdpCount() >= this.windowSizeInSnps;
+    }
+    
+    /**
+     * Called by the buffer when a new SDP arrives but before it is stored
+     * so that the SDP leaving this window can still be read
+     * @param newWords
+     *          the packed SDP entering the window
+     */
+    void sdpAdded(long[] newWords)
+    {
+        long sdpIndex = this.buffer.getSdpCount();
+        long leavingSdpIndex = sdpIndex - this.windowSizeInSnps;
+        int slot = (int)(sdpIndex % this.windowSizeInSnps);
+        int slotColumnWord = slot >>> 6;
+        long slotColumnBit = 1L << slot;
+        long slotKey = this.slotKeys[slot];
+        for(int wordIndex = 0; wordIndex < newWords.length; wordIndex++)
+        {
+            long changedStrains =
+                this.buffer.getSdpWord(leavingSdpIndex, wordIndex) ^
+                newWords[wordIndex];
+            if(changedStrains != 0L)
+            {
+                // only the strains whose allele flipped need an update
+                this.strainGroups = null;
+                do
+                {
+                    int strain =
+                        (wordIndex << 6) + Long.numberOfTrailingZeros(changedStrains);
+                    this.strainColumns[strain * this.columnWordCount + slotColumnWord] ^=
+                        slotColumnBit;
+                    this.strainSignatures[strain] ^= slotKey;
+                    changedStrains &= changedStrains - 1L;
+                } while(changedStrains != 0L);
+            }
+        }
+    }
+    
+    /**
+     * Get the position of the oldest SNP in the window. Only valid once
+     * the window is full
+     * @return
+     *          the start position
+     */
+    public long getStartInBasePairs()
+    {
+        return this.buffer.getPositionInBasePairs(
+                this.buffer.getSdpCount() - this.windowSizeInSnps);
+    }
+    
+    /**
+     * Get the position of the newest SNP in the window
+     * @return
+     *          the end position
+     */
+    public long getEndInBasePairs()
+    {
+        return this.buffer.getPositionInBasePairs(
+                this.buffer.getSdpCount() - 1L);
+    }
+    
+    /**
+     * Get the strain grouping for the current window. The returned array has
+     * one entry per strain holding the strain's group number. The array
+     * is shared between calls for as long as the partition does not change
+     * so it must not be modified
+     * @return
+     *          the strain groups
+     */
+    public short[] getStrainGroups()
+    {
+        if(this.strainGroups == null)
+        {
+            this.strainGroups = this.calculateStrainGroups();
+        }
+        
+        return this.strainGroups;
+    }
+    
+    /**
+     * Group the strains by their columns
+     * @return
+     *          the canonically labeled groups
+     */
+    private short[] calculateStrainGroups()
+    {
+        this.currentStamp++;
+        if(this.currentStamp == 0)
+        {
+            // the stamp wrapped around so we need a real reset
+            for(int i = 0; i < this.tableStamps.length; i++)
+            {
+                this.tableStamps[i] = 0;
+            }
+            this.currentStamp = 1;
+        }
+        
+        short[] groups = new short[this.strainCount];
+        short groupCount = 0;
+        for(int strain = 0; strain < this.strainCount; strain++)
+        {
+            long signature = this.strainSignatures[strain];
+            int tableIndex = (int)(signature ^ (signature >>> 32)) & this.tableMask;
+            while(true)
+            {
+                if(this.tableStamps[tableIndex] != this.currentStamp)
+                {
+                    // first strain with this column. start a new group
+                    this.tableStamps[tableIndex] = this.currentStamp;
+                    this.tableStrains[tableIndex] = strain;
+                    this.tableGroups[tableIndex] = groupCount;
+                    groups[strain] = groupCount;
+                    groupCount++;
+                    break;
+                }
+                else
+                {
+                    int representative = this.tableStrains[tableIndex];
+                    if(this.strainSignatures[representative] == signature &&
+                       this.columnsMatch(representative, strain))
+                    {
+                        groups[strain] = this.tableGroups[tableIndex];
+                        break;
+                    }
+                }
+                
+                tableIndex = (tableIndex + 1) & this.tableMask;
+            }
+        }
+        
+        return groups;
+    }
+    
+    /**
+     * Compare the packed allele columns of two strains
+     * @param strain1
+     *          the 1st strain
+     * @param strain2
+     *          the 2nd strain
+     * @return
+     *          true iff the strains match at every SNP in the window
+     */
+    private boolean columnsMatch(int strain1, int strain2)
+    {
+        int offset1 = strain1 * this.columnWordCount;
+        int offset2 = strain2 * this.columnWordCount;
+        for(int i = 0; i < this.columnWordCount; i++)
+        {
+            if(this.strainColumns[offset1 + i] != this.strainColumns[offset2 + i])
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+}
@@ -20,7 +20,6 @@ package org.jax.haplotype.io;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -31,6 +30,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jax.geneticutil.data.MultiPartitionedInterval;
+import org.jax.haplotype.data.MultiPartitionedIntervalList;
+import org.jax.haplotype.data.StrainPartitionPool;
 import org.jax.util.io.CharacterDelimitedParser;
 
 /**
@@ -145,6 +146,11 @@ public class HiddenMarkovModelStateParser extends GenomicFlatFileParser
      *       header row NOT the column ordering in the file. 
      * </em>
      * </pre>
+     * The returned lists are {@link MultiPartitionedIntervalList}s whose
+     * partitions are interned in a pool that is shared by the lists
+     * returned from this call only. The pool keeps the raw labels so the
+     * group numbers are the state numbers found in the file, and intervals
+     * are only flattened when their state numbers match exactly.
      * @param bufferedReader
      *          the reader that we're parsing
      * @param strainsToParse
@@ -190,12 +196,17 @@ public class HiddenMarkovModelStateParser extends GenomicFlatFileParser
         
         // OK now parse through the rest of the file and build the chromosome set
         int rowCount = 0;
-        Map<Integer, List<MultiPartitionedInterval>> chromosomeStateMap =
-            new TreeMap<Integer, List<MultiPartitionedInterval>>();
+        Map<Integer, MultiPartitionedIntervalList> chromosomeStateMap =
+            new TreeMap<Integer, MultiPartitionedIntervalList>();
         String[] currRow;
         
+        // the pool only lives as long as the intervals that it backs. the
+        // state numbers are meaningful so the labels must not be relabeled
+        StrainPartitionPool partitionPool = new StrainPartitionPool(true);
+        
         // variables needed to represent interval start
-        short[] intervalStrainGroups = null;
+        short[] currStrainGroups = new short[sortToUnsortIndexMapping.length];
+        int intervalPartitionId = -1;
         int intervalChromosomeNum = -1;
         long intervalStartBpPosition = -1;
         long intervalEndBpPosition = -1;
@@ -209,7 +220,7 @@ public class HiddenMarkovModelStateParser extends GenomicFlatFileParser
                     headerInfo,
                     currRow);
             
-            short[] currStrainGroups = new short[sortToUnsortIndexMapping.length];
+            boolean skipRow = false;
             for(int i = 0; i < currStrainGroups.length; i++)
             {
                 int unsortedIndex = sortToUnsortIndexMapping[i];
@@ -218,7 +229,7 @@ public class HiddenMarkovModelStateParser extends GenomicFlatFileParser
                 if(strainGroupString.equals("-"))
                 {
                     // "-" means that we should skip the row
-                    currStrainGroups = null;
+                    skipRow = true;
                     break;
                 }
                 else
@@ -227,18 +238,19 @@ public class HiddenMarkovModelStateParser extends GenomicFlatFileParser
                 }
             }
             
-            if(currStrainGroups != null)
+            if(!skipRow)
             {
-                if(intervalStrainGroups == null)
+                int currPartitionId = partitionPool.intern(currStrainGroups);
+                if(intervalPartitionId == -1)
                 {
                     // we are at the start of a new interval
-                    intervalStrainGroups = currStrainGroups;
+                    intervalPartitionId = currPartitionId;
                     intervalChromosomeNum = currChromosomeNum;
                     intervalStartBpPosition = currBasePairPosition;
                     intervalEndBpPosition = currBasePairPosition;
                 }
                 else if(this.flattenMatchingHaplotypes &&
-                        Arrays.equals(intervalStrainGroups, currStrainGroups) &&
+                        intervalPartitionId == currPartitionId &&
                         intervalChromosomeNum == currChromosomeNum)
                 {
                     // since the curr values are consistent lets move the
@@ -250,13 +262,14 @@ public class HiddenMarkovModelStateParser extends GenomicFlatFileParser
                     // we've reached the end of an interval. close it out
                     this.addIntervalToMap(
                             chromosomeStateMap,
-                            intervalStrainGroups,
+                            partitionPool,
+                            intervalPartitionId,
                             intervalChromosomeNum,
                             intervalStartBpPosition,
                             intervalEndBpPosition);
                     
                     // start a new interval
-                    intervalStrainGroups = currStrainGroups;
+                    intervalPartitionId = currPartitionId;
                     intervalChromosomeNum = currChromosomeNum;
                     intervalStartBpPosition = currBasePairPosition;
                     intervalEndBpPosition = currBasePairPosition;
@@ -277,48 +290,55 @@ public class HiddenMarkovModelStateParser extends GenomicFlatFileParser
         LOG.fine("finished parsing");
         
         // close out the final interval
-        if(intervalStrainGroups != null)
+        if(intervalPartitionId != -1)
         {
             this.addIntervalToMap(
                     chromosomeStateMap,
-                    intervalStrainGroups,
+                    partitionPool,
+                    intervalPartitionId,
                     intervalChromosomeNum,
                     intervalStartBpPosition,
                     intervalEndBpPosition);
         }
         
         // shrink the lists
-        for(List<MultiPartitionedInterval> values :
-            chromosomeStateMap.values())
+        Map<Integer, List<MultiPartitionedInterval>> trimmedChromosomeStateMap =
+            new TreeMap<Integer, List<MultiPartitionedInterval>>();
+        for(Map.Entry<Integer, MultiPartitionedIntervalList> entry:
+            chromosomeStateMap.entrySet())
         {
-            ((ArrayList<MultiPartitionedInterval>)values).trimToSize();
+            MultiPartitionedIntervalList intervalList = entry.getValue();
+            intervalList.trimToSize();
+            trimmedChromosomeStateMap.put(entry.getKey(), intervalList);
         }
         
-        return chromosomeStateMap;
+        return trimmedChromosomeStateMap;
     }
     
     private void addIntervalToMap(
-            Map<Integer, List<MultiPartitionedInterval>> chromosomeStateMap,
-            short[] intervalStrainGroups,
+            Map<Integer, MultiPartitionedIntervalList> chromosomeStateMap,
+            StrainPartitionPool partitionPool,
+            int intervalPartitionId,
             int intervalChromosomeNum,
             long intervalStartBpPosition,
             long intervalEndBpPosition)
     {
-        List<MultiPartitionedInterval> intervalList =
+        MultiPartitionedIntervalList intervalList =
             chromosomeStateMap.get(intervalChromosomeNum);
         if(intervalList == null)
         {
-            intervalList = new ArrayList<MultiPartitionedInterval>();
+            intervalList = new MultiPartitionedIntervalList(
+                    intervalChromosomeNum,
+                    partitionPool);
             chromosomeStateMap.put(intervalChromosomeNum, intervalList);
         }
         
-        intervalList.add(new MultiPartitionedInterval(
-                intervalChromosomeNum,
+        intervalList.add(
                 intervalStartBpPosition,
                 1 + intervalEndBpPosition - intervalStartBpPosition,
-                intervalStrainGroups));
+                intervalPartitionId);
     }
-
+    
     /**
      * Parse the 1st chromosome
      * @param bufferedReader
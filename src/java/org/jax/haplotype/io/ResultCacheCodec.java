@@ -0,0 +1,1072 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.IndexedSnpInterval;
+import org.jax.geneticutil.data.SimpleBasePairInterval;
+import org.jax.geneticutil.data.SnpIntervalList;
+import org.jax.haplotype.inference.PairwiseIdenticalByStateRegions;
+import org.jax.haplotype.phylogeny.data.CompactPhylogenyTree;
+import org.jax.haplotype.phylogeny.data.PhylogenyInterval;
+import org.jax.haplotype.phylogeny.data.PhylogenyTopologyPool;
+import org.jax.haplotype.phylogeny.data.PhylogenyTreeEdge;
+import org.jax.haplotype.phylogeny.data.PhylogenyTreeEdgeWithRealValue;
+import org.jax.haplotype.phylogeny.data.PhylogenyTreeNode;
+import org.jax.haplotype.phylogeny.inference.CompatibilityIndex;
+import org.jax.util.io.IllegalFormatException;
+
+/**
+ * Reads and writes cached inference results in a compact versioned binary
+ * format. Every file starts with a header of {@link #MAGIC_NUMBER},
+ * {@link #FORMAT_VERSION} and a record type byte. Intervals are stored as
+ * primitive column arrays and phylogenies are stored in pre-order against a
+ * shared strain name table with each edge SDP stored as its 64 bit words.
+ * Phylogeny intervals store each distinct topology (see
+ * {@link PhylogenyTopologyPool}) once along with a tree index per interval.
+ * Files are memory mapped for reading.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ResultCacheCodec
+{
+    /**
+     * the magic number that starts every cache file
+     */
+    public static final int MAGIC_NUMBER = 0x48524343;
+    
+    /**
+     * the current format version. this must be bumped whenever the
+     * encoding of any record type changes
+     */
+    public static final short FORMAT_VERSION = 2;
+    
+    private static final byte INDEXED_INTERVALS_RECORD = 1;
+    
+    private static final byte BASE_PAIR_INTERVALS_RECORD = 2;
+    
+    private static final byte SNP_INTERVAL_LIST_RECORD = 3;
+    
+    private static final byte PHYLOGENIES_RECORD = 4;
+    
+    private static final byte PHYLOGENY_INTERVALS_RECORD = 5;
+    
+    private static final byte PAIRWISE_IBS_RECORD = 6;
+    
+    private static final byte COMPATIBILITY_INDEX_RECORD = 7;
+    
+    private static final byte EDGE_HAS_SDP_FLAG = 1;
+    
+    private static final byte EDGE_HAS_REAL_VALUE_FLAG = 2;
+    
+    /**
+     * utility class. no instances
+     */
+    private ResultCacheCodec()
+    {
+    }
+    
+    /**
+     * Write indexed intervals to the given file
+     * @param cacheFile
+     *          the file to write
+     * @param intervals
+     *          the intervals
+     * @throws IOException
+     *          if the write fails
+     */
+    public static void writeIndexedSnpIntervals(
+            File cacheFile,
+            List<IndexedSnpInterval> intervals)
+            throws IOException
+    {
+        DataOutputStream output = openForWriting(
+                cacheFile,
+                INDEXED_INTERVALS_RECORD);
+        boolean written = false;
+        try
+        {
+            int intervalCount = intervals.size();
+            output.writeInt(intervalCount);
+            for(int i = 0; i < intervalCount; i++)
+            {
+                output.writeInt(intervals.get(i).getStartIndex());
+            }
+            for(int i = 0; i < intervalCount; i++)
+            {
+                output.writeInt(intervals.get(i).getExtentInIndices());
+            }
+            written = true;
+        }
+        finally
+        {
+            finishWriting(output, cacheFile, written);
+        }
+    }
+    
+    /**
+     * Read indexed intervals from the given file
+     * @param cacheFile
+     *          the file to read
+     * @return
+     *          the intervals
+     * @throws IOException
+     *          if the read fails
+     * @throws IllegalFormatException
+     *          if the file isn't a current indexed interval cache file
+     */
+    public static List<IndexedSnpInterval> readIndexedSnpIntervals(File cacheFile)
+            throws IOException, IllegalFormatException
+    {
+        ByteBuffer buffer = openForReading(cacheFile, INDEXED_INTERVALS_RECORD);
+        try
+        {
+            // a start and an extent per interval
+            int intervalCount = readCount(buffer, 8);
+            int[] starts = new int[intervalCount];
+            int[] extents = new int[intervalCount];
+            readInts(buffer, starts);
+            readInts(buffer, extents);
+            
+            List<IndexedSnpInterval> intervals =
+                new ArrayList<IndexedSnpInterval>(intervalCount);
+            for(int i = 0; i < intervalCount; i++)
+            {
+                intervals.add(new IndexedSnpInterval(starts[i], extents[i]));
+            }
+            return intervals;
+        }
+        catch(BufferUnderflowException ex)
+        {
+            throw truncatedFile(cacheFile, ex);
+        }
+    }
+    
+    /**
+     * Write base pair intervals to the given file
+     * @param cacheFile
+     *          the file to write
+     * @param intervals
+     *          the intervals
+     * @throws IOException
+     *          if the write fails
+     */
+    public static void writeBasePairIntervals(
+            File cacheFile,
+            List<? extends BasePairInterval> intervals)
+            throws IOException
+    {
+        DataOutputStream output = openForWriting(
+                cacheFile,
+                BASE_PAIR_INTERVALS_RECORD);
+        boolean written = false;
+        try
+        {
+            writeBasePairIntervals(output, intervals);
+            written = true;
+        }
+        finally
+        {
+            finishWriting(output, cacheFile, written);
+        }
+    }
+    
+    /**
+     * Read base pair intervals from the given file
+     * @param cacheFile
+     *          the file to read
+     * @return
+     *          the intervals
+     * @throws IOException
+     *          if the read fails
+     * @throws IllegalFormatException
+     *          if the file isn't a current interval cache file
+     */
+    public static List<BasePairInterval> readBasePairIntervals(File cacheFile)
+            throws IOException, IllegalFormatException
+    {
+        ByteBuffer buffer = openForReading(cacheFile, BASE_PAIR_INTERVALS_RECORD);
+        try
+        {
+            return readBasePairIntervals(buffer);
+        }
+        catch(BufferUnderflowException ex)
+        {
+            throw truncatedFile(cacheFile, ex);
+        }
+    }
+    
+    /**
+     * Write an interval list to the given file
+     * @param cacheFile
+     *          the file to write
+     * @param snpIntervalList
+     *          the interval list
+     * @throws IOException
+     *          if the write fails
+     */
+    public static void writeSnpIntervalList(
+            File cacheFile,
+            SnpIntervalList snpIntervalList)
+            throws IOException
+    {
+        DataOutputStream output = openForWriting(
+                cacheFile,
+                SNP_INTERVAL_LIST_RECORD);
+        boolean written = false;
+        try
+        {
+            output.writeLong(snpIntervalList.getStartInBasePairs());
+            output.writeLong(snpIntervalList.getExtentInBasePairs());
+            writeBasePairIntervals(output, snpIntervalList.getSnpBlocks());
+            written = true;
+        }
+        finally
+        {
+            finishWriting(output, cacheFile, written);
+        }
+    }
+    
+    /**
+     * Read an interval list from the given file
+     * @param cacheFile
+     *          the file to read
+     * @return
+     *          the interval list
+     * @throws IOException
+     *          if the read fails
+     * @throws IllegalFormatException
+     *          if the file isn't a current interval list cache file
+     */
+    public static SnpIntervalList readSnpIntervalList(File cacheFile)
+            throws IOException, IllegalFormatException
+    {
+        ByteBuffer buffer = openForReading(cacheFile, SNP_INTERVAL_LIST_RECORD);
+        try
+        {
+            long startInBasePairs = buffer.getLong();
+            long extentInBasePairs = buffer.getLong();
+            return new SnpIntervalList(
+                    readBasePairIntervals(buffer),
+                    startInBasePairs,
+                    extentInBasePairs);
+        }
+        catch(BufferUnderflowException ex)
+        {
+            throw truncatedFile(cacheFile, ex);
+        }
+    }
+    
+    /**
+     * Write phylogenies to the given file
+     * @param cacheFile
+     *          the file to write
+     * @param phylogenies
+     *          the phylogenies
+     * @throws IOException
+     *          if the write fails
+     */
+    public static void writePhylogenies(
+            File cacheFile,
+            List<PhylogenyTreeNode> phylogenies)
+            throws IOException
+    {
+        DataOutputStream output = openForWriting(
+                cacheFile,
+                PHYLOGENIES_RECORD);
+        boolean written = false;
+        try
+        {
+            writePhylogenies(output, phylogenies);
+            written = true;
+        }
+        finally
+        {
+            finishWriting(output, cacheFile, written);
+        }
+    }
+    
+    /**
+     * Read phylogenies from the given file
+     * @param cacheFile
+     *          the file to read
+     * @return
+     *          the phylogenies
+     * @throws IOException
+     *          if the read fails
+     * @throws IllegalFormatException
+     *          if the file isn't a current phylogeny cache file
+     */
+    public static List<PhylogenyTreeNode> readPhylogenies(File cacheFile)
+            throws IOException, IllegalFormatException
+    {
+        ByteBuffer buffer = openForReading(cacheFile, PHYLOGENIES_RECORD);
+        try
+        {
+            return readPhylogenies(buffer);
+        }
+        catch(BufferUnderflowException ex)
+        {
+            throw truncatedFile(cacheFile, ex);
+        }
+    }
+    
+    /**
+     * Write phylogeny intervals to the given file. The trees are written in
+     * their canonical form (see {@link PhylogenyTopologyPool}) and each
+     * distinct topology is only written once
+     * @param cacheFile
+     *          the file to write
+     * @param phylogenyIntervals
+     *          the phylogeny intervals
+     * @throws IOException
+     *          if the write fails
+     */
+    public static void writePhylogenyIntervals(
+            File cacheFile,
+            List<PhylogenyInterval> phylogenyIntervals)
+            throws IOException
+    {
+        // pool the trees and number the distinct ones in the order that
+        // they're first seen
+        List<PhylogenyInterval> pooledIntervals =
+            new PhylogenyTopologyPool().intern(phylogenyIntervals);
+        int intervalCount = pooledIntervals.size();
+        Map<CompactPhylogenyTree, Integer> topologyIndices =
+            new IdentityHashMap<CompactPhylogenyTree, Integer>();
+        List<PhylogenyTreeNode> topologies = new ArrayList<PhylogenyTreeNode>();
+        int[] intervalTopologyIndices = new int[intervalCount];
+        List<BasePairInterval> intervals =
+            new ArrayList<BasePairInterval>(intervalCount);
+        for(int i = 0; i < intervalCount; i++)
+        {
+            PhylogenyInterval pooledInterval = pooledIntervals.get(i);
+            CompactPhylogenyTree topology = pooledInterval.getCompactPhylogeny();
+            Integer topologyIndex = topologyIndices.get(topology);
+            if(topologyIndex == null)
+            {
+                topologyIndex = topologies.size();
+                topologyIndices.put(topology, topologyIndex);
+                topologies.add(topology.toPhylogenyTreeNode());
+            }
+            
+            intervalTopologyIndices[i] = topologyIndex;
+            intervals.add(pooledInterval.getInterval());
+        }
+        
+        DataOutputStream output = openForWriting(
+                cacheFile,
+                PHYLOGENY_INTERVALS_RECORD);
+        boolean written = false;
+        try
+        {
+            writeBasePairIntervals(output, intervals);
+            writePhylogenies(output, topologies);
+            for(int topologyIndex: intervalTopologyIndices)
+            {
+                output.writeInt(topologyIndex);
+            }
+            written = true;
+        }
+        finally
+        {
+            finishWriting(output, cacheFile, written);
+        }
+    }
+    
+    /**
+     * Read phylogeny intervals from the given file. Intervals with the same
+     * topology share a single {@link CompactPhylogenyTree}
+     * @param cacheFile
+     *          the file to read
+     * @return
+     *          the phylogeny intervals
+     * @throws IOException
+     *          if the read fails
+     * @throws IllegalFormatException
+     *          if the file isn't a current phylogeny interval cache file
+     */
+    public static List<PhylogenyInterval> readPhylogenyIntervals(File cacheFile)
+            throws IOException, IllegalFormatException
+    {
+        ByteBuffer buffer = openForReading(cacheFile, PHYLOGENY_INTERVALS_RECORD);
+        try
+        {
+            List<BasePairInterval> intervals = readBasePairIntervals(buffer);
+            List<CompactPhylogenyTree> topologies =
+                CompactPhylogenyTree.fromPhylogenyTrees(readPhylogenies(buffer));
+            int topologyCount = topologies.size();
+            int intervalCount = intervals.size();
+            
+            List<PhylogenyInterval> phylogenyIntervals =
+                new ArrayList<PhylogenyInterval>(intervalCount);
+            for(int i = 0; i < intervalCount; i++)
+            {
+                int topologyIndex = buffer.getInt();
+                if(topologyIndex < 0 || topologyIndex >= topologyCount)
+                {
+                    throw new IllegalFormatException(
+                            "bad topology index " + topologyIndex + " in " +
+                            cacheFile.getAbsolutePath());
+                }
+                
+                phylogenyIntervals.add(new PhylogenyInterval(
+                        topologies.get(topologyIndex),
+                        intervals.get(i)));
+            }
+            return phylogenyIntervals;
+        }
+        catch(BufferUnderflowException ex)
+        {
+            throw truncatedFile(cacheFile, ex);
+        }
+    }
+    
+    /**
+     * Write pairwise IBS segments to the given file
+     * @param cacheFile
+     *          the file to write
+     * @param pairwiseRegions
+     *          the segments
+     * @throws IOException
+     *          if the write fails
+     */
+    public static void writePairwiseIdenticalByStateRegions(
+            File cacheFile,
+            PairwiseIdenticalByStateRegions pairwiseRegions)
+            throws IOException
+    {
+        DataOutputStream output = openForWriting(
+                cacheFile,
+                PAIRWISE_IBS_RECORD);
+        boolean written = false;
+        try
+        {
+            String[] strainNames = pairwiseRegions.getStrainNames();
+            output.writeInt(strainNames.length);
+            for(String strainName: strainNames)
+            {
+                writeString(output, strainName);
+            }
+            output.writeInt(pairwiseRegions.getChromosomeNumber());
+            output.writeLong(pairwiseRegions.getStartInBasePairs());
+            output.writeLong(pairwiseRegions.getExtentInBasePairs());
+            
+            int[] segmentOffsets = pairwiseRegions.getSegmentOffsets();
+            output.writeInt(segmentOffsets.length);
+            for(int segmentOffset: segmentOffsets)
+            {
+                output.writeInt(segmentOffset);
+            }
+            
+            long[] segmentStarts = pairwiseRegions.getSegmentStartsInBasePairs();
+            long[] segmentExtents = pairwiseRegions.getSegmentExtentsInBasePairs();
+            output.writeInt(segmentStarts.length);
+            for(long segmentStart: segmentStarts)
+            {
+                output.writeLong(segmentStart);
+            }
+            for(long segmentExtent: segmentExtents)
+            {
+                output.writeLong(segmentExtent);
+            }
+            written = true;
+        }
+        finally
+        {
+            finishWriting(output, cacheFile, written);
+        }
+    }
+    
+    /**
+     * Read pairwise IBS segments from the given file
+     * @param cacheFile
+     *          the file to read
+     * @return
+     *          the segments
+     * @throws IOException
+     *          if the read fails
+     * @throws IllegalFormatException
+     *          if the file isn't a current pairwise IBS cache file
+     */
+    public static PairwiseIdenticalByStateRegions readPairwiseIdenticalByStateRegions(
+            File cacheFile)
+            throws IOException, IllegalFormatException
+    {
+        ByteBuffer buffer = openForReading(cacheFile, PAIRWISE_IBS_RECORD);
+        try
+        {
+            String[] strainNames = new String[readCount(buffer, 4)];
+            for(int i = 0; i < strainNames.length; i++)
+            {
+                strainNames[i] = readString(buffer);
+            }
+            int chromosomeNumber = buffer.getInt();
+            long startInBasePairs = buffer.getLong();
+            long extentInBasePairs = buffer.getLong();
+            int[] segmentOffsets = new int[readCount(buffer, 4)];
+            readInts(buffer, segmentOffsets);
+            int segmentCount = readCount(buffer, 16);
+            long[] segmentStarts = new long[segmentCount];
+            long[] segmentExtents = new long[segmentCount];
+            readLongs(buffer, segmentStarts);
+            readLongs(buffer, segmentExtents);
+            
+            // the offsets must partition the segments by strain pair
+            if(segmentOffsets.length !=
+               PairwiseIdenticalByStateRegions.getPairCount(strainNames.length) + 1 ||
+               segmentOffsets[0] != 0 ||
+               segmentOffsets[segmentOffsets.length - 1] != segmentCount)
+            {
+                throw new IllegalFormatException(
+                        "bad segment offsets in " + cacheFile.getAbsolutePath());
+            }
+            for(int i = 1; i < segmentOffsets.length; i++)
+            {
+                if(segmentOffsets[i] < segmentOffsets[i - 1])
+                {
+                    throw new IllegalFormatException(
+                            "bad segment offsets in " + cacheFile.getAbsolutePath());
+                }
+            }
+            
+            return new PairwiseIdenticalByStateRegions(
+                    strainNames,
+                    chromosomeNumber,
+                    startInBasePairs,
+                    extentInBasePairs,
+                    segmentOffsets,
+                    segmentStarts,
+                    segmentExtents);
+        }
+        catch(BufferUnderflowException ex)
+        {
+            throw truncatedFile(cacheFile, ex);
+        }
+    }
+    
+    /**
+     * Write a compatibility index to the given file
+     * @param cacheFile
+     *          the file to write
+     * @param compatibilityIndex
+     *          the index
+     * @throws IOException
+     *          if the write fails
+     */
+    public static void writeCompatibilityIndex(
+            File cacheFile,
+            CompatibilityIndex compatibilityIndex)
+            throws IOException
+    {
+        DataOutputStream output = openForWriting(
+                cacheFile,
+                COMPATIBILITY_INDEX_RECORD);
+        boolean written = false;
+        try
+        {
+            int snpCount = compatibilityIndex.getSnpCount();
+            output.writeInt(snpCount);
+            for(int i = 0; i < snpCount; i++)
+            {
+                output.writeInt(compatibilityIndex.getNearestIncompatibleIndex(i));
+            }
+            written = true;
+        }
+        finally
+        {
+            finishWriting(output, cacheFile, written);
+        }
+    }
+    
+    /**
+     * Read a compatibility index from the given file
+     * @param cacheFile
+     *          the file to read
+     * @return
+     *          the index
+     * @throws IOException
+     *          if the read fails
+     * @throws IllegalFormatException
+     *          if the file isn't a current compatibility index cache file
+     */
+    public static CompatibilityIndex readCompatibilityIndex(File cacheFile)
+            throws IOException, IllegalFormatException
+    {
+        ByteBuffer buffer = openForReading(cacheFile, COMPATIBILITY_INDEX_RECORD);
+        try
+        {
+            int[] nearestIncompatibleIndices = new int[readCount(buffer, 4)];
+            readInts(buffer, nearestIncompatibleIndices);
+            
+            // the index is only valid if every entry is before its own SNP
+            // and the entries never decrease
+            int previousIndex = -1;
+            for(int i = 0; i < nearestIncompatibleIndices.length; i++)
+            {
+                int nearestIncompatibleIndex = nearestIncompatibleIndices[i];
+                if(nearestIncompatibleIndex < previousIndex ||
+                   nearestIncompatibleIndex >= i)
+                {
+                    throw new IllegalFormatException(
+                            "bad compatibility index entry at SNP " + i +
+                            " in " + cacheFile.getAbsolutePath());
+                }
+                previousIndex = nearestIncompatibleIndex;
+            }
+            
+            return new CompatibilityIndex(nearestIncompatibleIndices);
+        }
+        catch(BufferUnderflowException ex)
+        {
+            throw truncatedFile(cacheFile, ex);
+        }
+    }
+    
+    /**
+     * Open the given file for writing and write the header
+     * @param cacheFile
+     *          the file
+     * @param recordType
+     *          the record type
+     * @return
+     *          the stream
+     * @throws IOException
+     *          if the open fails
+     */
+    private static DataOutputStream openForWriting(
+            File cacheFile,
+            byte recordType)
+            throws IOException
+    {
+        DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(cacheFile)));
+        output.writeInt(MAGIC_NUMBER);
+        output.writeShort(FORMAT_VERSION);
+        output.writeByte(recordType);
+        return output;
+    }
+    
+    /**
+     * Close a stream opened by {@link #openForWriting(File, byte)}. Files
+     * that weren't completely written are deleted so that a partial file
+     * is never mistaken for a cached result
+     * @param output
+     *          the stream
+     * @param cacheFile
+     *          the file being written
+     * @param written
+     *          true iff everything was written
+     * @throws IOException
+     *          if the close fails
+     */
+    private static void finishWriting(
+            DataOutputStream output,
+            File cacheFile,
+            boolean written)
+            throws IOException
+    {
+        try
+        {
+            output.close();
+        }
+        catch(IOException ex)
+        {
+            cacheFile.delete();
+            if(written)
+            {
+                throw ex;
+            }
+        }
+        
+        if(!written)
+        {
+            cacheFile.delete();
+        }
+    }
+    
+    /**
+     * Memory map the given file and check its header
+     * @param cacheFile
+     *          the file
+     * @param recordType
+     *          the record type we expect
+     * @return
+     *          the buffer positioned just after the header
+     * @throws IOException
+     *          if the mapping fails
+     * @throws IllegalFormatException
+     *          if the header doesn't match
+     */
+    private static ByteBuffer openForReading(
+            File cacheFile,
+            byte recordType)
+            throws IOException, IllegalFormatException
+    {
+        FileInputStream input = new FileInputStream(cacheFile);
+        final ByteBuffer buffer;
+        try
+        {
+            // the mapping stays valid after the channel is closed
+            FileChannel channel = input.getChannel();
+            buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    0L,
+                    channel.size());
+        }
+        finally
+        {
+            input.close();
+        }
+        
+        if(buffer.remaining() < 7 ||
+           buffer.getInt() != MAGIC_NUMBER ||
+           buffer.getShort() != FORMAT_VERSION ||
+           buffer.get() != recordType)
+        {
+            throw new IllegalFormatException(
+                    cacheFile.getAbsolutePath() +
+                    " is not a current result cache file of the expected type");
+        }
+        
+        return buffer;
+    }
+    
+    private static IllegalFormatException truncatedFile(
+            File cacheFile,
+            BufferUnderflowException cause)
+    {
+        return new IllegalFormatException(
+                "truncated result cache file: " + cacheFile.getAbsolutePath(),
+                cause);
+    }
+    
+    /**
+     * Read an element count and make sure that the buffer holds enough
+     * bytes for that many elements. This keeps a corrupt count from
+     * turning into a huge or negative allocation
+     * @param buffer
+     *          the buffer to read from
+     * @param minimumElementBytes
+     *          the smallest number of bytes that an element can take
+     * @return
+     *          the count
+     * @throws IllegalFormatException
+     *          if the count is negative or too large for the buffer
+     */
+    private static int readCount(ByteBuffer buffer, int minimumElementBytes)
+            throws IllegalFormatException
+    {
+        int count = buffer.getInt();
+        if(count < 0 || count > buffer.remaining() / minimumElementBytes)
+        {
+            throw new IllegalFormatException(
+                    "bad element count " + count + " with only " +
+                    buffer.remaining() + " bytes remaining");
+        }
+        
+        return count;
+    }
+    
+    private static void writeBasePairIntervals(
+            DataOutputStream output,
+            List<? extends BasePairInterval> intervals)
+            throws IOException
+    {
+        int intervalCount = intervals.size();
+        output.writeInt(intervalCount);
+        for(int i = 0; i < intervalCount; i++)
+        {
+            output.writeInt(intervals.get(i).getChromosomeNumber());
+        }
+        for(int i = 0; i < intervalCount; i++)
+        {
+            output.writeLong(intervals.get(i).getStartInBasePairs());
+        }
+        for(int i = 0; i < intervalCount; i++)
+        {
+            output.writeLong(intervals.get(i).getExtentInBasePairs());
+        }
+    }
+    
+    private static List<BasePairInterval> readBasePairIntervals(ByteBuffer buffer)
+            throws IllegalFormatException
+    {
+        // a chromosome, start and extent per interval
+        int intervalCount = readCount(buffer, 20);
+        int[] chromosomes = new int[intervalCount];
+        long[] starts = new long[intervalCount];
+        long[] extents = new long[intervalCount];
+        readInts(buffer, chromosomes);
+        readLongs(buffer, starts);
+        readLongs(buffer, extents);
+        
+        List<BasePairInterval> intervals =
+            new ArrayList<BasePairInterval>(intervalCount);
+        for(int i = 0; i < intervalCount; i++)
+        {
+            intervals.add(new SimpleBasePairInterval(
+                    chromosomes[i],
+                    starts[i],
+                    extents[i]));
+        }
+        return intervals;
+    }
+    
+    private static void writePhylogenies(
+            DataOutputStream output,
+            List<PhylogenyTreeNode> phylogenies)
+            throws IOException
+    {
+        // all of the trees share one strain name table
+        Map<String, Integer> strainIndices = new HashMap<String, Integer>();
+        List<String> strainTable = new ArrayList<String>();
+        for(PhylogenyTreeNode phylogeny: phylogenies)
+        {
+            for(String strain: phylogeny.getAllStrains())
+            {
+                if(!strainIndices.containsKey(strain))
+                {
+                    strainIndices.put(strain, strainTable.size());
+                    strainTable.add(strain);
+                }
+            }
+        }
+        
+        output.writeInt(strainTable.size());
+        for(String strain: strainTable)
+        {
+            writeString(output, strain);
+        }
+        
+        output.writeInt(phylogenies.size());
+        for(PhylogenyTreeNode phylogeny: phylogenies)
+        {
+            writeNode(output, phylogeny, strainIndices);
+        }
+    }
+    
+    private static void writeNode(
+            DataOutputStream output,
+            PhylogenyTreeNode node,
+            Map<String, Integer> strainIndices)
+            throws IOException
+    {
+        List<String> strains = node.getStrains();
+        output.writeInt(strains.size());
+        for(String strain: strains)
+        {
+            output.writeInt(strainIndices.get(strain));
+        }
+        
+        List<PhylogenyTreeEdge> childEdges = node.getChildEdges();
+        output.writeInt(childEdges.size());
+        for(PhylogenyTreeEdge childEdge: childEdges)
+        {
+            BitSet sdpBits = childEdge.getSdpBits();
+            byte flags = 0;
+            if(sdpBits != null)
+            {
+                flags |= EDGE_HAS_SDP_FLAG;
+            }
+            if(childEdge instanceof PhylogenyTreeEdgeWithRealValue)
+            {
+                flags |= EDGE_HAS_REAL_VALUE_FLAG;
+            }
+            output.writeByte(flags);
+            output.writeDouble(childEdge.getEdgeLength());
+            if(sdpBits != null)
+            {
+                writeBitSet(output, sdpBits);
+            }
+            if(childEdge instanceof PhylogenyTreeEdgeWithRealValue)
+            {
+                output.writeDouble(
+                        ((PhylogenyTreeEdgeWithRealValue)childEdge).getRealValue());
+            }
+            
+            writeNode(output, childEdge.getNode(), strainIndices);
+        }
+    }
+    
+    private static List<PhylogenyTreeNode> readPhylogenies(ByteBuffer buffer)
+            throws IllegalFormatException
+    {
+        String[] strainTable = new String[readCount(buffer, 4)];
+        for(int i = 0; i < strainTable.length; i++)
+        {
+            strainTable[i] = readString(buffer);
+        }
+        
+        // every tree has at least a strain count and a child count
+        int phylogenyCount = readCount(buffer, 8);
+        List<PhylogenyTreeNode> phylogenies =
+            new ArrayList<PhylogenyTreeNode>(phylogenyCount);
+        for(int i = 0; i < phylogenyCount; i++)
+        {
+            phylogenies.add(readNode(buffer, strainTable));
+        }
+        return phylogenies;
+    }
+    
+    private static PhylogenyTreeNode readNode(
+            ByteBuffer buffer,
+            String[] strainTable)
+            throws IllegalFormatException
+    {
+        int strainCount = readCount(buffer, 4);
+        List<String> strains = new ArrayList<String>(strainCount);
+        for(int i = 0; i < strainCount; i++)
+        {
+            int strainIndex = buffer.getInt();
+            if(strainIndex < 0 || strainIndex >= strainTable.length)
+            {
+                throw new IllegalFormatException(
+                        "bad strain index " + strainIndex);
+            }
+            strains.add(strainTable[strainIndex]);
+        }
+        
+        // the flags, length and child node of each edge
+        int childCount = readCount(buffer, 17);
+        List<PhylogenyTreeEdge> childEdges =
+            new ArrayList<PhylogenyTreeEdge>(childCount);
+        for(int i = 0; i < childCount; i++)
+        {
+            byte flags = buffer.get();
+            double edgeLength = buffer.getDouble();
+            BitSet sdpBits = null;
+            if((flags & EDGE_HAS_SDP_FLAG) != 0)
+            {
+                sdpBits = readBitSet(buffer);
+            }
+            
+            if((flags & EDGE_HAS_REAL_VALUE_FLAG) != 0)
+            {
+                double realValue = buffer.getDouble();
+                childEdges.add(new PhylogenyTreeEdgeWithRealValue(
+                        sdpBits,
+                        readNode(buffer, strainTable),
+                        edgeLength,
+                        realValue));
+            }
+            else
+            {
+                childEdges.add(new PhylogenyTreeEdge(
+                        sdpBits,
+                        readNode(buffer, strainTable),
+                        edgeLength));
+            }
+        }
+        
+        return new PhylogenyTreeNode(childEdges, strains);
+    }
+    
+    private static void writeBitSet(DataOutputStream output, BitSet bits)
+            throws IOException
+    {
+        int wordCount = (bits.length() + 63) >>> 6;
+        output.writeInt(wordCount);
+        for(int wordIndex = 0; wordIndex < wordCount; wordIndex++)
+        {
+            long word = 0L;
+            int wordStart = wordIndex << 6;
+            for(int i = bits.nextSetBit(wordStart);
+                i >= 0 && i < wordStart + 64;
+                i = bits.nextSetBit(i + 1))
+            {
+                word |= 1L << i;
+            }
+            output.writeLong(word);
+        }
+    }
+    
+    private static BitSet readBitSet(ByteBuffer buffer)
+            throws IllegalFormatException
+    {
+        int wordCount = readCount(buffer, 8);
+        if(wordCount > Integer.MAX_VALUE >>> 6)
+        {
+            throw new IllegalFormatException(
+                    "bad SDP word count " + wordCount);
+        }
+        BitSet bits = new BitSet(wordCount << 6);
+        for(int wordIndex = 0; wordIndex < wordCount; wordIndex++)
+        {
+            long word = buffer.getLong();
+            while(word != 0L)
+            {
+                bits.set((wordIndex << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1L;
+            }
+        }
+        return bits;
+    }
+    
+    private static void writeString(DataOutputStream output, String string)
+            throws IOException
+    {
+        byte[] bytes = string.getBytes("UTF-8");
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+    
+    private static String readString(ByteBuffer buffer)
+            throws IllegalFormatException
+    {
+        byte[] bytes = new byte[readCount(buffer, 1)];
+        buffer.get(bytes);
+        try
+        {
+            return new String(bytes, "UTF-8");
+        }
+        catch(UnsupportedEncodingException ex)
+        {
+            // every java platform is required to support UTF-8
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    private static void readInts(ByteBuffer buffer, int[] values)
+    {
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + (values.length << 2));
+    }
+    
+    private static void readLongs(ByteBuffer buffer, long[] values)
+    {
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + (values.length << 3));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.IndexedSnpInterval;
+import org.jax.geneticutil.data.SimpleBasePairInterval;
+
+/**
+ * The SNP positions of a chromosome held in a primitive array so that
+ * SNP indices can be converted to base pair positions with a direct array
+ * access. The positions don't depend on the strains so a single index can
+ * be shared by every request against the chromosome.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class SnpPositionIndex
+{
+    private final int chromosomeNumber;
+    
+    private final long[] snpPositionsInBasePairs;
+    
+    /**
+     * Constructor
+     * @param chromosomeNumber
+     *          the chromosome number
+     * @param snpPositionsInBasePairs
+     *          the SNP positions in forward order. this array is used as is
+     *          so callers must not modify it
+     */
+    public SnpPositionIndex(
+            int chromosomeNumber,
+            long[] snpPositionsInBasePairs)
+    {
+        this.chromosomeNumber = chromosomeNumber;
+        this.snpPositionsInBasePairs = snpPositionsInBasePairs;
+    }
+    
+    /**
+     * Read every position from the given stream into a new index
+     * @param positionInputStream
+     *          a forward position stream that hasn't been read from
+     * @return
+     *          the index
+     * @throws IOException
+     *          if we fail to read the stream
+     */
+    public static SnpPositionIndex read(
+            SnpPositionInputStream positionInputStream) throws IOException
+    {
+        if(positionInputStream.getReadDirection() != StreamDirection.FORWARD)
+        {
+            throw new IllegalArgumentException(
+                    "position indices can only be read from forward " +
+                    "position streams");
+        }
+        
+        long snpCount = positionInputStream.getSnpCount();
+        assert snpCount < Integer.MAX_VALUE;
+        long[] snpPositionsInBasePairs = new long[(int)snpCount];
+        for(int i = 0; i < snpPositionsInBasePairs.length; i++)
+        {
+            snpPositionsInBasePairs[i] =
+                positionInputStream.getNextSnpPositionInBasePairs();
+        }
+        
+        return new SnpPositionIndex(
+                positionInputStream.getChromosomeNumber(),
+                snpPositionsInBasePairs);
+    }
+    
+    /**
+     * Getter for the chromosome number
+     * @return the chromosome number
+     */
+    public int getChromosomeNumber()
+    {
+        return this.chromosomeNumber;
+    }
+    
+    /**
+     * Get the number of SNPs
+     * @return
+     *          the SNP count
+     */
+    public int getSnpCount()
+    {
+        return this.snpPositionsInBasePairs.length;
+    }
+    
+    /**
+     * Get the position of the SNP at the given index
+     * @param snpIndex
+     *          the SNP index
+     * @return
+     *          the position in base pairs
+     */
+    public long getSnpPositionInBasePairs(int snpIndex)
+    {
+        return this.snpPositionsInBasePairs[snpIndex];
+    }
+    
+    /**
+     * Convert an indexed interval into a physical interval running from the
+     * position of its start SNP through the position of its end SNP
+     * @param indexedSnpInterval
+     *          the indexed interval
+     * @return
+     *          the physical interval
+     */
+    public BasePairInterval toBasePairInterval(
+            IndexedSnpInterval indexedSnpInterval)
+    {
+        long startInBasePairs =
+            this.snpPositionsInBasePairs[indexedSnpInterval.getStartIndex()];
+        long endInBasePairs =
+            this.snpPositionsInBasePairs[indexedSnpInterval.getEndIndex()];
+        return new SimpleBasePairInterval(
+                this.chromosomeNumber,
+                startInBasePairs,
+                1L + endInBasePairs - startInBasePairs);
+    }
+    
+    /**
+     * Convert indexed intervals into physical intervals
+     * @see #toBasePairInterval(IndexedSnpInterval)
+     * @param indexedSnpIntervals
+     *          the indexed intervals
+     * @return
+     *          the physical intervals in the same order
+     */
+    public List<BasePairInterval> toBasePairIntervals(
+            List<IndexedSnpInterval> indexedSnpIntervals)
+    {
+        int intervalCount = indexedSnpIntervals.size();
+        List<BasePairInterval> physicalIntervals =
+            new ArrayList<BasePairInterval>(intervalCount);
+        for(int i = 0; i < intervalCount; i++)
+        {
+            physicalIntervals.add(this.toBasePairInterval(
+                    indexedSnpIntervals.get(i)));
+        }
+        
+        return physicalIntervals;
+    }
+}
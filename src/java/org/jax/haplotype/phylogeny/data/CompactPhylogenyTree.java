@@ -0,0 +1,1153 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable perfect phylogeny tree held in a handful of primitive arrays
+ * instead of a graph of {@link PhylogenyTreeNode} and
+ * {@link PhylogenyTreeEdge} objects. Nodes are numbered in breadth first
+ * order starting from the root (node 0) so the children of every node are
+ * numbered consecutively and every child is numbered after its parent.
+ * Every non-root node stores the edge that points to it from its parent.
+ * Strains are indices into a strain table which can be shared by many
+ * trees (see {@link #fromPhylogenyTrees(List)}) and the edge SDPs are
+ * packed into a single long array with a fixed number of words per edge.
+ * <br/><br/>
+ * Conversion to and from {@link PhylogenyTreeNode} is lossless: strain and
+ * child ordering, edge lengths, null SDPs and the values of
+ * {@link PhylogenyTreeEdgeWithRealValue} edges are all preserved.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class CompactPhylogenyTree implements Serializable
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = 2461706093466385547L;
+    
+    private static final String STRAIN_SEPARATOR = "|";
+    private static final char NEWICK_CHILD_SEPARATOR = ',';
+    
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+    
+    private static final byte EDGE_HAS_SDP_FLAG = 1;
+    
+    private static final byte EDGE_HAS_REAL_VALUE_FLAG = 2;
+    
+    private final String[] strainTable;
+    
+    /**
+     * the parent of every node (-1 for the root)
+     */
+    private final int[] parentIndices;
+    
+    /**
+     * the children of node i are childStarts[i] through childStarts[i + 1] - 1
+     */
+    private final int[] childStarts;
+    
+    /**
+     * the strains of node i are strainIndices[strainStarts[i]] through
+     * strainIndices[strainStarts[i + 1] - 1]
+     */
+    private final int[] strainStarts;
+    
+    private final int[] strainIndices;
+    
+    /**
+     * the remaining edge arrays are indexed by the node that the edge points
+     * to. the root's entries are unused
+     */
+    private final byte[] edgeFlags;
+    
+    private final double[] edgeLengths;
+    
+    /**
+     * the real edge values or null if no edge has one
+     */
+    private final double[] edgeRealValues;
+    
+    private final int sdpWordCount;
+    
+    /**
+     * the SDP of the edge pointing to node i is held in words
+     * i * sdpWordCount through (i + 1) * sdpWordCount - 1
+     */
+    private final long[] sdpWords;
+    
+    /**
+     * the cached hash code or 0 if it hasn't been calculated yet
+     */
+    private transient int hashCode = 0;
+    
+    /**
+     * Constructor. The arrays are used as is
+     */
+    /*package protected*/ CompactPhylogenyTree(
+            String[] strainTable,
+            int[] parentIndices,
+            int[] childStarts,
+            int[] strainStarts,
+            int[] strainIndices,
+            byte[] edgeFlags,
+            double[] edgeLengths,
+            double[] edgeRealValues,
+            int sdpWordCount,
+            long[] sdpWords)
+    {
+        this.strainTable = strainTable;
+        this.parentIndices = parentIndices;
+        this.childStarts = childStarts;
+        this.strainStarts = strainStarts;
+        this.strainIndices = strainIndices;
+        this.edgeFlags = edgeFlags;
+        this.edgeLengths = edgeLengths;
+        this.edgeRealValues = edgeRealValues;
+        this.sdpWordCount = sdpWordCount;
+        this.sdpWords = sdpWords;
+    }
+    
+    /**
+     * Create a compact copy of the given tree with its own strain table
+     * @param phylogeny
+     *          the tree to copy
+     * @return
+     *          the compact tree
+     */
+    public static CompactPhylogenyTree fromPhylogenyTreeNode(
+            PhylogenyTreeNode phylogeny)
+    {
+        return fromPhylogenyTrees(Collections.singletonList(phylogeny)).get(0);
+    }
+    
+    /**
+     * Create compact copies of the given trees. All of the copies share a
+     * single strain table
+     * @param phylogenies
+     *          the trees to copy
+     * @return
+     *          the compact trees in the same order
+     */
+    public static List<CompactPhylogenyTree> fromPhylogenyTrees(
+            List<PhylogenyTreeNode> phylogenies)
+    {
+        Map<String, Integer> strainTableIndices = new HashMap<String, Integer>();
+        List<String> strainTableList = new ArrayList<String>();
+        for(PhylogenyTreeNode phylogeny: phylogenies)
+        {
+            for(String strain: phylogeny.getAllStrains())
+            {
+                if(!strainTableIndices.containsKey(strain))
+                {
+                    strainTableIndices.put(strain, strainTableList.size());
+                    strainTableList.add(strain);
+                }
+            }
+        }
+        
+        String[] strainTable = strainTableList.toArray(
+                new String[strainTableList.size()]);
+        List<CompactPhylogenyTree> compactPhylogenies =
+            new ArrayList<CompactPhylogenyTree>(phylogenies.size());
+        for(PhylogenyTreeNode phylogeny: phylogenies)
+        {
+            compactPhylogenies.add(fromPhylogenyTreeNode(
+                    phylogeny,
+                    strainTable,
+                    strainTableIndices));
+        }
+        
+        return compactPhylogenies;
+    }
+    
+    /**
+     * Create a compact copy of the given tree
+     * @param phylogeny
+     *          the tree
+     * @param strainTable
+     *          the shared strain table
+     * @param strainTableIndices
+     *          maps every strain of the tree to its strain table index
+     * @return
+     *          the compact tree
+     */
+    /*package protected*/ static CompactPhylogenyTree fromPhylogenyTreeNode(
+            PhylogenyTreeNode phylogeny,
+            String[] strainTable,
+            Map<String, Integer> strainTableIndices)
+    {
+        // lay the nodes out breadth first so that siblings are consecutive
+        List<PhylogenyTreeNode> nodes = new ArrayList<PhylogenyTreeNode>();
+        List<PhylogenyTreeEdge> edges = new ArrayList<PhylogenyTreeEdge>();
+        nodes.add(phylogeny);
+        edges.add(null);
+        
+        int strainCount = 0;
+        int sdpWordCount = 0;
+        boolean anyRealValues = false;
+        for(int i = 0; i < nodes.size(); i++)
+        {
+            PhylogenyTreeNode node = nodes.get(i);
+            strainCount += node.getStrains().size();
+            for(PhylogenyTreeEdge childEdge: node.getChildEdges())
+            {
+                nodes.add(childEdge.getNode());
+                edges.add(childEdge);
+                
+                BitSet sdpBits = childEdge.getSdpBits();
+                if(sdpBits != null)
+                {
+                    sdpWordCount = Math.max(
+                            sdpWordCount,
+                            (sdpBits.length() + 63) >>> ADDRESS_BITS_PER_WORD);
+                }
+                anyRealValues |=
+                    childEdge instanceof PhylogenyTreeEdgeWithRealValue;
+            }
+        }
+        
+        int nodeCount = nodes.size();
+        int[] parentIndices = new int[nodeCount];
+        int[] childStarts = new int[nodeCount + 1];
+        int[] strainStarts = new int[nodeCount + 1];
+        int[] strainIndices = new int[strainCount];
+        byte[] edgeFlags = new byte[nodeCount];
+        double[] edgeLengths = new double[nodeCount];
+        double[] edgeRealValues = anyRealValues ? new double[nodeCount] : null;
+        long[] sdpWords = new long[nodeCount * sdpWordCount];
+        
+        parentIndices[0] = -1;
+        int nextChildIndex = 1;
+        int nextStrainIndex = 0;
+        for(int i = 0; i < nodeCount; i++)
+        {
+            PhylogenyTreeNode node = nodes.get(i);
+            
+            childStarts[i] = nextChildIndex;
+            int childCount = node.getChildEdges().size();
+            for(int j = 0; j < childCount; j++)
+            {
+                parentIndices[nextChildIndex++] = i;
+            }
+            
+            strainStarts[i] = nextStrainIndex;
+            for(String strain: node.getStrains())
+            {
+                strainIndices[nextStrainIndex++] = strainTableIndices.get(strain);
+            }
+            
+            PhylogenyTreeEdge edge = edges.get(i);
+            if(edge != null)
+            {
+                edgeLengths[i] = edge.getEdgeLength();
+                
+                BitSet sdpBits = edge.getSdpBits();
+                if(sdpBits != null)
+                {
+                    edgeFlags[i] |= EDGE_HAS_SDP_FLAG;
+                    int wordOffset = i * sdpWordCount;
+                    for(int bit = sdpBits.nextSetBit(0);
+                        bit >= 0;
+                        bit = sdpBits.nextSetBit(bit + 1))
+                    {
+                        sdpWords[wordOffset + (bit >> ADDRESS_BITS_PER_WORD)] |=
+                            1L << bit;
+                    }
+                }
+                
+                if(edge instanceof PhylogenyTreeEdgeWithRealValue)
+                {
+                    edgeFlags[i] |= EDGE_HAS_REAL_VALUE_FLAG;
+                    edgeRealValues[i] =
+                        ((PhylogenyTreeEdgeWithRealValue)edge).getRealValue();
+                }
+            }
+        }
+        childStarts[nodeCount] = nextChildIndex;
+        strainStarts[nodeCount] = nextStrainIndex;
+        
+        return new CompactPhylogenyTree(
+                strainTable,
+                parentIndices,
+                childStarts,
+                strainStarts,
+                strainIndices,
+                edgeFlags,
+                edgeLengths,
+                edgeRealValues,
+                sdpWordCount,
+                sdpWords);
+    }
+    
+    /**
+     * Create a copy of this tree that refers to its strains through a
+     * different strain table
+     * @param strainTable
+     *          the new strain table
+     * @param strainTableIndices
+     *          maps every strain of this tree to its new strain table index
+     * @return
+     *          the copy, which shares all of this tree's other arrays
+     */
+    /*package protected*/ CompactPhylogenyTree withStrainTable(
+            String[] strainTable,
+            Map<String, Integer> strainTableIndices)
+    {
+        int[] strainIndices = new int[this.strainIndices.length];
+        for(int i = 0; i < strainIndices.length; i++)
+        {
+            strainIndices[i] = strainTableIndices.get(
+                    this.strainTable[this.strainIndices[i]]);
+        }
+        
+        return new CompactPhylogenyTree(
+                strainTable,
+                this.parentIndices,
+                this.childStarts,
+                this.strainStarts,
+                strainIndices,
+                this.edgeFlags,
+                this.edgeLengths,
+                this.edgeRealValues,
+                this.sdpWordCount,
+                this.sdpWords);
+    }
+    
+    /**
+     * Convert this tree back into a graph of {@link PhylogenyTreeNode}s
+     * @return
+     *          the root of the new tree
+     */
+    public PhylogenyTreeNode toPhylogenyTreeNode()
+    {
+        // children are always numbered after their parents so we can build
+        // the nodes from the bottom up
+        int nodeCount = this.getNodeCount();
+        PhylogenyTreeNode[] nodes = new PhylogenyTreeNode[nodeCount];
+        for(int i = nodeCount - 1; i >= 0; i--)
+        {
+            int childStart = this.childStarts[i];
+            int childEnd = this.childStarts[i + 1];
+            List<PhylogenyTreeEdge> childEdges =
+                new ArrayList<PhylogenyTreeEdge>(childEnd - childStart);
+            for(int child = childStart; child < childEnd; child++)
+            {
+                if((this.edgeFlags[child] & EDGE_HAS_REAL_VALUE_FLAG) != 0)
+                {
+                    childEdges.add(new PhylogenyTreeEdgeWithRealValue(
+                            this.getSdpBits(child),
+                            nodes[child],
+                            this.edgeLengths[child],
+                            this.edgeRealValues[child]));
+                }
+                else
+                {
+                    childEdges.add(new PhylogenyTreeEdge(
+                            this.getSdpBits(child),
+                            nodes[child],
+                            this.edgeLengths[child]));
+                }
+                nodes[child] = null;
+            }
+            
+            nodes[i] = new PhylogenyTreeNode(
+                    childEdges,
+                    this.getStrains(i));
+        }
+        
+        return nodes[0];
+    }
+    
+    /**
+     * Get the strain table that the strain indices of this tree refer to.
+     * The table may contain strains that don't appear in this tree
+     * @return
+     *          the strain table (callers must not modify it)
+     */
+    public String[] getStrainTable()
+    {
+        return this.strainTable;
+    }
+    
+    /**
+     * Get the number of nodes in this tree
+     * @return
+     *          the node count
+     */
+    public int getNodeCount()
+    {
+        return this.parentIndices.length;
+    }
+    
+    /**
+     * Get the total number of strains in this tree's nodes
+     * @return
+     *          the strain count
+     */
+    public int getStrainCount()
+    {
+        return this.strainIndices.length;
+    }
+    
+    /**
+     * Get the number of 64 bit words used to store each edge SDP
+     * @return
+     *          the word count
+     */
+    public int getSdpWordCount()
+    {
+        return this.sdpWordCount;
+    }
+    
+    /**
+     * Get the parent of the given node
+     * @param nodeIndex
+     *          the node index (the root is 0)
+     * @return
+     *          the parent's node index or -1 for the root
+     */
+    public int getParentIndex(int nodeIndex)
+    {
+        return this.parentIndices[nodeIndex];
+    }
+    
+    /**
+     * Get the number of children that the given node has
+     * @param nodeIndex
+     *          the node index
+     * @return
+     *          the child count
+     */
+    public int getChildCount(int nodeIndex)
+    {
+        return this.childStarts[nodeIndex + 1] - this.childStarts[nodeIndex];
+    }
+    
+    /**
+     * Get the node index of a child
+     * @param nodeIndex
+     *          the parent node index
+     * @param childNumber
+     *          which child we want (0 for the 1st)
+     * @return
+     *          the child's node index
+     */
+    public int getChildIndex(int nodeIndex, int childNumber)
+    {
+        if(childNumber < 0 || childNumber >= this.getChildCount(nodeIndex))
+        {
+            throw new IndexOutOfBoundsException(
+                    "child number out of range: " + childNumber);
+        }
+        
+        return this.childStarts[nodeIndex] + childNumber;
+    }
+    
+    /**
+     * Determine if the given node is a leaf
+     * @param nodeIndex
+     *          the node index
+     * @return
+     *          true iff the node has no children
+     */
+    public boolean isLeafNode(int nodeIndex)
+    {
+        return this.childStarts[nodeIndex] == this.childStarts[nodeIndex + 1];
+    }
+    
+    /**
+     * Get the strains at the given node
+     * @param nodeIndex
+     *          the node index
+     * @return
+     *          a new list holding the strains
+     */
+    public List<String> getStrains(int nodeIndex)
+    {
+        int strainStart = this.strainStarts[nodeIndex];
+        int strainEnd = this.strainStarts[nodeIndex + 1];
+        List<String> strains = new ArrayList<String>(strainEnd - strainStart);
+        for(int i = strainStart; i < strainEnd; i++)
+        {
+            strains.add(this.strainTable[this.strainIndices[i]]);
+        }
+        
+        return strains;
+    }
+    
+    /**
+     * Get all of the strains in this tree in the same order as
+     * {@link PhylogenyTreeNode#getAllStrains()}
+     * @return
+     *          the strains
+     */
+    public List<String> getAllStrains()
+    {
+        List<String> allStrains = new ArrayList<String>(this.strainIndices.length);
+        this.getAllStrainsRecursive(0, allStrains);
+        return allStrains;
+    }
+    
+    private void getAllStrainsRecursive(int nodeIndex, List<String> allStrains)
+    {
+        for(int i = this.strainStarts[nodeIndex]; i < this.strainStarts[nodeIndex + 1]; i++)
+        {
+            allStrains.add(this.strainTable[this.strainIndices[i]]);
+        }
+        
+        for(int child = this.childStarts[nodeIndex]; child < this.childStarts[nodeIndex + 1]; child++)
+        {
+            this.getAllStrainsRecursive(child, allStrains);
+        }
+    }
+    
+    /**
+     * Get the SDP of the edge pointing to the given node
+     * @param nodeIndex
+     *          the (non-root) node index
+     * @return
+     *          a new bit set holding the SDP or null if the edge has no SDP
+     */
+    public BitSet getSdpBits(int nodeIndex)
+    {
+        if((this.edgeFlags[nodeIndex] & EDGE_HAS_SDP_FLAG) == 0)
+        {
+            return null;
+        }
+        else
+        {
+            BitSet sdpBits = new BitSet();
+            int wordOffset = nodeIndex * this.sdpWordCount;
+            for(int i = 0; i < this.sdpWordCount; i++)
+            {
+                long word = this.sdpWords[wordOffset + i];
+                while(word != 0L)
+                {
+                    sdpBits.set((i << ADDRESS_BITS_PER_WORD) +
+                            Long.numberOfTrailingZeros(word));
+                    word &= word - 1L;
+                }
+            }
+            
+            return sdpBits;
+        }
+    }
+    
+    /**
+     * Get the length of the edge pointing to the given node
+     * @param nodeIndex
+     *          the (non-root) node index
+     * @return
+     *          the edge length
+     */
+    public double getEdgeLength(int nodeIndex)
+    {
+        return this.edgeLengths[nodeIndex];
+    }
+    
+    /**
+     * Create a newick formatted string representing this tree. The string
+     * is identical to the one from {@link PhylogenyTreeNode#toNewickFormat()}
+     * @return
+     *          the newick string representation
+     */
+    public String toNewickFormat()
+    {
+        StringBuffer sb = new StringBuffer();
+        this.toNewickFormatRecursive(0, sb);
+        sb.append(';');
+        return sb.toString();
+    }
+    
+    /**
+     * The recursive part of the newick formatting logic
+     * @param nodeIndex
+     *          the node to format
+     * @param sb
+     *          the buffer to append to
+     */
+    private void toNewickFormatRecursive(int nodeIndex, StringBuffer sb)
+    {
+        int childStart = this.childStarts[nodeIndex];
+        int childEnd = this.childStarts[nodeIndex + 1];
+        if(childStart < childEnd)
+        {
+            sb.append('(');
+            for(int child = childStart; child < childEnd; child++)
+            {
+                if(child > childStart)
+                {
+                    sb.append(NEWICK_CHILD_SEPARATOR);
+                }
+                this.toNewickFormatRecursive(child, sb);
+                sb.append(':');
+                sb.append(this.edgeLengths[child]);
+            }
+            sb.append(')');
+        }
+        
+        int strainStart = this.strainStarts[nodeIndex];
+        int strainEnd = this.strainStarts[nodeIndex + 1];
+        for(int i = strainStart; i < strainEnd; i++)
+        {
+            if(i > strainStart)
+            {
+                sb.append(STRAIN_SEPARATOR);
+            }
+            sb.append(this.strainTable[this.strainIndices[i]]);
+        }
+    }
+    
+    /**
+     * Create a copy of this tree that only has the given strains. Branches
+     * that are empty after strain removal are pruned. This matches
+     * {@link PhylogenyTreeNode#createStrainPrunedTree(Set)}
+     * @param strainsToRetain
+     *          the strains that we should keep
+     * @return
+     *          the pruned tree which shares this tree's strain table
+     */
+    public CompactPhylogenyTree createStrainPrunedTree(Set<String> strainsToRetain)
+    {
+        boolean[] retainedStrains = new boolean[this.strainTable.length];
+        for(int i = 0; i < retainedStrains.length; i++)
+        {
+            retainedStrains[i] = strainsToRetain.contains(this.strainTable[i]);
+        }
+        
+        // children come after their parents so a reverse pass sees every
+        // node's children before the node itself
+        int nodeCount = this.getNodeCount();
+        boolean[] retainedNodes = new boolean[nodeCount];
+        for(int i = nodeCount - 1; i >= 0; i--)
+        {
+            for(int j = this.strainStarts[i];
+                !retainedNodes[i] && j < this.strainStarts[i + 1];
+                j++)
+            {
+                retainedNodes[i] = retainedStrains[this.strainIndices[j]];
+            }
+            
+            if(retainedNodes[i] && i > 0)
+            {
+                retainedNodes[this.parentIndices[i]] = true;
+            }
+        }
+        
+        int[][] nodeChildren = new int[nodeCount][];
+        int[] edgeSources = new int[nodeCount];
+        for(int i = 0; i < nodeCount; i++)
+        {
+            int childStart = this.childStarts[i];
+            int childEnd = this.childStarts[i + 1];
+            int retainedChildCount = 0;
+            for(int child = childStart; child < childEnd; child++)
+            {
+                if(retainedNodes[child])
+                {
+                    retainedChildCount++;
+                }
+            }
+            
+            nodeChildren[i] = new int[retainedChildCount];
+            retainedChildCount = 0;
+            for(int child = childStart; child < childEnd; child++)
+            {
+                if(retainedNodes[child])
+                {
+                    nodeChildren[i][retainedChildCount++] = child;
+                }
+            }
+            edgeSources[i] = i;
+        }
+        
+        // the root stays even if it's empty
+        return this.createRearrangedTree(
+                0,
+                nodeChildren,
+                edgeSources,
+                null,
+                retainedStrains,
+                false);
+    }
+    
+    /**
+     * Reroot this tree at the given node. The edges on the path between the
+     * old root and the new root are reversed and each reversed edge is
+     * appended to the end of its new parent's children. This matches
+     * {@link PhylogenyTreeNode#reRoot(PhylogenyTreeNode)} including the
+     * fact that reversed edges lose any real value
+     * @param newRootIndex
+     *          the index of the new root node
+     * @return
+     *          the re-rooted tree which shares this tree's strain table
+     */
+    public CompactPhylogenyTree reRoot(int newRootIndex)
+    {
+        int nodeCount = this.getNodeCount();
+        if(newRootIndex < 0 || newRootIndex >= nodeCount)
+        {
+            throw new IndexOutOfBoundsException(
+                    "new root index out of range: " + newRootIndex);
+        }
+        
+        // flag the nodes between the new root and the old root. the edges
+        // pointing to them are the ones that get reversed
+        boolean[] reversedEdges = new boolean[nodeCount];
+        for(int i = newRootIndex; i > 0; i = this.parentIndices[i])
+        {
+            reversedEdges[i] = true;
+        }
+        
+        int[][] nodeChildren = new int[nodeCount][];
+        int[] edgeSources = new int[nodeCount];
+        boolean[] plainEdges = new boolean[nodeCount];
+        for(int i = 0; i < nodeCount; i++)
+        {
+            int childStart = this.childStarts[i];
+            int childEnd = this.childStarts[i + 1];
+            int childCount = reversedEdges[i] ? 1 : 0;
+            for(int child = childStart; child < childEnd; child++)
+            {
+                if(!reversedEdges[child])
+                {
+                    childCount++;
+                }
+            }
+            
+            nodeChildren[i] = new int[childCount];
+            int nextChild = 0;
+            for(int child = childStart; child < childEnd; child++)
+            {
+                if(!reversedEdges[child])
+                {
+                    nodeChildren[i][nextChild++] = child;
+                    edgeSources[child] = child;
+                }
+            }
+            
+            if(reversedEdges[i])
+            {
+                // the parent becomes the last child and takes the edge
+                // that used to point to this node
+                int parent = this.parentIndices[i];
+                nodeChildren[i][nextChild] = parent;
+                edgeSources[parent] = i;
+                plainEdges[parent] = true;
+            }
+        }
+        
+        return this.createRearrangedTree(
+                newRootIndex,
+                nodeChildren,
+                edgeSources,
+                plainEdges,
+                null,
+                false);
+    }
+    
+    /**
+     * Create the canonical form of this tree. The strains of every node are
+     * sorted (as in {@link PhylogenyTreeNode#createNormalizedTree()}) and the
+     * children of every node are ordered by the smallest strain under them
+     * so that trees which only differ in the order of their strains and
+     * children have identical canonical forms. Children without any strains
+     * under them keep their relative order. Unlike
+     * {@link PhylogenyTreeNode#createNormalizedTree()} the tree is not
+     * re-rooted
+     * @return
+     *          the canonical tree which shares this tree's strain table
+     */
+    public CompactPhylogenyTree createCanonicalTree()
+    {
+        // children come after their parents so a reverse pass finds the
+        // smallest strain under every node
+        int nodeCount = this.getNodeCount();
+        final String[] smallestStrains = new String[nodeCount];
+        for(int i = nodeCount - 1; i >= 0; i--)
+        {
+            String smallestStrain = smallestStrains[i];
+            for(int j = this.strainStarts[i]; j < this.strainStarts[i + 1]; j++)
+            {
+                String strain = this.strainTable[this.strainIndices[j]];
+                if(smallestStrain == null || strain.compareTo(smallestStrain) < 0)
+                {
+                    smallestStrain = strain;
+                }
+            }
+            smallestStrains[i] = smallestStrain;
+            
+            if(i > 0 && smallestStrain != null)
+            {
+                int parent = this.parentIndices[i];
+                if(smallestStrains[parent] == null ||
+                   smallestStrain.compareTo(smallestStrains[parent]) < 0)
+                {
+                    smallestStrains[parent] = smallestStrain;
+                }
+            }
+        }
+        
+        // the sort is stable so strainless children stay in order
+        Comparator<Integer> childComparator = new Comparator<Integer>()
+        {
+            public int compare(Integer child1, Integer child2)
+            {
+                String strain1 = smallestStrains[child1];
+                String strain2 = smallestStrains[child2];
+                if(strain1 == null)
+                {
+                    return strain2 == null ? 0 : 1;
+                }
+                else if(strain2 == null)
+                {
+                    return -1;
+                }
+                else
+                {
+                    return strain1.compareTo(strain2);
+                }
+            }
+        };
+        
+        int[][] nodeChildren = new int[nodeCount][];
+        int[] edgeSources = new int[nodeCount];
+        for(int i = 0; i < nodeCount; i++)
+        {
+            int childStart = this.childStarts[i];
+            int childCount = this.childStarts[i + 1] - childStart;
+            Integer[] children = new Integer[childCount];
+            for(int j = 0; j < childCount; j++)
+            {
+                children[j] = childStart + j;
+            }
+            Arrays.sort(children, childComparator);
+            
+            nodeChildren[i] = new int[childCount];
+            for(int j = 0; j < childCount; j++)
+            {
+                nodeChildren[i][j] = children[j];
+            }
+            edgeSources[i] = i;
+        }
+        
+        return this.createRearrangedTree(
+                0,
+                nodeChildren,
+                edgeSources,
+                null,
+                null,
+                true);
+    }
+    
+    /**
+     * Lay out a new tree using this tree's nodes, edges and strain table
+     * @param rootIndex
+     *          the node to use as the root
+     * @param nodeChildren
+     *          the ordered children of every node that is reachable from
+     *          the root
+     * @param edgeSources
+     *          for every node reachable from the root, except the root itself,
+     *          the node whose edge data should be used for the edge that
+     *          points to it
+     * @param plainEdges
+     *          flags nodes whose edge should drop its real value or null
+     * @param retainedStrains
+     *          flags the strains that should be kept or null to keep them all
+     * @param sortStrains
+     *          if true the strains of every node are sorted by name
+     * @return
+     *          the new tree
+     */
+    private CompactPhylogenyTree createRearrangedTree(
+            int rootIndex,
+            int[][] nodeChildren,
+            int[] edgeSources,
+            boolean[] plainEdges,
+            boolean[] retainedStrains,
+            boolean sortStrains)
+    {
+        // breadth first ordering of the old node indices
+        int[] newOrder = new int[this.getNodeCount()];
+        int[] parentIndices = new int[newOrder.length];
+        int[] childStarts = new int[newOrder.length + 1];
+        newOrder[0] = rootIndex;
+        parentIndices[0] = -1;
+        int newNodeCount = 1;
+        for(int i = 0; i < newNodeCount; i++)
+        {
+            childStarts[i] = newNodeCount;
+            for(int child: nodeChildren[newOrder[i]])
+            {
+                parentIndices[newNodeCount] = i;
+                newOrder[newNodeCount++] = child;
+            }
+        }
+        childStarts[newNodeCount] = newNodeCount;
+        
+        if(newNodeCount < newOrder.length)
+        {
+            int[] trimmedParentIndices = new int[newNodeCount];
+            System.arraycopy(parentIndices, 0, trimmedParentIndices, 0, newNodeCount);
+            parentIndices = trimmedParentIndices;
+            
+            int[] trimmedChildStarts = new int[newNodeCount + 1];
+            System.arraycopy(childStarts, 0, trimmedChildStarts, 0, newNodeCount + 1);
+            childStarts = trimmedChildStarts;
+        }
+        
+        int[] strainStarts = new int[newNodeCount + 1];
+        int strainCount = 0;
+        for(int i = 0; i < newNodeCount; i++)
+        {
+            int oldIndex = newOrder[i];
+            strainStarts[i] = strainCount;
+            for(int j = this.strainStarts[oldIndex]; j < this.strainStarts[oldIndex + 1]; j++)
+            {
+                if(retainedStrains == null || retainedStrains[this.strainIndices[j]])
+                {
+                    strainCount++;
+                }
+            }
+        }
+        strainStarts[newNodeCount] = strainCount;
+        
+        int[] strainIndices = new int[strainCount];
+        byte[] edgeFlags = new byte[newNodeCount];
+        double[] edgeLengths = new double[newNodeCount];
+        double[] edgeRealValues =
+            this.edgeRealValues == null ? null : new double[newNodeCount];
+        long[] sdpWords = new long[newNodeCount * this.sdpWordCount];
+        for(int i = 0; i < newNodeCount; i++)
+        {
+            int oldIndex = newOrder[i];
+            int nextStrainIndex = strainStarts[i];
+            for(int j = this.strainStarts[oldIndex]; j < this.strainStarts[oldIndex + 1]; j++)
+            {
+                int strainIndex = this.strainIndices[j];
+                if(retainedStrains == null || retainedStrains[strainIndex])
+                {
+                    strainIndices[nextStrainIndex++] = strainIndex;
+                }
+            }
+            
+            if(sortStrains)
+            {
+                // nodes only hold a few strains so an insertion sort is fine
+                for(int j = strainStarts[i] + 1; j < nextStrainIndex; j++)
+                {
+                    int strainIndex = strainIndices[j];
+                    String strain = this.strainTable[strainIndex];
+                    int k = j - 1;
+                    while(k >= strainStarts[i] &&
+                          this.strainTable[strainIndices[k]].compareTo(strain) > 0)
+                    {
+                        strainIndices[k + 1] = strainIndices[k];
+                        k--;
+                    }
+                    strainIndices[k + 1] = strainIndex;
+                }
+            }
+            
+            if(i > 0)
+            {
+                int edgeSource = edgeSources[oldIndex];
+                edgeFlags[i] = this.edgeFlags[edgeSource];
+                edgeLengths[i] = this.edgeLengths[edgeSource];
+                if(plainEdges != null && plainEdges[oldIndex])
+                {
+                    edgeFlags[i] &= ~EDGE_HAS_REAL_VALUE_FLAG;
+                }
+                else if(edgeRealValues != null)
+                {
+                    edgeRealValues[i] = this.edgeRealValues[edgeSource];
+                }
+                System.arraycopy(
+                        this.sdpWords,
+                        edgeSource * this.sdpWordCount,
+                        sdpWords,
+                        i * this.sdpWordCount,
+                        this.sdpWordCount);
+            }
+        }
+        
+        return new CompactPhylogenyTree(
+                this.strainTable,
+                parentIndices,
+                childStarts,
+                strainStarts,
+                strainIndices,
+                edgeFlags,
+                edgeLengths,
+                edgeRealValues,
+                this.sdpWordCount,
+                sdpWords);
+    }
+    
+    /**
+     * Get the word of an edge SDP treating words past the end as zero
+     * @param nodeIndex
+     *          the node that the edge points to
+     * @param wordIndex
+     *          the word index
+     * @return
+     *          the word
+     */
+    private long getSdpWord(int nodeIndex, int wordIndex)
+    {
+        if(wordIndex < this.sdpWordCount)
+        {
+            return this.sdpWords[nodeIndex * this.sdpWordCount + wordIndex];
+        }
+        else
+        {
+            return 0L;
+        }
+    }
+    
+    /**
+     * Two trees are equal if they have the same layout, strains, edges and
+     * edge values. The strains are compared by name so trees with different
+     * strain tables can still be equal
+     * @param obj
+     *          the object to compare
+     * @return
+     *          true if the trees are equal
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(this == obj)
+        {
+            return true;
+        }
+        else if(obj instanceof CompactPhylogenyTree)
+        {
+            CompactPhylogenyTree otherTree = (CompactPhylogenyTree)obj;
+            if(!Arrays.equals(this.parentIndices, otherTree.parentIndices) ||
+               !Arrays.equals(this.strainStarts, otherTree.strainStarts) ||
+               !Arrays.equals(this.edgeFlags, otherTree.edgeFlags) ||
+               !Arrays.equals(this.edgeLengths, otherTree.edgeLengths))
+            {
+                return false;
+            }
+            
+            if(this.strainTable == otherTree.strainTable)
+            {
+                if(!Arrays.equals(this.strainIndices, otherTree.strainIndices))
+                {
+                    return false;
+                }
+            }
+            else
+            {
+                for(int i = 0; i < this.strainIndices.length; i++)
+                {
+                    if(!this.strainTable[this.strainIndices[i]].equals(
+                            otherTree.strainTable[otherTree.strainIndices[i]]))
+                    {
+                        return false;
+                    }
+                }
+            }
+            
+            int nodeCount = this.getNodeCount();
+            int sdpWordCount = Math.max(this.sdpWordCount, otherTree.sdpWordCount);
+            for(int i = 1; i < nodeCount; i++)
+            {
+                if((this.edgeFlags[i] & EDGE_HAS_REAL_VALUE_FLAG) != 0 &&
+                   Double.doubleToLongBits(this.edgeRealValues[i]) !=
+                   Double.doubleToLongBits(otherTree.edgeRealValues[i]))
+                {
+                    return false;
+                }
+                
+                for(int j = 0; j < sdpWordCount; j++)
+                {
+                    if(this.getSdpWord(i, j) != otherTree.getSdpWord(i, j))
+                    {
+                        return false;
+                    }
+                }
+            }
+            
+            return true;
+        }
+        else
+        {
+            return false;
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        int hash = this.hashCode;
+        if(hash == 0)
+        {
+            hash = Arrays.hashCode(this.parentIndices);
+            hash = 31 * hash + Arrays.hashCode(this.strainStarts);
+            hash = 31 * hash + Arrays.hashCode(this.edgeFlags);
+            hash = 31 * hash + Arrays.hashCode(this.edgeLengths);
+            for(int strainIndex: this.strainIndices)
+            {
+                hash = 31 * hash + this.strainTable[strainIndex].hashCode();
+            }
+            
+            // trailing zero words are skipped so that equal SDPs hash the
+            // same no matter how many words they're stored in
+            int nodeCount = this.getNodeCount();
+            for(int i = 1; i < nodeCount; i++)
+            {
+                if((this.edgeFlags[i] & EDGE_HAS_REAL_VALUE_FLAG) != 0)
+                {
+                    long bits = Double.doubleToLongBits(this.edgeRealValues[i]);
+                    hash = 31 * hash + (int)(bits ^ (bits >>> 32));
+                }
+                
+                for(int j = 0; j < this.sdpWordCount; j++)
+                {
+                    long word = this.getSdpWord(i, j);
+                    if(word != 0L)
+                    {
+                        hash = 31 * (31 * hash + j) + (int)(word ^ (word >>> 32));
+                    }
+                }
+            }
+            
+            this.hashCode = hash;
+        }
+        
+        return hash;
+    }
+}
@@ -0,0 +1,625 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jax.util.io.IllegalFormatException;
+
+/**
+ * A linear time parser for the newick trees written by
+ * {@link PhylogenyTreeNode#toNewickFormat()}. A single pass over the
+ * characters pairs up the parentheses, after which the tree is read by
+ * walking index ranges of the original string so that no intermediate
+ * substrings are created. Nesting is tracked with an explicit stack so the
+ * depth of a tree isn't limited by the call stack. The trees are the same as the ones that the
+ * original regular expression based parser produced: an edge's length
+ * follows the last ':' of the edge, node names are trimmed (except for the
+ * root's) and split into strains on '|'. Malformed strings are still
+ * rejected, though some that used to fail with a
+ * {@link NumberFormatException} because a misplaced ':' put parentheses in
+ * an edge length now fail with an {@link IllegalFormatException} instead.
+ * <br/><br/>
+ * A parser can be reused for any number of trees, which lets it reuse its
+ * working arrays. In the streaming mode
+ * ({@link #parseCompactTree(String)}) trees are built directly into
+ * {@link CompactPhylogenyTree}s which share the parser's strain table. The
+ * table only grows by appending new strains: a tree that brings in a new
+ * strain gets a new, larger table while the trees that were parsed before it
+ * keep the old one, so trees only share a table once all of their strains
+ * have been seen. Nothing calls this mode yet.
+ * <br/><br/>
+ * This class is not thread safe.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class NewickParser
+{
+    private static final char STRAIN_SEPARATOR = '|';
+    private static final char NEWICK_CHILD_SEPARATOR = ',';
+    private static final char NEWICK_EDGE_LENGTH_SEPARATOR = ':';
+    private static final char NEWICK_TERMINATOR = ';';
+    
+    private static final int INITIAL_CAPACITY = 64;
+    
+    /**
+     * the string we're parsing
+     */
+    private String newickString;
+    
+    /**
+     * the index of the matching ')' for every '('
+     */
+    private int[] matchingParenIndices = new int[INITIAL_CAPACITY];
+    
+    /**
+     * the stack of unmatched '(' indices
+     */
+    private int[] openParenStack = new int[INITIAL_CAPACITY];
+    
+    /**
+     * parenCounts[i] is the number of parentheses before index i
+     */
+    private int[] parenCounts = new int[INITIAL_CAPACITY + 1];
+    
+    /**
+     * the stack of edge lists that are still being parsed. we use our own
+     * stack rather than recursion so that deep trees can't overflow the
+     * call stack
+     */
+    private int frameCount;
+    private int[] frameEdgeStarts = new int[INITIAL_CAPACITY];
+    private int[] frameEdgeListEnds = new int[INITIAL_CAPACITY];
+    private int[] frameParentIndices = new int[INITIAL_CAPACITY];
+    
+    /**
+     * nodes are recorded in the order that they're parsed (preorder).
+     * names are index ranges of the newick string
+     */
+    private int nodeCount;
+    private int[] nodeFirstChildren = new int[INITIAL_CAPACITY];
+    private int[] nodeLastChildren = new int[INITIAL_CAPACITY];
+    private int[] nodeNextSiblings = new int[INITIAL_CAPACITY];
+    private int[] nodeNameStarts = new int[INITIAL_CAPACITY];
+    private int[] nodeNameEnds = new int[INITIAL_CAPACITY];
+    private double[] nodeEdgeLengths = new double[INITIAL_CAPACITY];
+    
+    /**
+     * the strain table shared by the compact trees
+     */
+    private final Map<String, Integer> strainTableIndices =
+        new HashMap<String, Integer>();
+    private String[] strainTable = new String[0];
+    
+    /**
+     * Parse the given newick string into a tree. This gives the same tree as
+     * {@link PhylogenyTreeNode#fromNewickFormat(String)}
+     * @param newickFormattedTree
+     *          the newick string
+     * @return
+     *          the root node
+     * @throws IllegalFormatException
+     *          if bad string formating is detected
+     */
+    public PhylogenyTreeNode parseTree(String newickFormattedTree)
+    throws IllegalFormatException
+    {
+        this.parse(newickFormattedTree);
+        try
+        {
+            // every child is recorded after its parent so we can build the
+            // nodes from the bottom up
+            PhylogenyTreeNode[] nodes = new PhylogenyTreeNode[this.nodeCount];
+            for(int i = this.nodeCount - 1; i >= 0; i--)
+            {
+                List<PhylogenyTreeEdge> childEdges =
+                    new ArrayList<PhylogenyTreeEdge>();
+                for(int child = this.nodeFirstChildren[i];
+                    child != -1;
+                    child = this.nodeNextSiblings[child])
+                {
+                    childEdges.add(new PhylogenyTreeEdge(
+                            null,
+                            nodes[child],
+                            this.nodeEdgeLengths[child]));
+                    nodes[child] = null;
+                }
+                
+                List<String> strains = new ArrayList<String>();
+                this.addStrains(i, strains);
+                nodes[i] = new PhylogenyTreeNode(childEdges, strains);
+            }
+            
+            return nodes[0];
+        }
+        finally
+        {
+            this.newickString = null;
+        }
+    }
+    
+    /**
+     * Parse the given newick string directly into a compact tree. The tree
+     * uses the strain table shared by every compact tree that this parser
+     * creates. The edges have no SDPs
+     * @param newickFormattedTree
+     *          the newick string
+     * @return
+     *          the tree
+     * @throws IllegalFormatException
+     *          if bad string formating is detected
+     */
+    public CompactPhylogenyTree parseCompactTree(String newickFormattedTree)
+    throws IllegalFormatException
+    {
+        this.parse(newickFormattedTree);
+        try
+        {
+            // renumber the nodes breadth first
+            int[] preorderIndices = new int[this.nodeCount];
+            int[] parentIndices = new int[this.nodeCount];
+            int[] childStarts = new int[this.nodeCount + 1];
+            int[] strainStarts = new int[this.nodeCount + 1];
+            double[] edgeLengths = new double[this.nodeCount];
+            List<String> strains = new ArrayList<String>();
+            parentIndices[0] = -1;
+            int nextNodeIndex = 1;
+            for(int i = 0; i < this.nodeCount; i++)
+            {
+                int preorderIndex = preorderIndices[i];
+                edgeLengths[i] = this.nodeEdgeLengths[preorderIndex];
+                strainStarts[i] = strains.size();
+                this.addStrains(preorderIndex, strains);
+                
+                childStarts[i] = nextNodeIndex;
+                for(int child = this.nodeFirstChildren[preorderIndex];
+                    child != -1;
+                    child = this.nodeNextSiblings[child])
+                {
+                    parentIndices[nextNodeIndex] = i;
+                    preorderIndices[nextNodeIndex] = child;
+                    nextNodeIndex++;
+                }
+            }
+            childStarts[this.nodeCount] = nextNodeIndex;
+            strainStarts[this.nodeCount] = strains.size();
+            
+            int strainCount = strains.size();
+            int[] strainIndices = new int[strainCount];
+            boolean strainTableGrew = false;
+            for(int i = 0; i < strainCount; i++)
+            {
+                String strain = strains.get(i);
+                Integer strainIndex = this.strainTableIndices.get(strain);
+                if(strainIndex == null)
+                {
+                    strainIndex = this.strainTableIndices.size();
+                    this.strainTableIndices.put(strain, strainIndex);
+                    strainTableGrew = true;
+                }
+                strainIndices[i] = strainIndex;
+            }
+            
+            if(strainTableGrew)
+            {
+                // trees that were already parsed keep the old table, which
+                // holds every strain that they refer to
+                String[] newStrainTable = new String[this.strainTableIndices.size()];
+                System.arraycopy(
+                        this.strainTable, 0,
+                        newStrainTable, 0,
+                        this.strainTable.length);
+                for(int i = 0; i < strainCount; i++)
+                {
+                    newStrainTable[strainIndices[i]] = strains.get(i);
+                }
+                this.strainTable = newStrainTable;
+            }
+            
+            return new CompactPhylogenyTree(
+                    this.strainTable,
+                    parentIndices,
+                    childStarts,
+                    strainStarts,
+                    strainIndices,
+                    new byte[this.nodeCount],
+                    edgeLengths,
+                    null,
+                    0,
+                    new long[0]);
+        }
+        finally
+        {
+            this.newickString = null;
+        }
+    }
+    
+    /**
+     * Parse the newick string into the node arrays
+     * @param newickFormattedTree
+     *          the newick string
+     * @throws IllegalFormatException
+     *          if bad string formating is detected
+     */
+    private void parse(String newickFormattedTree) throws IllegalFormatException
+    {
+        int length = newickFormattedTree.length();
+        if(length == 0 ||
+           newickFormattedTree.charAt(length - 1) != NEWICK_TERMINATOR)
+        {
+            throw new IllegalFormatException(
+                    "can't convert " + newickFormattedTree +
+                    " to phylogeny tree");
+        }
+        
+        // pair up the parentheses in a single pass
+        int bodyLength = length - 1;
+        this.ensureCharCapacity(bodyLength);
+        int[] parenIndices = this.matchingParenIndices;
+        int[] openParenStack = this.openParenStack;
+        int[] parenCounts = this.parenCounts;
+        int unmatchedCount = 0;
+        int parenCount = 0;
+        for(int i = 0; i < bodyLength; i++)
+        {
+            parenCounts[i] = parenCount;
+            char currChar = newickFormattedTree.charAt(i);
+            if(currChar == '(')
+            {
+                parenCount++;
+                openParenStack[unmatchedCount++] = i;
+            }
+            else if(currChar == ')')
+            {
+                parenCount++;
+                if(unmatchedCount == 0)
+                {
+                    throw new IllegalFormatException(
+                            "unbalanced parentheses in: " + newickFormattedTree);
+                }
+                parenIndices[openParenStack[--unmatchedCount]] = i;
+            }
+            else if(isLineTerminator(currChar))
+            {
+                throw new IllegalFormatException(
+                        "can't convert " + newickFormattedTree +
+                        " to phylogeny tree");
+            }
+        }
+        parenCounts[bodyLength] = parenCount;
+        
+        if(unmatchedCount != 0)
+        {
+            throw new IllegalFormatException(
+                    "unbalanced parentheses in: " + newickFormattedTree);
+        }
+        
+        this.newickString = newickFormattedTree;
+        this.nodeCount = 0;
+        this.frameCount = 0;
+        this.parseNode(0, bodyLength, -1, 0.0);
+        
+        // parse the edges depth first in the same order that a recursive
+        // descent would
+        while(this.frameCount > 0)
+        {
+            int frame = this.frameCount - 1;
+            int edgeStart = this.frameEdgeStarts[frame];
+            int edgeListEnd = this.frameEdgeListEnds[frame];
+            int parentIndex = this.frameParentIndices[frame];
+            int edgeEnd = this.findEdgeEnd(edgeStart, edgeListEnd);
+            if(edgeEnd >= edgeListEnd)
+            {
+                this.frameCount--;
+            }
+            else
+            {
+                this.frameEdgeStarts[frame] = edgeEnd + 1;
+            }
+            
+            this.parseEdge(edgeStart, edgeEnd, parentIndex);
+        }
+    }
+    
+    /**
+     * Determine if the given character is one that a regular expression '.'
+     * won't match. The original parser rejected trees containing these
+     * @param currChar
+     *          the character
+     * @return
+     *          true for line terminators
+     */
+    private static boolean isLineTerminator(char currChar)
+    {
+        return currChar == '\n' || currChar == '\r' ||
+               currChar == '\u0085' || currChar == '\u2028' ||
+               currChar == '\u2029';
+    }
+    
+    /**
+     * Make sure that the character indexed arrays can hold the given number
+     * of characters
+     * @param charCount
+     *          the character count
+     */
+    private void ensureCharCapacity(int charCount)
+    {
+        if(this.parenCounts.length <= charCount)
+        {
+            int newCapacity = Math.max(charCount, this.parenCounts.length * 2);
+            this.matchingParenIndices = new int[newCapacity];
+            this.openParenStack = new int[newCapacity];
+            this.parenCounts = new int[newCapacity + 1];
+            this.frameEdgeStarts = new int[newCapacity];
+            this.frameEdgeListEnds = new int[newCapacity];
+            this.frameParentIndices = new int[newCapacity];
+        }
+    }
+    
+    /**
+     * Parse the node held in the given range
+     * @param start
+     *          the start index of the node
+     * @param end
+     *          the end index of the node (exclusive)
+     * @param parentIndex
+     *          the parent node or -1 for the root
+     * @param edgeLength
+     *          the length of the edge from the parent
+     * @throws IllegalFormatException
+     *          if we detect bad formatting
+     */
+    private void parseNode(int start, int end, int parentIndex, double edgeLength)
+    throws IllegalFormatException
+    {
+        String newick = this.newickString;
+        if(start < end && newick.charAt(start) == '(')
+        {
+            // an edge list followed by an optional name that can't contain
+            // any parentheses
+            int closeIndex = this.matchingParenIndices[start];
+            if(closeIndex >= end ||
+               closeIndex == start + 1 ||
+               this.parenCounts[end] != this.parenCounts[closeIndex + 1])
+            {
+                throw new IllegalFormatException(
+                        "failed to parse " + newick.substring(start, end) +
+                        " as a node");
+            }
+            
+            int nodeIndex = this.addNode(
+                    parentIndex,
+                    closeIndex + 1,
+                    end,
+                    edgeLength);
+            
+            // the node's edges are parsed by the loop in parse(String)
+            int frame = this.frameCount++;
+            this.frameEdgeStarts[frame] = start + 1;
+            this.frameEdgeListEnds[frame] = closeIndex;
+            this.frameParentIndices[frame] = nodeIndex;
+        }
+        else if(this.parenCounts[end] != this.parenCounts[start])
+        {
+            throw new IllegalFormatException(
+                    "failed to parse " + newick.substring(start, end) +
+                    " as a node");
+        }
+        else
+        {
+            this.addNode(parentIndex, start, end, edgeLength);
+        }
+    }
+    
+    /**
+     * Find the end of the edge that starts at the given index of a comma
+     * separated edge list
+     * @param edgeStart
+     *          the start index of the edge
+     * @param edgeListEnd
+     *          the end index of the edge list (exclusive)
+     * @return
+     *          the index of the separator that ends the edge or the end of
+     *          the edge list if this is the last edge
+     */
+    private int findEdgeEnd(int edgeStart, int edgeListEnd)
+    {
+        // find the next separator, skipping over any nested edge lists
+        String newick = this.newickString;
+        int edgeEnd = edgeStart;
+        while(edgeEnd < edgeListEnd)
+        {
+            char currChar = newick.charAt(edgeEnd);
+            if(currChar == NEWICK_CHILD_SEPARATOR)
+            {
+                break;
+            }
+            else if(currChar == '(')
+            {
+                edgeEnd = this.matchingParenIndices[edgeEnd] + 1;
+            }
+            else
+            {
+                edgeEnd++;
+            }
+        }
+        
+        return edgeEnd;
+    }
+    
+    /**
+     * Parse a single "node:length" edge held in the given range
+     * @param start
+     *          the start index of the edge
+     * @param end
+     *          the end index of the edge (exclusive)
+     * @param parentIndex
+     *          the node that the edge belongs to
+     * @throws IllegalFormatException
+     *          if we detect bad formatting
+     */
+    private void parseEdge(int start, int end, int parentIndex)
+    throws IllegalFormatException
+    {
+        String newick = this.newickString;
+        
+        // the length follows the last separator
+        int separatorIndex = end - 1;
+        while(separatorIndex >= start)
+        {
+            char currChar = newick.charAt(separatorIndex);
+            if(currChar == NEWICK_EDGE_LENGTH_SEPARATOR ||
+               currChar == '(' || currChar == ')')
+            {
+                break;
+            }
+            separatorIndex--;
+        }
+        
+        if(separatorIndex < start ||
+           newick.charAt(separatorIndex) != NEWICK_EDGE_LENGTH_SEPARATOR)
+        {
+            // the last separator (if any) is inside of parentheses which
+            // can't give a valid length
+            separatorIndex = newick.lastIndexOf(
+                    NEWICK_EDGE_LENGTH_SEPARATOR,
+                    end - 1);
+            if(separatorIndex < start)
+            {
+                throw new IllegalFormatException(
+                        "Can't parse edge: " + newick.substring(start, end));
+            }
+        }
+        
+        double edgeLength = Double.parseDouble(
+                newick.substring(separatorIndex + 1, end).trim());
+        
+        // trim the node the same way that String.trim() does
+        int nodeStart = start;
+        int nodeEnd = separatorIndex;
+        while(nodeStart < nodeEnd && newick.charAt(nodeStart) <= ' ')
+        {
+            nodeStart++;
+        }
+        while(nodeStart < nodeEnd && newick.charAt(nodeEnd - 1) <= ' ')
+        {
+            nodeEnd--;
+        }
+        
+        this.parseNode(nodeStart, nodeEnd, parentIndex, edgeLength);
+    }
+    
+    /**
+     * Record a new node
+     * @param parentIndex
+     *          the parent node or -1 for the root
+     * @param nameStart
+     *          the start index of the node's name
+     * @param nameEnd
+     *          the end index of the node's name (exclusive)
+     * @param edgeLength
+     *          the length of the edge from the parent
+     * @return
+     *          the index of the new node
+     */
+    private int addNode(
+            int parentIndex,
+            int nameStart,
+            int nameEnd,
+            double edgeLength)
+    {
+        if(this.nodeCount == this.nodeFirstChildren.length)
+        {
+            int newCapacity = this.nodeCount * 2;
+            this.nodeFirstChildren = growArray(this.nodeFirstChildren, newCapacity);
+            this.nodeLastChildren = growArray(this.nodeLastChildren, newCapacity);
+            this.nodeNextSiblings = growArray(this.nodeNextSiblings, newCapacity);
+            this.nodeNameStarts = growArray(this.nodeNameStarts, newCapacity);
+            this.nodeNameEnds = growArray(this.nodeNameEnds, newCapacity);
+            
+            double[] newEdgeLengths = new double[newCapacity];
+            System.arraycopy(
+                    this.nodeEdgeLengths, 0,
+                    newEdgeLengths, 0,
+                    this.nodeCount);
+            this.nodeEdgeLengths = newEdgeLengths;
+        }
+        
+        int nodeIndex = this.nodeCount++;
+        this.nodeFirstChildren[nodeIndex] = -1;
+        this.nodeLastChildren[nodeIndex] = -1;
+        this.nodeNextSiblings[nodeIndex] = -1;
+        this.nodeNameStarts[nodeIndex] = nameStart;
+        this.nodeNameEnds[nodeIndex] = nameEnd;
+        this.nodeEdgeLengths[nodeIndex] = edgeLength;
+        
+        if(parentIndex != -1)
+        {
+            int lastSibling = this.nodeLastChildren[parentIndex];
+            if(lastSibling == -1)
+            {
+                this.nodeFirstChildren[parentIndex] = nodeIndex;
+            }
+            else
+            {
+                this.nodeNextSiblings[lastSibling] = nodeIndex;
+            }
+            this.nodeLastChildren[parentIndex] = nodeIndex;
+        }
+        
+        return nodeIndex;
+    }
+    
+    private static int[] growArray(int[] array, int newCapacity)
+    {
+        int[] newArray = new int[newCapacity];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+    
+    /**
+     * Split the node's name into strains using {@link #STRAIN_SEPARATOR}.
+     * Like a {@link java.util.StringTokenizer} empty strains are skipped
+     * @param nodeIndex
+     *          the node
+     * @param strains
+     *          the list to add the strains to
+     */
+    private void addStrains(int nodeIndex, List<String> strains)
+    {
+        String newick = this.newickString;
+        int nameEnd = this.nodeNameEnds[nodeIndex];
+        int strainStart = this.nodeNameStarts[nodeIndex];
+        while(strainStart < nameEnd)
+        {
+            int strainEnd = newick.indexOf(STRAIN_SEPARATOR, strainStart);
+            if(strainEnd == -1 || strainEnd > nameEnd)
+            {
+                strainEnd = nameEnd;
+            }
+            
+            if(strainEnd > strainStart)
+            {
+                strains.add(newick.substring(strainStart, strainEnd));
+            }
+            strainStart = strainEnd + 1;
+        }
+    }
+}
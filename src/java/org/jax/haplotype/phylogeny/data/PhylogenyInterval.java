@@ -22,8 +22,8 @@ import java.io.Serializable;
 import org.jax.geneticutil.data.BasePairInterval;
 
 /**
- * An aggregation of {@link PhylogenyTreeNode} and
- * {@link BasePairInterval}
+ * An aggregation of a phylogeny tree and {@link BasePairInterval}. The tree
+ * is either a {@link PhylogenyTreeNode} or a {@link CompactPhylogenyTree}
  * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
  */
 public class PhylogenyInterval implements Serializable
@@ -35,6 +35,8 @@ public class PhylogenyInterval implements Serializable
 
     private final PhylogenyTreeNode phylogeny;
     
+    private final CompactPhylogenyTree compactPhylogeny;
+    
     private final BasePairInterval interval;
 
     /**
@@ -49,16 +51,57 @@ public class PhylogenyInterval implements Serializable
             BasePairInterval interval)
     {
         this.phylogeny = phylogeny;
+        this.compactPhylogeny = null;
+        this.interval = interval;
+    }
+    
+    /**
+     * Constructor for an interval whose phylogeny is an immutable tree that
+     * may be shared with other intervals (see {@link PhylogenyTopologyPool})
+     * @param compactPhylogeny
+     *          the phylogeny tree
+     * @param interval
+     *          the SNP interval that this phylogeny applies to
+     */
+    public PhylogenyInterval(
+            CompactPhylogenyTree compactPhylogeny,
+            BasePairInterval interval)
+    {
+        this.phylogeny = null;
+        this.compactPhylogeny = compactPhylogeny;
         this.interval = interval;
     }
     
     /**
-     * Getter for the phylogeny tree
+     * Getter for the phylogeny tree. If this interval holds a compact tree
+     * then every call builds a new node tree from it. The copy isn't cached
+     * since node trees are mutable and much larger than the shared compact
+     * tree, so callers that need the tree more than once should hold on to
+     * the result or work from {@link #getCompactPhylogeny()} when it isn't
+     * null
      * @return the phylogeny
      */
     public PhylogenyTreeNode getPhylogeny()
     {
-        return this.phylogeny;
+        if(this.phylogeny == null)
+        {
+            return this.compactPhylogeny.toPhylogenyTreeNode();
+        }
+        else
+        {
+            return this.phylogeny;
+        }
+    }
+    
+    /**
+     * Getter for the compact phylogeny tree
+     * @return
+     *          the compact tree or null if this interval was created with
+     *          a {@link PhylogenyTreeNode}
+     */
+    public CompactPhylogenyTree getCompactPhylogeny()
+    {
+        return this.compactPhylogeny;
     }
     
     /**
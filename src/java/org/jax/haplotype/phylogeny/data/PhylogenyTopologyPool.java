@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pool of distinct phylogeny topologies. Adjacent intervals often have
+ * identical perfect phylogenies, so instead of holding a separate tree for
+ * every interval we reduce each tree to its canonical form (see
+ * {@link CompactPhylogenyTree#createCanonicalTree()}) and hand out a single
+ * shared immutable tree for all of the trees with the same canonical form.
+ * The pooled trees have the same strains, edges and topology as the trees
+ * given to the pool but the strains of each node are sorted and children
+ * are ordered by their smallest strain, so they can be written in a
+ * different order than the trees they stand in for.
+ * <br/><br/>
+ * Pooled trees refer to their strains through the pool's strain table,
+ * including compact trees that came in with a table of their own. The table
+ * only grows by appending new strains: when a tree brings in a new strain
+ * the pool switches to a new, larger table while the trees that were
+ * already pooled keep the old one.
+ * <br/><br/>
+ * This class is not thread safe.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class PhylogenyTopologyPool
+{
+    private final Map<CompactPhylogenyTree, CompactPhylogenyTree> topologies =
+        new HashMap<CompactPhylogenyTree, CompactPhylogenyTree>();
+    
+    private final Map<String, Integer> strainTableIndices =
+        new HashMap<String, Integer>();
+    
+    private String[] strainTable = new String[0];
+    
+    /**
+     * Get the number of distinct topologies in the pool
+     * @return
+     *          the topology count
+     */
+    public int size()
+    {
+        return this.topologies.size();
+    }
+    
+    /**
+     * Get the pooled tree for the given tree
+     * @param phylogeny
+     *          the tree
+     * @return
+     *          the shared canonical tree
+     */
+    public CompactPhylogenyTree intern(PhylogenyTreeNode phylogeny)
+    {
+        this.addStrains(phylogeny.getAllStrains());
+        return this.intern(CompactPhylogenyTree.fromPhylogenyTreeNode(
+                phylogeny,
+                this.strainTable,
+                this.strainTableIndices));
+    }
+    
+    /**
+     * Get the pooled tree for the given tree
+     * @param phylogeny
+     *          the tree
+     * @return
+     *          the shared canonical tree
+     */
+    public CompactPhylogenyTree intern(CompactPhylogenyTree phylogeny)
+    {
+        // a tree that's equal to a pooled tree is already canonical
+        CompactPhylogenyTree pooledPhylogeny = this.topologies.get(phylogeny);
+        if(pooledPhylogeny == null)
+        {
+            if(phylogeny.getStrainTable() != this.strainTable)
+            {
+                this.addStrains(phylogeny.getAllStrains());
+                phylogeny = phylogeny.withStrainTable(
+                        this.strainTable,
+                        this.strainTableIndices);
+            }
+            
+            CompactPhylogenyTree canonicalPhylogeny = phylogeny.createCanonicalTree();
+            pooledPhylogeny = this.topologies.get(canonicalPhylogeny);
+            if(pooledPhylogeny == null)
+            {
+                pooledPhylogeny = canonicalPhylogeny;
+                this.topologies.put(pooledPhylogeny, pooledPhylogeny);
+            }
+        }
+        
+        return pooledPhylogeny;
+    }
+    
+    /**
+     * Add any of the given strains that aren't in the strain table yet
+     * @param strains
+     *          the strains
+     */
+    private void addStrains(List<String> strains)
+    {
+        boolean strainTableGrew = false;
+        for(String strain: strains)
+        {
+            if(!this.strainTableIndices.containsKey(strain))
+            {
+                this.strainTableIndices.put(
+                        strain,
+                        this.strainTableIndices.size());
+                strainTableGrew = true;
+            }
+        }
+        
+        if(strainTableGrew)
+        {
+            // pooled trees keep the old table, which holds every strain
+            // that they refer to
+            String[] newStrainTable = new String[this.strainTableIndices.size()];
+            for(Map.Entry<String, Integer> entry: this.strainTableIndices.entrySet())
+            {
+                newStrainTable[entry.getValue()] = entry.getKey();
+            }
+            this.strainTable = newStrainTable;
+        }
+    }
+    
+    /**
+     * Create a copy of the given intervals where every phylogeny is replaced
+     * by its pooled (canonical) tree
+     * @param phylogenyIntervals
+     *          the intervals
+     * @return
+     *          the pooled intervals in the same order
+     */
+    public List<PhylogenyInterval> intern(List<PhylogenyInterval> phylogenyIntervals)
+    {
+        List<PhylogenyInterval> pooledIntervals =
+            new ArrayList<PhylogenyInterval>(phylogenyIntervals.size());
+        for(PhylogenyInterval phylogenyInterval: phylogenyIntervals)
+        {
+            CompactPhylogenyTree compactPhylogeny =
+                phylogenyInterval.getCompactPhylogeny();
+            CompactPhylogenyTree pooledPhylogeny;
+            if(compactPhylogeny == null)
+            {
+                pooledPhylogeny = this.intern(phylogenyInterval.getPhylogeny());
+            }
+            else
+            {
+                pooledPhylogeny = this.intern(compactPhylogeny);
+            }
+            
+            pooledIntervals.add(new PhylogenyInterval(
+                    pooledPhylogeny,
+                    phylogenyInterval.getInterval()));
+        }
+        
+        return pooledIntervals;
+    }
+}
@@ -24,11 +24,8 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.jax.util.ObjectUtil;
 import org.jax.util.datastructure.ListComparator;
@@ -48,24 +45,6 @@ public class PhylogenyTreeNode implements Cloneable, Serializable
     private static final Logger LOG = Logger.getLogger(
             PhylogenyTreeNode.class.getName());
     
-    // Group 1: the recursive part of the newick string
-    private static final Pattern NEWICK_OUTER_PATTERN = Pattern.compile(
-            "^(.*);$");
-    
-    // Group 2: the edge list (if null then leaf node)
-    // Group 3: the node name (if null, anonymous)
-    private static final Pattern NEWICK_NODE_PATTERN = Pattern.compile(
-            "^(\\((.+)\\))?([^\\(\\)]*)$");
-    private static final int EDGE_LIST_GROUP_NUMBER = 2;
-    private static final int NODE_NAME_GROUP_NUMBER = 3;
-    
-    // Group 1: the node part
-    // Group 2: the edge distance
-    private static final Pattern NEWICK_EDGE_PATTERN = Pattern.compile(
-            "^(.*):(.*)$");
-    private static final int NODE_PART_GROUP_NUMBER = 1;
-    private static final int EDGE_DISTANCE_GROUP_NUMBER = 2;
-    
     private List<PhylogenyTreeEdge> childEdges;
     
     private List<String> strains;
@@ -208,172 +187,7 @@ public class PhylogenyTreeNode implements Cloneable, Serializable
     public static PhylogenyTreeNode fromNewickFormat(String newickFormattedTree)
     throws IllegalFormatException
     {
-        Matcher outerTreeMatcher = NEWICK_OUTER_PATTERN.matcher(newickFormattedTree);
-        if(outerTreeMatcher.matches())
-        {
-            String nodePart = outerTreeMatcher.group(NODE_PART_GROUP_NUMBER);
-            return PhylogenyTreeNode.fromNewickNode(nodePart);
-        }
-        else
-        {
-            throw new IllegalFormatException(
-                    "can't convert " + newickFormattedTree +
-                    " to phylogeny tree");
-        }
-    }
-    
-    /**
-     * Convert a newick node fragment into a phylogeny node
-     * @param newickNodeString
-     *          the newick formatted string
-     * @return
-     *          the node
-     * @throws IllegalFormatException
-     *          if we detect bad formatting
-     */
-    private static PhylogenyTreeNode fromNewickNode(String newickNodeString)
-            throws IllegalFormatException
-    {
-        Matcher nodeMatcher = NEWICK_NODE_PATTERN.matcher(newickNodeString);
-        if(nodeMatcher.matches())
-        {
-            String nodeNamePart = nodeMatcher.group(NODE_NAME_GROUP_NUMBER);
-            String edgeListPart = nodeMatcher.group(EDGE_LIST_GROUP_NUMBER);
-            
-            PhylogenyTreeNode node = new PhylogenyTreeNode();
-            if(nodeNamePart != null && nodeNamePart.length() >= 1)
-            {
-                node.setStrains(PhylogenyTreeNode.newickNodeNameToStrainList(
-                        nodeNamePart));
-            }
-            
-            if(edgeListPart != null && edgeListPart.length() >= 1)
-            {
-                node.setChildEdges(PhylogenyTreeNode.newickEdgesToEdgeList(
-                        edgeListPart));
-            }
-            return node;
-        }
-        else
-        {
-            throw new IllegalFormatException(
-                    "failed to parse " + newickNodeString + " as a node");
-        }
-    }
-
-    /**
-     * Convert the comma separated newick edge list into
-     * @param edgeListPart
-     *          the newick formatted edge list fragment
-     * @return
-     *          the edges
-     * @throws IllegalFormatException
-     *          if we detect bad formatting
-     */
-    private static List<PhylogenyTreeEdge> newickEdgesToEdgeList(
-            String edgeListPart)
-            throws IllegalFormatException
-    {
-        List<PhylogenyTreeEdge> edges = new ArrayList<PhylogenyTreeEdge>();
-        int currEdgeStartIndex = 0;
-        int unmatchedParenCount = 0;
-        for(int i = 0; i < edgeListPart.length(); i++)
-        {
-            char currChar = edgeListPart.charAt(i);
-            if(currChar == '(')
-            {
-                unmatchedParenCount++;
-            }
-            else if(currChar == ')')
-            {
-                unmatchedParenCount--;
-            }
-            else if(unmatchedParenCount == 0 && currChar == NEWICK_CHILD_SEPARATOR)
-            {
-                String edgeString = edgeListPart.substring(
-                        currEdgeStartIndex,
-                        i);
-                edges.add(PhylogenyTreeNode.newickEdgeToPhlylogenyEdge(
-                        edgeString));
-                currEdgeStartIndex = i + 1;
-            }
-        }
-        
-        if(unmatchedParenCount != 0)
-        {
-            throw new IllegalFormatException(
-                    "unbalanced parentheses in edge list: " + edgeListPart);
-        }
-        else
-        {
-            String edgeString = edgeListPart.substring(
-                    currEdgeStartIndex);
-            edges.add(PhylogenyTreeNode.newickEdgeToPhlylogenyEdge(
-                    edgeString));
-            return edges;
-        }
-    }
-
-    /**
-     * Convert a single edge string
-     * @param edgeString
-     *          the newick edge string fragment
-     * @return
-     *          the edge
-     * @throws IllegalFormatException
-     *          if we detect bad formatting
-     */
-    private static PhylogenyTreeEdge newickEdgeToPhlylogenyEdge(
-            String edgeString)
-            throws IllegalFormatException
-    {
-        Matcher edgeMatcher = NEWICK_EDGE_PATTERN.matcher(edgeString);
-        if(edgeMatcher.matches())
-        {
-            String edgeLengthPart = edgeMatcher.group(EDGE_DISTANCE_GROUP_NUMBER).trim();
-            String edgeNodePart = edgeMatcher.group(NODE_PART_GROUP_NUMBER).trim();
-            
-            PhylogenyTreeEdge edge = new PhylogenyTreeEdge();
-            edge.setEdgeLength(Double.parseDouble(edgeLengthPart));
-            edge.setNode(PhylogenyTreeNode.fromNewickNode(
-                    edgeNodePart));
-            return edge;
-        }
-        else
-        {
-            throw new IllegalFormatException(
-                    "Can't parse edge: " + edgeString);
-        }
-    }
-
-    /**
-     * Convert the newick node name into a strain list using
-     * {@link #STRAIN_SEPARATOR} as the separator value
-     * @param newickNodeName
-     *          the node name to turn into a strain list
-     * @return
-     *          the list
-     */
-    private static List<String> newickNodeNameToStrainList(String newickNodeName)
-    {
-        if(newickNodeName == null)
-        {
-            // use an empty list
-            return new ArrayList<String>();
-        }
-        else
-        {
-            StringTokenizer strainTokenizer = new StringTokenizer(
-                    newickNodeName,
-                    STRAIN_SEPARATOR);
-            List<String> strainList = new ArrayList<String>(
-                    strainTokenizer.countTokens());
-            while(strainTokenizer.hasMoreTokens())
-            {
-                strainList.add(strainTokenizer.nextToken());
-            }
-            return strainList;
-        }
+        return new NewickParser().parseTree(newickFormattedTree);
     }
     
     /**
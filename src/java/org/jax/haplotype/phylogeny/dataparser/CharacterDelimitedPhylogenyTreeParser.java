@@ -31,6 +31,7 @@ import java.util.logging.Logger;
 
 import org.jax.geneticutil.data.BasePairInterval;
 import org.jax.geneticutil.data.SimpleBasePairInterval;
+import org.jax.haplotype.phylogeny.data.NewickParser;
 import org.jax.haplotype.phylogeny.data.PhylogenyInterval;
 import org.jax.haplotype.phylogeny.data.PhylogenyTreeNode;
 import org.jax.util.io.CharacterDelimitedParser;
@@ -94,6 +95,7 @@ public class CharacterDelimitedPhylogenyTreeParser
             
             String[] currLineTokens = this.parser.parseCharacterDelimitedLine(
                     currLine);
+            NewickParser newickParser = new NewickParser();
             do
             {
                 int chromosomeNumber = Integer.parseInt(currLineTokens[0]);
@@ -103,7 +105,7 @@ public class CharacterDelimitedPhylogenyTreeParser
                 
                 try
                 {
-                    PhylogenyTreeNode tree = PhylogenyTreeNode.fromNewickFormat(
+                    PhylogenyTreeNode tree = newickParser.parseTree(
                             newickTreeString);
                     BasePairInterval snpInterval =
                         new SimpleBasePairInterval(
@@ -22,8 +22,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.haplotype.phylogeny.data.CompactPhylogenyTree;
 import org.jax.haplotype.phylogeny.data.PhylogenyInterval;
 import org.jax.haplotype.phylogeny.data.PhylogenyTestResult;
 import org.jax.haplotype.phylogeny.data.PhylogenyTreeNode;
@@ -80,7 +83,10 @@ public class CharacterDelimitedPhylogeneyTreeWriter
     
     /**
      * Write the given phylogenies to the given output stream and tack
-     * on the given header comment
+     * on the given header comment. Trees are written in the strain and
+     * child order of the interval's tree, so intervals with pooled trees
+     * (see {@link org.jax.haplotype.phylogeny.data.PhylogenyTopologyPool})
+     * are written in canonical order
      * @param outputStream
      *          the output stream
      * @param phylogenies
@@ -127,15 +133,42 @@ public class CharacterDelimitedPhylogeneyTreeWriter
                 "newickPerfectPhylogeny"},
                 printStream);
         
+        // intervals that share a tree (see PhylogenyTopologyPool) only need
+        // it formatted once
+        Map<CompactPhylogenyTree, String> sharedNewickTrees =
+            new IdentityHashMap<CompactPhylogenyTree, String>();
         for(PhylogenyInterval currPhylogeny: phylogenies)
         {
-            PhylogenyTreeNode tree = currPhylogeny.getPhylogeny();
+            CompactPhylogenyTree compactTree = currPhylogeny.getCompactPhylogeny();
+            String newickTree = null;
+            if(compactTree != null)
+            {
+                newickTree = sharedNewickTrees.get(compactTree);
+            }
             
-            if(simplifyTrees)
+            if(newickTree == null)
             {
-                // simplify the tree so that analysis is easier
-                tree = tree.resolveToSingleStrainLeafNodes(EPSILON);
-                tree = tree.removeNonBranchingInteriorNodes();
+                if(simplifyTrees)
+                {
+                    // simplify the tree so that analysis is easier
+                    PhylogenyTreeNode tree = currPhylogeny.getPhylogeny();
+                    tree = tree.resolveToSingleStrainLeafNodes(EPSILON);
+                    tree = tree.removeNonBranchingInteriorNodes();
+                    newickTree = tree.toNewickFormat();
+                }
+                else if(compactTree != null)
+                {
+                    newickTree = compactTree.toNewickFormat();
+                }
+                else
+                {
+                    newickTree = currPhylogeny.getPhylogeny().toNewickFormat();
+                }
+                
+                if(compactTree != null)
+                {
+                    sharedNewickTrees.put(compactTree, newickTree);
+                }
             }
             
             BasePairInterval interval =
@@ -146,7 +179,7 @@ public class CharacterDelimitedPhylogeneyTreeWriter
                     Integer.toString(interval.getChromosomeNumber()),
                     Long.toString(interval.getStartInBasePairs()),
                     Long.toString(interval.getExtentInBasePairs()),
-                    tree.toNewickFormat()};
+                    newickTree};
             this.parser.writeCharacterDelimitedRow(row, printStream);
         }
         
@@ -212,16 +245,30 @@ public class CharacterDelimitedPhylogeneyTreeWriter
         {
             BasePairInterval interval =
                 testResult.getPhylogenyInterval().getInterval();
-            PhylogenyTreeNode tree =
-                testResult.getPhylogenyInterval().getPhylogeny();
+            
+            // compact trees can be written without building a node tree
+            CompactPhylogenyTree compactTree =
+                testResult.getPhylogenyInterval().getCompactPhylogeny();
+            String newickTree;
+            if(compactTree != null)
+            {
+                newickTree = compactTree.toNewickFormat();
+            }
+            else
+            {
+                newickTree =
+                    testResult.getPhylogenyInterval().getPhylogeny().toNewickFormat();
+            }
             
             String[] row = new String[] {
                     Integer.toString(interval.getChromosomeNumber()),
                     Long.toString(interval.getStartInBasePairs()),
                     Long.toString(interval.getExtentInBasePairs()),
-                    tree.toNewickFormat(),
+                    newickTree,
                     Double.toString(testResult.getPValue())};
             this.parser.writeCharacterDelimitedRow(row, printStream);
         }
+        
+        printStream.flush();
     }
 }
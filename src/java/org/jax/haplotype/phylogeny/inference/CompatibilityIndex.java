@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.inference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jax.geneticutil.data.IndexedSnpInterval;
+
+/**
+ * An index that answers SNP range compatibility questions with array
+ * lookups. For every SNP index i the index stores the nearest incompatible
+ * index: the largest j &lt; i such that SNP j is incompatible with some
+ * SNP in (j, i] or -1 if there is no such j. The SNPs in [s, e] are then
+ * pairwise compatible (and so can be explained by a perfect phylogeny) iff
+ * the nearest incompatible index of e is less than s. The nearest
+ * incompatible indices never decrease as i increases.
+ * <br/><br/>
+ * Use {@link IntervalScanner#createCompatibilityIndex(org.jax.haplotype.io.SdpInputStream)}
+ * to build an index.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class CompatibilityIndex
+{
+    private final int[] nearestIncompatibleIndices;
+    
+    /**
+     * Constructor
+     * @param nearestIncompatibleIndices
+     *          the nearest incompatible index for every SNP (see
+     *          {@link #getNearestIncompatibleIndex(int)}). this array
+     *          is used as is so callers must not modify it
+     */
+    public CompatibilityIndex(int[] nearestIncompatibleIndices)
+    {
+        this.nearestIncompatibleIndices = nearestIncompatibleIndices;
+    }
+    
+    /**
+     * Get the number of SNPs covered by this index
+     * @return
+     *          the SNP count
+     */
+    public int getSnpCount()
+    {
+        return this.nearestIncompatibleIndices.length;
+    }
+    
+    /**
+     * Get the largest index j &lt; snpIndex such that SNP j is incompatible
+     * with some SNP in (j, snpIndex]
+     * @param snpIndex
+     *          the SNP index
+     * @return
+     *          the nearest incompatible index or -1 if every SNP up to and
+     *          including the given SNP is compatible
+     */
+    public int getNearestIncompatibleIndex(int snpIndex)
+    {
+        return this.nearestIncompatibleIndices[snpIndex];
+    }
+    
+    /**
+     * Determine if the SNPs in the given range are all pairwise compatible
+     * @param startIndex
+     *          the 1st SNP index in the range
+     * @param endIndex
+     *          the last SNP index in the range (inclusive)
+     * @return
+     *          true if the range is compatible
+     */
+    public boolean isCompatible(int startIndex, int endIndex)
+    {
+        if(startIndex > endIndex)
+        {
+            throw new IllegalArgumentException(
+                    "the start index " + startIndex +
+                    " is after the end index " + endIndex);
+        }
+        
+        return this.nearestIncompatibleIndices[endIndex] < startIndex;
+    }
+    
+    /**
+     * Determine if the SNPs in the given interval are all pairwise
+     * compatible
+     * @param interval
+     *          the interval
+     * @return
+     *          true if the interval is compatible
+     */
+    public boolean isCompatible(IndexedSnpInterval interval)
+    {
+        return this.isCompatible(
+                interval.getStartIndex(),
+                interval.getEndIndex());
+    }
+    
+    /**
+     * Get the smallest start index for a compatible interval that ends at
+     * the given SNP
+     * @param endIndex
+     *          the end index (inclusive)
+     * @return
+     *          the start index
+     */
+    public int getCompatibleStartIndex(int endIndex)
+    {
+        return this.nearestIncompatibleIndices[endIndex] + 1;
+    }
+    
+    /**
+     * Get the largest end index for a compatible interval that starts at
+     * the given SNP. Since the nearest incompatible indices are sorted this
+     * is a binary search
+     * @param startIndex
+     *          the start index
+     * @return
+     *          the end index (inclusive)
+     */
+    public int getCompatibleEndIndex(int startIndex)
+    {
+        if(startIndex < 0 || startIndex >= this.nearestIncompatibleIndices.length)
+        {
+            throw new IndexOutOfBoundsException(
+                    "start index out of range: " + startIndex);
+        }
+        
+        // find the last end index whose nearest incompatibility comes
+        // before the start
+        int low = startIndex;
+        int high = this.nearestIncompatibleIndices.length - 1;
+        while(low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            if(this.nearestIncompatibleIndices[mid] < startIndex)
+            {
+                low = mid;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+        
+        return low;
+    }
+    
+    /**
+     * Get the maximal compatible intervals. These are the same intervals
+     * that {@link IntervalScanner#uberScan(org.jax.haplotype.io.SdpInputStream)}
+     * finds
+     * @return
+     *          the sorted intervals
+     */
+    public List<IndexedSnpInterval> getMaximalCompatibleIntervals()
+    {
+        ArrayList<IndexedSnpInterval> intervals = new ArrayList<IndexedSnpInterval>();
+        
+        // every time the nearest incompatible index moves the interval that
+        // ends just before it can't be extended any further
+        int snpCount = this.nearestIncompatibleIndices.length;
+        int startIndex = 0;
+        for(int i = 0; i < snpCount; i++)
+        {
+            int nextStartIndex = this.nearestIncompatibleIndices[i] + 1;
+            if(nextStartIndex != startIndex)
+            {
+                intervals.add(new IndexedSnpInterval(
+                        startIndex,
+                        i - startIndex));
+                startIndex = nextStartIndex;
+            }
+        }
+        
+        if(snpCount > 0)
+        {
+            intervals.add(new IndexedSnpInterval(
+                    startIndex,
+                    snpCount - startIndex));
+        }
+        
+        intervals.trimToSize();
+        return intervals;
+    }
+}
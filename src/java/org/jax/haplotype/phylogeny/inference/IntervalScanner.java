@@ -18,21 +18,25 @@
 package org.jax.haplotype.phylogeny.inference;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jax.geneticutil.data.BasePairInterval;
 import org.jax.geneticutil.data.IndexedSnpInterval;
-import org.jax.geneticutil.data.SimpleBasePairInterval;
 import org.jax.haplotype.io.MinorityNormalizedSdpInputStream;
 import org.jax.haplotype.io.SdpInputStream;
+import org.jax.haplotype.io.SnpPositionIndex;
 import org.jax.haplotype.io.SnpPositionInputStream;
 import org.jax.haplotype.io.StreamDirection;
-import org.jax.util.datastructure.ExposedArrayList;
 import org.jax.util.datastructure.SequenceUtilities;
 
 /**
@@ -45,46 +49,16 @@ import org.jax.util.datastructure.SequenceUtilities;
  */
 public class IntervalScanner
 {
+    /*package protected*/ static final String FORWARD_SCAN_CHECKPOINT_NAME = "forward-greedy-scan";
+    
+    /*package protected*/ static final String REVERSE_SCAN_CHECKPOINT_NAME = "reverse-greedy-scan";
+    
+    /*package protected*/ static final String UBER_SCAN_CHECKPOINT_NAME = "uber-scan";
+    
     /**
-     * Class for grouping an SDP with its index
+     * the number of independent scans that go into a max-k scan
      */
-    private static class SdpIndexPair
-    {
-        private final BitSet sdpBits;
-        
-        private final int index;
-
-        /**
-         * Constructor
-         * @param sdpBits
-         *          see {@link #getSdpBits()}
-         * @param index
-         *          see {@link #getIndex()}
-         */
-        public SdpIndexPair(BitSet sdpBits, int index)
-        {
-            this.sdpBits = sdpBits;
-            this.index = index;
-        }
-        
-        /**
-         * Getter for the index
-         * @return the index
-         */
-        public int getIndex()
-        {
-            return this.index;
-        }
-        
-        /**
-         * getter for the SDP
-         * @return the SDP
-         */
-        public BitSet getSdpBits()
-        {
-            return this.sdpBits;
-        }
-    }
+    private static final int MAX_K_SCAN_COUNT = 3;
     
     /**
      * Do a max-k scan which involves doing a lot of other scans.
@@ -106,6 +80,86 @@ public class IntervalScanner
             SdpInputStream forwardStream,
             SdpInputStream reverseStream,
             SdpInputStream uberStream) throws IOException
+    {
+        return this.maxKScan(forwardStream, reverseStream, uberStream, null);
+    }
+    
+    /**
+     * Do a max-k scan which involves doing a lot of other scans.
+     * All of the streams passed in should basically represent the same
+     * underlying data (except the reverse stream should read in the
+     * {@link StreamDirection#REVERSE} direction.
+     * <br/><br/>
+     * The result of each of the forward, reverse and uber scans is
+     * checkpointed as soon as the scan completes, and a scan whose result
+     * is found in the checkpoint is skipped (its stream is left unread).
+     * The scans run concurrently on a temporary thread pool
+     * @param forwardStream
+     *          the stream that we do a greedy forward scan on
+     * @param reverseStream
+     *          the stream that we do a reverse scan on
+     * @param uberStream
+     *          the stream that we do an uber scan on
+     * @param checkpoint
+     *          the checkpoint to resume from and save to (can be null)
+     * @return
+     *          the max-k interval
+     * @throws IOException
+     *          if the streams or the checkpoint throw an exception
+     */
+    public List<IndexedSnpInterval> maxKScan(
+            SdpInputStream forwardStream,
+            SdpInputStream reverseStream,
+            SdpInputStream uberStream,
+            ScanCheckpoint checkpoint) throws IOException
+    {
+        return this.maxKScan(
+                forwardStream,
+                reverseStream,
+                uberStream,
+                checkpoint,
+                null);
+    }
+    
+    /**
+     * Do a max-k scan which involves doing a lot of other scans.
+     * All of the streams passed in should basically represent the same
+     * underlying data (except the reverse stream should read in the
+     * {@link StreamDirection#REVERSE} direction.
+     * <br/><br/>
+     * The forward, reverse and uber scans don't depend on each other so
+     * they run concurrently on the given executor and are joined before the
+     * core, uber-core and max-k steps. As soon as one scan fails the
+     * others are cancelled and the failure is thrown. The executor must be
+     * able to run tasks while the calling thread waits on them, so don't
+     * pass a bounded executor that the caller is itself running on.
+     * <br/><br/>
+     * The result of each of the forward, reverse and uber scans is
+     * checkpointed as soon as the scan completes, and a scan whose result
+     * is found in the checkpoint is skipped (its stream is left unread)
+     * @param forwardStream
+     *          the stream that we do a greedy forward scan on
+     * @param reverseStream
+     *          the stream that we do a reverse scan on
+     * @param uberStream
+     *          the stream that we do an uber scan on
+     * @param checkpoint
+     *          the checkpoint to resume from and save to (can be null)
+     * @param executor
+     *          the executor that runs the scans. a null value means that a
+     *          temporary thread pool is used for this call
+     * @return
+     *          the max-k interval
+     * @throws IOException
+     *          if the streams or the checkpoint throw an exception
+     */
+    @SuppressWarnings("unchecked")
+    public List<IndexedSnpInterval> maxKScan(
+            final SdpInputStream forwardStream,
+            final SdpInputStream reverseStream,
+            final SdpInputStream uberStream,
+            final ScanCheckpoint checkpoint,
+            ExecutorService executor) throws IOException
     {
         if(forwardStream.getReadDirection() != StreamDirection.FORWARD)
         {
@@ -119,12 +173,116 @@ public class IntervalScanner
                     "reverseStream must read in reverse");
         }
         
-        List<IndexedSnpInterval> forwardIntervals =
-            this.greedyScan(forwardStream);
-        List<IndexedSnpInterval> reverseIntervals =
-            this.greedyScan(reverseStream);
-        List<IndexedSnpInterval> uberIntervals =
-            this.uberScan(uberStream);
+        List<IndexedSnpInterval> forwardIntervals = null;
+        List<IndexedSnpInterval> reverseIntervals = null;
+        List<IndexedSnpInterval> uberIntervals = null;
+        if(checkpoint != null)
+        {
+            forwardIntervals = (List<IndexedSnpInterval>)checkpoint.getValue(
+                    FORWARD_SCAN_CHECKPOINT_NAME);
+            reverseIntervals = (List<IndexedSnpInterval>)checkpoint.getValue(
+                    REVERSE_SCAN_CHECKPOINT_NAME);
+            uberIntervals = (List<IndexedSnpInterval>)checkpoint.getValue(
+                    UBER_SCAN_CHECKPOINT_NAME);
+        }
+        
+        ExecutorService scanExecutor = executor;
+        if(scanExecutor == null)
+        {
+            scanExecutor = Executors.newFixedThreadPool(MAX_K_SCAN_COUNT);
+        }
+        
+        CompletionService<List<IndexedSnpInterval>> scanCompletionService =
+            new ExecutorCompletionService<List<IndexedSnpInterval>>(scanExecutor);
+        List<Future<List<IndexedSnpInterval>>> scanFutures =
+            new ArrayList<Future<List<IndexedSnpInterval>>>(MAX_K_SCAN_COUNT);
+        try
+        {
+            Future<List<IndexedSnpInterval>> forwardFuture = null;
+            if(forwardIntervals == null)
+            {
+                forwardFuture = scanCompletionService.submit(new Callable<List<IndexedSnpInterval>>()
+                {
+                    public List<IndexedSnpInterval> call() throws IOException
+                    {
+                        List<IndexedSnpInterval> intervals =
+                            IntervalScanner.this.greedyScan(forwardStream);
+                        checkpointScan(checkpoint, FORWARD_SCAN_CHECKPOINT_NAME, intervals);
+                        return intervals;
+                    }
+                });
+                scanFutures.add(forwardFuture);
+            }
+            
+            Future<List<IndexedSnpInterval>> reverseFuture = null;
+            if(reverseIntervals == null)
+            {
+                reverseFuture = scanCompletionService.submit(new Callable<List<IndexedSnpInterval>>()
+                {
+                    public List<IndexedSnpInterval> call() throws IOException
+                    {
+                        List<IndexedSnpInterval> intervals =
+                            IntervalScanner.this.greedyScan(reverseStream);
+                        checkpointScan(checkpoint, REVERSE_SCAN_CHECKPOINT_NAME, intervals);
+                        return intervals;
+                    }
+                });
+                scanFutures.add(reverseFuture);
+            }
+            
+            Future<List<IndexedSnpInterval>> uberFuture = null;
+            if(uberIntervals == null)
+            {
+                uberFuture = scanCompletionService.submit(new Callable<List<IndexedSnpInterval>>()
+                {
+                    public List<IndexedSnpInterval> call() throws IOException
+                    {
+                        List<IndexedSnpInterval> intervals =
+                            IntervalScanner.this.uberScan(uberStream);
+                        checkpointScan(checkpoint, UBER_SCAN_CHECKPOINT_NAME, intervals);
+                        return intervals;
+                    }
+                });
+                scanFutures.add(uberFuture);
+            }
+            
+            // collect the scans in the order that they finish so that the
+            // first failure cancels the others right away
+            int scanCount = scanFutures.size();
+            for(int i = 0; i < scanCount; i++)
+            {
+                Future<List<IndexedSnpInterval>> finishedFuture =
+                    takeFinishedScan(scanCompletionService);
+                List<IndexedSnpInterval> intervals =
+                    getScanResult(finishedFuture);
+                if(finishedFuture == forwardFuture)
+                {
+                    forwardIntervals = intervals;
+                }
+                else if(finishedFuture == reverseFuture)
+                {
+                    reverseIntervals = intervals;
+                }
+                else
+                {
+                    uberIntervals = intervals;
+                }
+            }
+        }
+        finally
+        {
+            // if a scan failed there's no point in letting the others run
+            for(Future<List<IndexedSnpInterval>> scanFuture: scanFutures)
+            {
+                scanFuture.cancel(true);
+            }
+            
+            if(scanExecutor != executor)
+            {
+                scanExecutor.shutdownNow();
+            }
+        }
+        
         List<IndexedSnpInterval> coreIntervals =
             this.createCoreIntervals(forwardIntervals, reverseIntervals);
         List<List<IndexedSnpInterval>> uberCores =
@@ -135,6 +293,99 @@ public class IntervalScanner
         return maxKIntervals;
     }
     
+    /**
+     * Wait for the next scan to finish
+     * @param scanCompletionService
+     *          the completion service that the scans were submitted to
+     * @return
+     *          the finished scan
+     * @throws IOException
+     *          if we were interrupted
+     */
+    private static Future<List<IndexedSnpInterval>> takeFinishedScan(
+            CompletionService<List<IndexedSnpInterval>> scanCompletionService)
+            throws IOException
+    {
+        try
+        {
+            return scanCompletionService.take();
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while waiting for a scan");
+        }
+    }
+    
+    /**
+     * Get the result of a scan, waiting for it to finish if needed
+     * @param scanFuture
+     *          the scan
+     * @return
+     *          the scan result
+     * @throws IOException
+     *          if the scan threw an IO exception or we were interrupted
+     */
+    private static List<IndexedSnpInterval> getScanResult(
+            Future<List<IndexedSnpInterval>> scanFuture) throws IOException
+    {
+        try
+        {
+            return scanFuture.get();
+        }
+        catch(ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+            else if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            else if(cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            else
+            {
+                throw new IllegalStateException(cause);
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while waiting for a scan");
+        }
+    }
+    
+    /**
+     * Save a scan result to the checkpoint
+     * @param checkpoint
+     *          the checkpoint (can be null in which case we do nothing)
+     * @param name
+     *          the checkpoint value name
+     * @param intervals
+     *          the scan result
+     * @throws IOException
+     *          if the checkpoint fails
+     */
+    private static void checkpointScan(
+            ScanCheckpoint checkpoint,
+            String name,
+            List<IndexedSnpInterval> intervals) throws IOException
+    {
+        if(checkpoint != null)
+        {
+            checkpoint.putValue(
+                    name,
+                    new ArrayList<IndexedSnpInterval>(intervals));
+        }
+    }
+    
     /**
      * Do an uber-scan looking for every possible maximal compatible interval
      * @param sdpInputStream
@@ -161,24 +412,23 @@ public class IntervalScanner
         
         int currSdpIndex = -1;
         int startIndex = 0;
-        ExposedArrayList<SdpIndexPair> intervalSdps =
-            new ExposedArrayList<SdpIndexPair>();
+        LaminarSdpTree intervalSdps = new LaminarSdpTree();
         while(sdpInputStream.hasNextSdp())
         {
-            BitSet currSdp = sdpInputStream.getNextSdp();
+            PackedSdp currSdp = PackedSdp.fromBitSet(
+                    sdpInputStream.getNextSdp());
             currSdpIndex++;
             
             int nearestIncompatibleIndex = -1;
             while(sdpInputStream.hasNextSdp() && nearestIncompatibleIndex == -1)
             {
-                nearestIncompatibleIndex = this.testCompatibleAndUberAdd(
-                        intervalSdps,
+                nearestIncompatibleIndex = intervalSdps.testCompatibleAndUberAdd(
                         currSdp,
                         currSdpIndex);
                 
                 if(nearestIncompatibleIndex == -1)
                 {
-                    currSdp = sdpInputStream.getNextSdp();
+                    currSdp = PackedSdp.fromBitSet(sdpInputStream.getNextSdp());
                     currSdpIndex++;
                 }
             }
@@ -199,8 +449,7 @@ public class IntervalScanner
             else
             {
                 // we're done streaming. clean up by adding final interval[s]
-                nearestIncompatibleIndex = this.testCompatibleAndUberAdd(
-                        intervalSdps,
+                nearestIncompatibleIndex = intervalSdps.testCompatibleAndUberAdd(
                         currSdp,
                         currSdpIndex);
                 if(nearestIncompatibleIndex >= 0)
@@ -233,6 +482,57 @@ public class IntervalScanner
         return intervals;
     }
     
+    /**
+     * Build a {@link CompatibilityIndex} in a single pass over the SDPs.
+     * This is the same pass as {@link #uberScan(SdpInputStream)} except that
+     * the nearest incompatible index is recorded for every SDP
+     * @param sdpInputStream
+     *          a forward SDP input stream to read from
+     * @return
+     *          the index
+     * @throws IOException
+     *          if we get an exception reading from the SDP stream
+     */
+    public CompatibilityIndex createCompatibilityIndex(
+            SdpInputStream sdpInputStream)
+            throws IOException
+    {
+        if(sdpInputStream.getReadDirection() == StreamDirection.REVERSE)
+        {
+            throw new IllegalArgumentException(
+                    "compatibility indices can only be built from forward streams");
+        }
+        
+        // this algorithm assumes minority normalized SDPs
+        sdpInputStream = new MinorityNormalizedSdpInputStream(sdpInputStream);
+        
+        long sdpCount = sdpInputStream.getSdpCount();
+        assert sdpCount < Integer.MAX_VALUE;
+        int[] nearestIncompatibleIndices = new int[(int)sdpCount];
+        
+        // the tree only holds SDPs seen after the nearest incompatibility
+        // so any incompatibility it reports is the new nearest one
+        int nearestIncompatibleIndex = -1;
+        LaminarSdpTree intervalSdps = new LaminarSdpTree();
+        for(int sdpIndex = 0; sdpIndex < nearestIncompatibleIndices.length; sdpIndex++)
+        {
+            PackedSdp currSdp = PackedSdp.fromBitSet(
+                    sdpInputStream.getNextSdp());
+            int currIncompatibleIndex = intervalSdps.testCompatibleAndUberAdd(
+                    currSdp,
+                    sdpIndex);
+            if(currIncompatibleIndex >= 0)
+            {
+                assert currIncompatibleIndex > nearestIncompatibleIndex;
+                nearestIncompatibleIndex = currIncompatibleIndex;
+            }
+            
+            nearestIncompatibleIndices[sdpIndex] = nearestIncompatibleIndex;
+        }
+        
+        return new CompatibilityIndex(nearestIncompatibleIndices);
+    }
+    
     /**
      * Create a set of core intervals from the given forward and reverse
      * greedy scan results
@@ -381,64 +681,6 @@ public class IntervalScanner
         return uberIntervalsSubset;
     }
 
-    /**
-     * Add to the interval SDPs assuming that we're working toward the
-     * Uber set of compatible intervals. This function modifies the list
-     * in different ways depending on whether it finds a match or a conflict,
-     * but you shouldn't really have to care about that.
-     * <br/><br/>
-     * If this function finds a conflict, it returns the the index of the
-     * nearest conflicting SNP.
-     * @param intervalSdps
-     *          the list of SDPs for the current interval. this list is "owned"
-     *          by this function and it's probably best not to touch it or try
-     *          to make sense of it outside of this function
-     * @param sdpToAdd
-     *          the SDP that we're trying to introduce to the interval
-     * @param sdpIndex
-     *          the index of the SDP
-     * @return
-     *          -1 if the given SDP is compatible with current interval SDPs
-     *          or the index of the nearest incompatibility if we find one
-     */
-    private int testCompatibleAndUberAdd(
-            ExposedArrayList<SdpIndexPair> intervalSdps,
-            BitSet sdpToAdd,
-            int sdpIndex)
-    {
-        int intervalSdpCount = intervalSdps.size();
-        for(int i = intervalSdpCount - 1; i >= 0 ; i--)
-        {
-            SdpIndexPair currPair = intervalSdps.get(i);
-            BitSet currSdp = currPair.getSdpBits();
-            if(sdpToAdd.equals(currSdp))
-            {
-                // this SDP was already added, so return compatible after
-                // moving the snp to the end of the list
-                intervalSdps.remove(i);
-                intervalSdps.add(new SdpIndexPair(sdpToAdd, sdpIndex));
-                return -1;
-            }
-            else if(!areMinorityNormalizedSdpsCompatible(sdpToAdd, currSdp))
-            {
-                // found an incompatibility. remove everything before the
-                // incompatibility and return the index of the sdp that
-                // caused the trouble
-                intervalSdps.removeRange(
-                        0,
-                        i + 1);
-                intervalSdps.add(new SdpIndexPair(sdpToAdd, sdpIndex));
-                
-                return currPair.getIndex();
-            }
-        }
-        
-        // we're compatible and didn't find any exact matches for the SDP
-        // which means that we need to add it to the list
-        intervalSdps.add(new SdpIndexPair(sdpToAdd, sdpIndex));
-        return -1;
-    }
-    
     /**
      * Perform a greedy scan on the given streams. If the stream we're given
      * reads in the reverse direction then we'll do a
@@ -464,15 +706,16 @@ public class IntervalScanner
         
         int currSdpIndex = -1;
         int startIndex = 0;
-        List<BitSet> intervalSdps = new ArrayList<BitSet>();
+        LaminarSdpTree intervalSdps = new LaminarSdpTree();
         while(sdpInputStream.hasNextSdp())
         {
-            BitSet currSdp = sdpInputStream.getNextSdp();
+            PackedSdp currSdp = PackedSdp.fromBitSet(
+                    sdpInputStream.getNextSdp());
             currSdpIndex++;
             while(sdpInputStream.hasNextSdp() &&
-                  this.checkCompatibilityAndAddSdp(intervalSdps, currSdp))
+                  intervalSdps.checkCompatibilityAndAdd(currSdp))
             {
-                currSdp = sdpInputStream.getNextSdp();
+                currSdp = PackedSdp.fromBitSet(sdpInputStream.getNextSdp());
                 currSdpIndex++;
             }
             
@@ -486,13 +729,13 @@ public class IntervalScanner
                 
                 // reinitialize for next interval (we need to include conflict SDP)
                 intervalSdps.clear();
-                intervalSdps.add(currSdp);
+                intervalSdps.checkCompatibilityAndAdd(currSdp);
                 startIndex = currSdpIndex;
             }
             else
             {
                 // cleanup by adding final interval[s]
-                if(!this.checkCompatibilityAndAddSdp(intervalSdps, currSdp))
+                if(!intervalSdps.checkCompatibilityAndAdd(currSdp))
                 {
                     // The final SDP is incompatible, so
                     // add the last 2 intervals
@@ -530,40 +773,24 @@ public class IntervalScanner
     }
 
     /**
-     * Check the compatibility of the SDP and if it's compatible, add it
-     * @param intervalSdps
-     *          the interval SDPs to compare against
-     * @param sdpToAdd
-     *          the SDP we'll try to add to the interval
+     * Test if the two SDPs are compatible assuming that they follow the
+     * normalization rules from {@link MinorityNormalizedSdpInputStream}
+     * @param minorityNormalizedSdp1
+     *          the 1st SDP
+     * @param minorityNormalizedSdp2
+     *          the 2nd SDP
      * @return
-     *          true if the SDP is fully compatible, false otherwise
+     *          true if the given SDPs are compatible
      */
-    private boolean checkCompatibilityAndAddSdp(
-            List<BitSet> intervalSdps,
-            BitSet sdpToAdd)
+    public static boolean areMinorityNormalizedSdpsCompatible(
+            BitSet minorityNormalizedSdp1,
+            BitSet minorityNormalizedSdp2)
     {
-        int intervalSdpCount = intervalSdps.size();
-        for(int i = 0; i < intervalSdpCount; i++)
-        {
-            BitSet currSdp = intervalSdps.get(i);
-            if(sdpToAdd.equals(currSdp))
-            {
-                // this SDP was already added, so return compatible
-                // without adding SDP
-                return true;
-            }
-            else if(!areMinorityNormalizedSdpsCompatible(sdpToAdd, currSdp))
-            {
-                // found an incompatibility, so return incompatible
-                // without adding SDP
-                return false;
-            }
-        }
-        
-        // we're compatible and didn't find any exact matches for the SDP
-        // which means that we need to add it to the list
-        intervalSdps.add(sdpToAdd);
-        return true;
+        // disjoint SDPs are compatible and so are SDPs where one is a subset
+        // of the other
+        return !minorityNormalizedSdp1.intersects(minorityNormalizedSdp2) ||
+               isSubset(minorityNormalizedSdp1, minorityNormalizedSdp2) ||
+               isSubset(minorityNormalizedSdp2, minorityNormalizedSdp1);
     }
     
     /**
@@ -575,38 +802,35 @@ public class IntervalScanner
      *          the 2nd SDP
      * @return
      *          true if the given SDPs are compatible
+     * @see PackedSdp#compatibleWith(PackedSdp)
      */
     public static boolean areMinorityNormalizedSdpsCompatible(
-            BitSet minorityNormalizedSdp1,
-            BitSet minorityNormalizedSdp2)
+            PackedSdp minorityNormalizedSdp1,
+            PackedSdp minorityNormalizedSdp2)
     {
-        if(!minorityNormalizedSdp1.intersects(minorityNormalizedSdp2))
-        {
-            // disjoint SDPs are compatible
-            return true;
-        }
-        else
+        return minorityNormalizedSdp1.compatibleWith(minorityNormalizedSdp2);
+    }
+    
+    /**
+     * Test if the 1st SDP is a subset of the 2nd without allocating
+     * @param subset
+     *          the potential subset
+     * @param superset
+     *          the potential superset
+     * @return
+     *          true if every bit of the subset is set in the superset
+     */
+    private static boolean isSubset(BitSet subset, BitSet superset)
+    {
+        for(int i = subset.nextSetBit(0); i >= 0; i = subset.nextSetBit(i + 1))
         {
-            BitSet intersection = (BitSet)minorityNormalizedSdp1.clone();
-            intersection.and(minorityNormalizedSdp2);
-            
-            if(intersection.equals(minorityNormalizedSdp1))
-            {
-                // SDP1 is a subset of SDP2 indicating compatible
-                return true;
-            }
-            else if(intersection.equals(minorityNormalizedSdp2))
+            if(!superset.get(i))
             {
-                // SDP2 is a subset of SDP1 indicating compatible
-                return true;
-            }
-            else
-            {
-                // they're incompatible since they're not disjoint and they
-                // don't have a subset/superset relationship
                 return false;
             }
         }
+        
+        return true;
     }
     
     /**
@@ -677,12 +901,23 @@ public class IntervalScanner
     }
     
     /**
-     * Scan the given uber cores to come up with the max-k data set
+     * Scan the given uber cores to come up with the max-k data set. This is
+     * a dynamic program that works back from the last core group keeping the
+     * max cumulative extent that can follow each interval. An interval can be
+     * followed by any interval in the next group that starts no later than
+     * one past its end. Since each group is sorted by start index those
+     * followers are a prefix of the next group so the best follower is a
+     * prefix max lookup and the whole scan is linear in the number of
+     * intervals
      * @param uberCores
      *          the uber cores to search. see
-     *          {@link #createUberCores(List, List)}
+     *          {@link #createUberCores(List, List)}. each group must be
+     *          sorted
      * @return
      *          the max-k interval list
+     * @throws IllegalArgumentException
+     *          if some interval can't be followed by any interval in the
+     *          next group
      */
     public List<IndexedSnpInterval> createMaxKIntervals(List<List<IndexedSnpInterval>> uberCores)
     {
@@ -693,48 +928,90 @@ public class IntervalScanner
         if(coreCount >= 1)
         {
             // initialize data pre-scan
-            int[][] forwardPointers = new int[uberCores.size() - 1][];
+            int[][] forwardPointers = new int[coreCount - 1][];
             List<IndexedSnpInterval> prevCoreGroup = uberCores.get(
-                    uberCores.size() - 1);
-            long[] cumulativeExtents = new long[prevCoreGroup.size()];
-            for(int i = 0; i < cumulativeExtents.length; i++)
+                    coreCount - 1);
+            int prevCoreGroupSize = prevCoreGroup.size();
+            int[] prevStartIndices = new int[prevCoreGroupSize];
+            long[] cumulativeExtents = new long[prevCoreGroupSize];
+            for(int i = 0; i < prevCoreGroupSize; i++)
             {
-                cumulativeExtents[i] = prevCoreGroup.get(i).getExtentInIndices();
+                IndexedSnpInterval prevGroupInterval = prevCoreGroup.get(i);
+                prevStartIndices[i] = prevGroupInterval.getStartIndex();
+                cumulativeExtents[i] = prevGroupInterval.getExtentInIndices();
             }
             
             // perform the scan by working your way back from the tail and by
             // constructing forward pointers as you go
+            int[] prefixMaxPointers = new int[0];
             for(int i = coreCount - 2; i >= 0; i--)
             {
+                // prefixMaxPointers[k] is the 1st index of the max cumulative
+                // extent in [0, k]. the 1st index wins ties
+                if(prefixMaxPointers.length < prevCoreGroupSize)
+                {
+                    prefixMaxPointers = new int[prevCoreGroupSize];
+                }
+                int maxPointer = 0;
+                for(int k = 0; k < prevCoreGroupSize; k++)
+                {
+                    if(cumulativeExtents[k] > cumulativeExtents[maxPointer])
+                    {
+                        maxPointer = k;
+                    }
+                    prefixMaxPointers[k] = maxPointer;
+                }
+                
                 List<IndexedSnpInterval> currCoreGroup = uberCores.get(i);
                 int currCoreGroupSize = currCoreGroup.size();
+                int[] currStartIndices = new int[currCoreGroupSize];
                 int[] currForwardPointers = new int[currCoreGroupSize];
                 long[] currCumulativeExtents = new long[currCoreGroupSize];
                 
+                // followerCount is the number of intervals in the previous
+                // group that start no later than one past the current end.
+                // ends rise with starts in a sorted group so this pointer
+                // only moves forward in practice
+                int followerCount = 0;
                 for(int j = 0; j < currCoreGroupSize; j++)
                 {
                     IndexedSnpInterval currGroupInterval = currCoreGroup.get(j);
-                    int prevCoreGroupSize = prevCoreGroup.size();
-                    long maxCumulativeExtent = 0L;
-                    for(int k = 0; k < prevCoreGroupSize; k++)
+                    int currStartIndex = currGroupInterval.getStartIndex();
+                    int currExtent = currGroupInterval.getExtentInIndices();
+                    int currEndIndex = currStartIndex + currExtent - 1;
+                    currStartIndices[j] = currStartIndex;
+                    
+                    while(followerCount < prevCoreGroupSize &&
+                          prevStartIndices[followerCount] <= currEndIndex + 1)
+                    {
+                        followerCount++;
+                    }
+                    while(followerCount > 0 &&
+                          prevStartIndices[followerCount - 1] > currEndIndex + 1)
+                    {
+                        followerCount--;
+                    }
+                    
+                    if(followerCount == 0)
                     {
-                        IndexedSnpInterval prevGroupInterval = prevCoreGroup.get(k);
-                        long currCumulativeExtent =
-                            cumulativeExtents[k] + currGroupInterval.getExtentInIndices();
-                        if(currCumulativeExtent > maxCumulativeExtent &&
-                           currGroupInterval.getEndIndex() >= prevGroupInterval.getStartIndex() - 1)
-                        {
-                            maxCumulativeExtent = currCumulativeExtent;
-                            currCumulativeExtents[j] = currCumulativeExtent;
-                            currForwardPointers[j] = k;
-                        }
+                        // a max-k interval always ends next to or past the
+                        // start of the next one so this means the uber
+                        // cores weren't built by createUberCores
+                        throw new IllegalArgumentException(
+                                "no interval in uber core group " + (i + 1) +
+                                " can follow interval " + j + " of group " + i);
                     }
-                    assert maxCumulativeExtent > 0L;
+                    
+                    int followerPointer = prefixMaxPointers[followerCount - 1];
+                    currCumulativeExtents[j] =
+                        cumulativeExtents[followerPointer] + currExtent;
+                    currForwardPointers[j] = followerPointer;
                 }
                 
                 forwardPointers[i] = currForwardPointers;
                 cumulativeExtents = currCumulativeExtents;
-                prevCoreGroup = currCoreGroup;
+                prevStartIndices = currStartIndices;
+                prevCoreGroupSize = currCoreGroupSize;
             }
             
             // now we need to work our way forward through the pointers.
@@ -785,99 +1062,30 @@ public class IntervalScanner
                     "position streams");
         }
         
-        int chromosomeNumber = positionInputStream.getChromosomeNumber();
-        
-        int intervalCount = indexedSnpIntervals.size();
-        List<BasePairInterval> physicalIntervals = new ArrayList<BasePairInterval>(
-                intervalCount);
-        if(intervalCount >= 1)
-        {
-            // initialize the position & index maps
-            Map<Integer, Long> startIndexToStartPositionMap =
-                new HashMap<Integer, Long>();
-            Map<Integer, Integer> endIndexToStartIndexMap =
-                new HashMap<Integer, Integer>();
-            
-            // for each indexed interval
-            int positionStreamIndex = -1;
-            long currPosition = -1;
-            for(IndexedSnpInterval indexedInterval: indexedSnpIntervals)
-            {
-                int currStartIndex = indexedInterval.getStartIndex();
-                assert startIndexToStartPositionMap.get(currStartIndex) == null;
-                assert endIndexToStartIndexMap.get(indexedInterval.getEndIndex()) == null;
-                assert indexedInterval.getExtentInIndices() >= 1;
-                
-                // move the position stream up to the same mark as the starting
-                // index.
-                while(positionStreamIndex < currStartIndex)
-                {
-                    // take the current position and increment the stream index
-                    currPosition =
-                        positionInputStream.getNextSnpPositionInBasePairs();
-                    positionStreamIndex++;
-                    
-                    // does currPosition belong to one of our ending indices?
-                    // if so we have completed a physical interval. lets
-                    // remove it from the maps and add the interval to our list
-                    Integer matchingStartIndex = endIndexToStartIndexMap.remove(
-                            positionStreamIndex);
-                    if(matchingStartIndex != null)
-                    {
-                        long matchingStartPosition =
-                            startIndexToStartPositionMap.remove(matchingStartIndex);
-                        physicalIntervals.add(new SimpleBasePairInterval(
-                                chromosomeNumber,
-                                matchingStartPosition,
-                                1L + currPosition - matchingStartPosition));
-                    }
-                }
-                assert positionStreamIndex == currStartIndex;
-                
-                if(indexedInterval.getExtentInIndices() == 1)
-                {
-                    physicalIntervals.add(new SimpleBasePairInterval(
-                            chromosomeNumber,
-                            currPosition,
-                            1));
-                }
-                else
-                {
-                    startIndexToStartPositionMap.put(currStartIndex, currPosition);
-                    endIndexToStartIndexMap.put(
-                            indexedInterval.getEndIndex(),
-                            currStartIndex);
-                }
-            }
-            
-            assert endIndexToStartIndexMap.size() == startIndexToStartPositionMap.size();
-            
-            // now handle the cleanup
-            while(!endIndexToStartIndexMap.isEmpty())
-            {
-                currPosition =
-                    positionInputStream.getNextSnpPositionInBasePairs();
-                positionStreamIndex++;
-                
-                Integer matchingStartIndex = endIndexToStartIndexMap.remove(
-                        positionStreamIndex);
-                if(matchingStartIndex != null)
-                {
-                    long matchingStartPosition =
-                        startIndexToStartPositionMap.remove(matchingStartIndex);
-                    physicalIntervals.add(new SimpleBasePairInterval(
-                            chromosomeNumber,
-                            matchingStartPosition,
-                            1L + currPosition - matchingStartPosition));
-                }
-            }
-            assert startIndexToStartPositionMap.isEmpty();
-        }
-        assert physicalIntervals.size() == indexedSnpIntervals.size();
+        return this.toOrderedPhysicalIntervals(
+                indexedSnpIntervals,
+                SnpPositionIndex.read(positionInputStream));
+    }
+    
+    /**
+     * Convert the indexed list into a physical position list. This is a
+     * single pass of array lookups so the physical intervals come out in the
+     * same order as the indexed intervals
+     * @param indexedSnpIntervals
+     *        the index-based intervals ordered by their starting positions
+     * @param positionIndex
+     *        the position index to do physical mapping
+     * @return the intervals based on physical positions
+     */
+    public List<BasePairInterval> toOrderedPhysicalIntervals(
+            List<IndexedSnpInterval> indexedSnpIntervals,
+            SnpPositionIndex positionIndex)
+    {
+        assert SequenceUtilities.isSorted(indexedSnpIntervals);
+        List<BasePairInterval> physicalIntervals =
+            positionIndex.toBasePairIntervals(indexedSnpIntervals);
+        assert SequenceUtilities.isSorted(physicalIntervals);
         
-        // the intervals are ordered by ending index. we like them to
-        // be ordered by starting index
-        Collections.sort(physicalIntervals);
         return physicalIntervals;
     }
 }
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.inference;
+
+import org.jax.haplotype.io.MinorityNormalizedSdpInputStream;
+
+/**
+ * The distinct SDPs of a compatible interval organized as a tree. Minority
+ * normalized SDPs (see {@link MinorityNormalizedSdpInputStream}) are
+ * compatible iff they are disjoint or one contains the other, so a set of
+ * pairwise compatible SDPs is a laminar family: every SDP's parent is the
+ * smallest SDP that contains it and siblings are disjoint. This lets us
+ * test a new SDP by walking down from the root through the SDPs that
+ * contain it instead of comparing it with every SDP in the interval. Only
+ * the children of the deepest containing SDP can conflict with the new SDP.
+ * <br/><br/>
+ * The tree also remembers the index where each SDP was last seen so that it
+ * can support the uber scan, which needs the most recent incompatible SDP
+ * and forgets everything seen before it.
+ * <br/><br/>
+ * This class is not thread safe.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ class LaminarSdpTree
+{
+    /**
+     * the root stands for the set of all strains
+     */
+    private final Node root = new Node(null, 0, -1);
+    
+    /**
+     * SDPs ordered by the index where they were last seen
+     */
+    private Node oldestNode = null;
+    private Node newestNode = null;
+    
+    private int size = 0;
+    
+    /**
+     * Get the number of distinct SDPs in the tree
+     * @return
+     *          the size
+     */
+    public int size()
+    {
+        return this.size;
+    }
+    
+    /**
+     * Remove every SDP
+     */
+    public void clear()
+    {
+        this.root.firstChild = null;
+        this.oldestNode = null;
+        this.newestNode = null;
+        this.size = 0;
+    }
+    
+    /**
+     * Check the compatibility of the SDP and if it's compatible, add it
+     * @param sdpToAdd
+     *          the minority normalized SDP we'll try to add
+     * @return
+     *          true if the SDP is compatible with every SDP in the tree
+     *          (in which case it's now in the tree), false otherwise (in
+     *          which case the tree is unchanged)
+     */
+    public boolean checkCompatibilityAndAdd(PackedSdp sdpToAdd)
+    {
+        int cardinality = sdpToAdd.cardinality();
+        if(cardinality == 0)
+        {
+            // an empty SDP is compatible with everything so there's no
+            // need to keep it
+            return true;
+        }
+        
+        Node parent = this.findDeepestContainingNode(sdpToAdd, cardinality);
+        if(parent.cardinality == cardinality && parent != this.root)
+        {
+            // this SDP was already added
+            return true;
+        }
+        
+        for(Node child = parent.firstChild; child != null; child = child.nextSibling)
+        {
+            if(!isCompatibleChild(child, sdpToAdd))
+            {
+                return false;
+            }
+        }
+        
+        this.insert(parent, sdpToAdd, cardinality, -1);
+        return true;
+    }
+    
+    /**
+     * Add the SDP assuming that we're working toward the uber set of
+     * compatible intervals. If the SDP conflicts with SDPs in the tree then
+     * every SDP that was last seen at or before the most recent conflict is
+     * removed before adding the new SDP
+     * @param sdpToAdd
+     *          the minority normalized SDP
+     * @param sdpIndex
+     *          the index of the SDP
+     * @return
+     *          -1 if the given SDP is compatible with the tree's SDPs
+     *          or the index of the nearest incompatibility if we find one
+     */
+    public int testCompatibleAndUberAdd(PackedSdp sdpToAdd, int sdpIndex)
+    {
+        int cardinality = sdpToAdd.cardinality();
+        if(cardinality == 0)
+        {
+            // an empty SDP can never be the nearest incompatibility so
+            // there's no need to keep it
+            return -1;
+        }
+        
+        Node parent = this.findDeepestContainingNode(sdpToAdd, cardinality);
+        if(parent.cardinality == cardinality && parent != this.root)
+        {
+            // this SDP was already added, so return compatible after
+            // marking it as the newest
+            parent.sdpIndex = sdpIndex;
+            this.unlinkFromAge(parent);
+            this.linkAsNewest(parent);
+            return -1;
+        }
+        
+        int nearestIncompatibleIndex = -1;
+        for(Node child = parent.firstChild; child != null; child = child.nextSibling)
+        {
+            if(!isCompatibleChild(child, sdpToAdd))
+            {
+                nearestIncompatibleIndex = Math.max(
+                        nearestIncompatibleIndex,
+                        getNearestIncompatibleIndex(child, sdpToAdd));
+            }
+        }
+        
+        if(nearestIncompatibleIndex >= 0)
+        {
+            // forget everything up to and including the incompatibility.
+            // that includes every incompatible SDP so what's left fits
+            while(this.oldestNode != null &&
+                  this.oldestNode.sdpIndex <= nearestIncompatibleIndex)
+            {
+                this.remove(this.oldestNode);
+            }
+            parent = this.findDeepestContainingNode(sdpToAdd, cardinality);
+        }
+        
+        this.insert(parent, sdpToAdd, cardinality, sdpIndex);
+        return nearestIncompatibleIndex;
+    }
+    
+    /**
+     * Walk down from the root through the nodes that contain the SDP.
+     * Siblings are disjoint so at most one child of a node can contain a
+     * non-empty SDP
+     * @param sdp
+     *          the SDP
+     * @param cardinality
+     *          the SDP's cardinality
+     * @return
+     *          the node holding an identical SDP if there is one, otherwise
+     *          the deepest node that contains the SDP (possibly the root)
+     */
+    private Node findDeepestContainingNode(PackedSdp sdp, int cardinality)
+    {
+        Node parent = this.root;
+        Node child = parent.firstChild;
+        while(child != null)
+        {
+            if(child.cardinality >= cardinality && sdp.isSubsetOf(child.sdp))
+            {
+                if(child.cardinality == cardinality)
+                {
+                    // a subset with the same cardinality is the same SDP
+                    return child;
+                }
+                parent = child;
+                child = parent.firstChild;
+            }
+            else
+            {
+                child = child.nextSibling;
+            }
+        }
+        
+        return parent;
+    }
+    
+    /**
+     * Determine if a child of the deepest node containing the SDP is
+     * compatible with it. The child can't contain the SDP so it's
+     * compatible iff it's a subset of the SDP or disjoint from it
+     * @param child
+     *          the child
+     * @param sdp
+     *          the SDP
+     * @return
+     *          true if the child is compatible
+     */
+    private static boolean isCompatibleChild(Node child, PackedSdp sdp)
+    {
+        return !child.sdp.intersects(sdp) || child.sdp.isSubsetOf(sdp);
+    }
+    
+    /**
+     * Find the most recent index among the given incompatible node and its
+     * incompatible descendants. Descendants that are subsets of the SDP or
+     * disjoint from it are compatible along with everything under them
+     * @param incompatibleNode
+     *          a node that is incompatible with the SDP
+     * @param sdp
+     *          the SDP
+     * @return
+     *          the nearest incompatible index
+     */
+    private static int getNearestIncompatibleIndex(Node incompatibleNode, PackedSdp sdp)
+    {
+        int nearestIndex = incompatibleNode.sdpIndex;
+        for(Node child = incompatibleNode.firstChild; child != null; child = child.nextSibling)
+        {
+            if(!isCompatibleChild(child, sdp))
+            {
+                nearestIndex = Math.max(
+                        nearestIndex,
+                        getNearestIncompatibleIndex(child, sdp));
+            }
+        }
+        
+        return nearestIndex;
+    }
+    
+    /**
+     * Add a new SDP under the given parent. Any of the parent's children
+     * that are subsets of the new SDP become its children
+     * @param parent
+     *          the deepest node containing the SDP
+     * @param sdp
+     *          the SDP
+     * @param cardinality
+     *          the SDP's cardinality
+     * @param sdpIndex
+     *          the SDP's index
+     */
+    private void insert(Node parent, PackedSdp sdp, int cardinality, int sdpIndex)
+    {
+        Node newNode = new Node(sdp, cardinality, sdpIndex);
+        
+        Node child = parent.firstChild;
+        while(child != null)
+        {
+            Node nextChild = child.nextSibling;
+            if(child.cardinality < cardinality && child.sdp.isSubsetOf(sdp))
+            {
+                unlinkFromParent(child);
+                linkAsChild(newNode, child);
+            }
+            child = nextChild;
+        }
+        
+        linkAsChild(parent, newNode);
+        this.linkAsNewest(newNode);
+        this.size++;
+    }
+    
+    /**
+     * Remove an SDP. Its children are handed to its parent
+     * @param node
+     *          the node to remove
+     */
+    private void remove(Node node)
+    {
+        Node parent = node.parent;
+        unlinkFromParent(node);
+        
+        Node child = node.firstChild;
+        while(child != null)
+        {
+            Node nextChild = child.nextSibling;
+            linkAsChild(parent, child);
+            child = nextChild;
+        }
+        node.firstChild = null;
+        
+        this.unlinkFromAge(node);
+        this.size--;
+    }
+    
+    private static void linkAsChild(Node parent, Node child)
+    {
+        child.parent = parent;
+        child.previousSibling = null;
+        child.nextSibling = parent.firstChild;
+        if(parent.firstChild != null)
+        {
+            parent.firstChild.previousSibling = child;
+        }
+        parent.firstChild = child;
+    }
+    
+    private static void unlinkFromParent(Node node)
+    {
+        if(node.previousSibling == null)
+        {
+            node.parent.firstChild = node.nextSibling;
+        }
+        else
+        {
+            node.previousSibling.nextSibling = node.nextSibling;
+        }
+        
+        if(node.nextSibling != null)
+        {
+            node.nextSibling.previousSibling = node.previousSibling;
+        }
+        
+        node.parent = null;
+        node.previousSibling = null;
+        node.nextSibling = null;
+    }
+    
+    private void linkAsNewest(Node node)
+    {
+        node.older = this.newestNode;
+        node.newer = null;
+        if(this.newestNode == null)
+        {
+            this.oldestNode = node;
+        }
+        else
+        {
+            this.newestNode.newer = node;
+        }
+        this.newestNode = node;
+    }
+    
+    private void unlinkFromAge(Node node)
+    {
+        if(node.older == null)
+        {
+            this.oldestNode = node.newer;
+        }
+        else
+        {
+            node.older.newer = node.newer;
+        }
+        
+        if(node.newer == null)
+        {
+            this.newestNode = node.older;
+        }
+        else
+        {
+            node.newer.older = node.older;
+        }
+        
+        node.older = null;
+        node.newer = null;
+    }
+    
+    /**
+     * A tree node holding a single SDP
+     */
+    private static final class Node
+    {
+        private final PackedSdp sdp;
+        
+        private final int cardinality;
+        
+        private int sdpIndex;
+        
+        private Node parent = null;
+        private Node firstChild = null;
+        private Node previousSibling = null;
+        private Node nextSibling = null;
+        
+        private Node older = null;
+        private Node newer = null;
+        
+        /**
+         * Constructor
+         * @param sdp
+         *          the SDP (null for the root)
+         * @param cardinality
+         *          the SDP's cardinality
+         * @param sdpIndex
+         *          the index where the SDP was last seen
+         */
+        public Node(PackedSdp sdp, int cardinality, int sdpIndex)
+        {
+            this.sdp = sdp;
+            this.cardinality = cardinality;
+            this.sdpIndex = sdpIndex;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.inference;
+
+import java.util.BitSet;
+
+import org.jax.haplotype.io.MinorityNormalizedSdpInputStream;
+
+/**
+ * An immutable SDP packed into 64 bit words. The set operations that the
+ * scanners perform for every pair of SDPs ({@link #intersects(PackedSdp)},
+ * {@link #isSubsetOf(PackedSdp)} and {@link #compatibleWith(PackedSdp)})
+ * work a word at a time and never allocate. SDPs whose set bits all fall
+ * in the first 64 strains (which covers any panel of 64 or fewer strains)
+ * are held in a single long and compared without touching an array.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public final class PackedSdp
+{
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+    
+    private static final int BITS_PER_WORD = 1 << ADDRESS_BITS_PER_WORD;
+    
+    /**
+     * the bits when they fit in one word (null words), otherwise zero
+     */
+    private final long word;
+    
+    /**
+     * the bits when they don't fit in one word or null. When non-null the
+     * last word is non-zero so equal SDPs have equal arrays
+     */
+    private final long[] words;
+    
+    private final int cardinality;
+    
+    /**
+     * Constructor
+     * @param word
+     *          the single word
+     * @param words
+     *          the words (see {@link #words})
+     */
+    private PackedSdp(long word, long[] words)
+    {
+        this.word = word;
+        this.words = words;
+        
+        if(words == null)
+        {
+            this.cardinality = Long.bitCount(word);
+        }
+        else
+        {
+            int bitCount = 0;
+            for(long currWord: words)
+            {
+                bitCount += Long.bitCount(currWord);
+            }
+            this.cardinality = bitCount;
+        }
+    }
+    
+    /**
+     * Pack the given SDP
+     * @param sdp
+     *          the SDP
+     * @return
+     *          the packed SDP
+     */
+    public static PackedSdp fromBitSet(BitSet sdp)
+    {
+        int length = sdp.length();
+        if(length <= BITS_PER_WORD)
+        {
+            long word = 0L;
+            for(int i = sdp.nextSetBit(0); i >= 0; i = sdp.nextSetBit(i + 1))
+            {
+                word |= 1L << i;
+            }
+            return new PackedSdp(word, null);
+        }
+        else
+        {
+            long[] words = new long[((length - 1) >> ADDRESS_BITS_PER_WORD) + 1];
+            for(int i = sdp.nextSetBit(0); i >= 0; i = sdp.nextSetBit(i + 1))
+            {
+                words[i >> ADDRESS_BITS_PER_WORD] |= 1L << i;
+            }
+            return new PackedSdp(0L, words);
+        }
+    }
+    
+    /**
+     * Unpack this SDP
+     * @return
+     *          a new bit set with the same bits as this SDP
+     */
+    public BitSet toBitSet()
+    {
+        BitSet sdp = new BitSet();
+        if(this.words == null)
+        {
+            setBits(sdp, 0, this.word);
+        }
+        else
+        {
+            for(int i = 0; i < this.words.length; i++)
+            {
+                setBits(sdp, i << ADDRESS_BITS_PER_WORD, this.words[i]);
+            }
+        }
+        
+        return sdp;
+    }
+    
+    private static void setBits(BitSet sdp, int offset, long word)
+    {
+        while(word != 0L)
+        {
+            sdp.set(offset + Long.numberOfTrailingZeros(word));
+            word &= word - 1L;
+        }
+    }
+    
+    /**
+     * Get the number of set bits
+     * @return
+     *          the cardinality
+     */
+    public int cardinality()
+    {
+        return this.cardinality;
+    }
+    
+    /**
+     * Determine if this SDP has no set bits
+     * @return
+     *          true if the SDP is empty
+     */
+    public boolean isEmpty()
+    {
+        return this.cardinality == 0;
+    }
+    
+    /**
+     * Get the bit at the given strain index
+     * @param bitIndex
+     *          the strain index
+     * @return
+     *          the bit
+     */
+    public boolean get(int bitIndex)
+    {
+        if(bitIndex < 0)
+        {
+            throw new IndexOutOfBoundsException(
+                    "bitIndex < 0: " + bitIndex);
+        }
+        
+        return (this.getWord(bitIndex >> ADDRESS_BITS_PER_WORD) &
+                (1L << bitIndex)) != 0L;
+    }
+    
+    /**
+     * Get the word at the given index treating words past the end as zero
+     * @param wordIndex
+     *          the word index
+     * @return
+     *          the word
+     */
+    private long getWord(int wordIndex)
+    {
+        if(this.words == null)
+        {
+            return wordIndex == 0 ? this.word : 0L;
+        }
+        else
+        {
+            return wordIndex < this.words.length ? this.words[wordIndex] : 0L;
+        }
+    }
+    
+    private int getWordCount()
+    {
+        return this.words == null ? 1 : this.words.length;
+    }
+    
+    /**
+     * Determine if this SDP shares any set bits with the other
+     * @param otherSdp
+     *          the other SDP
+     * @return
+     *          true if the SDPs intersect
+     */
+    public boolean intersects(PackedSdp otherSdp)
+    {
+        if(this.words == null || otherSdp.words == null)
+        {
+            // every word other than the 1st is zero on one side
+            return (this.getWord(0) & otherSdp.getWord(0)) != 0L;
+        }
+        else
+        {
+            int wordCount = Math.min(this.words.length, otherSdp.words.length);
+            for(int i = 0; i < wordCount; i++)
+            {
+                if((this.words[i] & otherSdp.words[i]) != 0L)
+                {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+    }
+    
+    /**
+     * Determine if every set bit of this SDP is also set in the other
+     * @param otherSdp
+     *          the potential superset
+     * @return
+     *          true if this SDP is a subset of the other
+     */
+    public boolean isSubsetOf(PackedSdp otherSdp)
+    {
+        if(this.words == null)
+        {
+            return (this.word & ~otherSdp.getWord(0)) == 0L;
+        }
+        else if(this.cardinality > otherSdp.cardinality ||
+                this.words.length > otherSdp.getWordCount())
+        {
+            // a bigger SDP or one with set bits past the other SDP's last
+            // word can't be a subset
+            return false;
+        }
+        else
+        {
+            for(int i = 0; i < this.words.length; i++)
+            {
+                if((this.words[i] & ~otherSdp.words[i]) != 0L)
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+    }
+    
+    /**
+     * Test if the two SDPs are compatible assuming that they follow the
+     * normalization rules from {@link MinorityNormalizedSdpInputStream}.
+     * That is they're compatible if they're disjoint or one is a subset of
+     * the other
+     * @param otherSdp
+     *          the other SDP
+     * @return
+     *          true if the SDPs are compatible
+     */
+    public boolean compatibleWith(PackedSdp otherSdp)
+    {
+        if(this.words == null && otherSdp.words == null)
+        {
+            long intersection = this.word & otherSdp.word;
+            return intersection == 0L ||
+                   intersection == this.word ||
+                   intersection == otherSdp.word;
+        }
+        else
+        {
+            // a single pass that tracks whether each side can still be a
+            // subset of the other
+            boolean intersects = false;
+            boolean thisIsSubset = true;
+            boolean otherIsSubset = true;
+            int wordCount = Math.max(this.getWordCount(), otherSdp.getWordCount());
+            for(int i = 0; i < wordCount; i++)
+            {
+                long thisWord = this.getWord(i);
+                long otherWord = otherSdp.getWord(i);
+                long intersection = thisWord & otherWord;
+                
+                intersects |= intersection != 0L;
+                thisIsSubset &= intersection == thisWord;
+                otherIsSubset &= intersection == otherWord;
+                if(intersects && !thisIsSubset && !otherIsSubset)
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(this == obj)
+        {
+            return true;
+        }
+        else if(obj instanceof PackedSdp)
+        {
+            PackedSdp otherSdp = (PackedSdp)obj;
+            if(this.cardinality != otherSdp.cardinality)
+            {
+                return false;
+            }
+            else if(this.words == null)
+            {
+                return otherSdp.words == null && this.word == otherSdp.word;
+            }
+            else if(otherSdp.words == null ||
+                    this.words.length != otherSdp.words.length)
+            {
+                return false;
+            }
+            else
+            {
+                for(int i = 0; i < this.words.length; i++)
+                {
+                    if(this.words[i] != otherSdp.words[i])
+                    {
+                        return false;
+                    }
+                }
+                
+                return true;
+            }
+        }
+        else
+        {
+            return false;
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        // the same hash that BitSet uses
+        long hash = 1234L;
+        for(int i = this.getWordCount() - 1; i >= 0; i--)
+        {
+            hash ^= this.getWord(i) * (i + 1);
+        }
+        
+        return (int)((hash >> 32) ^ hash);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return this.toBitSet().toString();
+    }
+}
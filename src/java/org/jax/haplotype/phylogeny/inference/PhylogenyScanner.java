@@ -17,13 +17,20 @@
 package org.jax.haplotype.phylogeny.inference;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jax.geneticutil.data.IndexedSnpInterval;
 import org.jax.haplotype.io.MinorityNormalizedSdpInputStream;
@@ -31,7 +38,7 @@ import org.jax.haplotype.io.SdpInputStream;
 import org.jax.haplotype.phylogeny.data.NoValidPhylogenyException;
 import org.jax.haplotype.phylogeny.data.PhylogenyTreeEdge;
 import org.jax.haplotype.phylogeny.data.PhylogenyTreeNode;
-import org.jax.util.datastructure.SetUtilities;
+import org.jax.util.datastructure.SequenceUtilities;
 
 /**
  * For building phylogenies using an SDP stream
@@ -46,6 +53,19 @@ public class PhylogenyScanner
     {
     }
     
+    /**
+     * The default number of phylogenies between checkpoints
+     */
+    public static final int DEFAULT_CHECKPOINT_PERIOD = 1000;
+    
+    private static final String PHYLOGENY_CHUNK_CHECKPOINT_PREFIX = "phylogenies-";
+    
+    /**
+     * The default number of intervals per batch for
+     * {@link #inferPerfectPhylogenies(SdpInputStream, List, ScanCheckpoint, int, ExecutorService, int)}
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    
     /**
      * Infer perfect phylogenies using the given SDP inputs and the given
      * intervals. The intervals must be sorted for this function to work
@@ -64,14 +84,265 @@ public class PhylogenyScanner
     public List<PhylogenyTreeNode> inferPerfectPhylogenies(
             SdpInputStream  sdpInputStream,
             List<IndexedSnpInterval> intervals) throws IOException, NoValidPhylogenyException
+    {
+        return this.inferPerfectPhylogenies(
+                sdpInputStream,
+                intervals,
+                null,
+                DEFAULT_CHECKPOINT_PERIOD);
+    }
+    
+    /**
+     * Infer perfect phylogenies using the given SDP inputs and the given
+     * intervals. The intervals must be sorted for this function to work.
+     * <br/><br/>
+     * Phylogenies are checkpointed in chunks of (at least)
+     * <code>checkpointPeriod</code> as soon as every interval before them
+     * has been completed. When resuming, the checkpointed phylogenies are
+     * reused and the scan restarts from the first interval that was not
+     * checkpointed. Partly built inclusion hierarchies are not checkpointed
+     * since they are rebuilt from the interval start, which costs at most
+     * one interval's worth of SDPs
+     * @param sdpInputStream
+     *          the SDP input stream
+     * @param intervals
+     *          the interval
+     * @param checkpoint
+     *          the checkpoint to resume from and save to (can be null)
+     * @param checkpointPeriod
+     *          the minimum number of phylogenies per checkpoint chunk
+     * @return
+     *          the phylogenies with indices corresponding to the given
+     *          intervals
+     * @throws IOException
+     *          if we get some kind of {@link IOException} reading the SDPs
+     *          or writing the checkpoint
+     * @throws NoValidPhylogenyException
+     *          if there isn't a valid phylogeny
+     */
+    public List<PhylogenyTreeNode> inferPerfectPhylogenies(
+            SdpInputStream  sdpInputStream,
+            List<IndexedSnpInterval> intervals,
+            ScanCheckpoint checkpoint,
+            int checkpointPeriod) throws IOException, NoValidPhylogenyException
+    {
+        return this.inferPerfectPhylogenies(
+                sdpInputStream,
+                intervals,
+                checkpoint,
+                checkpointPeriod,
+                null,
+                0);
+    }
+    
+    /**
+     * Infer perfect phylogenies using the given SDP inputs and the given
+     * intervals. The intervals must be sorted for this function to work.
+     * <br/><br/>
+     * Each interval's phylogeny only depends on the SDPs inside of the
+     * interval, so when a batch size is given the intervals are split into
+     * batches of that size. The SDP stream is still read once on the calling
+     * thread but each batch's SDPs are handed to the executor, which builds
+     * the batch's inclusion hierarchies and phylogenies while the stream
+     * moves on to the next batch. The phylogenies are collected in interval
+     * order so the results (and checkpoints) are the same as those from a
+     * sequential scan. The executor must be able to run tasks while the
+     * calling thread waits on them.
+     * <br/><br/>
+     * Checkpointing works as described in
+     * {@link #inferPerfectPhylogenies(SdpInputStream, List, ScanCheckpoint, int)}
+     * except that a batch's phylogenies only count as completed once the
+     * batch is collected. The stream is read ahead of collection so a failure
+     * can lose batches that were built but not yet checkpointed
+     * @param sdpInputStream
+     *          the SDP input stream
+     * @param intervals
+     *          the interval
+     * @param checkpoint
+     *          the checkpoint to resume from and save to (can be null)
+     * @param checkpointPeriod
+     *          the minimum number of phylogenies per checkpoint chunk
+     * @param executor
+     *          the executor that builds the batches. a null value means that
+     *          a temporary thread pool is used for this call
+     * @param batchSize
+     *          the number of intervals per batch (see
+     *          {@link #DEFAULT_BATCH_SIZE}). if this is less than 1 the
+     *          phylogenies are built sequentially on the calling thread and
+     *          the executor is ignored
+     * @return
+     *          the phylogenies with indices corresponding to the given
+     *          intervals
+     * @throws IOException
+     *          if we get some kind of {@link IOException} reading the SDPs
+     *          or writing the checkpoint
+     * @throws NoValidPhylogenyException
+     *          if there isn't a valid phylogeny
+     */
+    public List<PhylogenyTreeNode> inferPerfectPhylogenies(
+            SdpInputStream  sdpInputStream,
+            List<IndexedSnpInterval> intervals,
+            ScanCheckpoint checkpoint,
+            int checkpointPeriod,
+            ExecutorService executor,
+            int batchSize) throws IOException, NoValidPhylogenyException
     {
         sdpInputStream = new MinorityNormalizedSdpInputStream(sdpInputStream);
         String[] sdpStrainNames = sdpInputStream.getSdpStrainNames();
         
         int intervalCount = intervals.size();
+        List<PhylogenyTreeNode> phylogenies =
+            new ArrayList<PhylogenyTreeNode>(intervalCount);
         
         Map<IndexedSnpInterval, PhylogenyTreeNode> intervalToPhylogenyMap =
             new HashMap<IndexedSnpInterval, PhylogenyTreeNode>();
+        PhylogenyCheckpointer checkpointer = null;
+        if(checkpoint != null)
+        {
+            int chunkCount = this.restorePhylogenies(
+                    checkpoint,
+                    sdpStrainNames,
+                    phylogenies);
+            checkpointer = new PhylogenyCheckpointer(
+                    checkpoint,
+                    checkpointPeriod,
+                    chunkCount,
+                    intervals.subList(phylogenies.size(), intervalCount),
+                    intervalToPhylogenyMap);
+        }
+        
+        List<IndexedSnpInterval> remainingIntervals =
+            intervals.subList(phylogenies.size(), intervalCount);
+        if(batchSize < 1)
+        {
+            this.inferPerfectPhylogenies(
+                    sdpInputStream,
+                    sdpStrainNames,
+                    remainingIntervals,
+                    intervalToPhylogenyMap,
+                    checkpointer);
+        }
+        else
+        {
+            this.inferPerfectPhylogeniesInBatches(
+                    sdpInputStream,
+                    sdpStrainNames,
+                    remainingIntervals,
+                    intervalToPhylogenyMap,
+                    checkpointer,
+                    executor,
+                    batchSize);
+        }
+        
+        for(IndexedSnpInterval interval: remainingIntervals)
+        {
+            PhylogenyTreeNode currPhylogeny = intervalToPhylogenyMap.get(interval);
+            assert currPhylogeny != null;
+            phylogenies.add(currPhylogeny);
+        }
+        
+        assert phylogenies.size() == intervalCount;
+        return phylogenies;
+    }
+    
+    /**
+     * Restore the phylogeny chunks from the checkpoint
+     * @param checkpoint
+     *          the checkpoint
+     * @param sdpStrainNames
+     *          the strain names
+     * @param phylogenies
+     *          the list that we add the restored phylogenies to
+     * @return
+     *          the number of chunks restored
+     */
+    @SuppressWarnings("unchecked")
+    private int restorePhylogenies(
+            ScanCheckpoint checkpoint,
+            String[] sdpStrainNames,
+            List<PhylogenyTreeNode> phylogenies)
+    {
+        // strain names are shared between all of the phylogenies that we
+        // infer so we restore that sharing. this keeps the restored
+        // phylogenies identical, right down to their serialized form, to
+        // those from an uninterrupted scan
+        Map<String, String> canonicalStrainNames = new HashMap<String, String>();
+        for(String strainName: sdpStrainNames)
+        {
+            canonicalStrainNames.put(strainName, strainName);
+        }
+        
+        int chunkCount = 0;
+        List<PhylogenyTreeNode> chunk;
+        while((chunk = (List<PhylogenyTreeNode>)checkpoint.getValue(
+                PHYLOGENY_CHUNK_CHECKPOINT_PREFIX + chunkCount)) != null)
+        {
+            for(PhylogenyTreeNode phylogeny: chunk)
+            {
+                canonicalizeStrainNames(phylogeny, canonicalStrainNames);
+                phylogenies.add(phylogeny);
+            }
+            chunkCount++;
+        }
+        
+        return chunkCount;
+    }
+    
+    /**
+     * Replace the strain names in the given phylogeny with their canonical
+     * instances
+     * @param phylogeny
+     *          the phylogeny to modify
+     * @param canonicalStrainNames
+     *          maps names to their canonical instances
+     */
+    private static void canonicalizeStrainNames(
+            PhylogenyTreeNode phylogeny,
+            Map<String, String> canonicalStrainNames)
+    {
+        List<String> strains = phylogeny.getStrains();
+        for(int i = 0; i < strains.size(); i++)
+        {
+            String canonicalName = canonicalStrainNames.get(strains.get(i));
+            if(canonicalName != null)
+            {
+                strains.set(i, canonicalName);
+            }
+        }
+        
+        for(PhylogenyTreeEdge childEdge: phylogeny.getChildEdges())
+        {
+            canonicalizeStrainNames(childEdge.getNode(), canonicalStrainNames);
+        }
+    }
+    
+    /**
+     * Infer perfect phylogenies using the given SDP inputs and the given
+     * intervals
+     * @param sdpInputStream
+     *          the minority normalized SDP input stream
+     * @param sdpStrainNames
+     *          the strain names
+     * @param intervals
+     *          the sorted intervals
+     * @param intervalToPhylogenyMap
+     *          the map that we put the phylogenies in
+     * @param checkpointer
+     *          the checkpointer to notify as phylogenies complete (can be
+     *          null)
+     * @throws IOException
+     *          if we get some kind of {@link IOException}
+     * @throws NoValidPhylogenyException
+     *          if there isn't a valid phylogeny
+     */
+    private void inferPerfectPhylogenies(
+            SdpInputStream sdpInputStream,
+            String[] sdpStrainNames,
+            List<IndexedSnpInterval> intervals,
+            Map<IndexedSnpInterval, PhylogenyTreeNode> intervalToPhylogenyMap,
+            PhylogenyCheckpointer checkpointer)
+            throws IOException, NoValidPhylogenyException
+    {
         Map<IndexedSnpInterval, List<SdpInclusionHierarchy>> intervalToInclusionHierarchyMap =
             new HashMap<IndexedSnpInterval, List<SdpInclusionHierarchy>>();
         
@@ -79,6 +350,7 @@ public class PhylogenyScanner
         {
             int sdpIndex = 0;
             BitSet sdpBits = sdpInputStream.getNextSdp();
+            PackedSdp packedSdp = PackedSdp.fromBitSet(sdpBits);
             for(IndexedSnpInterval interval: intervals)
             {
                 int currStartIndex = interval.getStartIndex();
@@ -98,7 +370,8 @@ public class PhylogenyScanner
                         
                         this.insertSdpInHierarchies(
                                 inclusionHierarchies,
-                                sdpBits);
+                                sdpBits,
+                                packedSdp);
                         if(currInterval.getEndIndex() <= sdpIndex)
                         {
                             assert currInterval.getEndIndex() == sdpIndex;
@@ -119,10 +392,16 @@ public class PhylogenyScanner
                                     currInterval,
                                     phylogeny);
                             hierarchyMapIter.remove();
+                            
+                            if(checkpointer != null)
+                            {
+                                checkpointer.phylogenyCompleted();
+                            }
                         }
                     }
                     
                     sdpBits = sdpInputStream.getNextSdp();
+                    packedSdp = PackedSdp.fromBitSet(sdpBits);
                     sdpIndex++;
                 }
                 
@@ -147,7 +426,8 @@ public class PhylogenyScanner
                     
                     this.insertSdpInHierarchies(
                             inclusionHierarchies,
-                            sdpBits);
+                            sdpBits,
+                            packedSdp);
                     if(currInterval.getEndIndex() <= sdpIndex)
                     {
                         assert currInterval.getEndIndex() == sdpIndex;
@@ -168,12 +448,18 @@ public class PhylogenyScanner
                                 currInterval,
                                 phylogeny);
                         hierarchyMapIter.remove();
+                        
+                        if(checkpointer != null)
+                        {
+                            checkpointer.phylogenyCompleted();
+                        }
                     }
                 }
                 
                 if(sdpInputStream.hasNextSdp())
                 {
                     sdpBits = sdpInputStream.getNextSdp();
+                    packedSdp = PackedSdp.fromBitSet(sdpBits);
                     sdpIndex++;
                 }
                 else
@@ -182,20 +468,306 @@ public class PhylogenyScanner
                 }
             }
         }
+    }
+    
+    /**
+     * Infer perfect phylogenies in batches of intervals that are built on
+     * the given executor
+     * @param sdpInputStream
+     *          the minority normalized SDP input stream
+     * @param sdpStrainNames
+     *          the strain names
+     * @param intervals
+     *          the sorted intervals
+     * @param intervalToPhylogenyMap
+     *          the map that we put the phylogenies in
+     * @param checkpointer
+     *          the checkpointer to notify as phylogenies complete (can be
+     *          null)
+     * @param executor
+     *          the executor that builds the batches (null for a temporary
+     *          thread pool)
+     * @param batchSize
+     *          the number of intervals per batch
+     * @throws IOException
+     *          if we get some kind of {@link IOException}
+     * @throws NoValidPhylogenyException
+     *          if there isn't a valid phylogeny
+     */
+    private void inferPerfectPhylogeniesInBatches(
+            SdpInputStream sdpInputStream,
+            final String[] sdpStrainNames,
+            List<IndexedSnpInterval> intervals,
+            Map<IndexedSnpInterval, PhylogenyTreeNode> intervalToPhylogenyMap,
+            PhylogenyCheckpointer checkpointer,
+            ExecutorService executor,
+            int batchSize)
+            throws IOException, NoValidPhylogenyException
+    {
+        assert SequenceUtilities.isSorted(intervals);
+        
+        int processorCount = Runtime.getRuntime().availableProcessors();
+        ExecutorService batchExecutor = executor;
+        if(batchExecutor == null)
+        {
+            batchExecutor = Executors.newFixedThreadPool(processorCount);
+        }
+        
+        // limit the number of batches whose SDPs are held in memory
+        int maxPendingBatchCount = 2 * processorCount;
+        LinkedList<Future<List<PhylogenyTreeNode>>> pendingBatches =
+            new LinkedList<Future<List<PhylogenyTreeNode>>>();
+        int collectedIntervalCount = 0;
+        try
+        {
+            // the SDPs read so far starting with the SDP at windowStartIndex.
+            // packed SDPs are immutable so batches can share them
+            List<PackedSdp> sdpWindow = new ArrayList<PackedSdp>();
+            int windowStartIndex = 0;
+            
+            int intervalCount = intervals.size();
+            for(int batchStart = 0; batchStart < intervalCount; batchStart += batchSize)
+            {
+                final List<IndexedSnpInterval> batchIntervals = intervals.subList(
+                        batchStart,
+                        Math.min(intervalCount, batchStart + batchSize));
+                
+                // the intervals are sorted so the 1st interval starts first
+                // and no later batch needs an SDP before it
+                final int batchStartIndex = batchIntervals.get(0).getStartIndex();
+                int batchEndIndex = batchStartIndex;
+                for(IndexedSnpInterval interval: batchIntervals)
+                {
+                    batchEndIndex = Math.max(batchEndIndex, interval.getEndIndex());
+                }
+                
+                // slide the window forward to cover this batch
+                if(batchStartIndex > windowStartIndex)
+                {
+                    int dropCount = Math.min(
+                            batchStartIndex - windowStartIndex,
+                            sdpWindow.size());
+                    sdpWindow = new ArrayList<PackedSdp>(
+                            sdpWindow.subList(dropCount, sdpWindow.size()));
+                    windowStartIndex += dropCount;
+                }
+                while(windowStartIndex + sdpWindow.size() <= batchEndIndex)
+                {
+                    if(!sdpInputStream.hasNextSdp())
+                    {
+                        throw new IOException(
+                                "the SDP stream ended before SDP index " +
+                                batchEndIndex);
+                    }
+                    
+                    PackedSdp packedSdp = PackedSdp.fromBitSet(
+                            sdpInputStream.getNextSdp());
+                    if(windowStartIndex + sdpWindow.size() < batchStartIndex)
+                    {
+                        // this SDP comes before the batch so skip it
+                        windowStartIndex++;
+                    }
+                    else
+                    {
+                        sdpWindow.add(packedSdp);
+                    }
+                }
+                
+                final PackedSdp[] batchSdps = sdpWindow.subList(
+                        batchStartIndex - windowStartIndex,
+                        1 + batchEndIndex - windowStartIndex).toArray(
+                                new PackedSdp[1 + batchEndIndex - batchStartIndex]);
+                
+                if(pendingBatches.size() >= maxPendingBatchCount)
+                {
+                    collectedIntervalCount = this.collectBatch(
+                            pendingBatches.removeFirst(),
+                            intervals,
+                            collectedIntervalCount,
+                            intervalToPhylogenyMap,
+                            checkpointer);
+                }
+                
+                pendingBatches.add(batchExecutor.submit(new Callable<List<PhylogenyTreeNode>>()
+                {
+                    /**
+                     * {@inheritDoc}
+                     */
+                    public List<PhylogenyTreeNode> call() throws NoValidPhylogenyException
+                    {
+                        return PhylogenyScanner.this.inferBatchPhylogenies(
+                                batchSdps,
+                                batchStartIndex,
+                                sdpStrainNames,
+                                batchIntervals);
+                    }
+                }));
+            }
+            
+            while(!pendingBatches.isEmpty())
+            {
+                collectedIntervalCount = this.collectBatch(
+                        pendingBatches.removeFirst(),
+                        intervals,
+                        collectedIntervalCount,
+                        intervalToPhylogenyMap,
+                        checkpointer);
+            }
+            assert collectedIntervalCount == intervalCount;
+        }
+        finally
+        {
+            // if a batch failed there's no point in letting the others run
+            for(Future<List<PhylogenyTreeNode>> pendingBatch: pendingBatches)
+            {
+                pendingBatch.cancel(true);
+            }
+            
+            if(batchExecutor != executor)
+            {
+                batchExecutor.shutdownNow();
+            }
+        }
+    }
+    
+    /**
+     * Build the phylogenies for a batch of intervals
+     * @param batchSdps
+     *          the minority normalized SDPs covering every interval in the
+     *          batch
+     * @param batchStartIndex
+     *          the SDP index of the 1st SDP in batchSdps
+     * @param sdpStrainNames
+     *          the strain names
+     * @param batchIntervals
+     *          the intervals
+     * @return
+     *          the phylogenies in interval order
+     * @throws NoValidPhylogenyException
+     *          if there isn't a valid phylogeny
+     */
+    private List<PhylogenyTreeNode> inferBatchPhylogenies(
+            PackedSdp[] batchSdps,
+            int batchStartIndex,
+            String[] sdpStrainNames,
+            List<IndexedSnpInterval> batchIntervals)
+            throws NoValidPhylogenyException
+    {
+        // unpack our own bit sets since the hierarchies hold on to them
+        BitSet[] batchSdpBits = new BitSet[batchSdps.length];
+        for(int i = 0; i < batchSdps.length; i++)
+        {
+            batchSdpBits[i] = batchSdps[i].toBitSet();
+        }
         
         List<PhylogenyTreeNode> phylogenies =
-            new ArrayList<PhylogenyTreeNode>(intervalCount);
-        for(IndexedSnpInterval interval: intervals)
+            new ArrayList<PhylogenyTreeNode>(batchIntervals.size());
+        for(IndexedSnpInterval interval: batchIntervals)
         {
-            PhylogenyTreeNode currPhylogeny = intervalToPhylogenyMap.get(interval);
-            assert currPhylogeny != null;
-            phylogenies.add(currPhylogeny);
+            List<SdpInclusionHierarchy> inclusionHierarchies =
+                new ArrayList<SdpInclusionHierarchy>();
+            int endIndex = interval.getEndIndex() - batchStartIndex;
+            for(int i = interval.getStartIndex() - batchStartIndex; i <= endIndex; i++)
+            {
+                this.insertSdpInHierarchies(
+                        inclusionHierarchies,
+                        batchSdpBits[i],
+                        batchSdps[i]);
+            }
+            
+            BitSet allBits = new BitSet(sdpStrainNames.length);
+            allBits.set(0, sdpStrainNames.length);
+            SdpInclusionHierarchy inclusionHierarchy =
+                new SdpInclusionHierarchy(
+                        allBits,
+                        inclusionHierarchies);
+            
+            PhylogenyTreeNode phylogeny = this.inclusionHierarchyToPhylogeny(
+                    inclusionHierarchy,
+                    sdpStrainNames);
+            assert !phylogeny.getChildEdges().isEmpty();
+            phylogenies.add(phylogeny);
         }
         
-        assert phylogenies.size() == intervalCount;
         return phylogenies;
     }
     
+    /**
+     * Wait for a batch to finish and put its phylogenies in the map
+     * @param batchFuture
+     *          the batch
+     * @param intervals
+     *          all of the intervals
+     * @param collectedIntervalCount
+     *          the number of intervals collected from earlier batches
+     * @param intervalToPhylogenyMap
+     *          the map that we put the phylogenies in
+     * @param checkpointer
+     *          the checkpointer to notify as phylogenies complete (can be
+     *          null)
+     * @return
+     *          the number of intervals collected including this batch
+     * @throws IOException
+     *          if the checkpoint fails or we're interrupted
+     * @throws NoValidPhylogenyException
+     *          if the batch found an invalid phylogeny
+     */
+    private int collectBatch(
+            Future<List<PhylogenyTreeNode>> batchFuture,
+            List<IndexedSnpInterval> intervals,
+            int collectedIntervalCount,
+            Map<IndexedSnpInterval, PhylogenyTreeNode> intervalToPhylogenyMap,
+            PhylogenyCheckpointer checkpointer)
+            throws IOException, NoValidPhylogenyException
+    {
+        List<PhylogenyTreeNode> batchPhylogenies;
+        try
+        {
+            batchPhylogenies = batchFuture.get();
+        }
+        catch(ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if(cause instanceof NoValidPhylogenyException)
+            {
+                throw (NoValidPhylogenyException)cause;
+            }
+            else if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            else if(cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            else
+            {
+                throw new IllegalStateException(cause);
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while waiting for phylogenies");
+        }
+        
+        for(PhylogenyTreeNode phylogeny: batchPhylogenies)
+        {
+            intervalToPhylogenyMap.put(
+                    intervals.get(collectedIntervalCount),
+                    phylogeny);
+            collectedIntervalCount++;
+            
+            if(checkpointer != null)
+            {
+                checkpointer.phylogenyCompleted();
+            }
+        }
+        
+        return collectedIntervalCount;
+    }
+    
     /**
      * Convert an inclusion hierarchy into a phylogeny
      * @param inclusionHierarchy
@@ -220,8 +792,10 @@ public class PhylogenyScanner
             PhylogenyTreeNode childPhylogeny = this.inclusionHierarchyToPhylogeny(
                     childInclusionHierarchy,
                     sdpStrainNames);
+            // the SDP bits are copied since the same SDP instance can end
+            // up in the hierarchies of several overlapping intervals
             PhylogenyTreeEdge childEdge = new PhylogenyTreeEdge(
-                    childInclusionHierarchy.getSdpBits(),
+                    (BitSet)childInclusionHierarchy.getSdpBits().clone(),
                     childPhylogeny,
                     1.0);
             childEdges.add(childEdge);
@@ -253,19 +827,23 @@ public class PhylogenyScanner
      *          the hierarchy list to modify
      * @param sdpBits
      *          the sdp bits
+     * @param packedSdp
+     *          the same SDP packed for fast comparison
      * @throws NoValidPhylogenyException
      *          if the phylogeny isn't valid
      */
     private void insertSdpInHierarchies(
             List<SdpInclusionHierarchy> sdpHierarchyList,
-            BitSet sdpBits) throws NoValidPhylogenyException
+            BitSet sdpBits,
+            PackedSdp packedSdp) throws NoValidPhylogenyException
     {
         // nothing to do for empty sets
-        if(!SetUtilities.isEmptySet(sdpBits))
+        if(!packedSdp.isEmpty())
         {
             this.insertSdpInHierarchiesRecursive(
                     sdpHierarchyList,
-                    sdpBits);
+                    sdpBits,
+                    packedSdp);
         }
     }
 
@@ -275,38 +853,42 @@ public class PhylogenyScanner
      *          the hierarchy list to modify
      * @param sdpBits
      *          the sdp bits
+     * @param packedSdp
+     *          the same SDP packed for fast comparison
      * @throws NoValidPhylogenyException
      *          if the phylogeny isn't valid
      */
     private void insertSdpInHierarchiesRecursive(
             List<SdpInclusionHierarchy> sdpHierarchyList,
-            BitSet sdpBits) throws NoValidPhylogenyException
+            BitSet sdpBits,
+            PackedSdp packedSdp) throws NoValidPhylogenyException
     {
         int sdpHierarchyListSize = sdpHierarchyList.size();
         for(int i = 0; i < sdpHierarchyListSize; i++)
         {
             SdpInclusionHierarchy currHierarchy = sdpHierarchyList.get(i);
-            BitSet currSdpBits = currHierarchy.getSdpBits();
-            if(currSdpBits.intersects(sdpBits))
+            PackedSdp currPackedSdp = currHierarchy.getPackedSdp();
+            if(currPackedSdp.intersects(packedSdp))
             {
-                if(currSdpBits.equals(sdpBits))
+                if(currPackedSdp.equals(packedSdp))
                 {
                     // nothing to do. we've already accounted for the SDP
                     return;
                 }
-                else if(SetUtilities.isSubset(sdpBits, currSdpBits))
+                else if(packedSdp.isSubsetOf(currPackedSdp))
                 {
                     // we're the current hierarchy's child
                     this.insertSdpInHierarchiesRecursive(
                             currHierarchy.getChildren(),
-                            sdpBits);
+                            sdpBits,
+                            packedSdp);
                     return;
                 }
-                else if(SetUtilities.isSubset(currSdpBits, sdpBits))
+                else if(currPackedSdp.isSubsetOf(packedSdp))
                 {
                     // the current hierarchy is our child
                     SdpInclusionHierarchy newSdpInclusionHierarchy =
-                        new SdpInclusionHierarchy(sdpBits);
+                        new SdpInclusionHierarchy(sdpBits, packedSdp);
                     List<SdpInclusionHierarchy> newChildren =
                         newSdpInclusionHierarchy.getChildren();
                     newChildren.add(currHierarchy);
@@ -316,11 +898,11 @@ public class PhylogenyScanner
                     for(int j = sdpHierarchyListSize - 1; j > i; j--)
                     {
                         currHierarchy = sdpHierarchyList.get(j);
-                        currSdpBits = currHierarchy.getSdpBits();
+                        currPackedSdp = currHierarchy.getPackedSdp();
                         
-                        if(currSdpBits.intersects(sdpBits))
+                        if(currPackedSdp.intersects(packedSdp))
                         {
-                            if(!SetUtilities.isSubset(currSdpBits, sdpBits))
+                            if(!currPackedSdp.isSubsetOf(packedSdp))
                             {
                                 throw new NoValidPhylogenyException(
                                         "can't create a perfect phylogeny. SDPs are " +
@@ -349,7 +931,86 @@ public class PhylogenyScanner
         }
         
         SdpInclusionHierarchy newSdpInclusionHierarchy =
-            new SdpInclusionHierarchy(sdpBits);
+            new SdpInclusionHierarchy(sdpBits, packedSdp);
         sdpHierarchyList.add(newSdpInclusionHierarchy);
     }
+    
+    /**
+     * Writes completed phylogenies to a checkpoint in interval order
+     */
+    private static final class PhylogenyCheckpointer
+    {
+        private final ScanCheckpoint checkpoint;
+        
+        private final int checkpointPeriod;
+        
+        private final List<IndexedSnpInterval> intervals;
+        
+        private final Map<IndexedSnpInterval, PhylogenyTreeNode> intervalToPhylogenyMap;
+        
+        private int nextChunkIndex;
+        
+        private int completedPrefixCount = 0;
+        
+        private int checkpointedCount = 0;
+        
+        /**
+         * Constructor
+         * @param checkpoint
+         *          the checkpoint to write to
+         * @param checkpointPeriod
+         *          the minimum number of phylogenies per chunk
+         * @param nextChunkIndex
+         *          the index of the next chunk
+         * @param intervals
+         *          the intervals that haven't been checkpointed yet
+         * @param intervalToPhylogenyMap
+         *          the map that completed phylogenies are put in
+         */
+        public PhylogenyCheckpointer(
+                ScanCheckpoint checkpoint,
+                int checkpointPeriod,
+                int nextChunkIndex,
+                List<IndexedSnpInterval> intervals,
+                Map<IndexedSnpInterval, PhylogenyTreeNode> intervalToPhylogenyMap)
+        {
+            this.checkpoint = checkpoint;
+            this.checkpointPeriod = Math.max(1, checkpointPeriod);
+            this.nextChunkIndex = nextChunkIndex;
+            this.intervals = intervals;
+            this.intervalToPhylogenyMap = intervalToPhylogenyMap;
+        }
+        
+        /**
+         * Called after each phylogeny is put in the map
+         * @throws IOException
+         *          if the checkpoint fails
+         */
+        public void phylogenyCompleted() throws IOException
+        {
+            int intervalCount = this.intervals.size();
+            while(this.completedPrefixCount < intervalCount &&
+                  this.intervalToPhylogenyMap.containsKey(
+                          this.intervals.get(this.completedPrefixCount)))
+            {
+                this.completedPrefixCount++;
+            }
+            
+            if(this.completedPrefixCount - this.checkpointedCount >= this.checkpointPeriod)
+            {
+                ArrayList<PhylogenyTreeNode> chunk = new ArrayList<PhylogenyTreeNode>(
+                        this.completedPrefixCount - this.checkpointedCount);
+                for(int i = this.checkpointedCount; i < this.completedPrefixCount; i++)
+                {
+                    chunk.add(this.intervalToPhylogenyMap.get(this.intervals.get(i)));
+                }
+                
+                this.checkpoint.putValue(
+                        PHYLOGENY_CHUNK_CHECKPOINT_PREFIX + this.nextChunkIndex,
+                        chunk);
+                this.nextChunkIndex++;
+                this.checkpointedCount = this.completedPrefixCount;
+            }
+        }
+    }
 }
@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.inference;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A file backed checkpoint for a long running scan. A checkpoint is a set of
+ * named {@link Serializable} values. Each {@link #putValue(String, Serializable)}
+ * appends a single record to the checkpoint file and syncs it to disk, so a
+ * crash can at worst lose the record that was being written. Records left
+ * incomplete by a crash are discarded the next time the checkpoint is opened.
+ * <br/><br/>
+ * The file starts with a scan key that identifies the scan's inputs and
+ * parameters. A checkpoint file whose key doesn't match is ignored and
+ * overwritten.
+ * <br/><br/>
+ * A checkpoint opened with {@link #tryOpenLocked(File, String)} holds an
+ * exclusive lock on a lock file next to the checkpoint file so that two
+ * processes never resume from and append to the same checkpoint.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ScanCheckpoint
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            ScanCheckpoint.class.getName());
+    
+    private static final String LOCK_FILE_SUFFIX = ".lock";
+    
+    private final File checkpointFile;
+    
+    private final String scanKey;
+    
+    private final Map<String, Serializable> values =
+        new HashMap<String, Serializable>();
+    
+    private FileOutputStream fileOutputStream = null;
+    
+    private DataOutputStream dataOutputStream = null;
+    
+    private RandomAccessFile lockFile = null;
+    
+    /**
+     * Constructor. Any values from a previous run with the same scan key are
+     * loaded from the checkpoint file
+     * @param checkpointFile
+     *          the file to use
+     * @param scanKey
+     *          a key identifying the scan
+     * @throws IOException
+     *          if we fail to read the existing checkpoint
+     */
+    public ScanCheckpoint(File checkpointFile, String scanKey) throws IOException
+    {
+        this.checkpointFile = checkpointFile;
+        this.scanKey = scanKey;
+        this.load();
+    }
+    
+    /**
+     * Open the checkpoint while holding an exclusive lock on the lock file
+     * next to it. The lock is released when the checkpoint is closed or
+     * deleted. The lock file itself is left in place since deleting it would
+     * let a waiting process lock a file that nobody else can see.
+     * <br/><br/>
+     * File locks are held per process, so callers must make sure that only
+     * one thread at a time opens a given checkpoint. On some platforms a
+     * failed attempt from the same JVM releases the lock that is already held
+     * @param checkpointFile
+     *          the file to use
+     * @param scanKey
+     *          a key identifying the scan
+     * @return
+     *          the checkpoint or null if the lock is held by another
+     *          process
+     * @throws IOException
+     *          if we fail to lock or read the checkpoint
+     */
+    public static ScanCheckpoint tryOpenLocked(File checkpointFile, String scanKey)
+    throws IOException
+    {
+        RandomAccessFile lockFile = new RandomAccessFile(
+                new File(checkpointFile.getPath() + LOCK_FILE_SUFFIX),
+                "rw");
+        try
+        {
+            boolean locked;
+            try
+            {
+                locked = lockFile.getChannel().tryLock() != null;
+            }
+            catch(OverlappingFileLockException ex)
+            {
+                // the lock is already held within this JVM
+                locked = false;
+            }
+            
+            if(locked)
+            {
+                ScanCheckpoint checkpoint =
+                    new ScanCheckpoint(checkpointFile, scanKey);
+                checkpoint.lockFile = lockFile;
+                lockFile = null;
+                return checkpoint;
+            }
+            else
+            {
+                return null;
+            }
+        }
+        finally
+        {
+            // closing the file releases any lock we hold on it
+            if(lockFile != null)
+            {
+                lockFile.close();
+            }
+        }
+    }
+    
+    /**
+     * Getter for the checkpoint file
+     * @return the checkpoint file
+     */
+    public File getCheckpointFile()
+    {
+        return this.checkpointFile;
+    }
+    
+    /**
+     * Getter for the scan key
+     * @return the scan key
+     */
+    public String getScanKey()
+    {
+        return this.scanKey;
+    }
+    
+    /**
+     * Get a checkpointed value
+     * @param name
+     *          the value name
+     * @return
+     *          the value or null if there is no value for the name
+     */
+    public synchronized Serializable getValue(String name)
+    {
+        return this.values.get(name);
+    }
+    
+    /**
+     * Checkpoint the given value. The value is serialized immediately so
+     * later changes to it aren't checkpointed
+     * @param name
+     *          the value name
+     * @param value
+     *          the value
+     * @throws IOException
+     *          if the write fails
+     */
+    public synchronized void putValue(String name, Serializable value) throws IOException
+    {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteStream);
+        objectOutputStream.writeObject(value);
+        objectOutputStream.close();
+        byte[] valueBytes = byteStream.toByteArray();
+        
+        if(this.dataOutputStream == null)
+        {
+            boolean append = this.checkpointFile.length() > 0L;
+            this.fileOutputStream = new FileOutputStream(
+                    this.checkpointFile,
+                    append);
+            this.dataOutputStream = new DataOutputStream(this.fileOutputStream);
+            if(!append)
+            {
+                this.dataOutputStream.writeUTF(this.scanKey);
+            }
+        }
+        
+        this.dataOutputStream.writeUTF(name);
+        this.dataOutputStream.writeInt(valueBytes.length);
+        this.dataOutputStream.write(valueBytes);
+        this.dataOutputStream.flush();
+        this.fileOutputStream.getFD().sync();
+        
+        this.values.put(name, value);
+    }
+    
+    /**
+     * Close the checkpoint file and release its lock if it has one. Any
+     * further puts will reopen the file (without a lock)
+     * @throws IOException
+     *          if the close fails
+     */
+    public synchronized void close() throws IOException
+    {
+        try
+        {
+            this.closeOutputStream();
+        }
+        finally
+        {
+            this.releaseLock();
+        }
+    }
+    
+    /**
+     * Close and delete the checkpoint. This should be called once the
+     * scan's results have been safely stored elsewhere
+     * @throws IOException
+     *          if the close fails
+     */
+    public synchronized void delete() throws IOException
+    {
+        try
+        {
+            this.closeOutputStream();
+            this.values.clear();
+            if(this.checkpointFile.exists() && !this.checkpointFile.delete())
+            {
+                LOG.warning(
+                        "failed to delete checkpoint file: " +
+                        this.checkpointFile.getAbsolutePath());
+            }
+        }
+        finally
+        {
+            // hold the lock until the file is gone so that nobody resumes
+            // from a checkpoint that is being deleted
+            this.releaseLock();
+        }
+    }
+    
+    private void closeOutputStream() throws IOException
+    {
+        if(this.dataOutputStream != null)
+        {
+            this.dataOutputStream.close();
+            this.dataOutputStream = null;
+            this.fileOutputStream = null;
+        }
+    }
+    
+    private void releaseLock() throws IOException
+    {
+        if(this.lockFile != null)
+        {
+            RandomAccessFile lockFile = this.lockFile;
+            this.lockFile = null;
+            lockFile.close();
+        }
+    }
+    
+    /**
+     * Load the values from the checkpoint file. The file is truncated to
+     * the last complete record so that new records can be appended. A
+     * record that can't be read (for example because it is corrupt or its
+     * class has changed) is logged and it and every record after it are
+     * discarded
+     * @throws IOException
+     *          if the read fails
+     */
+    private void load() throws IOException
+    {
+        if(!this.checkpointFile.exists())
+        {
+            return;
+        }
+        
+        long fileLength = this.checkpointFile.length();
+        long validLength = 0L;
+        DataInputStream dataInputStream = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(this.checkpointFile)));
+        try
+        {
+            String fileScanKey = dataInputStream.readUTF();
+            if(!this.scanKey.equals(fileScanKey))
+            {
+                LOG.info(
+                        "ignoring checkpoint for a different scan: " +
+                        this.checkpointFile.getAbsolutePath());
+            }
+            else
+            {
+                validLength = 2L + utfLength(fileScanKey);
+                while(true)
+                {
+                    String name = dataInputStream.readUTF();
+                    int valueLength = dataInputStream.readInt();
+                    if(valueLength < 0 || valueLength > fileLength - validLength)
+                    {
+                        // the record was only partly written
+                        break;
+                    }
+                    byte[] valueBytes = new byte[valueLength];
+                    dataInputStream.readFully(valueBytes);
+                    
+                    this.values.put(name, readValue(valueBytes));
+                    validLength += 2L + utfLength(name) + 4L + valueLength;
+                }
+            }
+        }
+        catch(EOFException ex)
+        {
+            // this is how we normally reach the end of the records (possibly
+            // with an incomplete record left by a crash)
+        }
+        catch(IOException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "discarding corrupt checkpoint records from: " +
+                    this.checkpointFile.getAbsolutePath(),
+                    ex);
+        }
+        catch(ClassNotFoundException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "discarding unreadable checkpoint records from: " +
+                    this.checkpointFile.getAbsolutePath(),
+                    ex);
+        }
+        finally
+        {
+            dataInputStream.close();
+        }
+        
+        RandomAccessFile randomAccessFile =
+            new RandomAccessFile(this.checkpointFile, "rw");
+        try
+        {
+            randomAccessFile.setLength(validLength);
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+    
+    /**
+     * Deserialize a single checkpointed value
+     * @param valueBytes
+     *          the serialized value
+     * @return
+     *          the value
+     * @throws IOException
+     *          if the bytes are not a valid serialized value
+     * @throws ClassNotFoundException
+     *          if the value's class can't be found
+     */
+    private static Serializable readValue(byte[] valueBytes)
+    throws IOException, ClassNotFoundException
+    {
+        try
+        {
+            ObjectInputStream objectInputStream = new ObjectInputStream(
+                    new ByteArrayInputStream(valueBytes));
+            return (Serializable)objectInputStream.readObject();
+        }
+        catch(EOFException ex)
+        {
+            // the record's length was complete so running out of bytes
+            // here means the value itself is corrupt
+            throw new StreamCorruptedException(
+                    "truncated checkpoint value");
+        }
+    }
+    
+    /**
+     * Calculate the number of bytes that {@link DataOutputStream#writeUTF(String)}
+     * uses for the string (not including the 2 byte length)
+     * @param string
+     *          the string
+     * @return
+     *          the byte count
+     */
+    private static int utfLength(String string)
+    {
+        int byteCount = 0;
+        for(int i = 0; i < string.length(); i++)
+        {
+            char c = string.charAt(i);
+            if(c >= 0x0001 && c <= 0x007F)
+            {
+                byteCount++;
+            }
+            else if(c > 0x07FF)
+            {
+                byteCount += 3;
+            }
+            else
+            {
+                byteCount += 2;
+            }
+        }
+        
+        return byteCount;
+    }
+}
@@ -89,6 +89,8 @@ import org.jax.util.datastructure.SetUtilities;
     
     private final BitSet sdpBits;
     
+    private final PackedSdp packedSdp;
+    
     private final List<SdpInclusionHierarchy> children;
 
     /**
@@ -101,6 +103,19 @@ import org.jax.util.datastructure.SetUtilities;
         this(sdpBits, new ArrayList<SdpInclusionHierarchy>());
     }
     
+    /**
+     * Constructor
+     * @param sdpBits
+     *          {@link #getSdpBits()}
+     * @param packedSdp
+     *          {@link #getPackedSdp()}. this must hold the same bits as
+     *          the given SDP bits
+     */
+    public SdpInclusionHierarchy(BitSet sdpBits, PackedSdp packedSdp)
+    {
+        this(sdpBits, packedSdp, new ArrayList<SdpInclusionHierarchy>());
+    }
+    
     /**
      * Constructor
      * @param sdpBits
@@ -112,7 +127,27 @@ import org.jax.util.datastructure.SetUtilities;
             BitSet sdpBits,
             List<SdpInclusionHierarchy> children)
     {
+        this(sdpBits, PackedSdp.fromBitSet(sdpBits), children);
+    }
+    
+    /**
+     * Constructor
+     * @param sdpBits
+     *          see {@link #getSdpBits()}
+     * @param packedSdp
+     *          see {@link #getPackedSdp()}
+     * @param children
+     *          see {@link #getChildren()}
+     */
+    private SdpInclusionHierarchy(
+            BitSet sdpBits,
+            PackedSdp packedSdp,
+            List<SdpInclusionHierarchy> children)
+    {
+        assert packedSdp.equals(PackedSdp.fromBitSet(sdpBits));
+        
         this.sdpBits = sdpBits;
+        this.packedSdp = packedSdp;
         this.children = children;
     }
     
@@ -125,6 +160,16 @@ import org.jax.util.datastructure.SetUtilities;
         return this.sdpBits;
     }
     
+    /**
+     * Getter for the packed SDP which holds the same bits as
+     * {@link #getSdpBits()}
+     * @return the packed SDP
+     */
+    public PackedSdp getPackedSdp()
+    {
+        return this.packedSdp;
+    }
+    
     /**
      * Getter for the children
      * @return the children
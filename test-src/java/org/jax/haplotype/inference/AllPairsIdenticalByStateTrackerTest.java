@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.SnpIntervalList;
+import org.jax.geneticutil.data.SnpIntervalListGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class AllPairsIdenticalByStateTrackerTest
+{
+    private static final int CHROMOSOME_NUMBER = 7;
+    
+    /**
+     * Compare every pair from the single pass against a reference normalized
+     * scan with strain a as the reference and strain b as the comparison
+     */
+    @Test
+    public void matchesReferenceScanTest()
+    {
+        Random random = new Random(32L);
+        ScanningIdenticalByStateFinder finder = new ScanningIdenticalByStateFinder();
+        for(int strainCount: new int[] {2, 5, 17, 65})
+        {
+            for(int iteration = 0; iteration < 3; iteration++)
+            {
+                int sdpCount = 1 + random.nextInt(500);
+                String[] strainNames = ListSdpInputStream.createStrainNames(strainCount);
+                List<BitSet> sdps = ListSdpInputStream.createRandomSdps(
+                        random,
+                        strainCount,
+                        sdpCount,
+                        0.1);
+                long[] positions = ListSnpPositionInputStream.createRandomPositions(
+                        random,
+                        sdpCount,
+                        50);
+                long minimumExtentInSnps = 2L + random.nextInt(4);
+                long minimumExtentInBasePairs = 20L + random.nextInt(200);
+                
+                PairwiseIdenticalByStateRegions pairwiseRegions =
+                    finder.findAllPairsIdenticalByStateRegions(
+                            new ListSdpInputStream(strainNames, sdps),
+                            new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions),
+                            minimumExtentInSnps,
+                            minimumExtentInBasePairs);
+                
+                for(int referenceStrain = 0; referenceStrain < strainCount; referenceStrain++)
+                {
+                    SnpIntervalListGroup referenceGroup = finder.findIdenticalByStateRegions(
+                            new ListSdpInputStream(
+                                    strainNames,
+                                    normalize(sdps, referenceStrain, strainCount)),
+                            new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions),
+                            minimumExtentInSnps,
+                            minimumExtentInBasePairs);
+                    Map<String, List<BasePairInterval>> referenceBlocksMap =
+                        referenceGroup.getSnpBlocksMap();
+                    
+                    for(int comparisonStrain = 0; comparisonStrain < strainCount; comparisonStrain++)
+                    {
+                        if(comparisonStrain != referenceStrain)
+                        {
+                            SnpIntervalList pairList = pairwiseRegions.getSnpIntervalList(
+                                    strainNames[referenceStrain],
+                                    strainNames[comparisonStrain]);
+                            Assert.assertEquals(
+                                    referenceGroup.getStartInBasePairs(),
+                                    pairList.getStartInBasePairs());
+                            Assert.assertEquals(
+                                    referenceGroup.getExtentInBasePairs(),
+                                    pairList.getExtentInBasePairs());
+                            IdenticalByStateRunTrackerTest.assertSameIntervals(
+                                    referenceBlocksMap.get(strainNames[comparisonStrain]),
+                                    pairList.getSnpBlocks());
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Normalize the SDPs against a reference strain the same way that
+     * {@link org.jax.haplotype.io.ReferenceNormalizedSdpInputStream} does
+     */
+    private static List<BitSet> normalize(
+            List<BitSet> sdps,
+            int referenceStrain,
+            int strainCount)
+    {
+        List<BitSet> normalizedSdps = new ArrayList<BitSet>(sdps.size());
+        for(BitSet sdp: sdps)
+        {
+            BitSet normalizedSdp = (BitSet)sdp.clone();
+            if(!normalizedSdp.get(referenceStrain))
+            {
+                normalizedSdp.flip(0, strainCount);
+            }
+            normalizedSdps.add(normalizedSdp);
+        }
+        return normalizedSdps;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.SnpIntervalList;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class CompiledStrainComparisonTest
+{
+    private static final int CHROMOSOME_NUMBER = 7;
+    
+    private static final String[] EXPRESSIONS = new String[] {
+            "A=B",
+            "A≠B",
+            "A=A",
+            "A≠A",
+            "A=B and C≠D",
+            "A≠B and C=D and E=F",
+            "A=B or C≠D",
+            "A≠B or B≠C",
+            "A=B and C=D or E≠F",
+            "A≠B or C≠D and E=F",
+            "A=B and B=C and C=D and D=E and E=F"};
+    
+    /**
+     * Runs that start, end and cross the 64 and 128 SNP block boundaries
+     * and a final block of only 8 SNPs
+     */
+    @Test
+    public void blockBoundaryRunsTest() throws Exception
+    {
+        int snpCount = 200;
+        long[] positions = new long[snpCount];
+        List<BitSet> sdps = new ArrayList<BitSet>(snpCount);
+        for(int i = 0; i < snpCount; i++)
+        {
+            positions[i] = 1L + 10L * i;
+            
+            // strain A is always set so B decides whether A=B
+            BitSet sdp = new BitSet(2);
+            sdp.set(0);
+            sdp.set(1, i == 0 || (i >= 30 && i < 64) || (i >= 70 && i < 130) || i >= 190);
+            sdps.add(sdp);
+        }
+        
+        CompiledStrainComparison equalsComparison =
+            CompiledStrainComparison.compile("A=B");
+        SnpIntervalList equalIntervals = equalsComparison.evaluate(
+                new ListSdpInputStream(equalsComparison.getStrainNames(), sdps),
+                new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions),
+                1,
+                1L);
+        assertIntervals(
+                equalIntervals.getSnpBlocks(),
+                1L, 1L,
+                301L, 331L,
+                701L, 591L,
+                1901L, 91L);
+        Assert.assertEquals(1L, equalIntervals.getStartInBasePairs());
+        Assert.assertEquals(1991L, equalIntervals.getExtentInBasePairs());
+        
+        CompiledStrainComparison notEqualsComparison =
+            CompiledStrainComparison.compile("A≠B");
+        SnpIntervalList notEqualIntervals = notEqualsComparison.evaluate(
+                new ListSdpInputStream(notEqualsComparison.getStrainNames(), sdps),
+                new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions),
+                1,
+                1L);
+        assertIntervals(
+                notEqualIntervals.getSnpBlocks(),
+                11L, 281L,
+                641L, 51L,
+                1301L, 591L);
+        
+        // the minimum extents apply to the whole run even when it spans blocks
+        equalIntervals = equalsComparison.evaluate(
+                new ListSdpInputStream(equalsComparison.getStrainNames(), sdps),
+                new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions),
+                35,
+                1L);
+        assertIntervals(equalIntervals.getSnpBlocks(), 701L, 591L);
+        
+        equalIntervals = equalsComparison.evaluate(
+                new ListSdpInputStream(equalsComparison.getStrainNames(), sdps),
+                new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions),
+                1,
+                91L);
+        assertIntervals(
+                equalIntervals.getSnpBlocks(),
+                301L, 331L,
+                701L, 591L,
+                1901L, 91L);
+    }
+    
+    /**
+     * Compare "=" and "&#x2260;" terms under AND and OR against evaluating
+     * the expression one SNP at a time, for SNP counts around the block size
+     */
+    @Test
+    public void matchesPerSnpEvaluationTest() throws Exception
+    {
+        Random random = new Random(40L);
+        int[] snpCounts = new int[] {1, 63, 64, 65, 127, 128, 129, 200, 1000};
+        for(String expression: EXPRESSIONS)
+        {
+            CompiledStrainComparison comparison = CompiledStrainComparison.compile(expression);
+            String[] strainNames = comparison.getStrainNames();
+            for(int snpCount: snpCounts)
+            {
+                List<BitSet> sdps = ListSdpInputStream.createRandomSdps(
+                        random,
+                        strainNames.length,
+                        snpCount,
+                        0.15);
+                long[] positions = ListSnpPositionInputStream.createRandomPositions(
+                        random,
+                        snpCount,
+                        20);
+                int minimumExtentInSnps = 1 + random.nextInt(3);
+                long minimumExtentInBasePairs = 1L + random.nextInt(40);
+                
+                SnpIntervalList intervals = comparison.evaluate(
+                        new ListSdpInputStream(strainNames, sdps),
+                        new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions),
+                        minimumExtentInSnps,
+                        minimumExtentInBasePairs);
+                List<BasePairInterval> expectedIntervals =
+                    IdenticalByStateRunTrackerTest.scanPerStrain(
+                            evaluatePerSnp(comparison, sdps),
+                            positions,
+                            1,
+                            minimumExtentInSnps,
+                            minimumExtentInBasePairs)[0];
+                IdenticalByStateRunTrackerTest.assertSameIntervals(
+                        expectedIntervals,
+                        intervals.getSnpBlocks());
+            }
+        }
+    }
+    
+    @Test
+    public void emptyStreamTest() throws Exception
+    {
+        for(String expression: EXPRESSIONS)
+        {
+            CompiledStrainComparison comparison = CompiledStrainComparison.compile(expression);
+            SnpIntervalList intervals = comparison.evaluate(
+                    new ListSdpInputStream(
+                            comparison.getStrainNames(),
+                            new ArrayList<BitSet>()),
+                    new ListSnpPositionInputStream(CHROMOSOME_NUMBER),
+                    1,
+                    1L);
+            Assert.assertTrue(intervals.getSnpBlocks().isEmpty());
+        }
+    }
+    
+    /**
+     * With a SNP at every base pair and both minimum extents set to 1 the
+     * compiled circuit should cover exactly the base pairs that combining
+     * the IBS intervals of each comparison covers
+     */
+    @Test
+    public void matchesCombinedIbsIntervalsTest() throws Exception
+    {
+        Random random = new Random(400L);
+        ScanningIdenticalByStateFinder finder = new ScanningIdenticalByStateFinder();
+        for(String expression: EXPRESSIONS)
+        {
+            CompiledStrainComparison comparison = CompiledStrainComparison.compile(expression);
+            String[] strainNames = comparison.getStrainNames();
+            if(strainNames.length < 2)
+            {
+                // the pairwise regions need at least one distinct pair
+                continue;
+            }
+            
+            for(int snpCount: new int[] {5, 64, 150, 700})
+            {
+                List<BitSet> sdps = ListSdpInputStream.createRandomSdps(
+                        random,
+                        strainNames.length,
+                        snpCount,
+                        0.15);
+                long[] positions = new long[snpCount];
+                for(int i = 0; i < snpCount; i++)
+                {
+                    positions[i] = 1000L + i;
+                }
+                
+                PairwiseIdenticalByStateRegions pairwiseRegions =
+                    finder.findAllPairsIdenticalByStateRegions(
+                            new ListSdpInputStream(strainNames, sdps),
+                            new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions),
+                            1L,
+                            1L);
+                SnpIntervalList combinedIntervals =
+                    CachingIdenticalByStateDataManager.combineComparisonRegions(
+                            comparison,
+                            pairwiseRegions,
+                            new HashMap<String, SnpIntervalList>(),
+                            CHROMOSOME_NUMBER);
+                SnpIntervalList compiledIntervals = comparison.evaluate(
+                        new ListSdpInputStream(strainNames, sdps),
+                        new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions),
+                        1,
+                        1L);
+                
+                Assert.assertEquals(
+                        toCoveredBasePairs(combinedIntervals.getSnpBlocks()),
+                        toCoveredBasePairs(compiledIntervals.getSnpBlocks()));
+            }
+        }
+    }
+    
+    /**
+     * Evaluate the expression one SNP at a time
+     * @return
+     *          single strain SDPs where the bit is set if the expression holds
+     */
+    private static List<BitSet> evaluatePerSnp(
+            CompiledStrainComparison comparison,
+            List<BitSet> sdps)
+    {
+        List<String> strainNames = Arrays.asList(comparison.getStrainNames());
+        List<BitSet> results = new ArrayList<BitSet>(sdps.size());
+        for(BitSet sdp: sdps)
+        {
+            boolean holds = false;
+            for(int orIndex = 0; orIndex < comparison.getOrGroupCount(); orIndex++)
+            {
+                boolean allHold = true;
+                for(int andIndex = 0; andIndex < comparison.getComparisonCount(orIndex); andIndex++)
+                {
+                    boolean allele1 = sdp.get(strainNames.indexOf(
+                            comparison.getComparisonStrainName1(orIndex, andIndex)));
+                    boolean allele2 = sdp.get(strainNames.indexOf(
+                            comparison.getComparisonStrainName2(orIndex, andIndex)));
+                    if((allele1 == allele2) == comparison.isNotEqualsComparison(orIndex, andIndex))
+                    {
+                        allHold = false;
+                    }
+                }
+                holds |= allHold;
+            }
+            
+            BitSet result = new BitSet(1);
+            result.set(0, holds);
+            results.add(result);
+        }
+        return results;
+    }
+    
+    private static BitSet toCoveredBasePairs(List<BasePairInterval> intervals)
+    {
+        BitSet coveredBasePairs = new BitSet();
+        for(BasePairInterval interval: intervals)
+        {
+            Assert.assertEquals(CHROMOSOME_NUMBER, interval.getChromosomeNumber());
+            int start = (int)interval.getStartInBasePairs();
+            coveredBasePairs.set(start, start + (int)interval.getExtentInBasePairs());
+        }
+        return coveredBasePairs;
+    }
+    
+    private static void assertIntervals(
+            List<BasePairInterval> intervals,
+            long... startsAndExtents)
+    {
+        Assert.assertEquals(startsAndExtents.length / 2, intervals.size());
+        for(int i = 0; i < intervals.size(); i++)
+        {
+            BasePairInterval interval = intervals.get(i);
+            Assert.assertEquals(CHROMOSOME_NUMBER, interval.getChromosomeNumber());
+            Assert.assertEquals(startsAndExtents[2 * i], interval.getStartInBasePairs());
+            Assert.assertEquals(startsAndExtents[2 * i + 1], interval.getExtentInBasePairs());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.PartitionedInterval;
+import org.jax.geneticutil.data.PartitionedIntervalSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class HaplotypeEquivalenceClassBuilderTest
+{
+    /**
+     * Blocks with the same strains end up in the same class no matter which
+     * chromosome they are on and classes come back in order of first
+     * appearance
+     */
+    @Test
+    public void firstAppearanceOrderTest()
+    {
+        BitSet strainsA = createStrains(0, 2);
+        BitSet strainsB = createStrains(1, 70);
+        BitSet strainsC = createStrains(2);
+        
+        HaplotypeEquivalenceClassBuilder builder = new HaplotypeEquivalenceClassBuilder();
+        builder.addBlock(1, 100L, 10L, strainsB);
+        builder.addBlock(1, 200L, 10L, strainsA);
+        builder.addBlock(1, 300L, 10L, strainsA);
+        builder.addBlock(2, 100L, 5L, strainsC);
+        builder.addBlock(2, 200L, 5L, strainsB);
+        Assert.assertEquals(3, builder.getEquivalenceClassCount());
+        
+        List<HaplotypeEquivalenceClass> classes = builder.createEquivalenceClasses();
+        Assert.assertEquals(3, classes.size());
+        
+        HaplotypeEquivalenceClass classB = classes.get(0);
+        Assert.assertEquals(strainsB, classB.getStrainBitSet());
+        Assert.assertEquals(2, classB.getIntervalCount());
+        Assert.assertEquals(1, classB.getChromosomeNumber(0));
+        Assert.assertEquals(100L, classB.getStartInBasePairs(0));
+        Assert.assertEquals(10L, classB.getExtentInBasePairs(0));
+        Assert.assertEquals(2, classB.getChromosomeNumber(1));
+        Assert.assertEquals(200L, classB.getStartInBasePairs(1));
+        Assert.assertEquals(5L, classB.getExtentInBasePairs(1));
+        
+        HaplotypeEquivalenceClass classA = classes.get(1);
+        Assert.assertEquals(strainsA, classA.getStrainBitSet());
+        Assert.assertEquals(2, classA.getIntervalCount());
+        Assert.assertEquals(200L, classA.getStartInBasePairs(0));
+        Assert.assertEquals(300L, classA.getStartInBasePairs(1));
+        
+        HaplotypeEquivalenceClass classC = classes.get(2);
+        Assert.assertEquals(strainsC, classC.getStrainBitSet());
+        Assert.assertEquals(1, classC.getIntervalCount());
+    }
+    
+    /**
+     * Compare the builder against the map of strain bit sets that the class
+     * creator used before it delegated to the builder
+     */
+    @Test
+    public void matchesBitSetMapTest()
+    {
+        Random random = new Random(29L);
+        for(int strainCount: new int[] {3, 64, 65, 150})
+        {
+            // a small set of strain patterns so that classes repeat
+            List<BitSet> patterns = new ArrayList<BitSet>();
+            for(int i = 0; i < 200; i++)
+            {
+                BitSet pattern = new BitSet(strainCount);
+                for(int strain = 0; strain < strainCount; strain++)
+                {
+                    if(random.nextInt(4) == 0)
+                    {
+                        pattern.set(strain);
+                    }
+                }
+                patterns.add(pattern);
+            }
+            
+            List<PartitionedInterval> blocks = new ArrayList<PartitionedInterval>();
+            for(int chromosome = 1; chromosome <= 3; chromosome++)
+            {
+                long start = 1L;
+                for(int i = 0; i < 2000; i++)
+                {
+                    // repeat the last pattern now and then like real blocks
+                    BitSet pattern = i > 0 && random.nextBoolean() ?
+                            blocks.get(blocks.size() - 1).getStrainBitSet() :
+                            patterns.get(random.nextInt(patterns.size()));
+                    long extent = 1L + random.nextInt(1000);
+                    blocks.add(new PartitionedInterval(
+                            chromosome,
+                            start,
+                            extent,
+                            (BitSet)pattern.clone()));
+                    start += extent;
+                }
+            }
+            
+            Map<BitSet, List<PartitionedInterval>> expectedClasses =
+                new HashMap<BitSet, List<PartitionedInterval>>();
+            for(PartitionedInterval block: blocks)
+            {
+                List<PartitionedInterval> classBlocks =
+                    expectedClasses.get(block.getStrainBitSet());
+                if(classBlocks == null)
+                {
+                    classBlocks = new ArrayList<PartitionedInterval>();
+                    expectedClasses.put(block.getStrainBitSet(), classBlocks);
+                }
+                classBlocks.add(block);
+            }
+            
+            List<PartitionedIntervalSet> classes =
+                HaplotypeEquivalenceClassCreator.createEquivalenceClassesFromBlocks(blocks);
+            Assert.assertEquals(expectedClasses.size(), classes.size());
+            
+            Set<BitSet> seenStrains = new HashSet<BitSet>();
+            for(PartitionedIntervalSet equivClass: classes)
+            {
+                BitSet strains = equivClass.getStrainBitSet();
+                Assert.assertTrue(seenStrains.add(strains));
+                
+                List<PartitionedInterval> expectedBlocks = expectedClasses.get(strains);
+                Assert.assertNotNull(expectedBlocks);
+                BasePairInterval[] intervals = equivClass.getSnpIntervals();
+                Assert.assertEquals(expectedBlocks.size(), intervals.length);
+                for(int i = 0; i < intervals.length; i++)
+                {
+                    PartitionedInterval expectedBlock = expectedBlocks.get(i);
+                    Assert.assertEquals(
+                            expectedBlock.getChromosomeNumber(),
+                            intervals[i].getChromosomeNumber());
+                    Assert.assertEquals(
+                            expectedBlock.getStartInBasePairs(),
+                            intervals[i].getStartInBasePairs());
+                    Assert.assertEquals(
+                            expectedBlock.getExtentInBasePairs(),
+                            intervals[i].getExtentInBasePairs());
+                }
+            }
+        }
+    }
+    
+    private static BitSet createStrains(int... strains)
+    {
+        BitSet strainBitSet = new BitSet();
+        for(int strain: strains)
+        {
+            strainBitSet.set(strain);
+        }
+        return strainBitSet;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.SimpleBasePairInterval;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class IdenticalByStateRunTrackerTest
+{
+    private static final int CHROMOSOME_NUMBER = 7;
+    
+    /**
+     * the match state of each strain (one SDP per string)
+     */
+    private static final String[] HAND_BUILT_SDPS = new String[] {
+            "110",
+            "111",
+            "011",
+            "110",
+            "110"};
+    
+    private static final long[] HAND_BUILT_POSITIONS = new long[] {
+            10L, 20L, 30L, 40L, 50L};
+    
+    @Test
+    public void handBuiltRunsTest()
+    {
+        List<BasePairInterval>[] runs = trackRuns(1L, 1L);
+        Assert.assertEquals(3, runs.length);
+        assertIntervals(runs[0], 10L, 11L, 40L, 11L);
+        assertIntervals(runs[1], 10L, 41L);
+        assertIntervals(runs[2], 20L, 11L);
+        
+        // runs are dropped unless they meet both minimums
+        runs = trackRuns(3L, 1L);
+        assertIntervals(runs[0]);
+        assertIntervals(runs[1], 10L, 41L);
+        assertIntervals(runs[2]);
+        
+        runs = trackRuns(1L, 12L);
+        assertIntervals(runs[0]);
+        assertIntervals(runs[1], 10L, 41L);
+        assertIntervals(runs[2]);
+        
+        runs = trackRuns(2L, 11L);
+        assertIntervals(runs[0], 10L, 11L, 40L, 11L);
+        assertIntervals(runs[1], 10L, 41L);
+        assertIntervals(runs[2], 20L, 11L);
+    }
+    
+    /**
+     * Compare the tracker against the strain by strain scan that it replaced
+     */
+    @Test
+    public void matchesPerStrainScanTest()
+    {
+        Random random = new Random(31L);
+        for(int strainCount: new int[] {1, 10, 63, 64, 65, 200})
+        {
+            for(int iteration = 0; iteration < 5; iteration++)
+            {
+                int sdpCount = random.nextInt(1000);
+                List<BitSet> sdps = ListSdpInputStream.createRandomSdps(
+                        random,
+                        strainCount,
+                        sdpCount,
+                        0.1);
+                long[] positions = ListSnpPositionInputStream.createRandomPositions(
+                        random,
+                        sdpCount,
+                        50);
+                long minimumExtentInSnps = 1L + random.nextInt(5);
+                long minimumExtentInBasePairs = 1L + random.nextInt(200);
+                
+                IdenticalByStateRunTracker runTracker = new IdenticalByStateRunTracker(
+                        strainCount,
+                        CHROMOSOME_NUMBER,
+                        minimumExtentInSnps,
+                        minimumExtentInBasePairs);
+                for(int i = 0; i < sdpCount; i++)
+                {
+                    runTracker.addSdp(sdps.get(i), positions[i]);
+                }
+                List<BasePairInterval>[] runs = runTracker.finish();
+                
+                List<BasePairInterval>[] expectedRuns = scanPerStrain(
+                        sdps,
+                        positions,
+                        strainCount,
+                        minimumExtentInSnps,
+                        minimumExtentInBasePairs);
+                Assert.assertEquals(expectedRuns.length, runs.length);
+                for(int i = 0; i < runs.length; i++)
+                {
+                    assertSameIntervals(expectedRuns[i], runs[i]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The strain by strain scan used before the tracker
+     */
+    /*package protected*/ static List<BasePairInterval>[] scanPerStrain(
+            List<BitSet> sdps,
+            long[] positions,
+            int strainCount,
+            long minimumExtentInSnps,
+            long minimumExtentInBasePairs)
+    {
+        List<BasePairInterval>[] runs = new List[strainCount];
+        for(int strain = 0; strain < strainCount; strain++)
+        {
+            runs[strain] = new ArrayList<BasePairInterval>();
+            int runStart = -1;
+            for(int i = 0; i <= sdps.size(); i++)
+            {
+                boolean matches = i < sdps.size() && sdps.get(i).get(strain);
+                if(matches && runStart == -1)
+                {
+                    runStart = i;
+                }
+                else if(!matches && runStart != -1)
+                {
+                    long extentInSnps = i - runStart;
+                    long extentInBasePairs = 1L + positions[i - 1] - positions[runStart];
+                    if(extentInSnps >= minimumExtentInSnps &&
+                       extentInBasePairs >= minimumExtentInBasePairs)
+                    {
+                        runs[strain].add(new SimpleBasePairInterval(
+                                CHROMOSOME_NUMBER,
+                                positions[runStart],
+                                extentInBasePairs));
+                    }
+                    runStart = -1;
+                }
+            }
+        }
+        
+        return runs;
+    }
+    
+    /*package protected*/ static void assertSameIntervals(
+            List<BasePairInterval> expected,
+            List<BasePairInterval> actual)
+    {
+        Assert.assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++)
+        {
+            Assert.assertEquals(
+                    expected.get(i).getChromosomeNumber(),
+                    actual.get(i).getChromosomeNumber());
+            Assert.assertEquals(
+                    expected.get(i).getStartInBasePairs(),
+                    actual.get(i).getStartInBasePairs());
+            Assert.assertEquals(
+                    expected.get(i).getExtentInBasePairs(),
+                    actual.get(i).getExtentInBasePairs());
+        }
+    }
+    
+    private static List<BasePairInterval>[] trackRuns(
+            long minimumExtentInSnps,
+            long minimumExtentInBasePairs)
+    {
+        List<BitSet> sdps = ListSdpInputStream.parseSdps(HAND_BUILT_SDPS);
+        IdenticalByStateRunTracker runTracker = new IdenticalByStateRunTracker(
+                3,
+                CHROMOSOME_NUMBER,
+                minimumExtentInSnps,
+                minimumExtentInBasePairs);
+        for(int i = 0; i < sdps.size(); i++)
+        {
+            runTracker.addSdp(sdps.get(i), HAND_BUILT_POSITIONS[i]);
+        }
+        return runTracker.finish();
+    }
+    
+    private static void assertIntervals(
+            List<BasePairInterval> intervals,
+            long... startsAndExtents)
+    {
+        Assert.assertEquals(startsAndExtents.length / 2, intervals.size());
+        for(int i = 0; i < intervals.size(); i++)
+        {
+            BasePairInterval interval = intervals.get(i);
+            Assert.assertEquals(CHROMOSOME_NUMBER, interval.getChromosomeNumber());
+            Assert.assertEquals(startsAndExtents[2 * i], interval.getStartInBasePairs());
+            Assert.assertEquals(startsAndExtents[2 * i + 1], interval.getExtentInBasePairs());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class IdenticalByStateSummaryAggregatorTest
+{
+    /**
+     * Strains 0 and 1 share 10-30 (21bp) and 50 (1bp), strains 1 and 2 share
+     * 30-40 (11bp) and strains 0 and 2 share 30 (1bp)
+     */
+    private static final String[] HAND_BUILT_SDPS = new String[] {
+            "001",
+            "001",
+            "000",
+            "100",
+            "110"};
+    
+    private static final long[] HAND_BUILT_POSITIONS = new long[] {
+            10L, 20L, 30L, 40L, 50L};
+    
+    @Test
+    public void handBuiltSummaryTest() throws IOException
+    {
+        IdenticalByStateSummaryAggregator aggregator =
+            new IdenticalByStateSummaryAggregator(1L, 1L);
+        IdenticalByStateSummary summary = aggregator.summarizeChromosome(
+                new ListSdpInputStream(
+                        ListSdpInputStream.createStrainNames(3),
+                        ListSdpInputStream.parseSdps(HAND_BUILT_SDPS)),
+                new ListSnpPositionInputStream(1, HAND_BUILT_POSITIONS));
+        
+        assertPairTotals(summary, 0, 1, 22L, 2, 21L);
+        assertPairTotals(summary, 1, 2, 11L, 1, 11L);
+        assertPairTotals(summary, 0, 2, 1L, 1, 1L);
+        for(int i = 0; i < 3; i++)
+        {
+            assertPairTotals(summary, i, i, 0L, 0, 0L);
+        }
+        
+        // the single SNP segments are dropped
+        aggregator = new IdenticalByStateSummaryAggregator(2L, 1L);
+        summary = aggregator.summarizeChromosome(
+                new ListSdpInputStream(
+                        ListSdpInputStream.createStrainNames(3),
+                        ListSdpInputStream.parseSdps(HAND_BUILT_SDPS)),
+                new ListSnpPositionInputStream(1, HAND_BUILT_POSITIONS));
+        assertPairTotals(summary, 0, 1, 21L, 1, 21L);
+        assertPairTotals(summary, 1, 2, 11L, 1, 11L);
+        assertPairTotals(summary, 0, 2, 0L, 0, 0L);
+    }
+    
+    /**
+     * Compare the summary against totals taken from the pairwise segment
+     * lists that a summary would otherwise have been built from
+     */
+    @Test
+    public void matchesPairwiseSegmentsTest() throws IOException
+    {
+        Random random = new Random(33L);
+        for(int strainCount: new int[] {2, 9, 65})
+        {
+            String[] strainNames = ListSdpInputStream.createStrainNames(strainCount);
+            long minimumExtentInSnps = 1L + random.nextInt(4);
+            long minimumExtentInBasePairs = 1L + random.nextInt(150);
+            IdenticalByStateSummaryAggregator aggregator =
+                new IdenticalByStateSummaryAggregator(
+                        minimumExtentInSnps,
+                        minimumExtentInBasePairs);
+            ScanningIdenticalByStateFinder finder = new ScanningIdenticalByStateFinder();
+            
+            IdenticalByStateSummary genomeSummary =
+                new IdenticalByStateSummary(strainNames);
+            long[][] expectedSharedBasePairs = new long[strainCount][strainCount];
+            int[][] expectedSegmentCounts = new int[strainCount][strainCount];
+            long[][] expectedLongestSegments = new long[strainCount][strainCount];
+            for(int chromosome = 1; chromosome <= 3; chromosome++)
+            {
+                int sdpCount = 1 + random.nextInt(800);
+                List<BitSet> sdps = ListSdpInputStream.createRandomSdps(
+                        random,
+                        strainCount,
+                        sdpCount,
+                        0.1);
+                long[] positions = ListSnpPositionInputStream.createRandomPositions(
+                        random,
+                        sdpCount,
+                        50);
+                
+                IdenticalByStateSummary chromosomeSummary = aggregator.summarizeChromosome(
+                        new ListSdpInputStream(strainNames, sdps),
+                        new ListSnpPositionInputStream(chromosome, positions));
+                PairwiseIdenticalByStateRegions pairwiseRegions =
+                    finder.findAllPairsIdenticalByStateRegions(
+                            new ListSdpInputStream(strainNames, sdps),
+                            new ListSnpPositionInputStream(chromosome, positions),
+                            minimumExtentInSnps,
+                            minimumExtentInBasePairs);
+                
+                for(int i = 0; i < strainCount; i++)
+                {
+                    assertPairTotals(chromosomeSummary, i, i, 0L, 0, 0L);
+                    for(int j = i + 1; j < strainCount; j++)
+                    {
+                        List<BasePairInterval> segments = pairwiseRegions.getSnpIntervalList(
+                                strainNames[i],
+                                strainNames[j]).getSnpBlocks();
+                        long sharedBasePairs = 0L;
+                        long longestSegment = 0L;
+                        for(BasePairInterval segment: segments)
+                        {
+                            sharedBasePairs += segment.getExtentInBasePairs();
+                            longestSegment = Math.max(
+                                    longestSegment,
+                                    segment.getExtentInBasePairs());
+                        }
+                        
+                        assertPairTotals(
+                                chromosomeSummary,
+                                i,
+                                j,
+                                sharedBasePairs,
+                                segments.size(),
+                                longestSegment);
+                        
+                        expectedSharedBasePairs[i][j] += sharedBasePairs;
+                        expectedSegmentCounts[i][j] += segments.size();
+                        expectedLongestSegments[i][j] = Math.max(
+                                expectedLongestSegments[i][j],
+                                longestSegment);
+                    }
+                }
+                
+                genomeSummary.addSummary(chromosomeSummary);
+            }
+            
+            for(int i = 0; i < strainCount; i++)
+            {
+                for(int j = i + 1; j < strainCount; j++)
+                {
+                    assertPairTotals(
+                            genomeSummary,
+                            i,
+                            j,
+                            expectedSharedBasePairs[i][j],
+                            expectedSegmentCounts[i][j],
+                            expectedLongestSegments[i][j]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Check a pair's totals in both halves of the symmetric matrices
+     */
+    private static void assertPairTotals(
+            IdenticalByStateSummary summary,
+            int strainIndex1,
+            int strainIndex2,
+            long expectedSharedBasePairs,
+            int expectedSegmentCount,
+            long expectedLongestSegment)
+    {
+        for(int k = 0; k < 2; k++)
+        {
+            int row = k == 0 ? strainIndex1 : strainIndex2;
+            int column = k == 0 ? strainIndex2 : strainIndex1;
+            Assert.assertEquals(
+                    expectedSharedBasePairs,
+                    summary.getSharedBasePairs(row, column));
+            Assert.assertEquals(
+                    expectedSegmentCount,
+                    summary.getSegmentCount(row, column));
+            Assert.assertEquals(
+                    expectedLongestSegment,
+                    summary.getLongestSegmentInBasePairs(row, column));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.jax.haplotype.io.SdpInputStream;
+import org.jax.haplotype.io.StreamDirection;
+
+/**
+ * An in-memory SDP stream used by the inference tests
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ class ListSdpInputStream implements SdpInputStream
+{
+    private final String[] strainNames;
+    
+    private final List<BitSet> sdps;
+    
+    private int nextIndex = 0;
+    
+    /**
+     * Constructor
+     * @param strainNames
+     *          the strain names
+     * @param sdps
+     *          the SDPs in read order
+     */
+    public ListSdpInputStream(String[] strainNames, List<BitSet> sdps)
+    {
+        this.strainNames = strainNames;
+        this.sdps = sdps;
+    }
+    
+    /**
+     * Create strain names "strain0", "strain1" ...
+     * @param strainCount
+     *          the number of strains
+     * @return
+     *          the names
+     */
+    public static String[] createStrainNames(int strainCount)
+    {
+        String[] strainNames = new String[strainCount];
+        for(int i = 0; i < strainCount; i++)
+        {
+            strainNames[i] = "strain" + i;
+        }
+        return strainNames;
+    }
+    
+    /**
+     * Parse SDPs from strings of '0' and '1' characters where character
+     * <code>i</code> is the bit for strain <code>i</code>
+     * @param sdpStrings
+     *          the SDP strings
+     * @return
+     *          the SDPs
+     */
+    public static List<BitSet> parseSdps(String... sdpStrings)
+    {
+        List<BitSet> sdps = new ArrayList<BitSet>(sdpStrings.length);
+        for(String sdpString: sdpStrings)
+        {
+            BitSet sdp = new BitSet(sdpString.length());
+            for(int i = 0; i < sdpString.length(); i++)
+            {
+                if(sdpString.charAt(i) == '1')
+                {
+                    sdp.set(i);
+                }
+            }
+            sdps.add(sdp);
+        }
+        return sdps;
+    }
+    
+    /**
+     * Create random SDPs. Each SDP is copied from the previous one with a
+     * few strains flipped so that runs of identical alleles are common
+     * @param random
+     *          the random source
+     * @param strainCount
+     *          the number of strains
+     * @param sdpCount
+     *          the number of SDPs
+     * @param flipProbability
+     *          the probability that a strain's bit flips from one SDP
+     *          to the next
+     * @return
+     *          the SDPs
+     */
+    public static List<BitSet> createRandomSdps(
+            Random random,
+            int strainCount,
+            int sdpCount,
+            double flipProbability)
+    {
+        List<BitSet> sdps = new ArrayList<BitSet>(sdpCount);
+        BitSet sdp = new BitSet(strainCount);
+        for(int i = 0; i < strainCount; i++)
+        {
+            sdp.set(i, random.nextBoolean());
+        }
+        for(int i = 0; i < sdpCount; i++)
+        {
+            sdp = (BitSet)sdp.clone();
+            for(int j = 0; j < strainCount; j++)
+            {
+                if(random.nextDouble() < flipProbability)
+                {
+                    sdp.flip(j);
+                }
+            }
+            sdps.add(sdp);
+        }
+        return sdps;
+    }
+    
+    public long getSdpCount()
+    {
+        return this.sdps.size();
+    }
+    
+    public BitSet getNextSdp()
+    {
+        BitSet sdp = (BitSet)this.sdps.get(this.nextIndex).clone();
+        this.nextIndex++;
+        return sdp;
+    }
+    
+    public boolean hasNextSdp()
+    {
+        return this.nextIndex < this.sdps.size();
+    }
+    
+    public String[] getSdpStrainNames()
+    {
+        return this.strainNames;
+    }
+    
+    public StreamDirection getReadDirection()
+    {
+        return StreamDirection.FORWARD;
+    }
+}
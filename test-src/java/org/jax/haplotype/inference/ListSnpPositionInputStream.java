@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.Random;
+
+import org.jax.haplotype.io.SnpPositionInputStream;
+import org.jax.haplotype.io.StreamDirection;
+
+/**
+ * An in-memory SNP position stream used by the inference tests
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ class ListSnpPositionInputStream implements SnpPositionInputStream
+{
+    private final int chromosomeNumber;
+    
+    private final long[] positions;
+    
+    private int nextIndex = 0;
+    
+    /**
+     * Constructor
+     * @param chromosomeNumber
+     *          the chromosome number
+     * @param positions
+     *          the SNP positions in increasing order
+     */
+    public ListSnpPositionInputStream(int chromosomeNumber, long... positions)
+    {
+        this.chromosomeNumber = chromosomeNumber;
+        this.positions = positions;
+    }
+    
+    /**
+     * Create increasing positions with random gaps of 1 to
+     * <code>maxGap</code> base pairs
+     * @param random
+     *          the random source
+     * @param snpCount
+     *          the number of positions
+     * @param maxGap
+     *          the largest gap between neighboring positions
+     * @return
+     *          the positions
+     */
+    public static long[] createRandomPositions(
+            Random random,
+            int snpCount,
+            int maxGap)
+    {
+        long[] positions = new long[snpCount];
+        long position = 1L + random.nextInt(maxGap);
+        for(int i = 0; i < snpCount; i++)
+        {
+            positions[i] = position;
+            position += 1 + random.nextInt(maxGap);
+        }
+        return positions;
+    }
+    
+    public int getChromosomeNumber()
+    {
+        return this.chromosomeNumber;
+    }
+    
+    public long getStartInBasePairs()
+    {
+        return this.positions.length == 0 ? 0L : this.positions[0];
+    }
+    
+    public long getExtentInBasePairs()
+    {
+        return this.positions.length == 0 ?
+                0L :
+                1L + this.positions[this.positions.length - 1] - this.positions[0];
+    }
+    
+    public long getSnpCount()
+    {
+        return this.positions.length;
+    }
+    
+    public long getNextSnpPositionInBasePairs()
+    {
+        long position = this.positions[this.nextIndex];
+        this.nextIndex++;
+        return position;
+    }
+    
+    public boolean hasNextSnpPosition()
+    {
+        return this.nextIndex < this.positions.length;
+    }
+    
+    public StreamDirection getReadDirection()
+    {
+        return StreamDirection.FORWARD;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.SingleNucleotidePolymorphism;
+import org.jax.geneticutil.data.SnpIntervalList;
+import org.jax.geneticutil.data.SnpIntervalListGroup;
+import org.jax.geneticutil.data.SnpType;
+import org.jax.geneticutil.data.StrainChromosome;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class ScanningIdenticalByStateFinderTest
+{
+    private static final int CHROMOSOME_NUMBER = 7;
+    
+    /**
+     * Compare the parallel scan of several comparison strains against
+     * scanning each comparison strain on its own
+     */
+    @Test
+    public void matchesSequentialScanTest()
+    {
+        Random random = new Random(34L);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            ScanningIdenticalByStateFinder[] finders = new ScanningIdenticalByStateFinder[] {
+                    new ScanningIdenticalByStateFinder(),
+                    new ScanningIdenticalByStateFinder(executor)};
+            for(int comparisonCount: new int[] {1, 2, 7, 20})
+            {
+                int snpCount = 1 + random.nextInt(1000);
+                long[] positions = ListSnpPositionInputStream.createRandomPositions(
+                        random,
+                        snpCount,
+                        50);
+                StrainChromosome referenceChromosome = createRandomChromosome(
+                        random,
+                        "reference",
+                        positions,
+                        null);
+                Set<StrainChromosome> comparisonChromosomes =
+                    new LinkedHashSet<StrainChromosome>();
+                for(int i = 0; i < comparisonCount; i++)
+                {
+                    comparisonChromosomes.add(createRandomChromosome(
+                            random,
+                            "comparison" + i,
+                            positions,
+                            referenceChromosome));
+                }
+                int minimumExtentInSnps = 1 + random.nextInt(4);
+                long minimumExtentInBasePairs = 1L + random.nextInt(150);
+                
+                for(ScanningIdenticalByStateFinder finder: finders)
+                {
+                    SnpIntervalListGroup group = finder.findIdenticalByStateRegions(
+                            referenceChromosome,
+                            comparisonChromosomes,
+                            minimumExtentInSnps,
+                            minimumExtentInBasePairs);
+                    Map<String, List<BasePairInterval>> blocksMap =
+                        group.getSnpBlocksMap();
+                    Assert.assertEquals(comparisonCount, blocksMap.size());
+                    Assert.assertEquals(positions[0], group.getStartInBasePairs());
+                    Assert.assertEquals(
+                            1L + positions[snpCount - 1] - positions[0],
+                            group.getExtentInBasePairs());
+                    
+                    for(StrainChromosome comparisonChromosome: comparisonChromosomes)
+                    {
+                        SnpIntervalList expectedList = finder.findIdenticalByStateRegions(
+                                referenceChromosome,
+                                comparisonChromosome,
+                                minimumExtentInSnps,
+                                minimumExtentInBasePairs);
+                        IdenticalByStateRunTrackerTest.assertSameIntervals(
+                                expectedList.getSnpBlocks(),
+                                blocksMap.get(comparisonChromosome.getStrainName()));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * An interrupt while waiting on the scans should cancel them and fail
+     * without losing the interrupt status
+     */
+    @Test
+    public void interruptCancelsScansTest() throws InterruptedException
+    {
+        Random random = new Random(340L);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        try
+        {
+            // keep the only thread busy so that the IBS scans stay queued
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        releaseLatch.await();
+                    }
+                    catch(InterruptedException ex)
+                    {
+                        // just let the thread go
+                    }
+                }
+            });
+            
+            long[] positions = ListSnpPositionInputStream.createRandomPositions(
+                    random,
+                    100,
+                    50);
+            StrainChromosome referenceChromosome = createRandomChromosome(
+                    random,
+                    "reference",
+                    positions,
+                    null);
+            Set<StrainChromosome> comparisonChromosomes =
+                new LinkedHashSet<StrainChromosome>();
+            for(int i = 0; i < 3; i++)
+            {
+                comparisonChromosomes.add(createRandomChromosome(
+                        random,
+                        "comparison" + i,
+                        positions,
+                        referenceChromosome));
+            }
+            
+            ScanningIdenticalByStateFinder finder =
+                new ScanningIdenticalByStateFinder(executor);
+            Thread.currentThread().interrupt();
+            try
+            {
+                finder.findIdenticalByStateRegions(
+                        referenceChromosome,
+                        comparisonChromosomes,
+                        1,
+                        1L);
+                Assert.fail("the interrupt should have been propagated");
+            }
+            catch(IllegalStateException ex)
+            {
+                Assert.assertTrue(ex.getCause() instanceof InterruptedException);
+            }
+            Assert.assertTrue(Thread.interrupted());
+            
+            // every queued scan was cancelled
+            executor.purge();
+            Assert.assertEquals(0, executor.getQueue().size());
+        }
+        finally
+        {
+            releaseLatch.countDown();
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Create a chromosome with random SNP types. When a chromosome to copy
+     * is given most SNPs are copied from it so that there are long IBS runs
+     */
+    private static StrainChromosome createRandomChromosome(
+            Random random,
+            String strainName,
+            long[] positions,
+            StrainChromosome chromosomeToCopy)
+    {
+        SnpType[] snpTypes = SnpType.values();
+        SingleNucleotidePolymorphism[] snps =
+            new SingleNucleotidePolymorphism[positions.length];
+        boolean copying = chromosomeToCopy != null;
+        for(int i = 0; i < positions.length; i++)
+        {
+            if(chromosomeToCopy != null && random.nextInt(10) == 0)
+            {
+                copying = !copying;
+            }
+            
+            SnpType snpType = copying ?
+                    chromosomeToCopy.getSingleNucleotidePolymorphisms()[i].getSnpType() :
+                    snpTypes[random.nextInt(snpTypes.length)];
+            snps[i] = new SingleNucleotidePolymorphism(snpType, positions[i]);
+        }
+        
+        return new StrainChromosome(strainName, CHROMOSOME_NUMBER, snps);
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.jax.geneticutil.data.MultiPartitionedInterval;
+import org.jax.haplotype.data.MultiPartitionedIntervalList;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class SlidingWindowMultiHaplotypeEstimatorTest
+{
+    private static final int CHROMOSOME_NUMBER = 3;
+    
+    private static final String[] HAND_BUILT_SDPS = new String[] {
+            "0011",
+            "0011",
+            "0101",
+            "0101",
+            "0011",
+            "0011",
+            "0011",
+            "0011"};
+    
+    private static final long[] HAND_BUILT_POSITIONS = new long[] {
+            10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L};
+    
+    /**
+     * Test stepping a two SNP window over a small stream where the blocks
+     * can be worked out by hand
+     * @throws IOException
+     */
+    @Test
+    public void stepHandBuiltTest() throws IOException
+    {
+        List<MultiPartitionedInterval> blocks = estimateHandBuilt(true);
+        
+        Assert.assertEquals(5, blocks.size());
+        assertBlock(blocks.get(0), 10L, 11L, new short[] {0, 0, 1, 1});
+        assertBlock(blocks.get(1), 20L, 11L, new short[] {0, 1, 2, 3});
+        assertBlock(blocks.get(2), 30L, 11L, new short[] {0, 1, 0, 1});
+        assertBlock(blocks.get(3), 40L, 11L, new short[] {0, 1, 2, 3});
+        
+        // the last three windows all have the same partition
+        assertBlock(blocks.get(4), 50L, 31L, new short[] {0, 0, 1, 1});
+        
+        // matching partitions are pooled
+        MultiPartitionedIntervalList blockList = (MultiPartitionedIntervalList)blocks;
+        Assert.assertEquals(blockList.getPartitionId(0), blockList.getPartitionId(4));
+        Assert.assertEquals(blockList.getPartitionId(1), blockList.getPartitionId(3));
+        Assert.assertTrue(blockList.getPartitionId(0) != blockList.getPartitionId(1));
+        Assert.assertTrue(blockList.getPartitionId(0) != blockList.getPartitionId(2));
+    }
+    
+    /**
+     * Test sliding a two SNP window a whole window at a time over a small
+     * stream where the blocks can be worked out by hand
+     * @throws IOException
+     */
+    @Test
+    public void slideHandBuiltTest() throws IOException
+    {
+        List<MultiPartitionedInterval> blocks = estimateHandBuilt(false);
+        
+        Assert.assertEquals(3, blocks.size());
+        assertBlock(blocks.get(0), 10L, 11L, new short[] {0, 0, 1, 1});
+        assertBlock(blocks.get(1), 30L, 11L, new short[] {0, 1, 0, 1});
+        assertBlock(blocks.get(2), 50L, 31L, new short[] {0, 0, 1, 1});
+    }
+    
+    /**
+     * Compare the estimator against the per-window grouping that it replaced
+     * on random streams
+     * @throws IOException
+     */
+    @Test
+    public void matchesPerWindowGroupingTest() throws IOException
+    {
+        Random random = new Random(26L);
+        int[] strainCounts = new int[] {1, 5, 17, 64, 65, 130};
+        int[] windowSizes = new int[] {1, 2, 7, 64, 65};
+        for(int strainCount: strainCounts)
+        {
+            for(int windowSize: windowSizes)
+            {
+                int sdpCount = random.nextInt(400);
+                List<BitSet> sdps = ListSdpInputStream.createRandomSdps(
+                        random,
+                        strainCount,
+                        sdpCount,
+                        0.05);
+                long[] positions = ListSnpPositionInputStream.createRandomPositions(
+                        random,
+                        sdpCount,
+                        100);
+                String[] strainNames = ListSdpInputStream.createStrainNames(strainCount);
+                
+                for(boolean step: new boolean[] {true, false})
+                {
+                    SlidingWindowMultiHaplotypeEstimator estimator =
+                        new SlidingWindowMultiHaplotypeEstimator(windowSize, step);
+                    List<MultiPartitionedInterval> blocks = estimator.estimateMultiHaplotypeBlocks(
+                            new ListSdpInputStream(strainNames, sdps),
+                            new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions));
+                    List<MultiPartitionedInterval> expectedBlocks = estimatePerWindow(
+                            sdps,
+                            positions,
+                            strainCount,
+                            windowSize,
+                            step);
+                    
+                    Assert.assertEquals(expectedBlocks.size(), blocks.size());
+                    for(int i = 0; i < blocks.size(); i++)
+                    {
+                        MultiPartitionedInterval expected = expectedBlocks.get(i);
+                        assertBlock(
+                                blocks.get(i),
+                                expected.getStartInBasePairs(),
+                                expected.getExtentInBasePairs(),
+                                expected.getStrainGroups());
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Make sure that estimating several window sizes from one shared SDP
+     * buffer gives the same blocks as estimating each size on its own
+     * @throws IOException
+     */
+    @Test
+    public void multipleWindowSizesTest() throws IOException
+    {
+        Random random = new Random(27L);
+        int[] windowSizes = new int[] {3, 1, 64, 10, 65, 3, 130};
+        for(int strainCount: new int[] {4, 63, 64, 65, 200})
+        {
+            int sdpCount = 50 + random.nextInt(500);
+            List<BitSet> sdps = ListSdpInputStream.createRandomSdps(
+                    random,
+                    strainCount,
+                    sdpCount,
+                    0.02);
+            long[] positions = ListSnpPositionInputStream.createRandomPositions(
+                    random,
+                    sdpCount,
+                    1000);
+            String[] strainNames = ListSdpInputStream.createStrainNames(strainCount);
+            
+            for(boolean step: new boolean[] {true, false})
+            {
+                SlidingWindowMultiHaplotypeEstimator estimator =
+                    new SlidingWindowMultiHaplotypeEstimator(1, step);
+                List<List<MultiPartitionedInterval>> blocksPerSize =
+                    estimator.estimateMultiHaplotypeBlocks(
+                            windowSizes,
+                            new ListSdpInputStream(strainNames, sdps),
+                            new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions));
+                Assert.assertEquals(windowSizes.length, blocksPerSize.size());
+                
+                for(int i = 0; i < windowSizes.length; i++)
+                {
+                    SlidingWindowMultiHaplotypeEstimator singleSizeEstimator =
+                        new SlidingWindowMultiHaplotypeEstimator(windowSizes[i], step);
+                    List<MultiPartitionedInterval> singleSizeBlocks =
+                        singleSizeEstimator.estimateMultiHaplotypeBlocks(
+                                new ListSdpInputStream(strainNames, sdps),
+                                new ListSnpPositionInputStream(CHROMOSOME_NUMBER, positions));
+                    List<MultiPartitionedInterval> blocks = blocksPerSize.get(i);
+                    
+                    Assert.assertEquals(singleSizeBlocks.size(), blocks.size());
+                    for(int j = 0; j < blocks.size(); j++)
+                    {
+                        MultiPartitionedInterval expected = singleSizeBlocks.get(j);
+                        assertBlock(
+                                blocks.get(j),
+                                expected.getStartInBasePairs(),
+                                expected.getExtentInBasePairs(),
+                                expected.getStrainGroups());
+                    }
+                }
+            }
+        }
+    }
+    
+    private static List<MultiPartitionedInterval> estimateHandBuilt(boolean step)
+    throws IOException
+    {
+        SlidingWindowMultiHaplotypeEstimator estimator =
+            new SlidingWindowMultiHaplotypeEstimator(2, step);
+        return estimator.estimateMultiHaplotypeBlocks(
+                new ListSdpInputStream(
+                        ListSdpInputStream.createStrainNames(4),
+                        ListSdpInputStream.parseSdps(HAND_BUILT_SDPS)),
+                new ListSnpPositionInputStream(
+                        CHROMOSOME_NUMBER,
+                        HAND_BUILT_POSITIONS));
+    }
+    
+    private static void assertBlock(
+            MultiPartitionedInterval block,
+            long expectedStart,
+            long expectedExtent,
+            short[] expectedGroups)
+    {
+        Assert.assertEquals(CHROMOSOME_NUMBER, block.getChromosomeNumber());
+        Assert.assertEquals(expectedStart, block.getStartInBasePairs());
+        Assert.assertEquals(expectedExtent, block.getExtentInBasePairs());
+        Assert.assertTrue(Arrays.equals(expectedGroups, block.getStrainGroups()));
+    }
+    
+    /**
+     * The window by window computation used before the incremental
+     * partitioner. Each window is grouped from scratch, the labels are made
+     * canonical and neighboring windows with the same partition are merged
+     */
+    private static List<MultiPartitionedInterval> estimatePerWindow(
+            List<BitSet> sdps,
+            long[] positions,
+            int strainCount,
+            int windowSize,
+            boolean step)
+    {
+        List<MultiPartitionedInterval> blocks = new ArrayList<MultiPartitionedInterval>();
+        MultiPartitionedInterval cumulativeBlock = null;
+        int windowStep = step ? 1 : windowSize;
+        for(int start = 0; start + windowSize <= sdps.size(); start += windowStep)
+        {
+            int end = start + windowSize - 1;
+            short[] groups = canonicalize(groupWindow(
+                    sdps.subList(start, end + 1),
+                    strainCount));
+            if(cumulativeBlock != null &&
+               Arrays.equals(groups, cumulativeBlock.getStrainGroups()))
+            {
+                cumulativeBlock = new MultiPartitionedInterval(
+                        CHROMOSOME_NUMBER,
+                        cumulativeBlock.getStartInBasePairs(),
+                        1 + positions[end] - cumulativeBlock.getStartInBasePairs(),
+                        groups);
+            }
+            else
+            {
+                if(cumulativeBlock != null)
+                {
+                    blocks.add(cumulativeBlock);
+                }
+                cumulativeBlock = new MultiPartitionedInterval(
+                        CHROMOSOME_NUMBER,
+                        positions[start],
+                        1 + positions[end] - positions[start],
+                        groups);
+            }
+        }
+        
+        if(cumulativeBlock != null)
+        {
+            blocks.add(cumulativeBlock);
+        }
+        
+        return blocks;
+    }
+    
+    /**
+     * Split the strains into groups by pulling divergent strains out of
+     * each group one SDP at a time
+     */
+    private static short[] groupWindow(List<BitSet> windowSdps, int strainCount)
+    {
+        List<List<Integer>> strainGroups = new ArrayList<List<Integer>>();
+        List<Integer> everyStrain = new ArrayList<Integer>();
+        for(int i = 0; i < strainCount; i++)
+        {
+            everyStrain.add(i);
+        }
+        strainGroups.add(everyStrain);
+        
+        for(BitSet sdp: windowSdps)
+        {
+            List<List<Integer>> divergentStrainGroups = new ArrayList<List<Integer>>();
+            for(List<Integer> strainGroup: strainGroups)
+            {
+                List<Integer> divergentStrainGroup = new ArrayList<Integer>();
+                Iterator<Integer> strainGroupIter = strainGroup.iterator();
+                boolean refBit = sdp.get(strainGroupIter.next());
+                while(strainGroupIter.hasNext())
+                {
+                    int nextStrain = strainGroupIter.next();
+                    if(sdp.get(nextStrain) != refBit)
+                    {
+                        strainGroupIter.remove();
+                        divergentStrainGroup.add(nextStrain);
+                    }
+                }
+                
+                if(!divergentStrainGroup.isEmpty())
+                {
+                    divergentStrainGroups.add(divergentStrainGroup);
+                }
+            }
+            strainGroups.addAll(divergentStrainGroups);
+        }
+        
+        short[] groups = new short[strainCount];
+        for(int i = 0; i < strainGroups.size(); i++)
+        {
+            for(int strain: strainGroups.get(i))
+            {
+                groups[strain] = (short)i;
+            }
+        }
+        return groups;
+    }
+    
+    private static short[] canonicalize(short[] groups)
+    {
+        short[] relabels = new short[groups.length];
+        Arrays.fill(relabels, (short)-1);
+        short[] canonicalGroups = new short[groups.length];
+        short nextLabel = 0;
+        for(int i = 0; i < groups.length; i++)
+        {
+            if(relabels[groups[i]] == -1)
+            {
+                relabels[groups[i]] = nextLabel;
+                nextLabel++;
+            }
+            canonicalGroups[i] = relabels[groups[i]];
+        }
+        return canonicalGroups;
+    }
+}
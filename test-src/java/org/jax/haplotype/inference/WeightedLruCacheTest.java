@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.inference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class WeightedLruCacheTest
+{
+    @Test
+    public void evictionOrderTest()
+    {
+        WeightedLruCache<String, String> cache =
+            new WeightedLruCache<String, String>(10L);
+        cache.put("a", "A", 3L);
+        cache.put("b", "B", 3L);
+        cache.put("c", "C", 3L);
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(9L, cache.getTotalWeight());
+        
+        // reading "a" makes "b" the least recently used
+        Assert.assertEquals("A", cache.get("a"));
+        cache.put("d", "D", 3L);
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(9L, cache.getTotalWeight());
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("A", cache.get("a"));
+        Assert.assertEquals("C", cache.get("c"));
+        Assert.assertEquals("D", cache.get("d"));
+        
+        // a heavy value evicts as many of the oldest values as it needs to
+        cache.put("e", "E", 7L);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(10L, cache.getTotalWeight());
+        Assert.assertNull(cache.get("a"));
+        Assert.assertNull(cache.get("c"));
+        Assert.assertEquals("D", cache.get("d"));
+        Assert.assertEquals("E", cache.get("e"));
+    }
+    
+    @Test
+    public void overWeightRejectionTest()
+    {
+        WeightedLruCache<String, String> cache =
+            new WeightedLruCache<String, String>(10L);
+        cache.put("a", "A", 4L);
+        cache.put("b", "B", 4L);
+        
+        // too heavy by itself so it's dropped without evicting anything
+        cache.put("c", "C", 11L);
+        Assert.assertNull(cache.get("c"));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(8L, cache.getTotalWeight());
+        Assert.assertEquals(0L, cache.getEvictionCount());
+        
+        // exactly the maximum is allowed
+        cache.put("d", "D", 10L);
+        Assert.assertEquals("D", cache.get("d"));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(10L, cache.getTotalWeight());
+        
+        // replacing a value with one that's too heavy drops the old value
+        cache.put("d", "D2", 11L);
+        Assert.assertNull(cache.get("d"));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0L, cache.getTotalWeight());
+    }
+    
+    @Test
+    public void rePutWeightTest()
+    {
+        WeightedLruCache<String, String> cache =
+            new WeightedLruCache<String, String>(10L);
+        cache.put("a", "A", 4L);
+        cache.put("b", "B", 4L);
+        
+        // the old weight is released before the new one is counted
+        cache.put("a", "A2", 6L);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(10L, cache.getTotalWeight());
+        Assert.assertEquals(0L, cache.getEvictionCount());
+        Assert.assertEquals("A2", cache.get("a"));
+        
+        cache.put("a", "A3", 1L);
+        Assert.assertEquals(5L, cache.getTotalWeight());
+        
+        // re-putting makes the value most recently used so "b" goes first
+        cache.put("b", "B2", 4L);
+        cache.put("a", "A4", 5L);
+        cache.put("c", "C", 5L);
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("A4", cache.get("a"));
+        Assert.assertEquals("C", cache.get("c"));
+        Assert.assertEquals(10L, cache.getTotalWeight());
+        
+        cache.remove("a");
+        Assert.assertEquals(5L, cache.getTotalWeight());
+        cache.remove("a");
+        Assert.assertEquals(5L, cache.getTotalWeight());
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0L, cache.getTotalWeight());
+    }
+    
+    @Test
+    public void shrinkMaximumWeightTest()
+    {
+        WeightedLruCache<String, String> cache =
+            new WeightedLruCache<String, String>(10L);
+        cache.put("a", "A", 2L);
+        cache.put("b", "B", 3L);
+        cache.put("c", "C", 4L);
+        cache.get("a");
+        
+        // "b" then "c" are the least recently used and both have to go
+        cache.setMaximumWeight(5L);
+        Assert.assertEquals(5L, cache.getMaximumWeight());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(2L, cache.getTotalWeight());
+        Assert.assertEquals(2L, cache.getEvictionCount());
+        Assert.assertEquals("A", cache.get("a"));
+        
+        // the lower maximum also applies to new values
+        cache.put("d", "D", 7L);
+        Assert.assertNull(cache.get("d"));
+        
+        // growing doesn't evict anything
+        cache.setMaximumWeight(20L);
+        Assert.assertEquals(1, cache.size());
+        cache.put("d", "D", 7L);
+        Assert.assertEquals(9L, cache.getTotalWeight());
+        
+        cache.setMaximumWeight(0L);
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0L, cache.getTotalWeight());
+    }
+    
+    @Test
+    public void countersTest()
+    {
+        WeightedLruCache<String, String> cache =
+            new WeightedLruCache<String, String>(5L);
+        Assert.assertNull(cache.get("a"));
+        cache.put("a", "A", 3L);
+        cache.get("a");
+        cache.get("a");
+        Assert.assertEquals(2L, cache.getHitCount());
+        Assert.assertEquals(1L, cache.getMissCount());
+        Assert.assertEquals(0L, cache.getEvictionCount());
+        
+        cache.put("b", "B", 3L);
+        Assert.assertEquals(1L, cache.getEvictionCount());
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(2L, cache.getMissCount());
+        
+        // removing, clearing and re-putting are not evictions
+        cache.put("b", "B2", 3L);
+        cache.remove("b");
+        cache.put("c", "C", 1L);
+        cache.clear();
+        Assert.assertEquals(1L, cache.getEvictionCount());
+        Assert.assertEquals(2L, cache.getHitCount());
+        Assert.assertEquals(2L, cache.getMissCount());
+        Assert.assertEquals(
+                "hits=2, misses=2, evictions=1, size=0, weight=0/5",
+                cache.toString());
+    }
+}
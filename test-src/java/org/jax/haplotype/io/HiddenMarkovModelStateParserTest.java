@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jax.geneticutil.data.MultiPartitionedInterval;
+import org.jax.haplotype.data.MultiPartitionedIntervalList;
+import org.jax.util.io.CharacterDelimitedParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class HiddenMarkovModelStateParserTest
+{
+    /**
+     * the strain columns are out of order so the state columns get sorted
+     * by strain name (A, B, C). rows 3 and 5 describe the same partition
+     * of the strains as rows 1 and 2 but with different state numbers
+     */
+    private static final String HMM_STATES =
+        "snpID,chr,bpPosition,C,A,B\n" +
+        "s1,1,100,2,1,1\n" +
+        "s2,1,200,2,1,1\n" +
+        "s3,1,300,1,2,2\n" +
+        "s4,1,400,-,1,1\n" +
+        "s5,1,500,1,2,2\n" +
+        "s6,2,100,1,2,2\n";
+    
+    @Test
+    public void flattenedStatesTest() throws IOException
+    {
+        Map<Integer, List<MultiPartitionedInterval>> chromosomeStateMap =
+            parseStates(true);
+        
+        Assert.assertEquals(2, chromosomeStateMap.size());
+        List<MultiPartitionedInterval> chr1States = chromosomeStateMap.get(1);
+        Assert.assertEquals(2, chr1States.size());
+        assertInterval(chr1States.get(0), 1, 100L, 101L, new short[] {1, 1, 2});
+        
+        // the skipped row doesn't break up the interval
+        assertInterval(chr1States.get(1), 1, 300L, 201L, new short[] {2, 2, 1});
+        
+        List<MultiPartitionedInterval> chr2States = chromosomeStateMap.get(2);
+        Assert.assertEquals(1, chr2States.size());
+        assertInterval(chr2States.get(0), 2, 100L, 1L, new short[] {2, 2, 1});
+        
+        // the lists share a pool which keeps distinct state numbers apart
+        MultiPartitionedIntervalList chr1List = (MultiPartitionedIntervalList)chr1States;
+        MultiPartitionedIntervalList chr2List = (MultiPartitionedIntervalList)chr2States;
+        Assert.assertTrue(chr1List.getPartitionPool() == chr2List.getPartitionPool());
+        Assert.assertEquals(2, chr1List.getPartitionPool().size());
+        Assert.assertTrue(chr1List.getPartitionId(0) != chr1List.getPartitionId(1));
+        Assert.assertEquals(chr1List.getPartitionId(1), chr2List.getPartitionId(0));
+    }
+    
+    @Test
+    public void unflattenedStatesTest() throws IOException
+    {
+        Map<Integer, List<MultiPartitionedInterval>> chromosomeStateMap =
+            parseStates(false);
+        
+        Assert.assertEquals(2, chromosomeStateMap.size());
+        List<MultiPartitionedInterval> chr1States = chromosomeStateMap.get(1);
+        Assert.assertEquals(4, chr1States.size());
+        assertInterval(chr1States.get(0), 1, 100L, 1L, new short[] {1, 1, 2});
+        assertInterval(chr1States.get(1), 1, 200L, 1L, new short[] {1, 1, 2});
+        assertInterval(chr1States.get(2), 1, 300L, 1L, new short[] {2, 2, 1});
+        assertInterval(chr1States.get(3), 1, 500L, 1L, new short[] {2, 2, 1});
+        
+        List<MultiPartitionedInterval> chr2States = chromosomeStateMap.get(2);
+        Assert.assertEquals(1, chr2States.size());
+        assertInterval(chr2States.get(0), 2, 100L, 1L, new short[] {2, 2, 1});
+    }
+    
+    private static Map<Integer, List<MultiPartitionedInterval>> parseStates(
+            boolean flattenMatchingHaplotypes) throws IOException
+    {
+        HiddenMarkovModelStateParser parser = new HiddenMarkovModelStateParser(
+                new CharacterDelimitedParser(),
+                3,
+                -1,
+                -1,
+                flattenMatchingHaplotypes);
+        Set<String> strainsToParse = new HashSet<String>(Arrays.asList(
+                "A", "B", "C"));
+        return parser.parseHMMStatesFromReader(
+                new BufferedReader(new StringReader(HMM_STATES)),
+                strainsToParse);
+    }
+    
+    private static void assertInterval(
+            MultiPartitionedInterval interval,
+            int expectedChromosome,
+            long expectedStart,
+            long expectedExtent,
+            short[] expectedStates)
+    {
+        Assert.assertEquals(expectedChromosome, interval.getChromosomeNumber());
+        Assert.assertEquals(expectedStart, interval.getStartInBasePairs());
+        Assert.assertEquals(expectedExtent, interval.getExtentInBasePairs());
+        Assert.assertTrue(Arrays.equals(expectedStates, interval.getStrainGroups()));
+    }
+}
@@ -0,0 +1,665 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.jax.geneticutil.data.BasePairInterval;
+import org.jax.geneticutil.data.IndexedSnpInterval;
+import org.jax.geneticutil.data.SimpleBasePairInterval;
+import org.jax.geneticutil.data.SnpIntervalList;
+import org.jax.haplotype.inference.PairwiseIdenticalByStateRegions;
+import org.jax.haplotype.phylogeny.data.CompactPhylogenyTree;
+import org.jax.haplotype.phylogeny.data.PhylogenyInterval;
+import org.jax.haplotype.phylogeny.data.PhylogenyTopologyPool;
+import org.jax.haplotype.phylogeny.data.PhylogenyTreeEdge;
+import org.jax.haplotype.phylogeny.data.PhylogenyTreeEdgeWithRealValue;
+import org.jax.haplotype.phylogeny.data.PhylogenyTreeNode;
+import org.jax.haplotype.phylogeny.inference.CompatibilityIndex;
+import org.jax.util.io.IllegalFormatException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class ResultCacheCodecTest
+{
+    /**
+     * the magic number, format version and record type
+     */
+    private static final int HEADER_BYTES = 7;
+    
+    @Test
+    public void indexedSnpIntervalsTest() throws IOException, IllegalFormatException
+    {
+        List<IndexedSnpInterval> intervals = new ArrayList<IndexedSnpInterval>();
+        intervals.add(new IndexedSnpInterval(0, 5));
+        intervals.add(new IndexedSnpInterval(3, 1));
+        intervals.add(new IndexedSnpInterval(7, 100));
+        
+        File cacheFile = createCacheFile();
+        ResultCacheCodec.writeIndexedSnpIntervals(cacheFile, intervals);
+        List<IndexedSnpInterval> readIntervals =
+            ResultCacheCodec.readIndexedSnpIntervals(cacheFile);
+        
+        Assert.assertEquals(intervals.size(), readIntervals.size());
+        for(int i = 0; i < intervals.size(); i++)
+        {
+            Assert.assertEquals(
+                    intervals.get(i).getStartIndex(),
+                    readIntervals.get(i).getStartIndex());
+            Assert.assertEquals(
+                    intervals.get(i).getExtentInIndices(),
+                    readIntervals.get(i).getExtentInIndices());
+        }
+        
+        ResultCacheCodec.writeIndexedSnpIntervals(
+                cacheFile,
+                new ArrayList<IndexedSnpInterval>());
+        Assert.assertTrue(ResultCacheCodec.readIndexedSnpIntervals(cacheFile).isEmpty());
+        cacheFile.delete();
+    }
+    
+    @Test
+    public void basePairIntervalsTest() throws IOException, IllegalFormatException
+    {
+        List<BasePairInterval> intervals = createBasePairIntervals();
+        
+        File cacheFile = createCacheFile();
+        ResultCacheCodec.writeBasePairIntervals(cacheFile, intervals);
+        assertBasePairIntervalsEqual(
+                intervals,
+                ResultCacheCodec.readBasePairIntervals(cacheFile));
+        cacheFile.delete();
+    }
+    
+    @Test
+    public void snpIntervalListTest() throws IOException, IllegalFormatException
+    {
+        SnpIntervalList snpIntervalList = new SnpIntervalList(
+                createBasePairIntervals(),
+                1000L,
+                5000000000L);
+        
+        File cacheFile = createCacheFile();
+        ResultCacheCodec.writeSnpIntervalList(cacheFile, snpIntervalList);
+        SnpIntervalList readList = ResultCacheCodec.readSnpIntervalList(cacheFile);
+        Assert.assertEquals(1000L, readList.getStartInBasePairs());
+        Assert.assertEquals(5000000000L, readList.getExtentInBasePairs());
+        assertBasePairIntervalsEqual(
+                snpIntervalList.getSnpBlocks(),
+                readList.getSnpBlocks());
+        cacheFile.delete();
+    }
+    
+    @Test
+    public void phylogeniesTest() throws IOException, IllegalFormatException
+    {
+        List<PhylogenyTreeNode> phylogenies = createPhylogenies();
+        
+        File cacheFile = createCacheFile();
+        ResultCacheCodec.writePhylogenies(cacheFile, phylogenies);
+        List<PhylogenyTreeNode> readPhylogenies =
+            ResultCacheCodec.readPhylogenies(cacheFile);
+        
+        Assert.assertEquals(phylogenies.size(), readPhylogenies.size());
+        for(int i = 0; i < phylogenies.size(); i++)
+        {
+            assertTreesEqual(phylogenies.get(i), readPhylogenies.get(i));
+        }
+        cacheFile.delete();
+    }
+    
+    @Test
+    public void phylogenyIntervalsTest() throws IOException, IllegalFormatException
+    {
+        List<PhylogenyInterval> phylogenyIntervals = createPhylogenyIntervals();
+        Assert.assertFalse(phylogenyIntervals.get(0).getPhylogeny().toNewickFormat().equals(
+                phylogenyIntervals.get(1).getPhylogeny().toNewickFormat()));
+        
+        File cacheFile = createCacheFile();
+        ResultCacheCodec.writePhylogenyIntervals(cacheFile, phylogenyIntervals);
+        List<PhylogenyInterval> readIntervals =
+            ResultCacheCodec.readPhylogenyIntervals(cacheFile);
+        
+        // the trees come back in canonical form
+        Assert.assertEquals(phylogenyIntervals.size(), readIntervals.size());
+        List<BasePairInterval> expectedIntervals = new ArrayList<BasePairInterval>();
+        List<BasePairInterval> actualIntervals = new ArrayList<BasePairInterval>();
+        for(int i = 0; i < phylogenyIntervals.size(); i++)
+        {
+            PhylogenyInterval phylogenyInterval = phylogenyIntervals.get(i);
+            PhylogenyInterval readInterval = readIntervals.get(i);
+            expectedIntervals.add(phylogenyInterval.getInterval());
+            actualIntervals.add(readInterval.getInterval());
+            
+            CompactPhylogenyTree canonicalPhylogeny =
+                CompactPhylogenyTree.fromPhylogenyTreeNode(
+                        phylogenyInterval.getPhylogeny()).createCanonicalTree();
+            Assert.assertEquals(canonicalPhylogeny, readInterval.getCompactPhylogeny());
+            assertTreesEqual(
+                    canonicalPhylogeny.toPhylogenyTreeNode(),
+                    readInterval.getPhylogeny());
+        }
+        assertBasePairIntervalsEqual(expectedIntervals, actualIntervals);
+        
+        // intervals with the same topology share a tree
+        CompactPhylogenyTree sharedPhylogeny = readIntervals.get(0).getCompactPhylogeny();
+        Assert.assertSame(sharedPhylogeny, readIntervals.get(1).getCompactPhylogeny());
+        Assert.assertSame(sharedPhylogeny, readIntervals.get(3).getCompactPhylogeny());
+        Assert.assertTrue(sharedPhylogeny != readIntervals.get(2).getCompactPhylogeny());
+        Assert.assertTrue(sharedPhylogeny != readIntervals.get(4).getCompactPhylogeny());
+        Assert.assertSame(
+                sharedPhylogeny.getStrainTable(),
+                readIntervals.get(2).getCompactPhylogeny().getStrainTable());
+        
+        // the distinct topologies are only written once so pooled and
+        // unpooled intervals give the same file
+        File pooledCacheFile = createCacheFile();
+        ResultCacheCodec.writePhylogenyIntervals(
+                pooledCacheFile,
+                new PhylogenyTopologyPool().intern(phylogenyIntervals));
+        Assert.assertEquals(cacheFile.length(), pooledCacheFile.length());
+        List<PhylogenyInterval> twoCopies = new ArrayList<PhylogenyInterval>(phylogenyIntervals);
+        twoCopies.addAll(phylogenyIntervals);
+        ResultCacheCodec.writePhylogenyIntervals(pooledCacheFile, twoCopies);
+        
+        // every extra interval adds a chromosome, start, extent and topology
+        // index but no trees
+        Assert.assertEquals(
+                cacheFile.length() + phylogenyIntervals.size() * (4 + 8 + 8 + 4),
+                pooledCacheFile.length());
+        
+        cacheFile.delete();
+        pooledCacheFile.delete();
+    }
+    
+    @Test
+    public void pairwiseIdenticalByStateRegionsTest() throws IOException, IllegalFormatException
+    {
+        PairwiseIdenticalByStateRegions regions = createPairwiseRegions();
+        
+        File cacheFile = createCacheFile();
+        ResultCacheCodec.writePairwiseIdenticalByStateRegions(cacheFile, regions);
+        PairwiseIdenticalByStateRegions readRegions =
+            ResultCacheCodec.readPairwiseIdenticalByStateRegions(cacheFile);
+        
+        Assert.assertTrue(Arrays.equals(
+                regions.getStrainNames(),
+                readRegions.getStrainNames()));
+        Assert.assertEquals(
+                regions.getChromosomeNumber(),
+                readRegions.getChromosomeNumber());
+        Assert.assertEquals(
+                regions.getStartInBasePairs(),
+                readRegions.getStartInBasePairs());
+        Assert.assertEquals(
+                regions.getExtentInBasePairs(),
+                readRegions.getExtentInBasePairs());
+        Assert.assertTrue(Arrays.equals(
+                regions.getSegmentOffsets(),
+                readRegions.getSegmentOffsets()));
+        Assert.assertTrue(Arrays.equals(
+                regions.getSegmentStartsInBasePairs(),
+                readRegions.getSegmentStartsInBasePairs()));
+        Assert.assertTrue(Arrays.equals(
+                regions.getSegmentExtentsInBasePairs(),
+                readRegions.getSegmentExtentsInBasePairs()));
+        cacheFile.delete();
+    }
+    
+    @Test
+    public void compatibilityIndexTest() throws IOException, IllegalFormatException
+    {
+        int[] nearestIncompatibleIndices = new int[] {-1, -1, 0, 0, 3, 3, 3, 5};
+        
+        File cacheFile = createCacheFile();
+        ResultCacheCodec.writeCompatibilityIndex(
+                cacheFile,
+                new CompatibilityIndex(nearestIncompatibleIndices));
+        CompatibilityIndex readIndex =
+            ResultCacheCodec.readCompatibilityIndex(cacheFile);
+        
+        Assert.assertEquals(nearestIncompatibleIndices.length, readIndex.getSnpCount());
+        for(int i = 0; i < nearestIncompatibleIndices.length; i++)
+        {
+            Assert.assertEquals(
+                    nearestIncompatibleIndices[i],
+                    readIndex.getNearestIncompatibleIndex(i));
+        }
+        
+        // an entry that isn't before its own SNP
+        writeInt(cacheFile, HEADER_BYTES + 4 + 4 * 3, 3);
+        assertIllegalFormat(cacheFile, COMPATIBILITY_INDEX_READER);
+        cacheFile.delete();
+    }
+    
+    @Test
+    public void wrongRecordTypeTest() throws IOException
+    {
+        File cacheFile = createCacheFile();
+        ResultCacheCodec.writeBasePairIntervals(cacheFile, createBasePairIntervals());
+        assertIllegalFormat(cacheFile, INDEXED_INTERVALS_READER);
+        assertIllegalFormat(cacheFile, PHYLOGENIES_READER);
+        assertIllegalFormat(cacheFile, PHYLOGENY_INTERVALS_READER);
+        
+        ResultCacheCodec.writePhylogenyIntervals(cacheFile, createPhylogenyIntervals());
+        assertIllegalFormat(cacheFile, PHYLOGENIES_READER);
+        cacheFile.delete();
+    }
+    
+    @Test
+    public void staleFormatVersionTest() throws IOException
+    {
+        // files from older versions of the codec are rejected. the version
+        // follows the magic number
+        File cacheFile = createCacheFile();
+        ResultCacheCodec.writePhylogenyIntervals(cacheFile, createPhylogenyIntervals());
+        RandomAccessFile randomAccessFile = new RandomAccessFile(cacheFile, "rw");
+        try
+        {
+            randomAccessFile.seek(4L);
+            Assert.assertEquals(
+                    ResultCacheCodec.FORMAT_VERSION,
+                    randomAccessFile.readShort());
+            randomAccessFile.seek(4L);
+            randomAccessFile.writeShort(ResultCacheCodec.FORMAT_VERSION - 1);
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+        assertIllegalFormat(cacheFile, PHYLOGENY_INTERVALS_READER);
+        cacheFile.delete();
+    }
+    
+    @Test
+    public void truncatedFileTest() throws IOException
+    {
+        File cacheFile = createCacheFile();
+        ResultCacheCodec.writePhylogenies(cacheFile, createPhylogenies());
+        long fileLength = cacheFile.length();
+        for(long length = fileLength - 1L; length >= 0L; length -= 7L)
+        {
+            setFileLength(cacheFile, length);
+            assertIllegalFormat(cacheFile, PHYLOGENIES_READER);
+        }
+        
+        ResultCacheCodec.writePhylogenyIntervals(cacheFile, createPhylogenyIntervals());
+        fileLength = cacheFile.length();
+        for(long length = fileLength - 1L; length >= 0L; length -= 7L)
+        {
+            setFileLength(cacheFile, length);
+            assertIllegalFormat(cacheFile, PHYLOGENY_INTERVALS_READER);
+        }
+        cacheFile.delete();
+    }
+    
+    @Test
+    public void corruptCountTest() throws IOException
+    {
+        File cacheFile = createCacheFile();
+        
+        // negative and huge interval counts
+        ResultCacheCodec.writeBasePairIntervals(cacheFile, createBasePairIntervals());
+        writeInt(cacheFile, HEADER_BYTES, -1);
+        assertIllegalFormat(cacheFile, BASE_PAIR_INTERVALS_READER);
+        writeInt(cacheFile, HEADER_BYTES, Integer.MAX_VALUE);
+        assertIllegalFormat(cacheFile, BASE_PAIR_INTERVALS_READER);
+        
+        // a huge strain table count
+        ResultCacheCodec.writePhylogenies(cacheFile, createPhylogenies());
+        writeInt(cacheFile, HEADER_BYTES, Integer.MAX_VALUE);
+        assertIllegalFormat(cacheFile, PHYLOGENIES_READER);
+        
+        // a single tree with a single strain. the strain table count and
+        // the "A" entry come first followed by the tree count and the root
+        // node's strain count
+        List<PhylogenyTreeNode> singleStrainTree = new ArrayList<PhylogenyTreeNode>();
+        singleStrainTree.add(new PhylogenyTreeNode(
+                new ArrayList<PhylogenyTreeEdge>(),
+                Arrays.asList("A")));
+        ResultCacheCodec.writePhylogenies(cacheFile, singleStrainTree);
+        int strainIndexOffset = HEADER_BYTES + 4 + (4 + 1) + 4 + 4;
+        writeInt(cacheFile, strainIndexOffset, 1);
+        assertIllegalFormat(cacheFile, PHYLOGENIES_READER);
+        writeInt(cacheFile, strainIndexOffset, -1);
+        assertIllegalFormat(cacheFile, PHYLOGENIES_READER);
+        
+        // a huge strain count and segment offsets that don't match the
+        // strain pairs. the offset count follows the 3 one letter strain
+        // names, the chromosome, the start and the extent
+        ResultCacheCodec.writePairwiseIdenticalByStateRegions(
+                cacheFile,
+                createPairwiseRegions());
+        writeInt(cacheFile, HEADER_BYTES, Integer.MAX_VALUE);
+        assertIllegalFormat(cacheFile, PAIRWISE_IBS_READER);
+        ResultCacheCodec.writePairwiseIdenticalByStateRegions(
+                cacheFile,
+                createPairwiseRegions());
+        writeInt(cacheFile, HEADER_BYTES + 4 + 3 * (4 + 1) + 4 + 8 + 8, 3);
+        assertIllegalFormat(cacheFile, PAIRWISE_IBS_READER);
+        
+        // topology indices outside of the topology list. the last interval's
+        // index ends the file
+        ResultCacheCodec.writePhylogenyIntervals(cacheFile, createPhylogenyIntervals());
+        writeInt(cacheFile, cacheFile.length() - 4L, 3);
+        assertIllegalFormat(cacheFile, PHYLOGENY_INTERVALS_READER);
+        writeInt(cacheFile, cacheFile.length() - 4L, -1);
+        assertIllegalFormat(cacheFile, PHYLOGENY_INTERVALS_READER);
+        
+        cacheFile.delete();
+    }
+    
+    private static List<BasePairInterval> createBasePairIntervals()
+    {
+        List<BasePairInterval> intervals = new ArrayList<BasePairInterval>();
+        intervals.add(new SimpleBasePairInterval(1, 100L, 50L));
+        intervals.add(new SimpleBasePairInterval(1, 150L, 1L));
+        intervals.add(new SimpleBasePairInterval(19, 4000000000L, 3000000000L));
+        return intervals;
+    }
+    
+    private static List<PhylogenyTreeNode> createPhylogenies()
+    {
+        List<PhylogenyTreeNode> phylogenies = new ArrayList<PhylogenyTreeNode>();
+        
+        // SDPs past the 1st word, null SDPs and edges with real values
+        BitSet wideSdp = new BitSet();
+        wideSdp.set(3);
+        wideSdp.set(64);
+        wideSdp.set(130);
+        List<PhylogenyTreeEdge> leafEdges = new ArrayList<PhylogenyTreeEdge>();
+        leafEdges.add(new PhylogenyTreeEdge(
+                wideSdp,
+                new PhylogenyTreeNode(
+                        new ArrayList<PhylogenyTreeEdge>(),
+                        Arrays.asList("C", "D")),
+                2.5));
+        leafEdges.add(new PhylogenyTreeEdgeWithRealValue(
+                null,
+                new PhylogenyTreeNode(
+                        new ArrayList<PhylogenyTreeEdge>(),
+                        Arrays.asList("E")),
+                1.0,
+                0.125));
+        
+        List<PhylogenyTreeEdge> rootEdges = new ArrayList<PhylogenyTreeEdge>();
+        rootEdges.add(new PhylogenyTreeEdge(
+                new BitSet(),
+                new PhylogenyTreeNode(leafEdges, new ArrayList<String>()),
+                1.0));
+        phylogenies.add(new PhylogenyTreeNode(rootEdges, Arrays.asList("A", "B")));
+        
+        // a tree that shares strains with the 1st one and has a unicode name
+        BitSet sdp = new BitSet();
+        sdp.set(0);
+        List<PhylogenyTreeEdge> otherRootEdges = new ArrayList<PhylogenyTreeEdge>();
+        otherRootEdges.add(new PhylogenyTreeEdge(
+                sdp,
+                new PhylogenyTreeNode(
+                        new ArrayList<PhylogenyTreeEdge>(),
+                        Arrays.asList("A", "\u00e9")),
+                1.0));
+        phylogenies.add(new PhylogenyTreeNode(otherRootEdges, Arrays.asList("B")));
+        
+        // an empty tree
+        phylogenies.add(new PhylogenyTreeNode(
+                new ArrayList<PhylogenyTreeEdge>(),
+                new ArrayList<String>()));
+        
+        return phylogenies;
+    }
+    
+    /**
+     * Create phylogeny intervals where the 1st, 2nd and 4th intervals have
+     * the same topology with the strains and children in different orders.
+     * Some intervals hold compact trees with their own strain tables
+     */
+    private static List<PhylogenyInterval> createPhylogenyIntervals()
+    {
+        List<PhylogenyTreeNode> phylogenies = createPhylogenies();
+        PhylogenyTreeNode phylogeny = phylogenies.get(0);
+        PhylogenyTreeNode reorderedPhylogeny = phylogeny.clone();
+        Collections.reverse(reorderedPhylogeny.getStrains());
+        List<PhylogenyTreeEdge> leafEdges =
+            reorderedPhylogeny.getChildEdges().get(0).getNode().getChildEdges();
+        Collections.reverse(leafEdges);
+        Collections.reverse(leafEdges.get(1).getNode().getStrains());
+        
+        List<PhylogenyInterval> phylogenyIntervals = new ArrayList<PhylogenyInterval>();
+        List<BasePairInterval> intervals = createBasePairIntervals();
+        intervals.add(new SimpleBasePairInterval(2, 10L, 20L));
+        intervals.add(new SimpleBasePairInterval(2, 30L, 20L));
+        phylogenyIntervals.add(new PhylogenyInterval(
+                phylogeny,
+                intervals.get(0)));
+        phylogenyIntervals.add(new PhylogenyInterval(
+                CompactPhylogenyTree.fromPhylogenyTreeNode(reorderedPhylogeny),
+                intervals.get(1)));
+        phylogenyIntervals.add(new PhylogenyInterval(
+                phylogenies.get(1),
+                intervals.get(2)));
+        phylogenyIntervals.add(new PhylogenyInterval(
+                CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny),
+                intervals.get(3)));
+        phylogenyIntervals.add(new PhylogenyInterval(
+                CompactPhylogenyTree.fromPhylogenyTreeNode(phylogenies.get(2)),
+                intervals.get(4)));
+        
+        return phylogenyIntervals;
+    }
+    
+    private static PairwiseIdenticalByStateRegions createPairwiseRegions()
+    {
+        // 3 strains make 3 pairs with 2, 0 and 1 segments
+        return new PairwiseIdenticalByStateRegions(
+                new String[] {"A", "B", "C"},
+                7,
+                100L,
+                900L,
+                new int[] {0, 2, 2, 3},
+                new long[] {100L, 500L, 200L},
+                new long[] {50L, 10L, 800L});
+    }
+    
+    private static void assertBasePairIntervalsEqual(
+            List<BasePairInterval> expected,
+            List<BasePairInterval> actual)
+    {
+        Assert.assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++)
+        {
+            Assert.assertEquals(
+                    expected.get(i).getChromosomeNumber(),
+                    actual.get(i).getChromosomeNumber());
+            Assert.assertEquals(
+                    expected.get(i).getStartInBasePairs(),
+                    actual.get(i).getStartInBasePairs());
+            Assert.assertEquals(
+                    expected.get(i).getExtentInBasePairs(),
+                    actual.get(i).getExtentInBasePairs());
+        }
+    }
+    
+    /**
+     * Check that the trees have the same strains, SDPs, edge lengths, real
+     * values and child ordering
+     * @param expected
+     *          the expected tree
+     * @param actual
+     *          the actual tree
+     */
+    private static void assertTreesEqual(
+            PhylogenyTreeNode expected,
+            PhylogenyTreeNode actual)
+    {
+        Assert.assertEquals(expected.getStrains(), actual.getStrains());
+        List<PhylogenyTreeEdge> expectedEdges = expected.getChildEdges();
+        List<PhylogenyTreeEdge> actualEdges = actual.getChildEdges();
+        Assert.assertEquals(expectedEdges.size(), actualEdges.size());
+        for(int i = 0; i < expectedEdges.size(); i++)
+        {
+            PhylogenyTreeEdge expectedEdge = expectedEdges.get(i);
+            PhylogenyTreeEdge actualEdge = actualEdges.get(i);
+            Assert.assertEquals(expectedEdge.getSdpBits(), actualEdge.getSdpBits());
+            Assert.assertTrue(
+                    expectedEdge.getEdgeLength() == actualEdge.getEdgeLength());
+            Assert.assertEquals(expectedEdge.getClass(), actualEdge.getClass());
+            if(expectedEdge instanceof PhylogenyTreeEdgeWithRealValue)
+            {
+                Assert.assertTrue(
+                        ((PhylogenyTreeEdgeWithRealValue)expectedEdge).getRealValue() ==
+                        ((PhylogenyTreeEdgeWithRealValue)actualEdge).getRealValue());
+            }
+            assertTreesEqual(expectedEdge.getNode(), actualEdge.getNode());
+        }
+    }
+    
+    private static File createCacheFile() throws IOException
+    {
+        File cacheFile = File.createTempFile("result-cache-codec-test", ".bin");
+        cacheFile.deleteOnExit();
+        return cacheFile;
+    }
+    
+    private static void writeInt(File file, long offset, int value) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try
+        {
+            randomAccessFile.seek(offset);
+            randomAccessFile.writeInt(value);
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+    
+    private static void setFileLength(File file, long length) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try
+        {
+            randomAccessFile.setLength(length);
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+    
+    /**
+     * Reads a cache file with one of the codec's read functions
+     */
+    private static interface CacheReader
+    {
+        /**
+         * Read the file
+         * @param cacheFile
+         *          the file
+         * @throws IOException
+         *          if the read fails
+         * @throws IllegalFormatException
+         *          if the file is malformed
+         */
+        public void read(File cacheFile) throws IOException, IllegalFormatException;
+    }
+    
+    private static final CacheReader INDEXED_INTERVALS_READER = new CacheReader()
+    {
+        public void read(File cacheFile) throws IOException, IllegalFormatException
+        {
+            ResultCacheCodec.readIndexedSnpIntervals(cacheFile);
+        }
+    };
+    
+    private static final CacheReader BASE_PAIR_INTERVALS_READER = new CacheReader()
+    {
+        public void read(File cacheFile) throws IOException, IllegalFormatException
+        {
+            ResultCacheCodec.readBasePairIntervals(cacheFile);
+        }
+    };
+    
+    private static final CacheReader PHYLOGENIES_READER = new CacheReader()
+    {
+        public void read(File cacheFile) throws IOException, IllegalFormatException
+        {
+            ResultCacheCodec.readPhylogenies(cacheFile);
+        }
+    };
+    
+    private static final CacheReader PHYLOGENY_INTERVALS_READER = new CacheReader()
+    {
+        public void read(File cacheFile) throws IOException, IllegalFormatException
+        {
+            ResultCacheCodec.readPhylogenyIntervals(cacheFile);
+        }
+    };
+    
+    private static final CacheReader PAIRWISE_IBS_READER = new CacheReader()
+    {
+        public void read(File cacheFile) throws IOException, IllegalFormatException
+        {
+            ResultCacheCodec.readPairwiseIdenticalByStateRegions(cacheFile);
+        }
+    };
+    
+    private static final CacheReader COMPATIBILITY_INDEX_READER = new CacheReader()
+    {
+        public void read(File cacheFile) throws IOException, IllegalFormatException
+        {
+            ResultCacheCodec.readCompatibilityIndex(cacheFile);
+        }
+    };
+    
+    /**
+     * Make sure that reading the file fails with an
+     * {@link IllegalFormatException} and nothing else
+     * @param cacheFile
+     *          the file
+     * @param reader
+     *          the reader to use
+     * @throws IOException
+     *          if the read fails for a reason other than the format
+     */
+    private static void assertIllegalFormat(File cacheFile, CacheReader reader)
+            throws IOException
+    {
+        try
+        {
+            reader.read(cacheFile);
+            Assert.fail("expected an IllegalFormatException");
+        }
+        catch(IllegalFormatException ex)
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class CompactPhylogenyTreeTest
+{
+    @Test
+    public void roundTripTest()
+    {
+        Random random = new Random(48L);
+        for(int i = 0; i < RandomPhylogenyTrees.RANDOM_TREE_COUNT; i++)
+        {
+            PhylogenyTreeNode phylogeny = createRandomTree(random);
+            CompactPhylogenyTree compactPhylogeny =
+                CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny);
+            Assert.assertEquals(
+                    getNodesBreadthFirst(phylogeny).size(),
+                    compactPhylogeny.getNodeCount());
+            
+            PhylogenyTreeNode roundTripPhylogeny =
+                compactPhylogeny.toPhylogenyTreeNode();
+            assertTreesEqual(phylogeny, roundTripPhylogeny);
+            
+            CompactPhylogenyTree roundTripCompactPhylogeny =
+                CompactPhylogenyTree.fromPhylogenyTreeNode(roundTripPhylogeny);
+            Assert.assertEquals(compactPhylogeny, roundTripCompactPhylogeny);
+            Assert.assertEquals(
+                    compactPhylogeny.hashCode(),
+                    roundTripCompactPhylogeny.hashCode());
+        }
+    }
+    
+    @Test
+    public void newickFormatTest()
+    {
+        PhylogenyTreeNode phylogeny = createTestTree();
+        Assert.assertEquals(
+                phylogeny.toNewickFormat(),
+                CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny).toNewickFormat());
+        
+        Random random = new Random(480L);
+        for(int i = 0; i < RandomPhylogenyTrees.RANDOM_TREE_COUNT; i++)
+        {
+            phylogeny = createRandomTree(random);
+            Assert.assertEquals(
+                    phylogeny.toNewickFormat(),
+                    CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny).toNewickFormat());
+        }
+    }
+    
+    @Test
+    public void strainPrunedTreeTest()
+    {
+        PhylogenyTreeNode phylogeny = createTestTree();
+        CompactPhylogenyTree compactPhylogeny =
+            CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny);
+        
+        // prune away every strain. the empty root is all that's left
+        Set<String> noStrains = Collections.emptySet();
+        CompactPhylogenyTree emptyTree =
+            compactPhylogeny.createStrainPrunedTree(noStrains);
+        Assert.assertEquals(1, emptyTree.getNodeCount());
+        Assert.assertTrue(emptyTree.getAllStrains().isEmpty());
+        assertTreesEqual(
+                phylogeny.createStrainPrunedTree(noStrains),
+                emptyTree.toPhylogenyTreeNode());
+        
+        // prune away the root's strains but keep a deep branch
+        Set<String> deepStrains = new HashSet<String>(Arrays.asList("E"));
+        assertTreesEqual(
+                phylogeny.createStrainPrunedTree(deepStrains),
+                compactPhylogeny.createStrainPrunedTree(deepStrains).toPhylogenyTreeNode());
+        Assert.assertSame(
+                compactPhylogeny.getStrainTable(),
+                compactPhylogeny.createStrainPrunedTree(deepStrains).getStrainTable());
+        
+        Random random = new Random(481L);
+        for(int i = 0; i < RandomPhylogenyTrees.RANDOM_TREE_COUNT; i++)
+        {
+            phylogeny = createRandomTree(random);
+            compactPhylogeny = CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny);
+            
+            Set<String> strainsToRetain = new HashSet<String>();
+            for(String strain: phylogeny.getAllStrains())
+            {
+                if(random.nextBoolean())
+                {
+                    strainsToRetain.add(strain);
+                }
+            }
+            
+            assertTreesEqual(
+                    phylogeny.createStrainPrunedTree(strainsToRetain),
+                    compactPhylogeny.createStrainPrunedTree(strainsToRetain).toPhylogenyTreeNode());
+        }
+    }
+    
+    @Test
+    public void reRootTest()
+    {
+        // reroot a deep chain at its deepest node
+        PhylogenyTreeNode chain = new PhylogenyTreeNode(
+                new ArrayList<PhylogenyTreeEdge>(),
+                new ArrayList<String>(Arrays.asList("leaf")));
+        for(int i = 0; i < 200; i++)
+        {
+            BitSet sdp = new BitSet();
+            sdp.set(i);
+            List<PhylogenyTreeEdge> childEdges = new ArrayList<PhylogenyTreeEdge>();
+            childEdges.add(new PhylogenyTreeEdgeWithRealValue(sdp, chain, i, -i));
+            chain = new PhylogenyTreeNode(
+                    childEdges,
+                    new ArrayList<String>(Arrays.asList("node" + i)));
+        }
+        assertReRootMatches(chain);
+        
+        assertReRootMatches(createTestTree());
+        
+        Random random = new Random(482L);
+        for(int i = 0; i < RandomPhylogenyTrees.RANDOM_TREE_COUNT; i++)
+        {
+            assertReRootMatches(createRandomTree(random));
+        }
+    }
+    
+    @Test
+    public void sharedStrainTableTest()
+    {
+        Random random = new Random(483L);
+        List<PhylogenyTreeNode> phylogenies = new ArrayList<PhylogenyTreeNode>();
+        for(int i = 0; i < 20; i++)
+        {
+            phylogenies.add(createRandomTree(random));
+        }
+        
+        List<CompactPhylogenyTree> compactPhylogenies =
+            CompactPhylogenyTree.fromPhylogenyTrees(phylogenies);
+        Assert.assertEquals(phylogenies.size(), compactPhylogenies.size());
+        for(int i = 0; i < phylogenies.size(); i++)
+        {
+            Assert.assertSame(
+                    compactPhylogenies.get(0).getStrainTable(),
+                    compactPhylogenies.get(i).getStrainTable());
+            assertTreesEqual(
+                    phylogenies.get(i),
+                    compactPhylogenies.get(i).toPhylogenyTreeNode());
+        }
+    }
+    
+    @Test
+    public void equalsAcrossStrainTablesTest()
+    {
+        Random random = new Random(484L);
+        for(int i = 0; i < RandomPhylogenyTrees.RANDOM_TREE_COUNT; i++)
+        {
+            // the 2nd copy's strain table is shared with another tree so its
+            // strains have different indices
+            PhylogenyTreeNode phylogeny = createRandomTree(random);
+            CompactPhylogenyTree compactPhylogeny =
+                CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny);
+            CompactPhylogenyTree otherCompactPhylogeny =
+                CompactPhylogenyTree.fromPhylogenyTrees(Arrays.asList(
+                        createRandomTree(random),
+                        phylogeny)).get(1);
+            Assert.assertTrue(
+                    compactPhylogeny.getStrainTable() !=
+                    otherCompactPhylogeny.getStrainTable());
+            Assert.assertEquals(compactPhylogeny, otherCompactPhylogeny);
+            Assert.assertEquals(otherCompactPhylogeny, compactPhylogeny);
+            Assert.assertEquals(
+                    compactPhylogeny.hashCode(),
+                    otherCompactPhylogeny.hashCode());
+        }
+        
+        CompactPhylogenyTree testTree =
+            CompactPhylogenyTree.fromPhylogenyTreeNode(createTestTree());
+        
+        PhylogenyTreeNode renamedStrainTree = createTestTree();
+        renamedStrainTree.getStrains().set(0, "Z");
+        assertNotEqualAcrossStrainTables(testTree, renamedStrainTree);
+        
+        PhylogenyTreeNode reorderedStrainTree = createTestTree();
+        Collections.reverse(reorderedStrainTree.getStrains());
+        assertNotEqualAcrossStrainTables(testTree, reorderedStrainTree);
+        
+        PhylogenyTreeNode reorderedChildTree = createTestTree();
+        Collections.reverse(
+                reorderedChildTree.getChildEdges().get(0).getNode().getChildEdges());
+        assertNotEqualAcrossStrainTables(testTree, reorderedChildTree);
+        
+        PhylogenyTreeNode edgeLengthTree = createTestTree();
+        edgeLengthTree.getChildEdges().get(0).setEdgeLength(2.0);
+        assertNotEqualAcrossStrainTables(testTree, edgeLengthTree);
+        
+        PhylogenyTreeNode sdpTree = createTestTree();
+        sdpTree.getChildEdges().get(0).setSdpBits(new BitSet());
+        assertNotEqualAcrossStrainTables(testTree, sdpTree);
+    }
+    
+    private static void assertNotEqualAcrossStrainTables(
+            CompactPhylogenyTree compactPhylogeny,
+            PhylogenyTreeNode otherPhylogeny)
+    {
+        CompactPhylogenyTree otherCompactPhylogeny =
+            CompactPhylogenyTree.fromPhylogenyTrees(Arrays.asList(
+                    createRandomTree(new Random(485L)),
+                    otherPhylogeny)).get(1);
+        Assert.assertFalse(compactPhylogeny.equals(otherCompactPhylogeny));
+        Assert.assertFalse(otherCompactPhylogeny.equals(compactPhylogeny));
+    }
+    
+    /**
+     * Check that rerooting the compact tree at every node gives the same
+     * tree as {@link PhylogenyTreeNode#reRoot(PhylogenyTreeNode)}
+     */
+    private static void assertReRootMatches(PhylogenyTreeNode phylogeny)
+    {
+        CompactPhylogenyTree compactPhylogeny =
+            CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny);
+        
+        // compact nodes are numbered breadth first
+        List<PhylogenyTreeNode> nodes = getNodesBreadthFirst(phylogeny);
+        for(int i = 0; i < nodes.size(); i++)
+        {
+            PhylogenyTreeNode expected = phylogeny.reRoot(nodes.get(i));
+            CompactPhylogenyTree actual = compactPhylogeny.reRoot(i);
+            assertTreesEqual(expected, actual.toPhylogenyTreeNode());
+            Assert.assertEquals(expected.toNewickFormat(), actual.toNewickFormat());
+            Assert.assertSame(
+                    compactPhylogeny.getStrainTable(),
+                    actual.getStrainTable());
+        }
+    }
+    
+    private static List<PhylogenyTreeNode> getNodesBreadthFirst(PhylogenyTreeNode phylogeny)
+    {
+        List<PhylogenyTreeNode> nodes = new ArrayList<PhylogenyTreeNode>();
+        nodes.add(phylogeny);
+        for(int i = 0; i < nodes.size(); i++)
+        {
+            for(PhylogenyTreeEdge childEdge: nodes.get(i).getChildEdges())
+            {
+                nodes.add(childEdge.getNode());
+            }
+        }
+        
+        return nodes;
+    }
+    
+    /**
+     * Create a small tree with an SDP past the 1st word, a null SDP, an
+     * empty SDP, an edge with a real value and nodes without strains
+     */
+    private static PhylogenyTreeNode createTestTree()
+    {
+        BitSet wideSdp = new BitSet();
+        wideSdp.set(3);
+        wideSdp.set(64);
+        wideSdp.set(130);
+        
+        List<PhylogenyTreeEdge> deepEdges = new ArrayList<PhylogenyTreeEdge>();
+        deepEdges.add(new PhylogenyTreeEdgeWithRealValue(
+                wideSdp,
+                new PhylogenyTreeNode(
+                        new ArrayList<PhylogenyTreeEdge>(),
+                        new ArrayList<String>(Arrays.asList("E"))),
+                0.5,
+                0.125));
+        
+        List<PhylogenyTreeEdge> middleEdges = new ArrayList<PhylogenyTreeEdge>();
+        middleEdges.add(new PhylogenyTreeEdge(
+                null,
+                new PhylogenyTreeNode(deepEdges, new ArrayList<String>()),
+                2.5));
+        middleEdges.add(new PhylogenyTreeEdge(
+                new BitSet(),
+                new PhylogenyTreeNode(
+                        new ArrayList<PhylogenyTreeEdge>(),
+                        new ArrayList<String>(Arrays.asList("C", "D"))),
+                1.0));
+        
+        List<PhylogenyTreeEdge> rootEdges = new ArrayList<PhylogenyTreeEdge>();
+        rootEdges.add(new PhylogenyTreeEdge(
+                null,
+                new PhylogenyTreeNode(middleEdges, new ArrayList<String>()),
+                1.0));
+        return new PhylogenyTreeNode(
+                rootEdges,
+                new ArrayList<String>(Arrays.asList("B", "A")));
+    }
+    
+    /**
+     * Create a random tree where no strain appears twice. Some nodes have
+     * no strains, some edges have null SDPs or real values and some SDPs
+     * are wider than a single word
+     */
+    private static PhylogenyTreeNode createRandomTree(Random random)
+    {
+        return RandomPhylogenyTrees.createRandomTree(
+                random,
+                1 + random.nextInt(20),
+                0,
+                6,
+                RandomPhylogenyTrees.EdgeKinds.MIXED);
+    }
+    
+    private static void assertTreesEqual(
+            PhylogenyTreeNode expected,
+            PhylogenyTreeNode actual)
+    {
+        Assert.assertEquals(expected.getStrains(), actual.getStrains());
+        List<PhylogenyTreeEdge> expectedEdges = expected.getChildEdges();
+        List<PhylogenyTreeEdge> actualEdges = actual.getChildEdges();
+        Assert.assertEquals(expectedEdges.size(), actualEdges.size());
+        for(int i = 0; i < expectedEdges.size(); i++)
+        {
+            PhylogenyTreeEdge expectedEdge = expectedEdges.get(i);
+            PhylogenyTreeEdge actualEdge = actualEdges.get(i);
+            Assert.assertEquals(expectedEdge.getSdpBits(), actualEdge.getSdpBits());
+            Assert.assertTrue(
+                    expectedEdge.getEdgeLength() == actualEdge.getEdgeLength());
+            Assert.assertEquals(expectedEdge.getClass(), actualEdge.getClass());
+            if(expectedEdge instanceof PhylogenyTreeEdgeWithRealValue)
+            {
+                Assert.assertTrue(
+                        ((PhylogenyTreeEdgeWithRealValue)expectedEdge).getRealValue() ==
+                        ((PhylogenyTreeEdgeWithRealValue)actualEdge).getRealValue());
+            }
+            assertTreesEqual(expectedEdge.getNode(), actualEdge.getNode());
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.data;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.jax.util.io.IllegalFormatException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class NewickParserTest
+{
+    private static final int DEEP_TREE_DEPTH = 10000;
+    
+    /**
+     * newick strings and the trees that the original regular expression
+     * based parser gave for them
+     */
+    private static final String[][] PARSED_TREES =
+    {
+        {"(A:1.0,B:2.0)C;", "([A]:1.0,[B]:2.0)[C]"},
+        {"((A:1.0,B:2.5):0.5,C:3.0);", "(([A]:1.0,[B]:2.5)[]:0.5,[C]:3.0)[]"},
+        {"(A:1.0e2,B:-3,C:Infinity);", "([A]:100.0,[B]:-3.0,[C]:Infinity)[]"},
+        
+        // whitespace is trimmed from everything but the root's name
+        {"( A :1.0 , B : 2.0 ) root ;", "([A]:1.0,[B]:2.0)[ root ]"},
+        {"(  A  B  :  1.5  );", "([A  B]:1.5)[]"},
+        
+        // strains are split on '|' and empty strains are dropped
+        {"(A|B:1.0,C|D|E:0.5)F|G;", "([A, B]:1.0,[C, D, E]:0.5)[F, G]"},
+        {"(|A:1.0,A|:2.0,A||B:3.0);", "([A]:1.0,[A]:2.0,[A, B]:3.0)[]"},
+        
+        // the edge length follows the last ':'
+        {"(x:y:1.0,a:b:c:2.0);", "([x:y]:1.0,[a:b:c]:2.0)[]"},
+        {"(:1.0);", "([]:1.0)[]"},
+        
+        // only the final ';' is a terminator
+        {"(A:1.0);;", "([A]:1.0)[;]"},
+        {"(A:1.0)B;C;", "([A]:1.0)[B;C]"},
+        
+        {"A;", "[A]"},
+        {";", "[]"}
+    };
+    
+    /**
+     * newick strings that the original parser rejected with an
+     * {@link IllegalFormatException}
+     */
+    private static final String[] MALFORMED_TREES =
+    {
+        "",
+        "(A:1.0",
+        "(A:1.0)",
+        "A:1.0);",
+        "(A);",
+        "();",
+        "(A:1.0))(;",
+        "(A:1.0,);",
+        
+        // line terminators are never allowed
+        "(A:1.0)\n;",
+        "(A:1.0);\n",
+        "(A:\n1.0);",
+        "(A:1.0)\r;"
+    };
+    
+    /**
+     * newick strings that the original parser rejected with a
+     * {@link NumberFormatException}
+     */
+    private static final String[] BAD_LENGTH_TREES =
+    {
+        "(A:x);",
+        "((A:1.0):(1.0));"
+    };
+    
+    @Test
+    public void parseTreeTest() throws IllegalFormatException
+    {
+        NewickParser parser = new NewickParser();
+        for(String[] parsedTree: PARSED_TREES)
+        {
+            Assert.assertEquals(
+                    parsedTree[0],
+                    parsedTree[1],
+                    describe(parser.parseTree(parsedTree[0])));
+            Assert.assertEquals(
+                    parsedTree[0],
+                    parsedTree[1],
+                    describe(PhylogenyTreeNode.fromNewickFormat(parsedTree[0])));
+        }
+    }
+    
+    @Test
+    public void malformedTreeTest()
+    {
+        NewickParser parser = new NewickParser();
+        for(String malformedTree: MALFORMED_TREES)
+        {
+            try
+            {
+                parser.parseTree(malformedTree);
+                Assert.fail("parsed malformed tree: " + malformedTree);
+            }
+            catch(IllegalFormatException ex)
+            {
+                // expected
+            }
+            
+            try
+            {
+                parser.parseCompactTree(malformedTree);
+                Assert.fail("parsed malformed tree: " + malformedTree);
+            }
+            catch(IllegalFormatException ex)
+            {
+                // expected
+            }
+        }
+        
+        for(String badLengthTree: BAD_LENGTH_TREES)
+        {
+            try
+            {
+                parser.parseTree(badLengthTree);
+                Assert.fail("parsed malformed tree: " + badLengthTree);
+            }
+            catch(NumberFormatException ex)
+            {
+                // expected
+            }
+            catch(IllegalFormatException ex)
+            {
+                Assert.fail("expected a number format exception for: " + badLengthTree);
+            }
+        }
+        
+        // the original parser gave a NumberFormatException here because the
+        // misplaced ':' put parentheses in the edge length
+        try
+        {
+            parser.parseTree("(:2.25788590 5573854, :1(.0);");
+            Assert.fail("parsed malformed tree");
+        }
+        catch(IllegalFormatException ex)
+        {
+            // expected
+        }
+        
+        // a failure doesn't break the parser for the next tree
+        try
+        {
+            Assert.assertEquals(
+                    "([A]:1.0)[]",
+                    describe(parser.parseTree("(A:1.0);")));
+        }
+        catch(IllegalFormatException ex)
+        {
+            Assert.fail(ex.getMessage());
+        }
+    }
+    
+    @Test
+    public void deepTreeTest() throws IllegalFormatException
+    {
+        StringBuilder newick = new StringBuilder();
+        for(int i = 0; i < DEEP_TREE_DEPTH; i++)
+        {
+            newick.append('(');
+        }
+        newick.append("leaf");
+        for(int i = 0; i < DEEP_TREE_DEPTH; i++)
+        {
+            newick.append(':');
+            newick.append((double)i);
+            newick.append(")node");
+            newick.append(i);
+        }
+        newick.append(';');
+        
+        NewickParser parser = new NewickParser();
+        PhylogenyTreeNode node = parser.parseTree(newick.toString());
+        for(int i = DEEP_TREE_DEPTH - 1; i >= 0; i--)
+        {
+            Assert.assertEquals(Arrays.asList("node" + i), node.getStrains());
+            Assert.assertEquals(1, node.getChildEdges().size());
+            PhylogenyTreeEdge childEdge = node.getChildEdges().get(0);
+            Assert.assertTrue(childEdge.getEdgeLength() == i);
+            node = childEdge.getNode();
+        }
+        Assert.assertEquals(Arrays.asList("leaf"), node.getStrains());
+        Assert.assertTrue(node.isLeafNode());
+        
+        CompactPhylogenyTree compactTree =
+            parser.parseCompactTree(newick.toString());
+        Assert.assertEquals(DEEP_TREE_DEPTH + 1, compactTree.getNodeCount());
+        for(int i = 0; i < DEEP_TREE_DEPTH; i++)
+        {
+            Assert.assertEquals(i - 1, compactTree.getParentIndex(i));
+            Assert.assertEquals(
+                    Arrays.asList("node" + (DEEP_TREE_DEPTH - 1 - i)),
+                    compactTree.getStrains(i));
+            Assert.assertTrue(
+                    compactTree.getEdgeLength(i + 1) == DEEP_TREE_DEPTH - 1 - i);
+        }
+        Assert.assertEquals(
+                Arrays.asList("leaf"),
+                compactTree.getStrains(DEEP_TREE_DEPTH));
+        Assert.assertTrue(compactTree.isLeafNode(DEEP_TREE_DEPTH));
+    }
+    
+    @Test
+    public void roundTripTest() throws IllegalFormatException
+    {
+        NewickParser parser = new NewickParser();
+        Random random = new Random(49L);
+        for(int i = 0; i < RandomPhylogenyTrees.RANDOM_TREE_COUNT; i++)
+        {
+            String newick = createRandomTree(random).toNewickFormat();
+            PhylogenyTreeNode phylogeny = parser.parseTree(newick);
+            Assert.assertEquals(newick, phylogeny.toNewickFormat());
+            
+            CompactPhylogenyTree compactPhylogeny = parser.parseCompactTree(newick);
+            Assert.assertEquals(newick, compactPhylogeny.toNewickFormat());
+            Assert.assertEquals(
+                    describe(phylogeny),
+                    describe(compactPhylogeny.toPhylogenyTreeNode()));
+        }
+    }
+    
+    @Test
+    public void parseCompactTreeTest() throws IllegalFormatException
+    {
+        NewickParser parser = new NewickParser();
+        for(String[] parsedTree: PARSED_TREES)
+        {
+            Assert.assertEquals(
+                    parsedTree[0],
+                    parsedTree[1],
+                    describe(parser.parseCompactTree(parsedTree[0]).toPhylogenyTreeNode()));
+        }
+    }
+    
+    @Test
+    public void sharedStrainTableTest() throws IllegalFormatException
+    {
+        NewickParser parser = new NewickParser();
+        CompactPhylogenyTree tree1 = parser.parseCompactTree("((A:1.0,B:1.0):1.0,C:2.0);");
+        CompactPhylogenyTree tree2 = parser.parseCompactTree("((C:1.0,B:1.0):1.0,A:2.0);");
+        CompactPhylogenyTree tree3 = parser.parseCompactTree("(B|C:1.0)A;");
+        Assert.assertSame(tree1.getStrainTable(), tree2.getStrainTable());
+        Assert.assertSame(tree1.getStrainTable(), tree3.getStrainTable());
+        
+        // a new strain grows the table. the earlier trees keep the old table
+        // which still holds all of their strains
+        CompactPhylogenyTree tree4 = parser.parseCompactTree("(D:1.0,A:1.0);");
+        CompactPhylogenyTree tree5 = parser.parseCompactTree("(C:1.0,D:1.0);");
+        Assert.assertTrue(tree1.getStrainTable() != tree4.getStrainTable());
+        Assert.assertSame(tree4.getStrainTable(), tree5.getStrainTable());
+        Assert.assertEquals(
+                Arrays.asList(tree1.getStrainTable()),
+                Arrays.asList(tree4.getStrainTable()).subList(0, 3));
+        
+        Assert.assertEquals("((A:1.0,B:1.0):1.0,C:2.0);", tree1.toNewickFormat());
+        Assert.assertEquals("((C:1.0,B:1.0):1.0,A:2.0);", tree2.toNewickFormat());
+        Assert.assertEquals("(B|C:1.0)A;", tree3.toNewickFormat());
+        Assert.assertEquals("(D:1.0,A:1.0);", tree4.toNewickFormat());
+        Assert.assertEquals("(C:1.0,D:1.0);", tree5.toNewickFormat());
+        
+        // trees parsed by different parsers don't share a table
+        CompactPhylogenyTree otherTree =
+            new NewickParser().parseCompactTree("((A:1.0,B:1.0):1.0,C:2.0);");
+        Assert.assertTrue(tree1.getStrainTable() != otherTree.getStrainTable());
+        Assert.assertEquals(tree1.toNewickFormat(), otherTree.toNewickFormat());
+    }
+    
+    /**
+     * Describe the tree in a format that shows the strain lists and edge
+     * lengths exactly as they were parsed
+     */
+    private static String describe(PhylogenyTreeNode node)
+    {
+        StringBuilder sb = new StringBuilder();
+        List<PhylogenyTreeEdge> childEdges = node.getChildEdges();
+        if(!childEdges.isEmpty())
+        {
+            sb.append('(');
+            for(int i = 0; i < childEdges.size(); i++)
+            {
+                if(i > 0)
+                {
+                    sb.append(',');
+                }
+                PhylogenyTreeEdge childEdge = childEdges.get(i);
+                sb.append(describe(childEdge.getNode()));
+                sb.append(':');
+                sb.append(childEdge.getEdgeLength());
+            }
+            sb.append(')');
+        }
+        sb.append(node.getStrains());
+        
+        return sb.toString();
+    }
+    
+    private static PhylogenyTreeNode createRandomTree(Random random)
+    {
+        return RandomPhylogenyTrees.createRandomTree(
+                random,
+                1 + random.nextInt(20),
+                0,
+                6,
+                RandomPhylogenyTrees.EdgeKinds.PLAIN);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.jax.geneticutil.data.SimpleBasePairInterval;
+import org.jax.util.io.IllegalFormatException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class PhylogenyTopologyPoolTest
+{
+    @Test
+    public void internTest() throws IllegalFormatException
+    {
+        PhylogenyTopologyPool pool = new PhylogenyTopologyPool();
+        CompactPhylogenyTree tree = pool.intern(PhylogenyTreeNode.fromNewickFormat(
+                "((B:1.0,A:1.0):1.0,D|C:2.0);"));
+        Assert.assertEquals("((A:1.0,B:1.0):1.0,C|D:2.0);", tree.toNewickFormat());
+        
+        // the same topology with the strains and children in another order
+        Assert.assertSame(tree, pool.intern(PhylogenyTreeNode.fromNewickFormat(
+                "(C|D:2.0,(A:1.0,B:1.0):1.0);")));
+        Assert.assertSame(tree, pool.intern(tree));
+        Assert.assertEquals(1, pool.size());
+        
+        // different edge lengths or strains give different trees
+        CompactPhylogenyTree otherTree = pool.intern(PhylogenyTreeNode.fromNewickFormat(
+                "((B:1.0,A:1.0):1.0,D|C:3.0);"));
+        Assert.assertTrue(tree != otherTree);
+        CompactPhylogenyTree newStrainTree = pool.intern(PhylogenyTreeNode.fromNewickFormat(
+                "((B:1.0,A:1.0):1.0,E|C:2.0);"));
+        Assert.assertTrue(tree != newStrainTree);
+        Assert.assertEquals(3, pool.size());
+        Assert.assertSame(tree, pool.intern(PhylogenyTreeNode.fromNewickFormat(
+                "(D|C:2.0,(B:1.0,A:1.0):1.0);")));
+    }
+    
+    @Test
+    public void internRandomTreesTest()
+    {
+        Random random = new Random(501L);
+        PhylogenyTopologyPool pool = new PhylogenyTopologyPool();
+        for(int i = 0; i < RandomPhylogenyTrees.RANDOM_TREE_COUNT; i++)
+        {
+            PhylogenyTreeNode phylogeny = createRandomTree(random);
+            CompactPhylogenyTree pooledPhylogeny = pool.intern(phylogeny);
+            CompactPhylogenyTree canonicalPhylogeny =
+                CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny).createCanonicalTree();
+            Assert.assertEquals(canonicalPhylogeny, pooledPhylogeny);
+            Assert.assertEquals(
+                    canonicalPhylogeny.toNewickFormat(),
+                    pooledPhylogeny.toNewickFormat());
+            
+            // shuffling the strains and children doesn't change the topology
+            Assert.assertSame(
+                    pooledPhylogeny,
+                    pool.intern(createShuffledTree(random, phylogeny)));
+            Assert.assertSame(
+                    pooledPhylogeny,
+                    pool.intern(CompactPhylogenyTree.fromPhylogenyTreeNode(
+                            createShuffledTree(random, phylogeny))));
+        }
+    }
+    
+    @Test
+    public void foreignStrainTableTest()
+    {
+        Random random = new Random(502L);
+        PhylogenyTopologyPool pool = new PhylogenyTopologyPool();
+        CompactPhylogenyTree firstPooledPhylogeny = null;
+        for(int i = 0; i < RandomPhylogenyTrees.RANDOM_TREE_COUNT; i++)
+        {
+            // compact trees with their own strain tables are moved onto the
+            // pool's table
+            CompactPhylogenyTree phylogeny =
+                CompactPhylogenyTree.fromPhylogenyTreeNode(createRandomTree(random));
+            CompactPhylogenyTree pooledPhylogeny = pool.intern(phylogeny);
+            Assert.assertTrue(
+                    phylogeny.getStrainTable() != pooledPhylogeny.getStrainTable());
+            Assert.assertEquals(phylogeny.createCanonicalTree(), pooledPhylogeny);
+            if(firstPooledPhylogeny == null)
+            {
+                firstPooledPhylogeny = pooledPhylogeny;
+            }
+            
+            // the table is append only so older tables are prefixes
+            String[] strainTable = pooledPhylogeny.getStrainTable();
+            String[] firstStrainTable = firstPooledPhylogeny.getStrainTable();
+            Assert.assertEquals(
+                    Arrays.asList(firstStrainTable),
+                    Arrays.asList(strainTable).subList(0, firstStrainTable.length));
+        }
+        
+        // once the pool has seen every strain all new trees share its table
+        CompactPhylogenyTree lastPooledPhylogeny = pool.intern(
+                CompactPhylogenyTree.fromPhylogenyTreeNode(createRandomTree(random)));
+        Assert.assertSame(
+                lastPooledPhylogeny.getStrainTable(),
+                pool.intern(createRandomTree(random)).getStrainTable());
+        Assert.assertSame(
+                lastPooledPhylogeny.getStrainTable(),
+                pool.intern(CompactPhylogenyTree.fromPhylogenyTreeNode(
+                        createRandomTree(random))).getStrainTable());
+    }
+    
+    @Test
+    public void internIntervalsTest() throws IllegalFormatException
+    {
+        PhylogenyTreeNode phylogeny = PhylogenyTreeNode.fromNewickFormat(
+                "((B:1.0,A:1.0):1.0,C:2.0);");
+        PhylogenyTreeNode shuffledPhylogeny = PhylogenyTreeNode.fromNewickFormat(
+                "(C:2.0,(A:1.0,B:1.0):1.0);");
+        PhylogenyTreeNode otherPhylogeny = PhylogenyTreeNode.fromNewickFormat(
+                "((B:1.0,C:1.0):1.0,A:2.0);");
+        
+        List<PhylogenyInterval> intervals = new ArrayList<PhylogenyInterval>();
+        intervals.add(new PhylogenyInterval(
+                phylogeny,
+                new SimpleBasePairInterval(1, 100L, 10L)));
+        intervals.add(new PhylogenyInterval(
+                CompactPhylogenyTree.fromPhylogenyTreeNode(shuffledPhylogeny),
+                new SimpleBasePairInterval(1, 110L, 20L)));
+        intervals.add(new PhylogenyInterval(
+                otherPhylogeny,
+                new SimpleBasePairInterval(1, 130L, 5L)));
+        intervals.add(new PhylogenyInterval(
+                phylogeny,
+                new SimpleBasePairInterval(2, 1L, 1L)));
+        
+        List<PhylogenyInterval> pooledIntervals =
+            new PhylogenyTopologyPool().intern(intervals);
+        Assert.assertEquals(intervals.size(), pooledIntervals.size());
+        for(int i = 0; i < intervals.size(); i++)
+        {
+            Assert.assertSame(
+                    intervals.get(i).getInterval(),
+                    pooledIntervals.get(i).getInterval());
+        }
+        
+        CompactPhylogenyTree pooledPhylogeny =
+            pooledIntervals.get(0).getCompactPhylogeny();
+        Assert.assertEquals("((A:1.0,B:1.0):1.0,C:2.0);", pooledPhylogeny.toNewickFormat());
+        Assert.assertSame(pooledPhylogeny, pooledIntervals.get(1).getCompactPhylogeny());
+        Assert.assertSame(pooledPhylogeny, pooledIntervals.get(3).getCompactPhylogeny());
+        Assert.assertEquals(
+                "(A:2.0,(B:1.0,C:1.0):1.0);",
+                pooledIntervals.get(2).getCompactPhylogeny().toNewickFormat());
+    }
+    
+    /**
+     * Create a copy of the tree with the strains and children of every node
+     * shuffled
+     */
+    private static PhylogenyTreeNode createShuffledTree(
+            Random random,
+            PhylogenyTreeNode phylogeny)
+    {
+        List<PhylogenyTreeEdge> childEdges = new ArrayList<PhylogenyTreeEdge>();
+        for(PhylogenyTreeEdge childEdge: phylogeny.getChildEdges())
+        {
+            PhylogenyTreeNode shuffledChild = createShuffledTree(
+                    random,
+                    childEdge.getNode());
+            if(childEdge instanceof PhylogenyTreeEdgeWithRealValue)
+            {
+                childEdges.add(new PhylogenyTreeEdgeWithRealValue(
+                        childEdge.getSdpBits(),
+                        shuffledChild,
+                        childEdge.getEdgeLength(),
+                        ((PhylogenyTreeEdgeWithRealValue)childEdge).getRealValue()));
+            }
+            else
+            {
+                childEdges.add(new PhylogenyTreeEdge(
+                        childEdge.getSdpBits(),
+                        shuffledChild,
+                        childEdge.getEdgeLength()));
+            }
+        }
+        Collections.shuffle(childEdges, random);
+        
+        List<String> strains = new ArrayList<String>(phylogeny.getStrains());
+        Collections.shuffle(strains, random);
+        
+        return new PhylogenyTreeNode(childEdges, strains);
+    }
+    
+    /**
+     * Create a random tree. Every node is given a few strains so that the
+     * canonical child order is fully determined
+     */
+    private static PhylogenyTreeNode createRandomTree(Random random)
+    {
+        return RandomPhylogenyTrees.createRandomTree(
+                random,
+                200,
+                1,
+                3,
+                RandomPhylogenyTrees.EdgeKinds.MIXED);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.data;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random phylogeny trees used by the phylogeny data tests
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+/*package-protected*/ class RandomPhylogenyTrees
+{
+    /**
+     * The number of random trees that each randomized test checks
+     */
+    public static final int RANDOM_TREE_COUNT = 500;
+    
+    /**
+     * The kinds of edges that a random tree is built from
+     */
+    public enum EdgeKinds
+    {
+        /**
+         * plain edges with null SDPs and lengths in 64ths so that they
+         * survive a trip through the newick format
+         */
+        PLAIN,
+        
+        /**
+         * plain edges and edges with real values. most edges have an SDP,
+         * some of which are wider than a single word, and lengths are in
+         * quarters
+         */
+        MIXED
+    }
+    
+    /**
+     * Constructor (static methods only)
+     */
+    private RandomPhylogenyTrees()
+    {
+    }
+    
+    /**
+     * Create a random tree where no strain appears more than once
+     * @param random
+     *          the random source
+     * @param strainCount
+     *          the number of strains to draw from. this should be enough
+     *          for every node to get <code>minNodeStrainCount</code> strains
+     * @param minNodeStrainCount
+     *          the smallest number of strains a node gets (0 or 1). nodes
+     *          get at most 2 strains
+     * @param maxDepth
+     *          the depth below which nodes have no children
+     * @param edgeKinds
+     *          the kinds of edges to create
+     * @return
+     *          the root of the tree
+     */
+    public static PhylogenyTreeNode createRandomTree(
+            Random random,
+            int strainCount,
+            int minNodeStrainCount,
+            int maxDepth,
+            EdgeKinds edgeKinds)
+    {
+        List<String> strains = new ArrayList<String>();
+        for(int i = 0; i < strainCount; i++)
+        {
+            strains.add("s" + i);
+        }
+        Collections.shuffle(strains, random);
+        
+        return createRandomTreeRecursive(
+                random,
+                strains,
+                minNodeStrainCount,
+                0,
+                maxDepth,
+                edgeKinds);
+    }
+    
+    private static PhylogenyTreeNode createRandomTreeRecursive(
+            Random random,
+            List<String> remainingStrains,
+            int minNodeStrainCount,
+            int depth,
+            int maxDepth,
+            EdgeKinds edgeKinds)
+    {
+        List<String> nodeStrains = new ArrayList<String>();
+        int nodeStrainCount = Math.min(
+                minNodeStrainCount + random.nextInt(3 - minNodeStrainCount),
+                remainingStrains.size());
+        for(int i = 0; i < nodeStrainCount; i++)
+        {
+            nodeStrains.add(remainingStrains.remove(remainingStrains.size() - 1));
+        }
+        
+        List<PhylogenyTreeEdge> childEdges = new ArrayList<PhylogenyTreeEdge>();
+        int childCount = depth >= maxDepth ? 0 : random.nextInt(4);
+        for(int i = 0; i < childCount; i++)
+        {
+            PhylogenyTreeNode child = createRandomTreeRecursive(
+                    random,
+                    remainingStrains,
+                    minNodeStrainCount,
+                    depth + 1,
+                    maxDepth,
+                    edgeKinds);
+            childEdges.add(createRandomEdge(random, child, edgeKinds));
+        }
+        
+        return new PhylogenyTreeNode(childEdges, nodeStrains);
+    }
+    
+    private static PhylogenyTreeEdge createRandomEdge(
+            Random random,
+            PhylogenyTreeNode child,
+            EdgeKinds edgeKinds)
+    {
+        if(edgeKinds == EdgeKinds.PLAIN)
+        {
+            return new PhylogenyTreeEdge(
+                    (BitSet)null,
+                    child,
+                    random.nextInt(1000) / 64.0);
+        }
+        
+        BitSet sdp = null;
+        if(random.nextInt(5) != 0)
+        {
+            sdp = new BitSet();
+            int bitCount = random.nextInt(4);
+            for(int j = 0; j < bitCount; j++)
+            {
+                sdp.set(random.nextInt(150));
+            }
+        }
+        
+        double edgeLength = random.nextInt(8) / 4.0;
+        if(random.nextInt(3) == 0)
+        {
+            return new PhylogenyTreeEdgeWithRealValue(
+                    sdp,
+                    child,
+                    edgeLength,
+                    random.nextDouble());
+        }
+        else
+        {
+            return new PhylogenyTreeEdge(sdp, child, edgeLength);
+        }
+    }
+}
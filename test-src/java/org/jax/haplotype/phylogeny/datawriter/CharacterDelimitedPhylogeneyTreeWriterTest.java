@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.datawriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jax.geneticutil.data.SimpleBasePairInterval;
+import org.jax.haplotype.phylogeny.data.CompactPhylogenyTree;
+import org.jax.haplotype.phylogeny.data.PhylogenyInterval;
+import org.jax.haplotype.phylogeny.data.PhylogenyTestResult;
+import org.jax.haplotype.phylogeny.data.PhylogenyTopologyPool;
+import org.jax.haplotype.phylogeny.data.PhylogenyTreeNode;
+import org.jax.util.io.CharacterDelimitedParser;
+import org.jax.util.io.IllegalFormatException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class CharacterDelimitedPhylogeneyTreeWriterTest
+{
+    /**
+     * the 1st and 3rd trees are the same and the 2nd tree has the same
+     * topology in a different order
+     */
+    private static final String[] NEWICK_TREES =
+    {
+        "((B:1.0,A:1.0):1.0,D|C:2.0);",
+        "(C|D:2.0,(A:1.0,B:1.0):1.0);",
+        "((B:1.0,A:1.0):1.0,D|C:2.0);",
+        "(E:0.5,(A|B:1.0,C:1.0)D:1.0);"
+    };
+    
+    @Test
+    public void compactPhylogenyIntervalsTest() throws IOException, IllegalFormatException
+    {
+        // intervals holding compact trees are written just like the same
+        // trees held as nodes
+        List<PhylogenyInterval> nodeIntervals = new ArrayList<PhylogenyInterval>();
+        List<PhylogenyInterval> compactIntervals = new ArrayList<PhylogenyInterval>();
+        for(int i = 0; i < NEWICK_TREES.length; i++)
+        {
+            SimpleBasePairInterval interval =
+                new SimpleBasePairInterval(1, 100L * i, 50L);
+            PhylogenyTreeNode phylogeny =
+                PhylogenyTreeNode.fromNewickFormat(NEWICK_TREES[i]);
+            nodeIntervals.add(new PhylogenyInterval(phylogeny, interval));
+            compactIntervals.add(new PhylogenyInterval(
+                    CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny),
+                    interval));
+        }
+        
+        String nodeOutput = write(nodeIntervals, false);
+        for(String newickTree: NEWICK_TREES)
+        {
+            Assert.assertTrue(nodeOutput.contains(newickTree));
+        }
+        Assert.assertEquals(nodeOutput, write(compactIntervals, false));
+        Assert.assertEquals(
+                write(nodeIntervals, true),
+                write(compactIntervals, true));
+    }
+    
+    @Test
+    public void pooledPhylogenyIntervalsTest() throws IOException, IllegalFormatException
+    {
+        // intervals sharing a pooled tree are written in the pooled tree's
+        // canonical order
+        List<PhylogenyInterval> intervals = new ArrayList<PhylogenyInterval>();
+        for(int i = 0; i < NEWICK_TREES.length; i++)
+        {
+            intervals.add(new PhylogenyInterval(
+                    PhylogenyTreeNode.fromNewickFormat(NEWICK_TREES[i]),
+                    new SimpleBasePairInterval(1, 100L * i, 50L)));
+        }
+        List<PhylogenyInterval> pooledIntervals =
+            new PhylogenyTopologyPool().intern(intervals);
+        Assert.assertSame(
+                pooledIntervals.get(0).getCompactPhylogeny(),
+                pooledIntervals.get(1).getCompactPhylogeny());
+        
+        List<PhylogenyInterval> canonicalNodeIntervals =
+            new ArrayList<PhylogenyInterval>();
+        for(PhylogenyInterval pooledInterval: pooledIntervals)
+        {
+            canonicalNodeIntervals.add(new PhylogenyInterval(
+                    pooledInterval.getCompactPhylogeny().toPhylogenyTreeNode(),
+                    pooledInterval.getInterval()));
+        }
+        
+        String pooledOutput = write(pooledIntervals, false);
+        Assert.assertTrue(pooledOutput.contains("((A:1.0,B:1.0):1.0,C|D:2.0);"));
+        Assert.assertFalse(pooledOutput.contains(NEWICK_TREES[0]));
+        Assert.assertEquals(pooledOutput, write(canonicalNodeIntervals, false));
+        Assert.assertEquals(
+                write(canonicalNodeIntervals, true),
+                write(pooledIntervals, true));
+    }
+    
+    @Test
+    public void compactPhylogenyTestResultsTest() throws IllegalFormatException
+    {
+        // test results holding compact trees are written just like the same
+        // trees held as nodes
+        List<PhylogenyTestResult> nodeResults = new ArrayList<PhylogenyTestResult>();
+        List<PhylogenyTestResult> compactResults = new ArrayList<PhylogenyTestResult>();
+        for(int i = 0; i < NEWICK_TREES.length; i++)
+        {
+            SimpleBasePairInterval interval =
+                new SimpleBasePairInterval(1, 100L * i, 50L);
+            PhylogenyTreeNode phylogeny =
+                PhylogenyTreeNode.fromNewickFormat(NEWICK_TREES[i]);
+            double pValue = 1.0 / (i + 2);
+            nodeResults.add(new PhylogenyTestResult(
+                    new PhylogenyInterval(phylogeny, interval),
+                    pValue));
+            compactResults.add(new PhylogenyTestResult(
+                    new PhylogenyInterval(
+                            CompactPhylogenyTree.fromPhylogenyTreeNode(phylogeny),
+                            interval),
+                    pValue));
+        }
+        
+        String nodeOutput = writeTestResults(nodeResults);
+        for(String newickTree: NEWICK_TREES)
+        {
+            Assert.assertTrue(nodeOutput.contains(newickTree));
+        }
+        Assert.assertEquals(nodeOutput, writeTestResults(compactResults));
+    }
+    
+    private static String writeTestResults(List<PhylogenyTestResult> testResults)
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        CharacterDelimitedPhylogeneyTreeWriter writer =
+            new CharacterDelimitedPhylogeneyTreeWriter(new CharacterDelimitedParser());
+        writer.writePhylogenyTestResultsToStream(
+                outputStream,
+                testResults,
+                "phylogeny test results");
+        return outputStream.toString();
+    }
+    
+    private static String write(
+            List<PhylogenyInterval> phylogenyIntervals,
+            boolean simplifyTrees) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        CharacterDelimitedPhylogeneyTreeWriter writer =
+            new CharacterDelimitedPhylogeneyTreeWriter(new CharacterDelimitedParser());
+        writer.writePhylogenyIntervalsToStream(
+                outputStream,
+                phylogenyIntervals,
+                "phylogeny intervals",
+                simplifyTrees);
+        return outputStream.toString("UTF-8");
+    }
+}
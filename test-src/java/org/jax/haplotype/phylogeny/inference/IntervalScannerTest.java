@@ -18,22 +18,41 @@
 package org.jax.haplotype.phylogeny.inference;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.jax.geneticutil.data.BasePairInterval;
 import org.jax.geneticutil.data.IndexedSnpInterval;
+import org.jax.geneticutil.data.SimpleBasePairInterval;
 import org.jax.geneticutil.data.SingleNucleotidePolymorphism;
+import org.jax.geneticutil.data.SnpType;
 import org.jax.geneticutil.data.StrainChromosome;
 import org.jax.haplotype.io.ForwardStrainChromosomeSnpInputStream;
 import org.jax.haplotype.io.ForwardStrainChromosomeSnpPositionInputStream;
 import org.jax.haplotype.io.GenotypeParser;
+import org.jax.haplotype.io.MinorityNormalizedSdpInputStream;
 import org.jax.haplotype.io.ReverseStrainChromosomeSnpInputStream;
 import org.jax.haplotype.io.SdpInputStream;
 import org.jax.haplotype.io.SimpleSdpInputStream;
 import org.jax.haplotype.io.SnpInputStream;
+import org.jax.haplotype.io.SnpPositionIndex;
+import org.jax.haplotype.io.SnpPositionInputStream;
+import org.jax.haplotype.io.StreamDirection;
 import org.jax.util.datastructure.SequenceUtilities;
 import org.junit.Assert;
 import org.junit.Test;
@@ -94,6 +113,449 @@ public class IntervalScannerTest
         Assert.assertTrue(intervals.size() == 2);
     }
     
+    @Test
+    public void maxKScanFailureTest() throws IOException, InterruptedException
+    {
+        // the greedy scans block until they're interrupted (or give up
+        // after a while) and the uber scan fails right away
+        TestSdpInputStream forwardStream =
+            new TestSdpInputStream(StreamDirection.FORWARD, false);
+        TestSdpInputStream reverseStream =
+            new TestSdpInputStream(StreamDirection.REVERSE, false);
+        TestSdpInputStream uberStream =
+            new TestSdpInputStream(StreamDirection.FORWARD, true);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            long startTime = System.currentTimeMillis();
+            try
+            {
+                new IntervalScanner().maxKScan(
+                        forwardStream,
+                        reverseStream,
+                        uberStream,
+                        null,
+                        executor);
+                Assert.fail("the uber scan failure should be thrown");
+            }
+            catch(IOException ex)
+            {
+                Assert.assertEquals(TestSdpInputStream.FAILURE_MESSAGE, ex.getMessage());
+            }
+            
+            // the failure must not wait for the greedy scans to finish
+            long elapsedMillis = System.currentTimeMillis() - startTime;
+            Assert.assertTrue(
+                    elapsedMillis < TimeUnit.SECONDS.toMillis(TestSdpInputStream.BLOCK_SECONDS));
+            Assert.assertTrue(forwardStream.interrupted.await(
+                    TestSdpInputStream.BLOCK_SECONDS,
+                    TimeUnit.SECONDS));
+            Assert.assertTrue(reverseStream.interrupted.await(
+                    TestSdpInputStream.BLOCK_SECONDS,
+                    TimeUnit.SECONDS));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void maxKScanResumeTest() throws IOException
+    {
+        Random random = new Random(30L);
+        String[] strainNames = new String[] {"A", "B", "C", "D", "E", "F"};
+        List<BitSet> sdps = new ArrayList<BitSet>();
+        for(int i = 0; i < 500; i++)
+        {
+            BitSet sdp = new BitSet(strainNames.length);
+            for(int strain = 0; strain < strainNames.length; strain++)
+            {
+                sdp.set(strain, random.nextInt(3) == 0);
+            }
+            sdps.add(sdp);
+        }
+        List<BitSet> reverseSdps = new ArrayList<BitSet>(sdps);
+        Collections.reverse(reverseSdps);
+        
+        String[] scanNames = new String[] {
+                IntervalScanner.FORWARD_SCAN_CHECKPOINT_NAME,
+                IntervalScanner.REVERSE_SCAN_CHECKPOINT_NAME,
+                IntervalScanner.UBER_SCAN_CHECKPOINT_NAME};
+        
+        // an uninterrupted scan checkpoints all three scan results
+        IntervalScanner intervalScanner = new IntervalScanner();
+        ScanCheckpoint fullCheckpoint = new ScanCheckpoint(
+                createCheckpointFile(),
+                CHECKPOINT_SCAN_KEY);
+        List<IndexedSnpInterval> expectedIntervals = intervalScanner.maxKScan(
+                new ListSdpInputStream(strainNames, sdps, StreamDirection.FORWARD),
+                new ListSdpInputStream(strainNames, reverseSdps, StreamDirection.REVERSE),
+                new ListSdpInputStream(strainNames, sdps, StreamDirection.FORWARD),
+                fullCheckpoint);
+        Serializable[] scanResults = new Serializable[scanNames.length];
+        for(int i = 0; i < scanNames.length; i++)
+        {
+            scanResults[i] = fullCheckpoint.getValue(scanNames[i]);
+            Assert.assertNotNull(scanResults[i]);
+        }
+        fullCheckpoint.delete();
+        
+        // resume from every combination of one or two stored scan results
+        for(int storedScans = 1; storedScans < 7; storedScans++)
+        {
+            File checkpointFile = createCheckpointFile();
+            ScanCheckpoint checkpoint = new ScanCheckpoint(
+                    checkpointFile,
+                    CHECKPOINT_SCAN_KEY);
+            for(int i = 0; i < scanNames.length; i++)
+            {
+                if(isStored(storedScans, i))
+                {
+                    checkpoint.putValue(scanNames[i], scanResults[i]);
+                }
+            }
+            checkpoint.close();
+            
+            // the stored scans must be skipped so their streams fail if read
+            checkpoint = new ScanCheckpoint(checkpointFile, CHECKPOINT_SCAN_KEY);
+            List<IndexedSnpInterval> intervals = intervalScanner.maxKScan(
+                    isStored(storedScans, 0) ?
+                            new TestSdpInputStream(StreamDirection.FORWARD, true) :
+                            new ListSdpInputStream(strainNames, sdps, StreamDirection.FORWARD),
+                    isStored(storedScans, 1) ?
+                            new TestSdpInputStream(StreamDirection.REVERSE, true) :
+                            new ListSdpInputStream(strainNames, reverseSdps, StreamDirection.REVERSE),
+                    isStored(storedScans, 2) ?
+                            new TestSdpInputStream(StreamDirection.FORWARD, true) :
+                            new ListSdpInputStream(strainNames, sdps, StreamDirection.FORWARD),
+                    checkpoint);
+            
+            Assert.assertEquals(expectedIntervals.size(), intervals.size());
+            for(int i = 0; i < expectedIntervals.size(); i++)
+            {
+                Assert.assertEquals(
+                        expectedIntervals.get(i).getStartIndex(),
+                        intervals.get(i).getStartIndex());
+                Assert.assertEquals(
+                        expectedIntervals.get(i).getExtentInIndices(),
+                        intervals.get(i).getExtentInIndices());
+            }
+            
+            // the scans that ran are checkpointed too
+            for(int i = 0; i < scanNames.length; i++)
+            {
+                Assert.assertNotNull(checkpoint.getValue(scanNames[i]));
+            }
+            checkpoint.delete();
+        }
+    }
+    
+    private static boolean isStored(int storedScans, int scanIndex)
+    {
+        return (storedScans & (1 << scanIndex)) != 0;
+    }
+    
+    private static File createCheckpointFile() throws IOException
+    {
+        File checkpointFile = File.createTempFile("interval-scanner-test", ".ckpt");
+        checkpointFile.deleteOnExit();
+        Assert.assertTrue(checkpointFile.delete());
+        return checkpointFile;
+    }
+    
+    @Test
+    public void maxKIntervalsRandomTest()
+    {
+        IntervalScanner intervalScanner = new IntervalScanner();
+        Random random = new Random(45L);
+        for(int i = 0; i < 5000; i++)
+        {
+            List<List<IndexedSnpInterval>> uberCores =
+                this.createRandomUberCores(random);
+            this.assertSameIntervals(
+                    this.createMaxKIntervalsQuadratic(uberCores),
+                    intervalScanner.createMaxKIntervals(uberCores));
+        }
+    }
+    
+    @Test
+    public void maxKIntervalsTieTest()
+    {
+        // every path has the same cumulative extent so the 1st interval of
+        // each group has to win
+        List<List<IndexedSnpInterval>> uberCores =
+            new ArrayList<List<IndexedSnpInterval>>();
+        uberCores.add(this.createGroup(new int[] {0, 4, 1, 3}));
+        uberCores.add(this.createGroup(new int[] {4, 8, 5, 7, 5, 7}));
+        uberCores.add(this.createGroup(new int[] {8, 9, 8, 9}));
+        
+        List<IndexedSnpInterval> maxKIntervals =
+            new IntervalScanner().createMaxKIntervals(uberCores);
+        this.assertSameIntervals(
+                this.createMaxKIntervalsQuadratic(uberCores),
+                maxKIntervals);
+        for(int i = 0; i < uberCores.size(); i++)
+        {
+            Assert.assertSame(uberCores.get(i).get(0), maxKIntervals.get(i));
+        }
+    }
+    
+    @Test
+    public void maxKIntervalsUnsortedEndsTest()
+    {
+        // the groups are sorted by start but the ends fall and rise again
+        // so the follower pointer has to move back as well as forward
+        List<List<IndexedSnpInterval>> uberCores =
+            new ArrayList<List<IndexedSnpInterval>>();
+        uberCores.add(this.createGroup(new int[] {0, 20, 2, 5, 3, 9, 4, 6}));
+        uberCores.add(this.createGroup(new int[] {6, 25, 7, 30, 10, 21, 21, 40}));
+        uberCores.add(this.createGroup(new int[] {22, 50, 26, 45, 31, 41}));
+        
+        List<IndexedSnpInterval> maxKIntervals =
+            new IntervalScanner().createMaxKIntervals(uberCores);
+        this.assertSameIntervals(
+                this.createMaxKIntervalsQuadratic(uberCores),
+                maxKIntervals);
+        Assert.assertSame(uberCores.get(0).get(0), maxKIntervals.get(0));
+        Assert.assertSame(uberCores.get(1).get(1), maxKIntervals.get(1));
+        Assert.assertSame(uberCores.get(2).get(0), maxKIntervals.get(2));
+    }
+    
+    @Test
+    public void maxKIntervalsSingleIntervalGroupsTest()
+    {
+        IntervalScanner intervalScanner = new IntervalScanner();
+        
+        List<List<IndexedSnpInterval>> uberCores =
+            new ArrayList<List<IndexedSnpInterval>>();
+        Assert.assertTrue(intervalScanner.createMaxKIntervals(uberCores).isEmpty());
+        
+        uberCores.add(this.createGroup(new int[] {3, 7}));
+        this.assertSameIntervals(
+                this.createMaxKIntervalsQuadratic(uberCores),
+                intervalScanner.createMaxKIntervals(uberCores));
+        
+        uberCores.add(this.createGroup(new int[] {8, 8}));
+        uberCores.add(this.createGroup(new int[] {6, 12}));
+        List<IndexedSnpInterval> maxKIntervals =
+            intervalScanner.createMaxKIntervals(uberCores);
+        this.assertSameIntervals(
+                this.createMaxKIntervalsQuadratic(uberCores),
+                maxKIntervals);
+        Assert.assertEquals(3, maxKIntervals.size());
+    }
+    
+    @Test
+    public void maxKIntervalsNoFollowerTest()
+    {
+        // [0, 3] ends too early for [5, 9] to follow it
+        List<List<IndexedSnpInterval>> uberCores =
+            new ArrayList<List<IndexedSnpInterval>>();
+        uberCores.add(this.createGroup(new int[] {0, 3}));
+        uberCores.add(this.createGroup(new int[] {5, 9}));
+        try
+        {
+            new IntervalScanner().createMaxKIntervals(uberCores);
+            Assert.fail("an interval without a follower should be rejected");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // expected
+        }
+        
+        // [1, 3] comes after [0, 30] which can be followed so the follower
+        // pointer has to move back to see that [1, 3] can't be
+        uberCores.clear();
+        uberCores.add(this.createGroup(new int[] {0, 30, 1, 3}));
+        uberCores.add(this.createGroup(new int[] {10, 40}));
+        try
+        {
+            new IntervalScanner().createMaxKIntervals(uberCores);
+            Assert.fail("an interval without a follower should be rejected");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // expected
+        }
+    }
+    
+    /**
+     * Compare the compatibility index against the uber scan and against
+     * checking every pair of SNPs in every range
+     */
+    @Test
+    public void compatibilityIndexRandomTest() throws IOException
+    {
+        IntervalScanner intervalScanner = new IntervalScanner();
+        Random random = new Random(44L);
+        for(int streamIndex = 0; streamIndex < COMPATIBILITY_STREAM_COUNT; streamIndex++)
+        {
+            int strainCount = 2 + random.nextInt(100);
+            String[] strainNames = new String[strainCount];
+            for(int i = 0; i < strainCount; i++)
+            {
+                strainNames[i] = "strain" + i;
+            }
+            List<BitSet> sdps = this.createRandomSdpStream(
+                    random,
+                    strainCount,
+                    random.nextInt(COMPATIBILITY_STREAM_LENGTH + 1));
+    
+            CompatibilityIndex compatibilityIndex =
+                intervalScanner.createCompatibilityIndex(new ListSdpInputStream(
+                        strainNames,
+                        sdps,
+                        StreamDirection.FORWARD));
+            List<IndexedSnpInterval> uberIntervals =
+                intervalScanner.uberScan(new ListSdpInputStream(
+                        strainNames,
+                        sdps,
+                        StreamDirection.FORWARD));
+    
+            boolean[][] compatibleRanges = this.createCompatibleRanges(
+                    new ListSdpInputStream(
+                            strainNames,
+                            sdps,
+                            StreamDirection.FORWARD));
+            int snpCount = sdps.size();
+            Assert.assertEquals(snpCount, compatibilityIndex.getSnpCount());
+            List<IndexedSnpInterval> expectedMaximalIntervals =
+                new ArrayList<IndexedSnpInterval>();
+            for(int startIndex = 0; startIndex < snpCount; startIndex++)
+            {
+                int expectedEndIndex = startIndex;
+                for(int endIndex = startIndex; endIndex < snpCount; endIndex++)
+                {
+                    Assert.assertEquals(
+                            compatibleRanges[startIndex][endIndex],
+                            compatibilityIndex.isCompatible(startIndex, endIndex));
+                    if(compatibleRanges[startIndex][endIndex])
+                    {
+                        expectedEndIndex = endIndex;
+                    }
+                }
+                Assert.assertEquals(
+                        expectedEndIndex,
+                        compatibilityIndex.getCompatibleEndIndex(startIndex));
+    
+                // a range is maximal if it can't grow on either side
+                if(startIndex == 0 ||
+                   !compatibleRanges[startIndex - 1][expectedEndIndex])
+                {
+                    expectedMaximalIntervals.add(new IndexedSnpInterval(
+                            startIndex,
+                            1 + expectedEndIndex - startIndex));
+                }
+            }
+    
+            for(int endIndex = 0; endIndex < snpCount; endIndex++)
+            {
+                int expectedStartIndex = endIndex;
+                while(expectedStartIndex > 0 &&
+                      compatibleRanges[expectedStartIndex - 1][endIndex])
+                {
+                    expectedStartIndex--;
+                }
+                Assert.assertEquals(
+                        expectedStartIndex,
+                        compatibilityIndex.getCompatibleStartIndex(endIndex));
+            }
+    
+            this.assertEqualIntervals(
+                    expectedMaximalIntervals,
+                    compatibilityIndex.getMaximalCompatibleIntervals());
+            this.assertEqualIntervals(
+                    uberIntervals,
+                    compatibilityIndex.getMaximalCompatibleIntervals());
+        }
+    }
+    
+    @Test
+    public void compatibilityIndexBoundsTest() throws IOException
+    {
+        List<BitSet> sdps = this.createRandomSdpStream(new Random(440L), 10, 20);
+        CompatibilityIndex compatibilityIndex =
+            new IntervalScanner().createCompatibilityIndex(new ListSdpInputStream(
+                    new String[10],
+                    sdps,
+                    StreamDirection.FORWARD));
+        try
+        {
+            compatibilityIndex.isCompatible(5, 4);
+            Assert.fail("a start after the end should be rejected");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // expected
+        }
+    
+        for(int startIndex: new int[] {-1, 20})
+        {
+            try
+            {
+                compatibilityIndex.getCompatibleEndIndex(startIndex);
+                Assert.fail("an out of range start should be rejected");
+            }
+            catch(IndexOutOfBoundsException ex)
+            {
+                // expected
+            }
+        }
+    }
+    
+    /**
+     * Compare the position index conversion against the map based conversion
+     * that it replaced
+     */
+    @Test
+    public void physicalIntervalsRandomTest() throws IOException
+    {
+        IntervalScanner intervalScanner = new IntervalScanner();
+        Random random = new Random(46L);
+    
+        // single SNP intervals at both ends of the chromosome, overlapping
+        // intervals and intervals that end at the last SNP
+        SingleNucleotidePolymorphism[] snps = this.createRandomSnps(random, 10);
+        this.assertSamePhysicalIntervals(
+                intervalScanner,
+                this.createGroup(new int[] {0, 0, 1, 4, 2, 6, 5, 5, 7, 9}),
+                snps);
+        this.assertSamePhysicalIntervals(
+                intervalScanner,
+                this.createGroup(new int[] {0, 8, 3, 3, 9, 9}),
+                snps);
+        this.assertSamePhysicalIntervals(
+                intervalScanner,
+                this.createGroup(new int[] {0, 9}),
+                snps);
+        this.assertSamePhysicalIntervals(
+                intervalScanner,
+                new ArrayList<IndexedSnpInterval>(),
+                snps);
+    
+        // the uber scan intervals overlap and the last one always ends at
+        // the last SNP
+        for(int streamIndex = 0; streamIndex < COMPATIBILITY_STREAM_COUNT; streamIndex++)
+        {
+            int strainCount = 2 + random.nextInt(20);
+            List<BitSet> sdps = this.createRandomSdpStream(
+                    random,
+                    strainCount,
+                    1 + random.nextInt(COMPATIBILITY_STREAM_LENGTH));
+            List<IndexedSnpInterval> uberIntervals =
+                intervalScanner.uberScan(new ListSdpInputStream(
+                        new String[strainCount],
+                        sdps,
+                        StreamDirection.FORWARD));
+            this.assertSamePhysicalIntervals(
+                    intervalScanner,
+                    uberIntervals,
+                    this.createRandomSnps(random, sdps.size()));
+        }
+    }
+    
     @Test
     public void fullScanTestAllChromosomes() throws IOException
     {
@@ -450,4 +912,548 @@ public class IntervalScannerTest
         
         return indexedIntervals;
     }
+    
+    /**
+     * Create random uber cores where each group is sorted by start and
+     * every interval can be followed by some interval of the next group.
+     * Extents are small so there are lots of ties
+     */
+    private List<List<IndexedSnpInterval>> createRandomUberCores(Random random)
+    {
+        int groupCount = 1 + random.nextInt(8);
+        List<List<IndexedSnpInterval>> uberCores =
+            new ArrayList<List<IndexedSnpInterval>>(groupCount);
+        int minNextStart = 20 * (groupCount + 1);
+        for(int i = groupCount - 1; i >= 0; i--)
+        {
+            // half of the groups hold a single interval
+            int groupSize = random.nextBoolean() ? 1 : 1 + random.nextInt(6);
+            List<IndexedSnpInterval> group =
+                new ArrayList<IndexedSnpInterval>(groupSize);
+            int minStart = Integer.MAX_VALUE;
+            for(int j = 0; j < groupSize; j++)
+            {
+                int end = minNextStart - 1 + random.nextInt(4);
+                int extent = 1 + random.nextInt(6);
+                int start = end - extent + 1;
+                group.add(new IndexedSnpInterval(start, extent));
+                minStart = Math.min(minStart, start);
+            }
+            
+            // a stable sort on the start alone leaves the ends unordered
+            Collections.sort(group, START_INDEX_COMPARATOR);
+            uberCores.add(0, group);
+            minNextStart = minStart;
+        }
+        
+        return uberCores;
+    }
+    
+    private static final Comparator<IndexedSnpInterval> START_INDEX_COMPARATOR =
+        new Comparator<IndexedSnpInterval>()
+        {
+            public int compare(IndexedSnpInterval interval1, IndexedSnpInterval interval2)
+            {
+                return interval1.getStartIndex() - interval2.getStartIndex();
+            }
+        };
+    
+    /**
+     * Create a group from start/end index pairs
+     */
+    private List<IndexedSnpInterval> createGroup(int[] startsAndEnds)
+    {
+        List<IndexedSnpInterval> group = new ArrayList<IndexedSnpInterval>();
+        for(int i = 0; i < startsAndEnds.length; i += 2)
+        {
+            group.add(new IndexedSnpInterval(
+                    startsAndEnds[i],
+                    1 + startsAndEnds[i + 1] - startsAndEnds[i]));
+        }
+        
+        return group;
+    }
+    
+    private void assertSameIntervals(
+            List<IndexedSnpInterval> expected,
+            List<IndexedSnpInterval> actual)
+    {
+        Assert.assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++)
+        {
+            Assert.assertSame(expected.get(i), actual.get(i));
+        }
+    }
+    
+    /**
+     * The quadratic max-k pass that
+     * {@link IntervalScanner#createMaxKIntervals(List)} replaced
+     */
+    private List<IndexedSnpInterval> createMaxKIntervalsQuadratic(
+            List<List<IndexedSnpInterval>> uberCores)
+    {
+        int coreCount = uberCores.size();
+        List<IndexedSnpInterval> maxKIntervals = new ArrayList<IndexedSnpInterval>(
+                coreCount);
+        
+        if(coreCount >= 1)
+        {
+            int[][] forwardPointers = new int[uberCores.size() - 1][];
+            List<IndexedSnpInterval> prevCoreGroup = uberCores.get(
+                    uberCores.size() - 1);
+            long[] cumulativeExtents = new long[prevCoreGroup.size()];
+            for(int i = 0; i < cumulativeExtents.length; i++)
+            {
+                cumulativeExtents[i] = prevCoreGroup.get(i).getExtentInIndices();
+            }
+            
+            for(int i = coreCount - 2; i >= 0; i--)
+            {
+                List<IndexedSnpInterval> currCoreGroup = uberCores.get(i);
+                int currCoreGroupSize = currCoreGroup.size();
+                int[] currForwardPointers = new int[currCoreGroupSize];
+                long[] currCumulativeExtents = new long[currCoreGroupSize];
+                
+                for(int j = 0; j < currCoreGroupSize; j++)
+                {
+                    IndexedSnpInterval currGroupInterval = currCoreGroup.get(j);
+                    int prevCoreGroupSize = prevCoreGroup.size();
+                    long maxCumulativeExtent = 0L;
+                    for(int k = 0; k < prevCoreGroupSize; k++)
+                    {
+                        IndexedSnpInterval prevGroupInterval = prevCoreGroup.get(k);
+                        long currCumulativeExtent =
+                            cumulativeExtents[k] + currGroupInterval.getExtentInIndices();
+                        if(currCumulativeExtent > maxCumulativeExtent &&
+                           currGroupInterval.getEndIndex() >= prevGroupInterval.getStartIndex() - 1)
+                        {
+                            maxCumulativeExtent = currCumulativeExtent;
+                            currCumulativeExtents[j] = currCumulativeExtent;
+                            currForwardPointers[j] = k;
+                        }
+                    }
+                    Assert.assertTrue(maxCumulativeExtent > 0L);
+                }
+                
+                forwardPointers[i] = currForwardPointers;
+                cumulativeExtents = currCumulativeExtents;
+                prevCoreGroup = currCoreGroup;
+            }
+            
+            int currPointer = 0;
+            for(int i = 0; i < cumulativeExtents.length; i++)
+            {
+                if(cumulativeExtents[i] > cumulativeExtents[currPointer])
+                {
+                    currPointer = i;
+                }
+            }
+            maxKIntervals.add(uberCores.get(0).get(currPointer));
+            
+            for(int i = 0; i < forwardPointers.length; i++)
+            {
+                currPointer = forwardPointers[i][currPointer];
+                maxKIntervals.add(uberCores.get(i + 1).get(currPointer));
+            }
+        }
+        
+        return maxKIntervals;
+    }
+    
+    private static final int COMPATIBILITY_STREAM_COUNT = 300;
+    
+    private static final int COMPATIBILITY_STREAM_LENGTH = 150;
+    
+    /**
+     * Create a stream of SDPs where most SDPs come from a small pool which
+     * slowly changes, so that there are long compatible runs along with
+     * some conflicts. The SDPs are not minority normalized
+     */
+    private List<BitSet> createRandomSdpStream(
+            Random random,
+            int strainCount,
+            int sdpCount)
+    {
+        BitSet[] pool = new BitSet[1 + random.nextInt(8)];
+        for(int i = 0; i < pool.length; i++)
+        {
+            pool[i] = this.createRandomSdp(random, strainCount);
+        }
+    
+        List<BitSet> sdps = new ArrayList<BitSet>(sdpCount);
+        for(int i = 0; i < sdpCount; i++)
+        {
+            if(random.nextInt(30) == 0)
+            {
+                pool[random.nextInt(pool.length)] =
+                    this.createRandomSdp(random, strainCount);
+            }
+    
+            if(random.nextInt(20) == 0)
+            {
+                sdps.add(this.createRandomSdp(random, strainCount));
+            }
+            else
+            {
+                sdps.add((BitSet)pool[random.nextInt(pool.length)].clone());
+            }
+        }
+    
+        return sdps;
+    }
+    
+    private BitSet createRandomSdp(Random random, int strainCount)
+    {
+        BitSet sdp = new BitSet(strainCount);
+        double density = random.nextDouble();
+        for(int i = 0; i < strainCount; i++)
+        {
+            sdp.set(i, random.nextDouble() < density);
+        }
+    
+        return sdp;
+    }
+    
+    /**
+     * Check every pair of SNPs in the stream
+     * @return
+     *          a matrix where [start][end] is true if the SNPs in
+     *          [start, end] are all pairwise compatible
+     */
+    private boolean[][] createCompatibleRanges(SdpInputStream sdpInputStream)
+            throws IOException
+    {
+        sdpInputStream = new MinorityNormalizedSdpInputStream(sdpInputStream);
+        List<BitSet> sdps = new ArrayList<BitSet>();
+        while(sdpInputStream.hasNextSdp())
+        {
+            sdps.add(sdpInputStream.getNextSdp());
+        }
+    
+        // a range is compatible if both of its one shorter ranges are and
+        // its end SNPs are
+        int snpCount = sdps.size();
+        boolean[][] compatibleRanges = new boolean[snpCount][snpCount];
+        for(int endIndex = 0; endIndex < snpCount; endIndex++)
+        {
+            compatibleRanges[endIndex][endIndex] = true;
+            for(int startIndex = endIndex - 1; startIndex >= 0; startIndex--)
+            {
+                compatibleRanges[startIndex][endIndex] =
+                    compatibleRanges[startIndex][endIndex - 1] &&
+                    compatibleRanges[startIndex + 1][endIndex] &&
+                    IntervalScanner.areMinorityNormalizedSdpsCompatible(
+                            sdps.get(startIndex),
+                            sdps.get(endIndex));
+            }
+        }
+    
+        return compatibleRanges;
+    }
+    
+    private void assertEqualIntervals(
+            List<IndexedSnpInterval> expected,
+            List<IndexedSnpInterval> actual)
+    {
+        Assert.assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++)
+        {
+            Assert.assertEquals(
+                    expected.get(i).getStartIndex(),
+                    actual.get(i).getStartIndex());
+            Assert.assertEquals(
+                    expected.get(i).getExtentInIndices(),
+                    actual.get(i).getExtentInIndices());
+        }
+    }
+    
+    private SingleNucleotidePolymorphism[] createRandomSnps(
+            Random random,
+            int snpCount)
+    {
+        SnpType[] snpTypes = SnpType.values();
+        SingleNucleotidePolymorphism[] snps =
+            new SingleNucleotidePolymorphism[snpCount];
+        long position = random.nextInt(1000);
+        for(int i = 0; i < snpCount; i++)
+        {
+            position += 1 + random.nextInt(50);
+            snps[i] = new SingleNucleotidePolymorphism(
+                    snpTypes[random.nextInt(snpTypes.length)],
+                    position);
+        }
+    
+        return snps;
+    }
+    
+    /**
+     * Convert the intervals with both position stream and position index
+     * conversions and with the map based conversion that they replaced
+     */
+    private void assertSamePhysicalIntervals(
+            IntervalScanner intervalScanner,
+            List<IndexedSnpInterval> indexedSnpIntervals,
+            SingleNucleotidePolymorphism[] snps) throws IOException
+    {
+        int chromosomeNumber = 7;
+        List<BasePairInterval> expectedIntervals =
+            this.toOrderedPhysicalIntervalsWithMaps(
+                    indexedSnpIntervals,
+                    new ForwardStrainChromosomeSnpPositionInputStream(
+                            chromosomeNumber,
+                            snps));
+    
+        SnpPositionIndex positionIndex = SnpPositionIndex.read(
+                new ForwardStrainChromosomeSnpPositionInputStream(
+                        chromosomeNumber,
+                        snps));
+        Assert.assertEquals(chromosomeNumber, positionIndex.getChromosomeNumber());
+        Assert.assertEquals(snps.length, positionIndex.getSnpCount());
+        for(int i = 0; i < snps.length; i++)
+        {
+            Assert.assertEquals(
+                    snps[i].getPositionInBasePairs(),
+                    positionIndex.getSnpPositionInBasePairs(i));
+        }
+    
+        List<List<BasePairInterval>> actualIntervalLists =
+            new ArrayList<List<BasePairInterval>>();
+        actualIntervalLists.add(intervalScanner.toOrderedPhysicalIntervals(
+                indexedSnpIntervals,
+                positionIndex));
+        actualIntervalLists.add(intervalScanner.toOrderedPhysicalIntervals(
+                indexedSnpIntervals,
+                new ForwardStrainChromosomeSnpPositionInputStream(
+                        chromosomeNumber,
+                        snps)));
+        for(List<BasePairInterval> actualIntervals: actualIntervalLists)
+        {
+            Assert.assertEquals(expectedIntervals.size(), actualIntervals.size());
+            for(int i = 0; i < expectedIntervals.size(); i++)
+            {
+                BasePairInterval expectedInterval = expectedIntervals.get(i);
+                BasePairInterval actualInterval = actualIntervals.get(i);
+                Assert.assertEquals(
+                        expectedInterval.getChromosomeNumber(),
+                        actualInterval.getChromosomeNumber());
+                Assert.assertEquals(
+                        expectedInterval.getStartInBasePairs(),
+                        actualInterval.getStartInBasePairs());
+                Assert.assertEquals(
+                        expectedInterval.getExtentInBasePairs(),
+                        actualInterval.getExtentInBasePairs());
+            }
+        }
+    }
+    
+    /**
+     * The map based conversion that
+     * {@link IntervalScanner#toOrderedPhysicalIntervals(List, SnpPositionIndex)}
+     * replaced. It expects the start indices and the end indices to be unique
+     */
+    private List<BasePairInterval> toOrderedPhysicalIntervalsWithMaps(
+            List<IndexedSnpInterval> indexedSnpIntervals,
+            SnpPositionInputStream positionInputStream) throws IOException
+    {
+        int chromosomeNumber = positionInputStream.getChromosomeNumber();
+    
+        int intervalCount = indexedSnpIntervals.size();
+        List<BasePairInterval> physicalIntervals = new ArrayList<BasePairInterval>(
+                intervalCount);
+        if(intervalCount >= 1)
+        {
+            // initialize the position & index maps
+            Map<Integer, Long> startIndexToStartPositionMap =
+                new HashMap<Integer, Long>();
+            Map<Integer, Integer> endIndexToStartIndexMap =
+                new HashMap<Integer, Integer>();
+    
+            // for each indexed interval
+            int positionStreamIndex = -1;
+            long currPosition = -1;
+            for(IndexedSnpInterval indexedInterval: indexedSnpIntervals)
+            {
+                int currStartIndex = indexedInterval.getStartIndex();
+                Assert.assertNull(startIndexToStartPositionMap.get(currStartIndex));
+                Assert.assertNull(endIndexToStartIndexMap.get(indexedInterval.getEndIndex()));
+    
+                // move the position stream up to the same mark as the
+                // starting index
+                while(positionStreamIndex < currStartIndex)
+                {
+                    currPosition =
+                        positionInputStream.getNextSnpPositionInBasePairs();
+                    positionStreamIndex++;
+    
+                    // does currPosition belong to one of our ending indices?
+                    Integer matchingStartIndex = endIndexToStartIndexMap.remove(
+                            positionStreamIndex);
+                    if(matchingStartIndex != null)
+                    {
+                        long matchingStartPosition =
+                            startIndexToStartPositionMap.remove(matchingStartIndex);
+                        physicalIntervals.add(new SimpleBasePairInterval(
+                                chromosomeNumber,
+                                matchingStartPosition,
+                                1L + currPosition - matchingStartPosition));
+                    }
+                }
+    
+                if(indexedInterval.getExtentInIndices() == 1)
+                {
+                    physicalIntervals.add(new SimpleBasePairInterval(
+                            chromosomeNumber,
+                            currPosition,
+                            1));
+                }
+                else
+                {
+                    startIndexToStartPositionMap.put(currStartIndex, currPosition);
+                    endIndexToStartIndexMap.put(
+                            indexedInterval.getEndIndex(),
+                            currStartIndex);
+                }
+            }
+    
+            // now handle the cleanup
+            while(!endIndexToStartIndexMap.isEmpty())
+            {
+                currPosition =
+                    positionInputStream.getNextSnpPositionInBasePairs();
+                positionStreamIndex++;
+    
+                Integer matchingStartIndex = endIndexToStartIndexMap.remove(
+                        positionStreamIndex);
+                if(matchingStartIndex != null)
+                {
+                    long matchingStartPosition =
+                        startIndexToStartPositionMap.remove(matchingStartIndex);
+                    physicalIntervals.add(new SimpleBasePairInterval(
+                            chromosomeNumber,
+                            matchingStartPosition,
+                            1L + currPosition - matchingStartPosition));
+                }
+            }
+        }
+    
+        // the intervals are ordered by ending index. we like them to
+        // be ordered by starting index
+        Collections.sort(physicalIntervals);
+        return physicalIntervals;
+    }
+    
+    private static final String CHECKPOINT_SCAN_KEY = "max-k-scan-test";
+    
+    /**
+     * An in-memory SDP stream
+     */
+    private static class ListSdpInputStream implements SdpInputStream
+    {
+        private final String[] strainNames;
+        
+        private final List<BitSet> sdps;
+        
+        private final StreamDirection readDirection;
+        
+        private int nextIndex = 0;
+        
+        public ListSdpInputStream(
+                String[] strainNames,
+                List<BitSet> sdps,
+                StreamDirection readDirection)
+        {
+            this.strainNames = strainNames;
+            this.sdps = sdps;
+            this.readDirection = readDirection;
+        }
+        
+        public long getSdpCount()
+        {
+            return this.sdps.size();
+        }
+        
+        public BitSet getNextSdp()
+        {
+            BitSet sdp = (BitSet)this.sdps.get(this.nextIndex).clone();
+            this.nextIndex++;
+            return sdp;
+        }
+        
+        public boolean hasNextSdp()
+        {
+            return this.nextIndex < this.sdps.size();
+        }
+        
+        public String[] getSdpStrainNames()
+        {
+            return this.strainNames;
+        }
+        
+        public StreamDirection getReadDirection()
+        {
+            return this.readDirection;
+        }
+    }
+    
+    /**
+     * An empty SDP stream that either fails right away or blocks until it's
+     * interrupted
+     */
+    private static class TestSdpInputStream implements SdpInputStream
+    {
+        private static final String FAILURE_MESSAGE = "test scan failure";
+        
+        private static final long BLOCK_SECONDS = 10L;
+        
+        private final StreamDirection readDirection;
+        
+        private final boolean fail;
+        
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        
+        public TestSdpInputStream(StreamDirection readDirection, boolean fail)
+        {
+            this.readDirection = readDirection;
+            this.fail = fail;
+        }
+        
+        public long getSdpCount()
+        {
+            return 0L;
+        }
+        
+        public BitSet getNextSdp()
+        {
+            throw new IllegalStateException("the stream is empty");
+        }
+        
+        public boolean hasNextSdp() throws IOException
+        {
+            if(this.fail)
+            {
+                throw new IOException(FAILURE_MESSAGE);
+            }
+            
+            try
+            {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(BLOCK_SECONDS));
+                return false;
+            }
+            catch(InterruptedException ex)
+            {
+                this.interrupted.countDown();
+                throw new InterruptedIOException();
+            }
+        }
+        
+        public String[] getSdpStrainNames()
+        {
+            return new String[] {"A", "B"};
+        }
+        
+        public StreamDirection getReadDirection()
+        {
+            return this.readDirection;
+        }
+    }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.inference;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class LaminarSdpTreeTest
+{
+    private static final int STREAM_COUNT = 200;
+    
+    private static final int STREAM_LENGTH = 2000;
+    
+    @Test
+    public void greedyAddTest()
+    {
+        Random random = new Random(41L);
+        int conflictCount = 0;
+        for(int streamIndex = 0; streamIndex < STREAM_COUNT; streamIndex++)
+        {
+            BitSet[] sdps = this.createRandomSdpStream(random);
+            
+            LaminarSdpTree tree = new LaminarSdpTree();
+            List<BitSet> intervalSdps = new ArrayList<BitSet>();
+            for(int i = 0; i < sdps.length; i++)
+            {
+                boolean expected = this.checkCompatibilityAndAddSdp(
+                        intervalSdps,
+                        sdps[i]);
+                boolean actual = tree.checkCompatibilityAndAdd(
+                        PackedSdp.fromBitSet(sdps[i]));
+                Assert.assertEquals(
+                        "stream " + streamIndex + ", SDP " + i,
+                        expected,
+                        actual);
+                
+                if(!actual)
+                {
+                    // start the next interval from the conflicting SDP just
+                    // like the greedy scan does
+                    conflictCount++;
+                    intervalSdps.clear();
+                    intervalSdps.add(sdps[i]);
+                    tree.clear();
+                    Assert.assertTrue(tree.checkCompatibilityAndAdd(
+                            PackedSdp.fromBitSet(sdps[i])));
+                }
+            }
+        }
+        
+        Assert.assertTrue(conflictCount > 0);
+    }
+    
+    @Test
+    public void uberAddTest()
+    {
+        Random random = new Random(42L);
+        int conflictCount = 0;
+        for(int streamIndex = 0; streamIndex < STREAM_COUNT; streamIndex++)
+        {
+            BitSet[] sdps = this.createRandomSdpStream(random);
+            
+            LaminarSdpTree tree = new LaminarSdpTree();
+            List<SdpIndexPair> intervalSdps = new ArrayList<SdpIndexPair>();
+            for(int i = 0; i < sdps.length; i++)
+            {
+                int expected = this.testCompatibleAndUberAdd(
+                        intervalSdps,
+                        sdps[i],
+                        i);
+                int actual = tree.testCompatibleAndUberAdd(
+                        PackedSdp.fromBitSet(sdps[i]),
+                        i);
+                Assert.assertEquals(
+                        "stream " + streamIndex + ", SDP " + i,
+                        expected,
+                        actual);
+                
+                if(actual >= 0)
+                {
+                    conflictCount++;
+                }
+            }
+        }
+        
+        Assert.assertTrue(conflictCount > 0);
+    }
+    
+    @Test
+    public void emptySdpTest()
+    {
+        LaminarSdpTree tree = new LaminarSdpTree();
+        BitSet sdp = new BitSet();
+        sdp.set(1);
+        sdp.set(2);
+        
+        Assert.assertTrue(tree.checkCompatibilityAndAdd(
+                PackedSdp.fromBitSet(sdp)));
+        Assert.assertTrue(tree.checkCompatibilityAndAdd(
+                PackedSdp.fromBitSet(new BitSet())));
+        Assert.assertEquals(1, tree.size());
+        
+        tree.clear();
+        Assert.assertEquals(-1, tree.testCompatibleAndUberAdd(
+                PackedSdp.fromBitSet(new BitSet()),
+                0));
+        Assert.assertEquals(-1, tree.testCompatibleAndUberAdd(
+                PackedSdp.fromBitSet(sdp),
+                1));
+        Assert.assertEquals(1, tree.size());
+    }
+    
+    /**
+     * Create a stream of minority normalized SDPs. Most SDPs come from a
+     * small pool which slowly changes so that the stream has long compatible
+     * runs, repeats and nested SDPs along with some conflicts.
+     */
+    private BitSet[] createRandomSdpStream(Random random)
+    {
+        int strainCount = 4 + random.nextInt(40);
+        BitSet[] pool = new BitSet[1 + random.nextInt(12)];
+        for(int i = 0; i < pool.length; i++)
+        {
+            pool[i] = this.createRandomSdp(random, strainCount);
+        }
+        
+        BitSet[] sdps = new BitSet[STREAM_LENGTH];
+        for(int i = 0; i < sdps.length; i++)
+        {
+            if(random.nextInt(50) == 0)
+            {
+                pool[random.nextInt(pool.length)] =
+                    this.createRandomSdp(random, strainCount);
+            }
+            
+            if(random.nextInt(20) == 0)
+            {
+                sdps[i] = this.createRandomSdp(random, strainCount);
+            }
+            else
+            {
+                sdps[i] = (BitSet)pool[random.nextInt(pool.length)].clone();
+            }
+        }
+        
+        return sdps;
+    }
+    
+    private BitSet createRandomSdp(Random random, int strainCount)
+    {
+        // stay below half of the strains so that the minority is unambiguous
+        int maxCardinality = (strainCount - 1) / 2;
+        int cardinality = random.nextInt(maxCardinality + 1);
+        BitSet sdp = new BitSet(strainCount);
+        while(sdp.cardinality() < cardinality)
+        {
+            sdp.set(random.nextInt(strainCount));
+        }
+        
+        return sdp;
+    }
+    
+    /**
+     * The list based greedy add that {@link LaminarSdpTree} replaced
+     */
+    private boolean checkCompatibilityAndAddSdp(
+            List<BitSet> intervalSdps,
+            BitSet sdpToAdd)
+    {
+        int intervalSdpCount = intervalSdps.size();
+        for(int i = 0; i < intervalSdpCount; i++)
+        {
+            BitSet currSdp = intervalSdps.get(i);
+            if(sdpToAdd.equals(currSdp))
+            {
+                return true;
+            }
+            else if(!IntervalScanner.areMinorityNormalizedSdpsCompatible(
+                    sdpToAdd,
+                    currSdp))
+            {
+                return false;
+            }
+        }
+        
+        intervalSdps.add(sdpToAdd);
+        return true;
+    }
+    
+    /**
+     * The list based uber add that {@link LaminarSdpTree} replaced
+     */
+    private int testCompatibleAndUberAdd(
+            List<SdpIndexPair> intervalSdps,
+            BitSet sdpToAdd,
+            int sdpIndex)
+    {
+        int intervalSdpCount = intervalSdps.size();
+        for(int i = intervalSdpCount - 1; i >= 0 ; i--)
+        {
+            SdpIndexPair currPair = intervalSdps.get(i);
+            if(sdpToAdd.equals(currPair.sdpBits))
+            {
+                intervalSdps.remove(i);
+                intervalSdps.add(new SdpIndexPair(sdpToAdd, sdpIndex));
+                return -1;
+            }
+            else if(!IntervalScanner.areMinorityNormalizedSdpsCompatible(
+                    sdpToAdd,
+                    currPair.sdpBits))
+            {
+                intervalSdps.subList(0, i + 1).clear();
+                intervalSdps.add(new SdpIndexPair(sdpToAdd, sdpIndex));
+                return currPair.index;
+            }
+        }
+        
+        intervalSdps.add(new SdpIndexPair(sdpToAdd, sdpIndex));
+        return -1;
+    }
+    
+    private static class SdpIndexPair
+    {
+        private final BitSet sdpBits;
+        
+        private final int index;
+        
+        public SdpIndexPair(BitSet sdpBits, int index)
+        {
+            this.sdpBits = sdpBits;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.inference;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class PackedSdpTest
+{
+    /**
+     * Bits on both sides of the word boundaries
+     */
+    @Test
+    public void wordBoundaryTest()
+    {
+        BitSet low = createSdp(0, 63);
+        BitSet high = createSdp(64, 127, 128);
+        BitSet both = createSdp(0, 63, 64, 127, 128);
+        
+        PackedSdp packedLow = PackedSdp.fromBitSet(low);
+        PackedSdp packedHigh = PackedSdp.fromBitSet(high);
+        PackedSdp packedBoth = PackedSdp.fromBitSet(both);
+        Assert.assertEquals(low, packedLow.toBitSet());
+        Assert.assertEquals(high, packedHigh.toBitSet());
+        Assert.assertEquals(both, packedBoth.toBitSet());
+        Assert.assertEquals(5, packedBoth.cardinality());
+        Assert.assertTrue(packedBoth.get(128));
+        Assert.assertFalse(packedBoth.get(129));
+        Assert.assertFalse(packedLow.get(1000));
+        
+        Assert.assertFalse(packedLow.intersects(packedHigh));
+        Assert.assertTrue(packedLow.intersects(packedBoth));
+        Assert.assertTrue(packedHigh.intersects(packedBoth));
+        
+        Assert.assertTrue(packedLow.isSubsetOf(packedBoth));
+        Assert.assertTrue(packedHigh.isSubsetOf(packedBoth));
+        Assert.assertFalse(packedBoth.isSubsetOf(packedLow));
+        Assert.assertFalse(packedBoth.isSubsetOf(packedHigh));
+        
+        // disjoint and nested SDPs are compatible, overlapping ones are not
+        Assert.assertTrue(packedLow.compatibleWith(packedHigh));
+        Assert.assertTrue(packedBoth.compatibleWith(packedHigh));
+        PackedSdp packedOverlap = PackedSdp.fromBitSet(createSdp(63, 64));
+        Assert.assertFalse(packedOverlap.compatibleWith(packedLow));
+        Assert.assertFalse(packedOverlap.compatibleWith(packedHigh));
+        Assert.assertFalse(packedHigh.compatibleWith(packedOverlap));
+        
+        // a subset that differs only in a high word
+        PackedSdp packedHighSubset = PackedSdp.fromBitSet(createSdp(0, 63, 64, 128));
+        Assert.assertTrue(packedHighSubset.isSubsetOf(packedBoth));
+        Assert.assertFalse(packedBoth.isSubsetOf(packedHighSubset));
+        Assert.assertTrue(packedHighSubset.compatibleWith(packedBoth));
+    }
+    
+    /**
+     * Compare the packed operations against the bit set operations that
+     * they replaced, for strain counts on both sides of the word boundaries
+     */
+    @Test
+    public void matchesBitSetTest()
+    {
+        Random random = new Random(43L);
+        for(int strainCount: new int[] {3, 63, 64, 65, 127, 128, 129, 300})
+        {
+            List<BitSet> sdps = createRelatedSdps(random, strainCount, 60);
+            List<PackedSdp> packedSdps = new ArrayList<PackedSdp>(sdps.size());
+            for(BitSet sdp: sdps)
+            {
+                PackedSdp packedSdp = PackedSdp.fromBitSet(sdp);
+                Assert.assertEquals(sdp, packedSdp.toBitSet());
+                Assert.assertEquals(sdp.cardinality(), packedSdp.cardinality());
+                Assert.assertEquals(sdp.isEmpty(), packedSdp.isEmpty());
+                Assert.assertEquals(sdp.hashCode(), packedSdp.hashCode());
+                for(int i = 0; i < strainCount + 70; i++)
+                {
+                    Assert.assertEquals(sdp.get(i), packedSdp.get(i));
+                }
+                packedSdps.add(packedSdp);
+            }
+            
+            for(int i = 0; i < sdps.size(); i++)
+            {
+                BitSet sdp1 = sdps.get(i);
+                PackedSdp packedSdp1 = packedSdps.get(i);
+                for(int j = 0; j < sdps.size(); j++)
+                {
+                    BitSet sdp2 = sdps.get(j);
+                    PackedSdp packedSdp2 = packedSdps.get(j);
+                    
+                    Assert.assertEquals(
+                            sdp1.intersects(sdp2),
+                            packedSdp1.intersects(packedSdp2));
+                    Assert.assertEquals(
+                            isSubset(sdp1, sdp2),
+                            packedSdp1.isSubsetOf(packedSdp2));
+                    Assert.assertEquals(
+                            isCompatible(sdp1, sdp2),
+                            packedSdp1.compatibleWith(packedSdp2));
+                    Assert.assertEquals(
+                            sdp1.equals(sdp2),
+                            packedSdp1.equals(packedSdp2));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Create SDPs that are subsets, supersets or complements of each other
+     * often enough that every operation sees both answers
+     */
+    private static List<BitSet> createRelatedSdps(
+            Random random,
+            int strainCount,
+            int sdpCount)
+    {
+        List<BitSet> sdps = new ArrayList<BitSet>(sdpCount);
+        sdps.add(new BitSet());
+        while(sdps.size() < sdpCount)
+        {
+            BitSet sdp;
+            if(sdps.size() < 4)
+            {
+                sdp = new BitSet();
+                double density = random.nextDouble();
+                for(int i = 0; i < strainCount; i++)
+                {
+                    sdp.set(i, random.nextDouble() < density);
+                }
+            }
+            else
+            {
+                sdp = (BitSet)sdps.get(random.nextInt(sdps.size())).clone();
+                switch(random.nextInt(4))
+                {
+                    case 0:
+                        // a subset
+                        clearRandomBits(random, sdp);
+                        break;
+                    case 1:
+                        // a superset
+                        sdp.set(random.nextInt(strainCount));
+                        break;
+                    case 2:
+                        // a disjoint SDP
+                        sdp.flip(0, strainCount);
+                        clearRandomBits(random, sdp);
+                        break;
+                    default:
+                        // an overlapping SDP
+                        sdp.flip(random.nextInt(strainCount));
+                        sdp.flip(random.nextInt(strainCount));
+                        break;
+                }
+            }
+            sdps.add(sdp);
+        }
+        return sdps;
+    }
+    
+    private static void clearRandomBits(Random random, BitSet sdp)
+    {
+        for(int i = sdp.nextSetBit(0); i >= 0; i = sdp.nextSetBit(i + 1))
+        {
+            if(random.nextInt(3) == 0)
+            {
+                sdp.clear(i);
+            }
+        }
+    }
+    
+    private static boolean isSubset(BitSet sdp1, BitSet sdp2)
+    {
+        BitSet difference = (BitSet)sdp1.clone();
+        difference.andNot(sdp2);
+        return difference.isEmpty();
+    }
+    
+    private static boolean isCompatible(BitSet sdp1, BitSet sdp2)
+    {
+        return !sdp1.intersects(sdp2) ||
+               isSubset(sdp1, sdp2) ||
+               isSubset(sdp2, sdp1);
+    }
+    
+    private static BitSet createSdp(int... strains)
+    {
+        BitSet sdp = new BitSet();
+        for(int strain: strains)
+        {
+            sdp.set(strain);
+        }
+        return sdp;
+    }
+}
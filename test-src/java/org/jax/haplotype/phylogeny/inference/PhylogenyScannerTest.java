@@ -17,12 +17,17 @@
 
 package org.jax.haplotype.phylogeny.inference;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.jax.geneticutil.data.IndexedSnpInterval;
@@ -34,6 +39,7 @@ import org.jax.haplotype.io.ReverseStrainChromosomeSnpInputStream;
 import org.jax.haplotype.io.SdpInputStream;
 import org.jax.haplotype.io.SimpleSdpInputStream;
 import org.jax.haplotype.io.SnpInputStream;
+import org.jax.haplotype.io.StreamDirection;
 import org.jax.haplotype.phylogeny.data.NoValidPhylogenyException;
 import org.jax.haplotype.phylogeny.data.PhylogenyTreeEdge;
 import org.jax.haplotype.phylogeny.data.PhylogenyTreeNode;
@@ -60,6 +66,165 @@ public class PhylogenyScannerTest
         }
     }
 
+    @Test
+    public void batchedInferenceTest() throws IOException, NoValidPhylogenyException
+    {
+        Random random = new Random(47L);
+        String[] strainNames = createStrainNames(12);
+        List<BitSet> sdps = createRandomSdps(random, strainNames.length, 4000);
+        List<IndexedSnpInterval> intervals = this.createMaxKIntervals(
+                strainNames,
+                sdps);
+        Assert.assertTrue(intervals.size() > 2 * PhylogenyScanner.DEFAULT_BATCH_SIZE);
+        
+        PhylogenyScanner phylogenyScanner = new PhylogenyScanner();
+        File sequentialFile = createCheckpointFile();
+        ScanCheckpoint sequentialCheckpoint =
+            new ScanCheckpoint(sequentialFile, CHECKPOINT_SCAN_KEY);
+        List<PhylogenyTreeNode> sequentialPhylogenies =
+            phylogenyScanner.inferPerfectPhylogenies(
+                    new ListSdpInputStream(strainNames, sdps, -1),
+                    intervals,
+                    sequentialCheckpoint,
+                    CHECKPOINT_PERIOD,
+                    null,
+                    0);
+        sequentialCheckpoint.close();
+        Assert.assertEquals(intervals.size(), sequentialPhylogenies.size());
+        List<List<PhylogenyTreeNode>> sequentialChunks =
+            readPhylogenyChunks(sequentialFile);
+        Assert.assertTrue(sequentialChunks.size() > 1);
+        
+        int[] batchSizes = new int[] {
+                1,
+                PhylogenyScanner.DEFAULT_BATCH_SIZE,
+                intervals.size() + 1};
+        for(int batchSize: batchSizes)
+        {
+            File batchedFile = createCheckpointFile();
+            ScanCheckpoint batchedCheckpoint =
+                new ScanCheckpoint(batchedFile, CHECKPOINT_SCAN_KEY);
+            List<PhylogenyTreeNode> batchedPhylogenies =
+                phylogenyScanner.inferPerfectPhylogenies(
+                        new ListSdpInputStream(strainNames, sdps, -1),
+                        intervals,
+                        batchedCheckpoint,
+                        CHECKPOINT_PERIOD,
+                        null,
+                        batchSize);
+            batchedCheckpoint.close();
+            
+            assertSamePhylogenies(sequentialPhylogenies, batchedPhylogenies);
+            List<List<PhylogenyTreeNode>> batchedChunks =
+                readPhylogenyChunks(batchedFile);
+            Assert.assertEquals(sequentialChunks.size(), batchedChunks.size());
+            for(int i = 0; i < sequentialChunks.size(); i++)
+            {
+                assertSamePhylogenies(sequentialChunks.get(i), batchedChunks.get(i));
+            }
+            
+            Assert.assertTrue(batchedFile.delete());
+        }
+        
+        Assert.assertTrue(sequentialFile.delete());
+    }
+    
+    @Test
+    public void resumeBatchedInferenceTest() throws IOException, NoValidPhylogenyException
+    {
+        Random random = new Random(4747L);
+        String[] strainNames = createStrainNames(9);
+        List<BitSet> sdps = createRandomSdps(random, strainNames.length, 3000);
+        List<IndexedSnpInterval> intervals = this.createMaxKIntervals(
+                strainNames,
+                sdps);
+        
+        PhylogenyScanner phylogenyScanner = new PhylogenyScanner();
+        File uninterruptedFile = createCheckpointFile();
+        ScanCheckpoint uninterruptedCheckpoint =
+            new ScanCheckpoint(uninterruptedFile, CHECKPOINT_SCAN_KEY);
+        List<PhylogenyTreeNode> uninterruptedPhylogenies =
+            phylogenyScanner.inferPerfectPhylogenies(
+                    new ListSdpInputStream(strainNames, sdps, -1),
+                    intervals,
+                    uninterruptedCheckpoint,
+                    CHECKPOINT_PERIOD,
+                    null,
+                    0);
+        uninterruptedCheckpoint.close();
+        List<List<PhylogenyTreeNode>> uninterruptedChunks =
+            readPhylogenyChunks(uninterruptedFile);
+        
+        int[] batchSizes = new int[] {
+                0,
+                1,
+                PhylogenyScanner.DEFAULT_BATCH_SIZE,
+                intervals.size() + 1};
+        for(int failingBatchSize: batchSizes)
+        {
+            for(int resumingBatchSize: batchSizes)
+            {
+                // fail part way through the stream
+                File checkpointFile = createCheckpointFile();
+                ScanCheckpoint checkpoint =
+                    new ScanCheckpoint(checkpointFile, CHECKPOINT_SCAN_KEY);
+                try
+                {
+                    phylogenyScanner.inferPerfectPhylogenies(
+                            new ListSdpInputStream(strainNames, sdps, sdps.size() / 2),
+                            intervals,
+                            checkpoint,
+                            CHECKPOINT_PERIOD,
+                            null,
+                            failingBatchSize);
+                    Assert.fail("the stream failure should be thrown");
+                }
+                catch(IOException ex)
+                {
+                    Assert.assertEquals(ListSdpInputStream.FAILURE_MESSAGE, ex.getMessage());
+                }
+                checkpoint.close();
+                
+                // big batches read ahead of the batches that they collect so
+                // they may fail before anything is checkpointed
+                int interruptedChunkCount = readPhylogenyChunks(checkpointFile).size();
+                if(failingBatchSize <= 1)
+                {
+                    Assert.assertTrue(interruptedChunkCount > 0);
+                }
+                Assert.assertTrue(interruptedChunkCount < uninterruptedChunks.size());
+                
+                // resume and make sure we end up where an uninterrupted
+                // scan would have
+                checkpoint = new ScanCheckpoint(checkpointFile, CHECKPOINT_SCAN_KEY);
+                List<PhylogenyTreeNode> resumedPhylogenies =
+                    phylogenyScanner.inferPerfectPhylogenies(
+                            new ListSdpInputStream(strainNames, sdps, -1),
+                            intervals,
+                            checkpoint,
+                            CHECKPOINT_PERIOD,
+                            null,
+                            resumingBatchSize);
+                checkpoint.close();
+                
+                assertSamePhylogenies(uninterruptedPhylogenies, resumedPhylogenies);
+                List<List<PhylogenyTreeNode>> resumedChunks =
+                    readPhylogenyChunks(checkpointFile);
+                Assert.assertEquals(uninterruptedChunks.size(), resumedChunks.size());
+                for(int i = 0; i < uninterruptedChunks.size(); i++)
+                {
+                    assertSamePhylogenies(
+                            uninterruptedChunks.get(i),
+                            resumedChunks.get(i));
+                }
+                
+                Assert.assertTrue(checkpointFile.delete());
+            }
+        }
+        
+        Assert.assertTrue(uninterruptedFile.delete());
+    }
+    
     private void phylogenyScanTest(String genotypeResource) throws IOException, NoValidPhylogenyException
     {
         // initialization
@@ -437,4 +602,237 @@ public class PhylogenyScannerTest
             return sdpBits;
         }
     }
+    
+    private static final String CHECKPOINT_SCAN_KEY = "batched-inference-test";
+    
+    private static final int CHECKPOINT_PERIOD = 7;
+    
+    private List<IndexedSnpInterval> createMaxKIntervals(
+            String[] strainNames,
+            List<BitSet> sdps) throws IOException
+    {
+        List<BitSet> reverseSdps = new ArrayList<BitSet>(sdps);
+        Collections.reverse(reverseSdps);
+        return new IntervalScanner().maxKScan(
+                new ListSdpInputStream(strainNames, sdps, -1),
+                new ListSdpInputStream(
+                        strainNames,
+                        reverseSdps,
+                        StreamDirection.REVERSE,
+                        -1),
+                new ListSdpInputStream(strainNames, sdps, -1));
+    }
+    
+    private static String[] createStrainNames(int strainCount)
+    {
+        String[] strainNames = new String[strainCount];
+        for(int i = 0; i < strainCount; i++)
+        {
+            strainNames[i] = "strain" + i;
+        }
+        
+        return strainNames;
+    }
+    
+    /**
+     * Create random SDPs in blocks. Each block draws its SDPs from a random
+     * laminar family (flipping some of them) so the blocks are compatible
+     * regions with interesting phylogenies
+     */
+    private static List<BitSet> createRandomSdps(
+            Random random,
+            int strainCount,
+            int sdpCount)
+    {
+        List<BitSet> sdps = new ArrayList<BitSet>(sdpCount);
+        while(sdps.size() < sdpCount)
+        {
+            List<Integer> allStrains = new ArrayList<Integer>();
+            for(int i = 0; i < strainCount; i++)
+            {
+                allStrains.add(Integer.valueOf(i));
+            }
+            List<BitSet> family = new ArrayList<BitSet>();
+            addRandomSplits(random, allStrains, strainCount, family);
+            
+            int blockSize = 1 + random.nextInt(30);
+            for(int i = 0; i < blockSize && sdps.size() < sdpCount; i++)
+            {
+                BitSet sdp = (BitSet)family.get(random.nextInt(family.size())).clone();
+                if(random.nextBoolean())
+                {
+                    sdp.flip(0, strainCount);
+                }
+                sdps.add(sdp);
+            }
+        }
+        
+        return sdps;
+    }
+    
+    private static void addRandomSplits(
+            Random random,
+            List<Integer> strains,
+            int strainCount,
+            List<BitSet> family)
+    {
+        if(strains.size() >= 2)
+        {
+            Collections.shuffle(strains, random);
+            int splitIndex = 1 + random.nextInt(strains.size() - 1);
+            List<Integer> left = new ArrayList<Integer>(strains.subList(0, splitIndex));
+            List<Integer> right = new ArrayList<Integer>(strains.subList(splitIndex, strains.size()));
+            if(strains.size() < strainCount)
+            {
+                BitSet sdp = new BitSet(strainCount);
+                for(Integer strain: strains)
+                {
+                    sdp.set(strain.intValue());
+                }
+                family.add(sdp);
+            }
+            else
+            {
+                // the whole set isn't an SDP but one side of the 1st split is
+                BitSet sdp = new BitSet(strainCount);
+                for(Integer strain: left)
+                {
+                    sdp.set(strain.intValue());
+                }
+                family.add(sdp);
+            }
+            addRandomSplits(random, left, strainCount, family);
+            addRandomSplits(random, right, strainCount, family);
+        }
+    }
+    
+    private static File createCheckpointFile() throws IOException
+    {
+        File checkpointFile = File.createTempFile("phylogeny-scanner-test", ".ckpt");
+        checkpointFile.deleteOnExit();
+        Assert.assertTrue(checkpointFile.delete());
+        return checkpointFile;
+    }
+    
+    private static List<List<PhylogenyTreeNode>> readPhylogenyChunks(File checkpointFile)
+            throws IOException
+    {
+        ScanCheckpoint checkpoint =
+            new ScanCheckpoint(checkpointFile, CHECKPOINT_SCAN_KEY);
+        List<List<PhylogenyTreeNode>> chunks = new ArrayList<List<PhylogenyTreeNode>>();
+        List<PhylogenyTreeNode> chunk;
+        while((chunk = (List<PhylogenyTreeNode>)checkpoint.getValue(
+                "phylogenies-" + chunks.size())) != null)
+        {
+            chunks.add(chunk);
+        }
+        checkpoint.close();
+        
+        return chunks;
+    }
+    
+    /**
+     * Check that the phylogenies match right down to their serialized form
+     */
+    private static void assertSamePhylogenies(
+            List<PhylogenyTreeNode> expected,
+            List<PhylogenyTreeNode> actual) throws IOException
+    {
+        Assert.assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++)
+        {
+            Assert.assertTrue(Arrays.equals(
+                    serialize(expected.get(i)),
+                    serialize(actual.get(i))));
+        }
+    }
+    
+    private static byte[] serialize(PhylogenyTreeNode phylogeny) throws IOException
+    {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(bytesOut);
+        objectOut.writeObject(phylogeny);
+        objectOut.close();
+        return bytesOut.toByteArray();
+    }
+    
+    /**
+     * An in-memory SDP stream which can fail part way through
+     */
+    private static class ListSdpInputStream implements SdpInputStream
+    {
+        private static final String FAILURE_MESSAGE = "test stream failure";
+        
+        private final String[] strainNames;
+        
+        private final List<BitSet> sdps;
+        
+        private final StreamDirection readDirection;
+        
+        private final int failureIndex;
+        
+        private int nextIndex = 0;
+        
+        /**
+         * Constructor
+         * @param strainNames
+         *          the strain names
+         * @param sdps
+         *          the SDPs in read order
+         * @param failureIndex
+         *          the index of the SDP read that fails or -1 to never fail
+         */
+        public ListSdpInputStream(
+                String[] strainNames,
+                List<BitSet> sdps,
+                int failureIndex)
+        {
+            this(strainNames, sdps, StreamDirection.FORWARD, failureIndex);
+        }
+        
+        public ListSdpInputStream(
+                String[] strainNames,
+                List<BitSet> sdps,
+                StreamDirection readDirection,
+                int failureIndex)
+        {
+            this.strainNames = strainNames;
+            this.sdps = sdps;
+            this.readDirection = readDirection;
+            this.failureIndex = failureIndex;
+        }
+        
+        public long getSdpCount()
+        {
+            return this.sdps.size();
+        }
+        
+        public BitSet getNextSdp() throws IOException
+        {
+            if(this.nextIndex == this.failureIndex)
+            {
+                throw new IOException(FAILURE_MESSAGE);
+            }
+            
+            // the normalizing streams flip their SDPs in place
+            BitSet sdp = (BitSet)this.sdps.get(this.nextIndex).clone();
+            this.nextIndex++;
+            return sdp;
+        }
+        
+        public boolean hasNextSdp()
+        {
+            return this.nextIndex < this.sdps.size();
+        }
+        
+        public String[] getSdpStrainNames()
+        {
+            return this.strainNames;
+        }
+        
+        public StreamDirection getReadDirection()
+        {
+            return this.readDirection;
+        }
+    }
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2010 The Jackson Laboratory
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.haplotype.phylogeny.inference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+@SuppressWarnings("all")
+public class ScanCheckpointTest
+{
+    private static final String SCAN_KEY = "test-scan";
+    
+    @Test
+    public void resumeTest() throws IOException
+    {
+        File checkpointFile = this.createCheckpointFile();
+        
+        ScanCheckpoint checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        checkpoint.putValue("a", Integer.valueOf(1));
+        checkpoint.putValue("b", "two");
+        checkpoint.close();
+        
+        checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        Assert.assertEquals(Integer.valueOf(1), checkpoint.getValue("a"));
+        Assert.assertEquals("two", checkpoint.getValue("b"));
+        checkpoint.delete();
+        Assert.assertFalse(checkpointFile.exists());
+    }
+    
+    @Test
+    public void lockedResumeTest() throws IOException
+    {
+        File checkpointFile = this.createCheckpointFile();
+        File lockFile = new File(checkpointFile.getPath() + ".lock");
+        lockFile.deleteOnExit();
+        
+        ScanCheckpoint checkpoint = ScanCheckpoint.tryOpenLocked(checkpointFile, SCAN_KEY);
+        Assert.assertNotNull(checkpoint);
+        Assert.assertTrue(lockFile.exists());
+        checkpoint.putValue("a", Integer.valueOf(1));
+        checkpoint.close();
+        
+        // closing releases the lock
+        checkpoint = ScanCheckpoint.tryOpenLocked(checkpointFile, SCAN_KEY);
+        Assert.assertNotNull(checkpoint);
+        Assert.assertEquals(Integer.valueOf(1), checkpoint.getValue("a"));
+        checkpoint.delete();
+        Assert.assertFalse(checkpointFile.exists());
+        
+        // and so does deleting
+        checkpoint = ScanCheckpoint.tryOpenLocked(checkpointFile, SCAN_KEY);
+        Assert.assertNotNull(checkpoint);
+        Assert.assertNull(checkpoint.getValue("a"));
+        checkpoint.delete();
+        Assert.assertTrue(lockFile.delete());
+    }
+    
+    @Test
+    public void differentScanKeyTest() throws IOException
+    {
+        File checkpointFile = this.createCheckpointFile();
+        
+        ScanCheckpoint checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        checkpoint.putValue("a", Integer.valueOf(1));
+        checkpoint.close();
+        
+        checkpoint = new ScanCheckpoint(checkpointFile, "other-scan");
+        Assert.assertNull(checkpoint.getValue("a"));
+        checkpoint.putValue("a", Integer.valueOf(2));
+        checkpoint.close();
+        
+        checkpoint = new ScanCheckpoint(checkpointFile, "other-scan");
+        Assert.assertEquals(Integer.valueOf(2), checkpoint.getValue("a"));
+        checkpoint.delete();
+    }
+    
+    @Test
+    public void partialRecordTest() throws IOException
+    {
+        File checkpointFile = this.createCheckpointFile();
+        
+        ScanCheckpoint checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        checkpoint.putValue("a", Integer.valueOf(1));
+        long firstRecordEnd = checkpointFile.length();
+        checkpoint.putValue("b", "two");
+        checkpoint.close();
+        
+        // simulate a crash in the middle of writing the last record
+        this.setFileLength(checkpointFile, checkpointFile.length() - 3L);
+        
+        checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        Assert.assertEquals(Integer.valueOf(1), checkpoint.getValue("a"));
+        Assert.assertNull(checkpoint.getValue("b"));
+        Assert.assertEquals(firstRecordEnd, checkpointFile.length());
+        checkpoint.delete();
+    }
+    
+    @Test
+    public void corruptRecordTest() throws IOException
+    {
+        File checkpointFile = this.createCheckpointFile();
+        
+        ScanCheckpoint checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        checkpoint.putValue("a", Integer.valueOf(1));
+        long firstRecordEnd = checkpointFile.length();
+        checkpoint.putValue("b", "two");
+        checkpoint.putValue("c", Integer.valueOf(3));
+        checkpoint.close();
+        
+        // overwrite the stream header of the 2nd value. the 2 byte name
+        // length, the 1 byte name and the 4 byte value length come first
+        this.overwriteBytes(
+                checkpointFile,
+                firstRecordEnd + 2L + 1L + 4L,
+                new byte[] {0, 0});
+        
+        // the corrupt record and everything after it is dropped
+        checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        Assert.assertEquals(Integer.valueOf(1), checkpoint.getValue("a"));
+        Assert.assertNull(checkpoint.getValue("b"));
+        Assert.assertNull(checkpoint.getValue("c"));
+        Assert.assertEquals(firstRecordEnd, checkpointFile.length());
+        
+        // new records append cleanly after the last good record
+        checkpoint.putValue("b", "two again");
+        checkpoint.close();
+        
+        checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        Assert.assertEquals(Integer.valueOf(1), checkpoint.getValue("a"));
+        Assert.assertEquals("two again", checkpoint.getValue("b"));
+        checkpoint.delete();
+    }
+    
+    @Test
+    public void unknownClassTest() throws IOException
+    {
+        File checkpointFile = this.createCheckpointFile();
+        
+        ScanCheckpoint checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        checkpoint.putValue("a", "one");
+        long firstRecordEnd = checkpointFile.length();
+        checkpoint.putValue("b", Integer.valueOf(2));
+        checkpoint.close();
+        
+        // rename the class of the 2nd value to one that doesn't exist
+        byte[] fileBytes = this.readBytes(checkpointFile);
+        String fileString = new String(fileBytes, "ISO-8859-1");
+        int classNameIndex = fileString.indexOf("java.lang.Integer");
+        Assert.assertTrue(classNameIndex > 0);
+        this.overwriteBytes(
+                checkpointFile,
+                classNameIndex,
+                "java.lang.Intxger".getBytes("ISO-8859-1"));
+        
+        checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        Assert.assertEquals("one", checkpoint.getValue("a"));
+        Assert.assertNull(checkpoint.getValue("b"));
+        Assert.assertEquals(firstRecordEnd, checkpointFile.length());
+        checkpoint.delete();
+    }
+    
+    @Test
+    public void corruptScanKeyTest() throws IOException
+    {
+        File checkpointFile = this.createCheckpointFile();
+        
+        ScanCheckpoint checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        checkpoint.putValue("a", Integer.valueOf(1));
+        checkpoint.close();
+        
+        // 0xFF is never valid in modified UTF-8
+        this.overwriteBytes(checkpointFile, 2L, new byte[] {(byte)0xFF});
+        
+        checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        Assert.assertNull(checkpoint.getValue("a"));
+        Assert.assertEquals(0L, checkpointFile.length());
+        
+        checkpoint.putValue("a", Integer.valueOf(2));
+        checkpoint.close();
+        checkpoint = new ScanCheckpoint(checkpointFile, SCAN_KEY);
+        Assert.assertEquals(Integer.valueOf(2), checkpoint.getValue("a"));
+        checkpoint.delete();
+    }
+    
+    private File createCheckpointFile() throws IOException
+    {
+        File checkpointFile = File.createTempFile("scan-checkpoint-test", ".ckpt");
+        checkpointFile.deleteOnExit();
+        Assert.assertTrue(checkpointFile.delete());
+        return checkpointFile;
+    }
+    
+    private byte[] readBytes(File file) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            byte[] fileBytes = new byte[(int)randomAccessFile.length()];
+            randomAccessFile.readFully(fileBytes);
+            return fileBytes;
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+    
+    private void overwriteBytes(File file, long offset, byte[] bytes) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try
+        {
+            randomAccessFile.seek(offset);
+            randomAccessFile.write(bytes);
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+    
+    private void setFileLength(File file, long length) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try
+        {
+            randomAccessFile.setLength(length);
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+}